@@ -0,0 +1,40 @@
+package com.rolls.crawler;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the JMH benchmarks with the GC profiler, so every result has the allocation
+ * rate next to the time.  Takes the usual JMH command line options, such as a regular
+ * expression of the benchmarks to run.
+ */
+public class BenchmarkRunner
+{
+   /**
+    * Program entry.
+    * @param args JMH command line options.
+    * @throws Exception If the options are invalid or a benchmark fails.
+    */
+   public static void main(String[] args) throws Exception
+   {
+      CommandLineOptions commandLine = new CommandLineOptions(args);
+      if (commandLine.shouldHelp())
+      {
+         commandLine.showHelp();
+         return;
+      }
+
+      Options options = new OptionsBuilder()
+            .parent(commandLine)
+            .addProfiler(GCProfiler.class)
+            .build();
+      Runner runner = new Runner(options);
+      if (commandLine.shouldList())
+         runner.list();
+      else
+         runner.run();
+   }
+}
@@ -0,0 +1,58 @@
+package com.rolls.crawler.crawl;
+
+import java.net.MalformedURLException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import com.rolls.crawler.test.SyntheticParser;
+
+/**
+ * Whole crawls of a synthetic site, to see how the crawler core scales with threads
+ * as the latency of the site and the number of links on each page change.  With no
+ * latency and many threads, the run time is mostly contention on link admission.
+ * Each operation crawls every page of the site once.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CrawlerBenchmark
+{
+   @Param({"2000"})
+   public int pageCount;
+
+   @Param({"10", "50"})
+   public int fanOut;
+
+   @Param({"0", "1000"})
+   public long latencyMicros;
+
+   @Param({"1", "4", "16", "64"})
+   public int numThreads;
+
+   @Benchmark
+   public long crawl() throws MalformedURLException
+   {
+      CrawlSettings settings = new CrawlSettings();
+      settings.setNumThreads(numThreads);
+
+      CrawlerImpl crawler = new CrawlerImpl(settings, new SyntheticParser(pageCount, fanOut, latencyMicros));
+      crawler.start(SyntheticParser.baseUrl);
+      if (!crawler.await(1, TimeUnit.MINUTES))
+      {
+         crawler.cancel();
+         throw new IllegalStateException("Crawl did not complete in time.");
+      }
+      return crawler.getMetrics().getPagesCrawled();
+   }
+}
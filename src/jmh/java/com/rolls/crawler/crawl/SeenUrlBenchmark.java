@@ -0,0 +1,58 @@
+package com.rolls.crawler.crawl;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The seen URL set every link found is added to, with each way of storing it.  Each
+ * operation adds the same links as UrlBenchmark checks to a new set.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SeenUrlBenchmark
+{
+   @Param({"STRING", "FINGERPRINT", "BLOOM"})
+   public SeenUrlStore seenUrlStore;
+
+   private String[] urls;
+
+   @Setup
+   public void setUp()
+   {
+      urls = UrlBenchmark.createLinks();
+   }
+
+   @Benchmark
+   public int dedup()
+   {
+      SeenUrlSet seen = createSeenUrlSet();
+      int added = 0;
+      for (String url : urls)
+         added += (seen.add(url) ? 1 : 0);
+      return added;
+   }
+
+   private SeenUrlSet createSeenUrlSet()
+   {
+      if (seenUrlStore == SeenUrlStore.FINGERPRINT)
+         return new FingerprintSeenUrlSet(UrlBenchmark.URL_COUNT);
+      else if (seenUrlStore == SeenUrlStore.BLOOM)
+         return new BloomSeenUrlSet(UrlBenchmark.URL_COUNT, 0.000001);
+      else
+         return new StringSeenUrlSet();
+   }
+}
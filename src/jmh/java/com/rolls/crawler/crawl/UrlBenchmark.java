@@ -0,0 +1,160 @@
+package com.rolls.crawler.crawl;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The checks every link found goes through, other than the seen URL set, which is
+ * timed by SeenUrlBenchmark: the crawl scope and the URL normalizer.  Each operation
+ * checks URL_COUNT links, half of which were found before, as on a site whose pages
+ * share their navigation.  The normalizer is also timed on links that are mostly
+ * normal already, as on real sites, with every rule and with only the trailing
+ * slash rule.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UrlBenchmark
+{
+   /**
+    * Number of links checked by each operation.
+    */
+   final static int URL_COUNT = 10000;
+
+   private final static int CHANGED_PERCENT = 10;
+
+   private String[] urls;
+   private String[] mostlyNormalUrls;
+   private CrawlScope scope;
+   private UrlNormalizer normalizer;
+   private UrlNormalizer trailingSlashNormalizer;
+
+   @Setup
+   public void setUp()
+   {
+      urls = createLinks();
+      scope = new CrawlScope(Arrays.asList("http", "https"), Collections.singletonList("*.site.org"),
+            Collections.singletonList("/"), Collections.singletonList("/admin"));
+      normalizer = new UrlNormalizer(UrlNormalizer.DEFAULT_RULES);
+      trailingSlashNormalizer = new UrlNormalizer(EnumSet.of(UrlRule.REMOVE_TRAILING_SLASH));
+      mostlyNormalUrls = createMostlyNormalUrls();
+   }
+
+   @Benchmark
+   public int scope()
+   {
+      int matches = 0;
+      for (String url : urls)
+         matches += (scope.contains(url) ? 1 : 0);
+      return matches;
+   }
+
+   @Benchmark
+   public int normalize()
+   {
+      int length = 0;
+      for (String url : urls)
+         length += normalizer.normalize(url).length();
+      return length;
+   }
+
+   @Benchmark
+   public int normalizeMostlyNormal()
+   {
+      int length = 0;
+      for (String url : mostlyNormalUrls)
+         length += normalizer.normalize(url).length();
+      return length;
+   }
+
+   @Benchmark
+   public int normalizeTrailingSlash()
+   {
+      int length = 0;
+      for (String url : mostlyNormalUrls)
+         length += trailingSlashNormalizer.normalize(url).length();
+      return length;
+   }
+
+   /**
+    * Creates URL_COUNT links, half of which are found twice, and a quarter of which
+    * are on another site.
+    * @return Links.
+    */
+   static String[] createLinks()
+   {
+      String[] links = new String[URL_COUNT];
+      for (int i = 0; i < URL_COUNT; ++i)
+      {
+         int page = i / 2;
+         links[i] = (page % 4 == 0 ? "https://www.other.org/page/" : "http://www.site.org/docs/page/") + page +
+               ".html?Session=" + (i % 2) + "#top";
+      }
+      return links;
+   }
+
+   /**
+    * Creates links that are normal already, but for CHANGED_PERCENT of them that each
+    * have one of the differences the normalizer removes.
+    * @return Links.
+    */
+   private static String[] createMostlyNormalUrls()
+   {
+      Random random = new Random(42);
+      String[] links = new String[URL_COUNT];
+      for (int i = 0; i < URL_COUNT; ++i)
+      {
+         String host = "http://www.site.org";
+         String path = "/section/" + (i % 100) + "/page/" + i + ".html";
+         String query = "?id=" + i + "&view=full";
+         String fragment = "";
+         if (random.nextInt(100) < CHANGED_PERCENT)
+         {
+            switch (random.nextInt(6))
+            {
+               case 0:
+                  fragment = "#top";
+                  break;
+
+               case 1:
+                  host = "http://www.site.org:80";
+                  break;
+
+               case 2:
+                  path = "/section/./x/../" + (i % 100) + "/page/" + i + ".html";
+                  break;
+
+               case 3:
+                  path = "/section/" + (i % 100) + "/%7epage/" + i + ".html";
+                  break;
+
+               case 4:
+                  query = "?view=full&id=" + i;
+                  break;
+
+               default:
+                  path += "/";
+                  break;
+            }
+         }
+         links[i] = host + path + query + fragment;
+      }
+      return links;
+   }
+}
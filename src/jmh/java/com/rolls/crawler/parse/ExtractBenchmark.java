@@ -0,0 +1,73 @@
+package com.rolls.crawler.parse;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Extraction of the saved pages in the test corpus, with the Jsoup document and
+ * with the streaming link tokenizer.  Each operation extracts every page once.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExtractBenchmark
+{
+   private final static String LOCATION = "http://www.notrealsite.org/site/page.html";
+
+   @Param({"false", "true"})
+   public boolean streamingExtract;
+
+   private ParserImpl parser;
+   private List<FetchedPage> pages;
+
+   @Setup
+   public void setUp() throws IOException, URISyntaxException
+   {
+      parser = new ParserImpl(0);
+      parser.setStreamingExtract(streamingExtract);
+
+      List<File> files = new ArrayList<>();
+      files.add(new File(getClass().getClassLoader().getResource("ParserTest.html").toURI()));
+      for (File file : new File(getClass().getClassLoader().getResource("corpus").toURI()).listFiles())
+         files.add(file);
+
+      pages = new ArrayList<>();
+      for (File file : files)
+      {
+         FetchedPage page = new FetchedPage();
+         page.setUrl(LOCATION);
+         page.setLocation(LOCATION);
+         page.setStatusCode(200);
+         page.setContentType("text/html");
+         page.setBody(Files.readAllBytes(file.toPath()));
+         pages.add(page);
+      }
+   }
+
+   @Benchmark
+   public void extract(Blackhole blackhole)
+   {
+      for (FetchedPage page : pages)
+         blackhole.consume(parser.extract(page));
+   }
+}
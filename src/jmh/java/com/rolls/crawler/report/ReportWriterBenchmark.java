@@ -0,0 +1,90 @@
+package com.rolls.crawler.report;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Saving reports of large crawls.  Each operation writes the report to a new file.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ReportWriterBenchmark
+{
+   private final static int INTERNAL_LINKS = 30;
+   private final static int EXTERNAL_LINKS = 5;
+
+   @Param({"1000", "10000"})
+   public int pageCount;
+
+   private ReportDetails reportDetails;
+   private File file;
+
+   @Setup
+   public void setUp()
+   {
+      List<ReportPage> pages = new ArrayList<>();
+      for (int i = 0; i < pageCount; ++i)
+      {
+         ReportPage page = new ReportPage();
+         page.setUrl("http://www.site.org/page/" + i + ".html");
+         page.setTitle("Page " + i);
+         page.setContentHash(String.format("%064x", i));
+
+         List<String> internalLinks = new ArrayList<>();
+         for (int j = 1; j <= INTERNAL_LINKS; ++j)
+            internalLinks.add("http://www.site.org/page/" + ((i + j) % pageCount) + ".html");
+         page.setInternalLinks(internalLinks);
+
+         List<String> externalLinks = new ArrayList<>();
+         for (int j = 0; j < EXTERNAL_LINKS; ++j)
+            externalLinks.add("https://www.other" + j + ".org/");
+         page.setExternalLinks(externalLinks);
+         pages.add(page);
+      }
+
+      reportDetails = new ReportDetails();
+      reportDetails.setStartingUrl("http://www.site.org");
+      reportDetails.setStartTime(new Date());
+      reportDetails.setPages(pages);
+   }
+
+   @Setup(Level.Invocation)
+   public void createFile() throws IOException
+   {
+      file = File.createTempFile("ReportWriterBenchmark", ".txt");
+      file.delete();
+   }
+
+   @TearDown(Level.Invocation)
+   public void deleteFile()
+   {
+      file.delete();
+   }
+
+   @Benchmark
+   public void save()
+   {
+      new ReportWriterImpl(file).save(reportDetails);
+   }
+}
@@ -45,8 +45,16 @@ public class CLIApplication implements CommandLineRunner
 
       @Override
       public void onComplete(int pagesProcessed, boolean cancelled, String reportPath)
+      {
+         onComplete(null, pagesProcessed, cancelled, reportPath);
+      }
+
+      @Override
+      public void onComplete(String startingUrl, int pagesProcessed, boolean cancelled, String reportPath)
       {
          System.out.println();
+         if (startingUrl != null)
+            System.out.println(String.format("Crawled URL: %s", startingUrl));
          System.out.println(String.format("Pages Processed: %d ==> %s", pagesProcessed, (cancelled ? "CANCELLED" : "COMPLETE")));
          System.out.println(String.format("Result stored in %s", reportPath));
       }
@@ -0,0 +1,25 @@
+package com.rolls.crawler.crawl;
+
+/**
+ * What happens when an observer falls behind the crawl.
+ */
+public enum Backpressure
+{
+   /**
+    * The crawl threads wait for the observer, so it gets every page.
+    */
+   BLOCK,
+
+   /**
+    * The crawl goes on, and the pages the observer has not read when the buffer
+    * wraps around are lost.
+    */
+   DROP,
+
+   /**
+    * The crawl goes on, and while the observer is more than half the buffer behind
+    * it gets every other page, so it sees pages from the whole crawl instead of
+    * losing a run of them.  Pages are still lost if the buffer wraps around.
+    */
+   SAMPLE
+}
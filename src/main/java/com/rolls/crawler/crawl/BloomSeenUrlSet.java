@@ -0,0 +1,121 @@
+package com.rolls.crawler.crawl;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Seen URL set backed by a Bloom filter.  The filter uses a fixed number of bits chosen from
+ * the expected number of URLs and the false positive rate.  Adds of the same URL are
+ * serialized by a striped lock so only one of them reports the URL as new, and bits are set
+ * with compare-and-set because URLs of different stripes share words.  A false positive makes
+ * a new URL look seen, so that page is not crawled.  Adding more URLs than expected raises the
+ * false positive rate.
+ */
+public class BloomSeenUrlSet implements SeenUrlSet
+{
+   private final static int LOCK_BITS = 6;
+
+   private final Object[] locks = new Object[1 << LOCK_BITS];
+   private final AtomicLongArray bits;
+   private final long numBits;
+   private final int numHashes;
+   private final AtomicLong size = new AtomicLong();
+
+   /**
+    * Constructs a new Bloom filter set.
+    * @param expectedUrls Number of URLs expected.
+    * @param falsePositiveRate Chance a new URL is reported as seen once the expected URLs are added.
+    */
+   public BloomSeenUrlSet(int expectedUrls, double falsePositiveRate)
+   {
+      if (expectedUrls < 1)
+         throw new IllegalArgumentException("Invalid expected URLs.");
+
+      if (!(falsePositiveRate > 0 && falsePositiveRate < 1))
+         throw new IllegalArgumentException("Invalid false positive rate.");
+
+      double ln2 = Math.log(2);
+      long bitCount = (long)Math.ceil(-expectedUrls * Math.log(falsePositiveRate) / (ln2 * ln2));
+      int words = (int)Math.min((bitCount + 63) >>> 6, Integer.MAX_VALUE - 8);
+
+      this.bits = new AtomicLongArray(Math.max(words, 1));
+      this.numBits = (long)bits.length() << 6;
+      this.numHashes = Math.max(1, (int)Math.round((double)numBits / expectedUrls * ln2));
+
+      for (int i = 0; i < locks.length; ++i)
+         locks[i] = new Object();
+   }
+
+   @Override
+   public boolean add(String url)
+   {
+      long hash1 = UrlFingerprint.of(url);
+      long hash2 = UrlFingerprint.mix(hash1) | 1;
+
+      boolean added = false;
+      synchronized (locks[(int)(hash1 >>> (64 - LOCK_BITS))])
+      {
+         for (int i = 0; i < numHashes; ++i)
+         {
+            long bit = Math.floorMod(hash1 + i * hash2, numBits);
+            int word = (int)(bit >>> 6);
+            long mask = 1L << bit;
+
+            long value = bits.get(word);
+            while ((value & mask) == 0)
+            {
+               if (bits.compareAndSet(word, value, value | mask))
+               {
+                  added = true;
+                  break;
+               }
+               value = bits.get(word);
+            }
+         }
+      }
+
+      if (added)
+         size.incrementAndGet();
+
+      return added;
+   }
+
+   @Override
+   public boolean contains(String url)
+   {
+      long hash1 = UrlFingerprint.of(url);
+      long hash2 = UrlFingerprint.mix(hash1) | 1;
+
+      for (int i = 0; i < numHashes; ++i)
+      {
+         long bit = Math.floorMod(hash1 + i * hash2, numBits);
+         if ((bits.get((int)(bit >>> 6)) & (1L << bit)) == 0)
+            return false;
+      }
+      return true;
+   }
+
+   @Override
+   public long size()
+   {
+      return size.get();
+   }
+
+   /**
+    * Returns the number of bits in the filter.
+    * @return Number of bits.
+    */
+   public long getNumBits()
+   {
+      return numBits;
+   }
+
+   /**
+    * Returns the number of hash functions used per URL.
+    * @return Number of hashes.
+    */
+   public int getNumHashes()
+   {
+      return numHashes;
+   }
+}
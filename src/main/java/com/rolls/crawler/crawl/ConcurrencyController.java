@@ -0,0 +1,332 @@
+package com.rolls.crawler.crawl;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Limits the number of pages crawled at the same time.  Each page holds a slot from
+ * the time its URL is pulled from the frontier until it is done.
+ * <p>
+ * An adaptive limit is tuned while the crawl runs, between a minimum and maximum.
+ * The requests done in each interval are judged together.  If any was throttled,
+ * too many failed, their average latency rose well above the lowest seen, or the
+ * last increase made throughput drop, the limit is cut by DECREASE_FACTOR.  Otherwise
+ * the limit is raised by one if every slot was in a request at once during the
+ * interval, since more slots cannot help a crawl that does not use the ones it has.
+ * Every change is logged at info level and every other decision at debug level.
+ * <p>
+ * A limit whose minimum and maximum are the same is fixed.
+ */
+class ConcurrencyController
+{
+   /**
+    * Share of the requests of an interval that may fail before the limit is cut.
+    */
+   public final static double MAX_ERROR_RATE = 0.2;
+
+   /**
+    * Times the lowest average latency seen that the average latency may reach before the limit is cut.
+    */
+   public final static double LATENCY_TOLERANCE = 2.0;
+
+   /**
+    * Share of the previous throughput that the throughput after an increase must reach.
+    */
+   public final static double THROUGHPUT_TOLERANCE = 0.8;
+
+   /**
+    * Factor the limit is cut by.
+    */
+   public final static double DECREASE_FACTOR = 0.5;
+
+   // The lowest average latency rises by this fraction of the difference each interval,
+   // so it follows a site that slows down for good.
+   private final static int BASELINE_WEIGHT = 8;
+
+   private final static Logger logger = LoggerFactory.getLogger(ConcurrencyController.class);
+
+   private final ReentrantLock lock = new ReentrantLock();
+   private final Condition available = lock.newCondition();
+   private final int minLimit;
+   private final int maxLimit;
+   private final long intervalNanos;
+
+   private int limit;
+   private int active = 0;
+   private int busy = 0;
+   private boolean closed = false;
+
+   private long windowStart = System.nanoTime();
+   private int requests = 0;
+   private int failures = 0;
+   private int throttles = 0;
+   private long latencyNanos = 0;
+   private int peakBusy = 0;
+
+   private long baselineLatencyNanos = 0;
+   private double lastThroughput = 0;
+   private boolean increased = false;
+
+   /**
+    * Constructs a new concurrency controller.
+    * @param minLimit Minimum limit.  Value < 1 defaults to 1.
+    * @param maxLimit Maximum limit.  Value < minLimit defaults to minLimit.
+    * @param initialLimit Starting limit, which is kept between the minimum and maximum.
+    * @param intervalMillis Interval, in milliseconds, between decisions.
+    */
+   public ConcurrencyController(int minLimit, int maxLimit, int initialLimit, long intervalMillis)
+   {
+      this.minLimit = Math.max(minLimit, 1);
+      this.maxLimit = Math.max(maxLimit, this.minLimit);
+      this.limit = Math.min(Math.max(initialLimit, this.minLimit), this.maxLimit);
+      this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(intervalMillis, 1));
+   }
+
+   /**
+    * Takes a slot, waiting until the number of slots taken is below the limit.
+    * @return True if taken or false if the controller is closed.
+    * @throws InterruptedException If interrupted while waiting.
+    */
+   public boolean acquire() throws InterruptedException
+   {
+      lock.lockInterruptibly();
+      try
+      {
+         while (active >= limit && !closed)
+            available.await();
+         if (closed)
+            return false;
+
+         ++active;
+         return true;
+      }
+      finally
+      {
+         lock.unlock();
+      }
+   }
+
+   /**
+    * Takes a slot if the number of slots taken is below the limit, without waiting.
+    * @return True if taken or false if none is free or the controller is closed.
+    */
+   public boolean tryAcquire()
+   {
+      lock.lock();
+      try
+      {
+         if (active >= limit || closed)
+            return false;
+
+         ++active;
+         return true;
+      }
+      finally
+      {
+         lock.unlock();
+      }
+   }
+
+   /**
+    * Gives back a slot.
+    */
+   public void release()
+   {
+      lock.lock();
+      try
+      {
+         --active;
+         if (active < limit)
+            available.signal();
+      }
+      finally
+      {
+         lock.unlock();
+      }
+   }
+
+   /**
+    * Counts a request as started.
+    */
+   public void requestStarted()
+   {
+      lock.lock();
+      try
+      {
+         ++busy;
+         peakBusy = Math.max(peakBusy, busy);
+      }
+      finally
+      {
+         lock.unlock();
+      }
+   }
+
+   /**
+    * Counts a request as done, and decides on the limit once the interval is over.
+    * @param latencyNanos Time, in nanoseconds, the request took.
+    * @param failed True if the page failed to load.
+    * @param throttled True if the server throttled the request.
+    */
+   public void requestDone(long latencyNanos, boolean failed, boolean throttled)
+   {
+      long now = System.nanoTime();
+
+      lock.lock();
+      try
+      {
+         busy = Math.max(busy - 1, 0);
+         ++requests;
+         this.latencyNanos += latencyNanos;
+         if (failed)
+            ++failures;
+         if (throttled)
+            ++throttles;
+
+         if (now - windowStart >= intervalNanos)
+            adjust(now);
+      }
+      finally
+      {
+         lock.unlock();
+      }
+   }
+
+   /**
+    * Decides on the limit from the requests done since the last decision.
+    * @param now Current time, from System.nanoTime().
+    * @return New limit.
+    */
+   int adjust(long now)
+   {
+      lock.lock();
+      try
+      {
+         if (requests == 0 || minLimit == maxLimit)
+         {
+            startWindow(now);
+            return limit;
+         }
+
+         double throughput = requests / (Math.max(now - windowStart, 1) / 1e9);
+         long averageLatency = latencyNanos / requests;
+         double errorRate = (double)failures / requests;
+         boolean saturated = (peakBusy >= limit);
+
+         String reason;
+         int newLimit = limit;
+         if (throttles > 0)
+            reason = "throttled";
+         else if (errorRate > MAX_ERROR_RATE)
+            reason = "errors";
+         else if (baselineLatencyNanos > 0 && averageLatency > baselineLatencyNanos * LATENCY_TOLERANCE)
+            reason = "latency";
+         else if (increased && saturated && throughput < lastThroughput * THROUGHPUT_TOLERANCE)
+            reason = "throughput";
+         else
+            reason = null;
+
+         if (reason != null)
+            newLimit = Math.max((int)(limit * DECREASE_FACTOR), minLimit);
+         else if (saturated)
+         {
+            reason = "healthy";
+            newLimit = Math.min(limit + 1, maxLimit);
+         }
+         else
+            reason = "unsaturated";
+
+         String message = String.format("Concurrency %d -> %d (%s): %.1f pages/s, %d ms average latency, %d failed and %d throttled of %d requests.",
+               limit, newLimit, reason, throughput, TimeUnit.NANOSECONDS.toMillis(averageLatency), failures, throttles, requests);
+         if (newLimit != limit)
+            logger.info(message);
+         else
+            logger.debug(message);
+
+         if (baselineLatencyNanos == 0 || averageLatency < baselineLatencyNanos)
+            baselineLatencyNanos = averageLatency;
+         else
+            baselineLatencyNanos += (averageLatency - baselineLatencyNanos) / BASELINE_WEIGHT;
+
+         increased = (newLimit > limit);
+         lastThroughput = throughput;
+         limit = newLimit;
+         available.signalAll();
+         startWindow(now);
+         return limit;
+      }
+      finally
+      {
+         lock.unlock();
+      }
+   }
+
+   /**
+    * Starts a new interval.  The requests still running count as busy in it.
+    * @param now Current time, from System.nanoTime().
+    */
+   private void startWindow(long now)
+   {
+      windowStart = now;
+      requests = 0;
+      failures = 0;
+      throttles = 0;
+      latencyNanos = 0;
+      peakBusy = busy;
+   }
+
+   /**
+    * Gets the limit.
+    * @return Number of slots that may be taken.
+    */
+   public int getLimit()
+   {
+      lock.lock();
+      try
+      {
+         return limit;
+      }
+      finally
+      {
+         lock.unlock();
+      }
+   }
+
+   /**
+    * Gets the maximum limit.
+    * @return Maximum limit.
+    */
+   public int getMaxLimit()
+   {
+      return maxLimit;
+   }
+
+   /**
+    * Returns if the limit is tuned while the crawl runs.
+    * @return True if adaptive or false if fixed.
+    */
+   public boolean isAdaptive()
+   {
+      return (minLimit < maxLimit);
+   }
+
+   /**
+    * Closes the controller, waking the threads waiting for a slot.
+    */
+   public void close()
+   {
+      lock.lock();
+      try
+      {
+         closed = true;
+         available.signalAll();
+      }
+      finally
+      {
+         lock.unlock();
+      }
+   }
+}
@@ -0,0 +1,475 @@
+package com.rolls.crawler.crawl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Checkpoint of a crawl on disk, so a crawl that is cancelled or cut off can be
+ * resumed by a later run.
+ * <p>
+ * The checkpoint is a journal of the crawled pages, appended to as pages complete
+ * through a buffer that is forced to disk at most once per interval.  The seen URLs
+ * and the frontier are not written separately: every URL a crawl queues is the starting
+ * URL or an internal link of a crawled page, so both are rebuilt from the journal.
+ * A URL is seen if it was crawled or linked, and pending if it was linked but not
+ * crawled.  Pages in flight when the crawl stopped are not in the journal, so they
+ * are crawled again.  A record cut short by a crash is dropped when the journal is
+ * read and overwritten when it is appended to.
+ * <p>
+ * For a recrawl, the journal of the last crawl is kept as the previous crawl before
+ * a new journal is started, so the pages of the two crawls can be compared.
+ */
+class CrawlCheckpoint
+{
+   /**
+    * Name of the checkpoint file in the checkpoint directory.
+    */
+   public final static String FILE_NAME = "crawl.checkpoint";
+
+   /**
+    * Name of the checkpoint file of the previous crawl, kept for a recrawl.
+    */
+   public final static String PREVIOUS_FILE_NAME = "previous.checkpoint";
+
+   /**
+    * Default interval, in milliseconds, between forcing the checkpoint to disk.
+    */
+   public final static long DEFAULT_INTERVAL_MILLIS = 10000;
+
+   private final static Logger logger = LoggerFactory.getLogger(CrawlCheckpoint.class);
+   private final static int FORMAT_VERSION = 3;
+   private final static int MAX_RECORD_BYTES = 64 * 1024 * 1024;
+
+   private final Path file;
+   private final Path previousFile;
+   private final long intervalMillis;
+
+   private FileOutputStream fileOut = null;
+   private DataOutputStream out = null;
+   private long lastForceMillis = 0;
+   private long pagesWritten = 0;
+
+   /**
+    * Constructs a new checkpoint.  Nothing is read or written until the checkpoint is used.
+    * @param checkpointPath Directory of the checkpoint file.  Created if it does not exist.
+    * @param intervalMillis Interval, in milliseconds, between forcing pages to disk.  Value <= 0 means the default.
+    */
+   public CrawlCheckpoint(Path checkpointPath, long intervalMillis)
+   {
+      if (checkpointPath == null)
+         throw new IllegalArgumentException("Null checkpoint path.");
+
+      this.file = checkpointPath.resolve(FILE_NAME);
+      this.previousFile = checkpointPath.resolve(PREVIOUS_FILE_NAME);
+      this.intervalMillis = (intervalMillis > 0 ? intervalMillis : DEFAULT_INTERVAL_MILLIS);
+   }
+
+   /**
+    * Returns the checkpoint file.
+    * @return Checkpoint file path.
+    */
+   public Path getFile()
+   {
+      return file;
+   }
+
+   /**
+    * Returns if a checkpoint has been written.
+    * @return True if the checkpoint file exists.
+    */
+   public boolean exists()
+   {
+      return Files.exists(file);
+   }
+
+   /**
+    * Reads the pages of the checkpoint in the order they were crawled.
+    * @param startingUrl Starting URL of the crawl being resumed.
+    * @param action Action to perform on each page.
+    * @return Number of pages read.
+    * @throws IllegalStateException If the checkpoint is of a crawl with another starting URL.
+    */
+   public long read(String startingUrl, Consumer<CrawlPage> action)
+   {
+      return read(file, startingUrl, action, Long.MAX_VALUE, null);
+   }
+
+   /**
+    * Reads the first pages of the checkpoint in the order they were crawled.  The
+    * checkpoint may be open, since only the pages there before it was opened are read.
+    * @param startingUrl Starting URL of the crawl being resumed.
+    * @param action Action to perform on each page.
+    * @param maxPages Number of pages to read.
+    * @return Number of pages read.
+    * @throws IllegalStateException If the checkpoint is of a crawl with another starting URL.
+    */
+   public long read(String startingUrl, Consumer<CrawlPage> action, long maxPages)
+   {
+      return read(file, startingUrl, action, maxPages, null);
+   }
+
+   /**
+    * Keeps the checkpoint of the last crawl as the previous crawl, replacing the one
+    * before it, so a new crawl can be compared to it.  Must be called before the
+    * checkpoint is opened.  Ignored if there is no checkpoint.
+    */
+   public synchronized void keepAsPrevious()
+   {
+      if (fileOut != null)
+         throw new IllegalStateException("The checkpoint is already open.");
+
+      if (!exists())
+         return;
+
+      try
+      {
+         Files.move(file, previousFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      }
+      catch (IOException ex)
+      {
+         throw new RuntimeException(String.format("Unable to keep checkpoint %s.", file), ex);
+      }
+   }
+
+   /**
+    * Reads the pages of the previous crawl in the order they were crawled.
+    * @param startingUrl Starting URL of the crawl.
+    * @param action Action to perform on each page.
+    * @return Number of pages read or 0 if there is no previous crawl.
+    * @throws IllegalStateException If the previous crawl had another starting URL.
+    */
+   public long readPrevious(String startingUrl, Consumer<CrawlPage> action)
+   {
+      return (Files.exists(previousFile) ? read(previousFile, startingUrl, action, Long.MAX_VALUE, null) : 0);
+   }
+
+   /**
+    * Opens the checkpoint to write pages.  A new checkpoint replaces any earlier one.
+    * A resumed checkpoint keeps the pages already written.
+    * @param startingUrl Starting URL of the crawl.
+    * @param resume True to append to an existing checkpoint.
+    */
+   public synchronized void open(String startingUrl, boolean resume)
+   {
+      if (out != null)
+         throw new IllegalStateException("The checkpoint is already open.");
+
+      try
+      {
+         Files.createDirectories(file.getParent());
+
+         if (resume && exists())
+         {
+            long[] validBytes = new long[1];
+            read(file, startingUrl, null, Long.MAX_VALUE, validBytes);
+            try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw"))
+            {
+               raf.setLength(validBytes[0]);
+            }
+            fileOut = new FileOutputStream(file.toFile(), true);
+            out = new DataOutputStream(new BufferedOutputStream(fileOut, 64 * 1024));
+         }
+         else
+         {
+            fileOut = new FileOutputStream(file.toFile(), false);
+            out = new DataOutputStream(new BufferedOutputStream(fileOut, 64 * 1024));
+            out.write(header(startingUrl));
+         }
+
+         force();
+      }
+      catch (IOException ex)
+      {
+         close();
+         throw new RuntimeException(String.format("Unable to open checkpoint %s.", file), ex);
+      }
+   }
+
+   /**
+    * Adds a crawled page to the checkpoint.  The page is forced to disk with
+    * the next checkpoint interval.  Ignored if the checkpoint is not open.
+    * @param page Crawled page.
+    */
+   public synchronized void write(CrawlPage page)
+   {
+      if (out == null)
+         return;
+
+      try
+      {
+         byte[] record = serialize(page);
+         if (record.length > MAX_RECORD_BYTES)
+            throw new IOException(String.format("Page %s is too large to checkpoint.", page.getUrl()));
+
+         out.writeInt(record.length);
+         out.write(record);
+         ++pagesWritten;
+
+         if (System.currentTimeMillis() - lastForceMillis >= intervalMillis)
+            force();
+      }
+      catch (IOException ex)
+      {
+         throw new RuntimeException(String.format("Unable to write checkpoint %s.", file), ex);
+      }
+   }
+
+   /**
+    * Forces the pages written so far to disk and closes the checkpoint.
+    */
+   public synchronized void close()
+   {
+      if (fileOut == null)
+         return;
+
+      try
+      {
+         if (out != null)
+            force();
+      }
+      catch (IOException ex)
+      {
+         logger.error(String.format("Unable to write checkpoint %s.", file), ex);
+      }
+      finally
+      {
+         try
+         {
+            fileOut.close();
+         }
+         catch (IOException ex)
+         {
+            logger.debug("Unable to close checkpoint.", ex);
+         }
+         fileOut = null;
+         out = null;
+      }
+   }
+
+   /**
+    * Returns the number of pages written since the checkpoint was opened.
+    * @return Number of pages.
+    */
+   public synchronized long getPagesWritten()
+   {
+      return pagesWritten;
+   }
+
+   /**
+    * Flushes the buffer and forces the file to disk.  Must be called with the lock held.
+    * A file stream is used rather than a channel, since cancelling a crawl interrupts
+    * its threads and an interrupt closes a channel.
+    * @throws IOException If the file cannot be written.
+    */
+   private void force() throws IOException
+   {
+      out.flush();
+      fileOut.getFD().sync();
+      lastForceMillis = System.currentTimeMillis();
+   }
+
+   /**
+    * Reads the pages of a checkpoint up to the first incomplete record.
+    * @param checkpointFile Checkpoint file to read.
+    * @param startingUrl Starting URL of the crawl being resumed.
+    * @param action Action to perform on each page.  Null to only find the valid length.
+    * @param maxPages Number of pages to read at most.
+    * @param validBytes Set to the length of the checkpoint up to the first incomplete record.  May be null.
+    * @return Number of pages read.
+    * @throws IllegalStateException If the checkpoint is of a crawl with another starting URL.
+    */
+   private long read(Path checkpointFile, String startingUrl, Consumer<CrawlPage> action, long maxPages, long[] validBytes)
+   {
+      long pages = 0;
+      long length = 0;
+      try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(checkpointFile), 64 * 1024)))
+      {
+         int version = in.readInt();
+         if (version != FORMAT_VERSION)
+            throw new IOException(String.format("Unknown checkpoint format: %d", version));
+
+         String checkpointUrl = readString(in);
+         if (checkpointUrl == null)
+            throw new IOException("Checkpoint without a starting URL.");
+         if (!checkpointUrl.equals(startingUrl))
+            throw new IllegalStateException(String.format("The checkpoint is of a crawl starting at %s.", checkpointUrl));
+
+         length = header(checkpointUrl).length;
+         try
+         {
+            while (pages < maxPages)
+            {
+               int recordLength = in.readInt();
+               if (recordLength <= 0 || recordLength > MAX_RECORD_BYTES)
+                  break; // Garbage after a crash.
+
+               byte[] record = new byte[recordLength];
+               in.readFully(record);
+
+               CrawlPage page = deserialize(record);
+               length += Integer.BYTES + record.length;
+               ++pages;
+
+               if (action != null)
+                  action.accept(page);
+            }
+         }
+         catch (EOFException ex)
+         {
+            // End of the checkpoint or a record cut short by a crash.
+         }
+      }
+      catch (IOException ex)
+      {
+         throw new RuntimeException(String.format("Unable to read checkpoint %s.", checkpointFile), ex);
+      }
+
+      if (validBytes != null)
+         validBytes[0] = length;
+
+      return pages;
+   }
+
+   /**
+    * Serializes the header of the checkpoint.
+    * @param startingUrl Starting URL of the crawl.
+    * @return Header bytes.
+    * @throws IOException If unable to write the header.
+    */
+   private static byte[] header(String startingUrl) throws IOException
+   {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+      try (DataOutputStream out = new DataOutputStream(bytes))
+      {
+         out.writeInt(FORMAT_VERSION);
+         writeString(out, startingUrl);
+      }
+      return bytes.toByteArray();
+   }
+
+   /**
+    * Serializes a page.
+    * @param page Page to write.
+    * @return Page bytes.
+    * @throws IOException If unable to write the page.
+    */
+   private static byte[] serialize(CrawlPage page) throws IOException
+   {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024);
+      try (DataOutputStream out = new DataOutputStream(bytes))
+      {
+         writeString(out, page.getUrl());
+         writeString(out, page.getLoadError());
+         writeString(out, page.getSkipMessage());
+         writeString(out, page.getTitle());
+         writeString(out, page.getContentHash());
+         out.writeInt(page.getUnchangedCrawls());
+         writeList(out, page.getInternalLinks());
+         writeList(out, page.getExternalLinks());
+         writeList(out, page.getContentLinks());
+      }
+      return bytes.toByteArray();
+   }
+
+   /**
+    * Deserializes a page.
+    * @param bytes Page bytes.
+    * @return Crawl page.
+    * @throws IOException If the bytes are not a page.
+    */
+   private static CrawlPage deserialize(byte[] bytes) throws IOException
+   {
+      try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes)))
+      {
+         CrawlPage page = new CrawlPage();
+         page.setUrl(readString(in));
+         page.setLoadError(readString(in));
+         page.setSkipMessage(readString(in));
+         page.setTitle(readString(in));
+         page.setContentHash(readString(in));
+         page.setUnchangedCrawls(in.readInt());
+         page.setInternalLinks(readList(in));
+         page.setExternalLinks(readList(in));
+         page.setContentLinks(readList(in));
+         return page;
+      }
+   }
+
+   /**
+    * Writes a string as its length in UTF-8 bytes followed by the bytes, so it has no
+    * length limit like DataOutputStream.writeUTF.  A null string has a length of -1.
+    * @param out Stream to write to.
+    * @param value String to write.  May be null.
+    * @throws IOException If unable to write.
+    */
+   private static void writeString(DataOutputStream out, String value) throws IOException
+   {
+      if (value == null)
+      {
+         out.writeInt(-1);
+         return;
+      }
+
+      byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+      out.writeInt(bytes.length);
+      out.write(bytes);
+   }
+
+   /**
+    * Reads a string written by writeString.
+    * @param in Stream to read from.
+    * @return String or null.
+    * @throws IOException If unable to read or the length is invalid.
+    */
+   private static String readString(DataInputStream in) throws IOException
+   {
+      int length = in.readInt();
+      if (length < 0)
+         return null;
+      if (length > MAX_RECORD_BYTES)
+         throw new IOException(String.format("Invalid string length: %d", length));
+
+      byte[] bytes = new byte[length];
+      in.readFully(bytes);
+      return new String(bytes, StandardCharsets.UTF_8);
+   }
+
+   private static void writeList(DataOutputStream out, List<String> values) throws IOException
+   {
+      out.writeInt(values != null ? values.size() : -1);
+      if (values != null)
+      {
+         for (String value : values)
+            writeString(out, value);
+      }
+   }
+
+   private static List<String> readList(DataInputStream in) throws IOException
+   {
+      int count = in.readInt();
+      if (count < 0)
+         return null;
+
+      List<String> values = new ArrayList<>(count);
+      for (int i = 0; i < count; ++i)
+         values.add(readString(in));
+      return values;
+   }
+}
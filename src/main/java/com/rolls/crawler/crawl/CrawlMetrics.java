@@ -0,0 +1,277 @@
+package com.rolls.crawler.crawl;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import com.rolls.crawler.parse.FetchedPage;
+
+/**
+ * Timings and counters of a crawl.  Each crawl stage has a latency histogram, and
+ * the pages crawled are counted.  The crawl threads record into them without locks
+ * or creating objects, so the metrics are always on.  The frontier size and pages in
+ * flight are read from the running crawl when asked for.
+ * <p>
+ * Pages per second is counted in one slot for each second of the last RATE_SECONDS
+ * seconds.  A slot is cleared by the first page of its next second, which may lose
+ * a page counted at the same time, so the rate is approximate.
+ */
+public class CrawlMetrics implements CrawlMetricsMXBean
+{
+   /**
+    * Number of seconds the pages per second is averaged over.
+    */
+   public final static int RATE_SECONDS = 10;
+
+   private final static CrawlStage[] stages = CrawlStage.values();
+   private final static LongSupplier zero = () -> 0;
+
+   private final LatencyHistogram[] histograms = new LatencyHistogram[stages.length];
+   private final AtomicLong pagesCrawled = new AtomicLong();
+   private final AtomicLong pagesFailed = new AtomicLong();
+   private final AtomicLong requestsThrottled = new AtomicLong();
+   private final AtomicLong bytesDownloaded = new AtomicLong();
+
+   // The slot of the current second is still counting, so there is one more slot than seconds.
+   private final AtomicLongArray rateCounts = new AtomicLongArray(RATE_SECONDS + 1);
+   private final AtomicLongArray rateSeconds = new AtomicLongArray(RATE_SECONDS + 1);
+   private volatile long startNanos = System.nanoTime();
+
+   private volatile LongSupplier frontierSize = zero;
+   private volatile LongSupplier pagesInFlight = zero;
+
+   /**
+    * Constructs new crawl metrics.
+    */
+   public CrawlMetrics()
+   {
+      for (int i = 0; i < histograms.length; ++i)
+         histograms[i] = new LatencyHistogram();
+   }
+
+   /**
+    * Gets the latency histogram of a stage.
+    * @param stage Crawl stage.
+    * @return Latency histogram.
+    */
+   public LatencyHistogram getHistogram(CrawlStage stage)
+   {
+      if (stage == null)
+         throw new IllegalArgumentException("Null stage.");
+
+      return histograms[stage.ordinal()];
+   }
+
+   @Override
+   public long getPagesCrawled()
+   {
+      return pagesCrawled.get();
+   }
+
+   @Override
+   public long getPagesFailed()
+   {
+      return pagesFailed.get();
+   }
+
+   @Override
+   public long getRequestsThrottled()
+   {
+      return requestsThrottled.get();
+   }
+
+   @Override
+   public long getBytesDownloaded()
+   {
+      return bytesDownloaded.get();
+   }
+
+   @Override
+   public long getFrontierSize()
+   {
+      return frontierSize.getAsLong();
+   }
+
+   @Override
+   public long getPagesInFlight()
+   {
+      return pagesInFlight.getAsLong();
+   }
+
+   @Override
+   public double getPagesPerSecond()
+   {
+      long second = currentSecond();
+      long seconds = Math.min(second, RATE_SECONDS);
+      if (seconds <= 0)
+         return 0;
+
+      long pages = 0;
+      for (int i = 0; i < rateCounts.length(); ++i)
+      {
+         long slotSecond = rateSeconds.get(i);
+         if (slotSecond < second && slotSecond >= second - seconds)
+            pages += rateCounts.get(i);
+      }
+      return (double)pages / seconds;
+   }
+
+   @Override
+   public Map<String, Long> getStageCounts()
+   {
+      Map<String, Long> counts = new LinkedHashMap<>();
+      for (CrawlStage stage : stages)
+         counts.put(stage.name(), histograms[stage.ordinal()].getCount());
+      return counts;
+   }
+
+   @Override
+   public Map<String, Double> getMeanMillis()
+   {
+      return byStage(LatencyHistogram::getMeanMillis);
+   }
+
+   @Override
+   public Map<String, Double> getP50Millis()
+   {
+      return byStage((histogram) -> histogram.getPercentileMillis(50));
+   }
+
+   @Override
+   public Map<String, Double> getP99Millis()
+   {
+      return byStage((histogram) -> histogram.getPercentileMillis(99));
+   }
+
+   @Override
+   public Map<String, Double> getMaxMillis()
+   {
+      return byStage(LatencyHistogram::getMaxMillis);
+   }
+
+   @Override
+   public String toString()
+   {
+      StringBuilder text = new StringBuilder(String.format(
+            "pagesCrawled=%d, pagesFailed=%d, requestsThrottled=%d, bytesDownloaded=%d, frontierSize=%d, pagesInFlight=%d, pagesPerSecond=%.1f",
+            getPagesCrawled(), getPagesFailed(), getRequestsThrottled(), getBytesDownloaded(),
+            getFrontierSize(), getPagesInFlight(), getPagesPerSecond()));
+      for (CrawlStage stage : stages)
+      {
+         LatencyHistogram histogram = histograms[stage.ordinal()];
+         if (histogram.getCount() > 0)
+            text.append(String.format("%n  %s: %s", stage, histogram));
+      }
+      return text.toString();
+   }
+
+   /**
+    * Records the time of a stage.
+    * @param stage Crawl stage.
+    * @param nanos Time in nanoseconds.
+    */
+   void record(CrawlStage stage, long nanos)
+   {
+      histograms[stage.ordinal()].record(nanos);
+   }
+
+   /**
+    * Records the download stages timed by the parser, and counts the bytes and throttled request.
+    * @param page Fetched page.
+    */
+   void pageFetched(FetchedPage page)
+   {
+      recordIfTimed(CrawlStage.DNS, page.getDnsNanos());
+      recordIfTimed(CrawlStage.CONNECT, page.getConnectNanos());
+      recordIfTimed(CrawlStage.FIRST_BYTE, page.getFirstByteNanos());
+      recordIfTimed(CrawlStage.DOWNLOAD, page.getDownloadNanos());
+      if (page.getBody() != null)
+         bytesDownloaded.addAndGet(page.getBody().length);
+      if (page.isThrottled())
+         requestsThrottled.incrementAndGet();
+   }
+
+   /**
+    * Counts a crawled page.
+    * @param failed True if the page failed to load.
+    */
+   void pageCrawled(boolean failed)
+   {
+      pagesCrawled.incrementAndGet();
+      if (failed)
+         pagesFailed.incrementAndGet();
+
+      long second = currentSecond();
+      int slot = (int)(second % rateCounts.length());
+      long slotSecond = rateSeconds.get(slot);
+      if (slotSecond != second && rateSeconds.compareAndSet(slot, slotSecond, second))
+         rateCounts.set(slot, 0);
+      rateCounts.incrementAndGet(slot);
+   }
+
+   /**
+    * Sets where the gauges of a running crawl are read from.
+    * @param frontierSize Number of URLs waiting in the frontier.  Null means 0.
+    * @param pagesInFlight Number of pages started and not yet processed.  Null means 0.
+    */
+   void setGauges(LongSupplier frontierSize, LongSupplier pagesInFlight)
+   {
+      this.frontierSize = (frontierSize != null ? frontierSize : zero);
+      this.pagesInFlight = (pagesInFlight != null ? pagesInFlight : zero);
+   }
+
+   /**
+    * Clears the metrics for a new crawl.
+    */
+   void reset()
+   {
+      for (LatencyHistogram histogram : histograms)
+         histogram.reset();
+      pagesCrawled.set(0);
+      pagesFailed.set(0);
+      requestsThrottled.set(0);
+      bytesDownloaded.set(0);
+      for (int i = 0; i < rateCounts.length(); ++i)
+      {
+         rateCounts.set(i, 0);
+         rateSeconds.set(i, 0);
+      }
+      startNanos = System.nanoTime();
+   }
+
+   /**
+    * Records the time of a stage if the parser timed it.
+    * @param stage Crawl stage.
+    * @param nanos Time in nanoseconds.  0 if not timed.
+    */
+   private void recordIfTimed(CrawlStage stage, long nanos)
+   {
+      if (nanos > 0)
+         histograms[stage.ordinal()].record(nanos);
+   }
+
+   /**
+    * Gets the number of whole seconds since the metrics were cleared.
+    * @return Seconds.
+    */
+   private long currentSecond()
+   {
+      return TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - startNanos);
+   }
+
+   /**
+    * Gets a value of each stage's histogram.
+    * @param value Value to get.
+    * @return Values by stage name, in stage order.
+    */
+   private Map<String, Double> byStage(Function<LatencyHistogram, Double> value)
+   {
+      Map<String, Double> values = new LinkedHashMap<>();
+      for (CrawlStage stage : stages)
+         values.put(stage.name(), value.apply(histograms[stage.ordinal()]));
+      return values;
+   }
+}
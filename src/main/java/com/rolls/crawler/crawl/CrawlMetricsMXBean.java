@@ -0,0 +1,82 @@
+package com.rolls.crawler.crawl;
+
+import java.util.Map;
+
+/**
+ * Management interface of the crawl metrics, so they can be watched through JMX while
+ * a crawl runs.  Latencies are keyed by the name of their crawl stage.
+ */
+public interface CrawlMetricsMXBean
+{
+   /**
+    * Gets the number of pages crawled, including those that failed to load.
+    * @return Number of pages.
+    */
+   public long getPagesCrawled();
+
+   /**
+    * Gets the number of pages that failed to load.
+    * @return Number of pages.
+    */
+   public long getPagesFailed();
+
+   /**
+    * Gets the number of requests throttled by their server.
+    * @return Number of requests.
+    */
+   public long getRequestsThrottled();
+
+   /**
+    * Gets the number of body bytes downloaded.
+    * @return Number of bytes.
+    */
+   public long getBytesDownloaded();
+
+   /**
+    * Gets the number of URLs waiting in the frontier.
+    * @return Number of URLs.
+    */
+   public long getFrontierSize();
+
+   /**
+    * Gets the number of pages started and not yet processed.
+    * @return Number of pages.
+    */
+   public long getPagesInFlight();
+
+   /**
+    * Gets the number of pages crawled per second over the last RATE_SECONDS seconds.
+    * @return Pages per second.
+    */
+   public double getPagesPerSecond();
+
+   /**
+    * Gets the number of times each stage was timed.
+    * @return Counts by stage.
+    */
+   public Map<String, Long> getStageCounts();
+
+   /**
+    * Gets the average latency of each stage.
+    * @return Milliseconds by stage.
+    */
+   public Map<String, Double> getMeanMillis();
+
+   /**
+    * Gets the median latency of each stage.
+    * @return Milliseconds by stage.
+    */
+   public Map<String, Double> getP50Millis();
+
+   /**
+    * Gets the 99th percentile latency of each stage.
+    * @return Milliseconds by stage.
+    */
+   public Map<String, Double> getP99Millis();
+
+   /**
+    * Gets the largest latency of each stage.
+    * @return Milliseconds by stage.
+    */
+   public Map<String, Double> getMaxMillis();
+}
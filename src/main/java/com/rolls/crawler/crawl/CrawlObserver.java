@@ -1,6 +1,7 @@
 package com.rolls.crawler.crawl;
 
 import java.util.Date;
+import java.util.List;
 
 /**
  * Handler of crawl events.
@@ -13,6 +14,17 @@ public interface CrawlObserver
     */
    public void onPage(CrawlPage page);
 
+   /**
+    * Pages have been processed.  Called with the pages waiting for the observer, in
+    * the order they were processed, so an observer that writes them out can do it in
+    * batches.  By default each page is passed to onPage.
+    * @param pages Crawl pages.
+    */
+   public default void onPages(List<CrawlPage> pages)
+   {
+      pages.forEach(this::onPage);
+   }
+
    /**
     * The crawl has completed.
     * @param startTime Start time of the crawl.
@@ -13,7 +13,10 @@ public class CrawlPage
 {
    private String url;
    private String loadError;
+   private String skipMessage;
    private String title;
+   private String contentHash;
+   private int unchangedCrawls;
    private List<String> internalLinks;
    private List<String> externalLinks;
    private List<String> contentLinks;
@@ -0,0 +1,505 @@
+package com.rolls.crawler.crawl;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Crawl threads shared by the crawls of many sites, so they can run at the same time
+ * without a set of threads each.  A crawler constructed with the pool hands its pages
+ * to the pool's threads instead of starting its own.
+ * <p>
+ * The sites take turns by weighted fair queuing.  Each site has a pass that grows by
+ * STRIDE / weight for every page it starts, and a free thread starts a page of the
+ * site with the lowest pass that has one ready.  Over time a site with twice the
+ * weight gets twice the pages, while sites waiting on their hosts' politeness delays
+ * let the others go ahead.  A site that had nothing to crawl does not build up credit
+ * to run ahead of the others later.
+ * <p>
+ * Only the sites that may have a page ready are kept in turn, in a heap ordered by
+ * pass.  A site that had none sleeps until it wakes itself, because a URL was added
+ * or a page finished, or until the delay it asked for, such as the time until its
+ * next host is ready.  A site is asked for its page outside the pool's lock, so the
+ * other threads can take turns meanwhile, and only one thread asks a site at a time.
+ */
+public class CrawlPool
+{
+   /**
+    * Pass a site with a weight of 1 moves by for each page.
+    */
+   public final static long STRIDE = 1 << 20;
+
+   private final static Logger logger = LoggerFactory.getLogger(CrawlPool.class);
+
+   private final ReentrantLock lock = new ReentrantLock();
+   private final Condition ready = lock.newCondition();
+   private final Condition idle = lock.newCondition();
+   private final Map<Site, Entry> sites = new HashMap<>();
+   private final PriorityQueue<Entry> turns = new PriorityQueue<>(
+         Comparator.comparingLong((Entry entry) -> entry.pass).thenComparingLong((entry) -> entry.order));
+   private final PriorityQueue<Entry> sleeping = new PriorityQueue<>(
+         Comparator.comparingLong((Entry entry) -> entry.wakeNanos));
+   private final int numThreads;
+   private final ExecutorService executor;
+
+   private long pass = 0;
+   private long nextOrder = 0;
+   private int siteCount = 0;
+   private boolean closed = false;
+
+   /**
+    * Site crawled by the pool.
+    */
+   interface Site
+   {
+      /**
+       * Takes the next page of the site, without waiting.  If none is ready, the site
+       * is not asked again until it is woken.
+       * @return Task that crawls the page or null if none is ready.
+       */
+      public Runnable nextPage();
+   }
+
+   /**
+    * Where a site is in taking turns.
+    */
+   private enum State
+   {
+      READY,     // In turn, since it may have a page ready.
+      TAKING,    // A thread is asking it for a page.
+      SLEEPING   // Waiting to be woken, or for its wake time if it has one.
+   }
+
+   /**
+    * Turn-taking state of a site.
+    */
+   private static class Entry
+   {
+      private final Site site;
+      private final int weight;
+      private final long order;
+      private long pass;
+      private State state = State.SLEEPING;
+      private boolean woken = false;
+      private long wakeNanos = 0;
+      private boolean timed = false;
+      private int running = 0;
+      private boolean removed = false;
+
+      public Entry(Site site, int weight, long pass, long order)
+      {
+         this.site = site;
+         this.weight = weight;
+         this.pass = pass;
+         this.order = order;
+      }
+   }
+
+   /**
+    * Constructs and starts a new crawl pool.
+    * @param numThreads Number of crawl threads.  Value < 1 defaults to 1.
+    */
+   public CrawlPool(int numThreads)
+   {
+      this.numThreads = Math.max(numThreads, 1);
+      this.executor = new ThreadPoolExecutor(this.numThreads, this.numThreads,
+            0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+            new BasicThreadFactory.Builder().namingPattern("CrawlPool-%d").daemon(true).build()
+            );
+      for (int i = 0; i < this.numThreads; ++i)
+         executor.execute(this::run);
+   }
+
+   /**
+    * Gets the number of crawl threads.
+    * @return Number of threads.
+    */
+   public int getNumThreads()
+   {
+      return numThreads;
+   }
+
+   /**
+    * Gets the number of sites being crawled.
+    * @return Number of sites.
+    */
+   public int getSiteCount()
+   {
+      lock.lock();
+      try
+      {
+         return siteCount;
+      }
+      finally
+      {
+         lock.unlock();
+      }
+   }
+
+   /**
+    * Stops the crawl threads once they finish the pages they are on.  The crawls
+    * still running are left incomplete, so they should be cancelled first.
+    */
+   public void close()
+   {
+      lock.lock();
+      try
+      {
+         closed = true;
+         ready.signalAll();
+      }
+      finally
+      {
+         lock.unlock();
+      }
+      executor.shutdown();
+   }
+
+   /**
+    * Adds a site.  It starts with the lowest pass of the sites, so it gets its first
+    * pages soon without running ahead of them.
+    * @param site Site to crawl.
+    * @param weight Share of the threads, relative to the other sites.  Value < 1 defaults to 1.
+    */
+   void register(Site site, int weight)
+   {
+      lock.lock();
+      try
+      {
+         if (closed)
+            throw new IllegalStateException("The crawl pool is closed.");
+
+         Entry entry = new Entry(site, Math.max(weight, 1), pass, nextOrder++);
+         sites.put(site, entry);
+         ++siteCount;
+         makeReady(entry);
+      }
+      finally
+      {
+         lock.unlock();
+      }
+   }
+
+   /**
+    * Removes a site, so no more of its pages are started.  Its pages already started
+    * are finished.
+    * @param site Site to remove.
+    */
+   void unregister(Site site)
+   {
+      lock.lock();
+      try
+      {
+         Entry entry = sites.get(site);
+         if (entry == null || entry.removed)
+            return;
+
+         entry.removed = true;
+         --siteCount;
+         if (entry.state == State.READY)
+            turns.remove(entry);
+         else if (entry.state == State.SLEEPING && entry.timed)
+            sleeping.remove(entry);
+         removeIfIdle(entry);
+      }
+      finally
+      {
+         lock.unlock();
+      }
+   }
+
+   /**
+    * Wakes every site, because any of them may have a page ready.
+    */
+   void wake()
+   {
+      lock.lock();
+      try
+      {
+         sites.values().forEach(this::makeReady);
+      }
+      finally
+      {
+         lock.unlock();
+      }
+   }
+
+   /**
+    * Wakes a site, because it may have a page ready.
+    * @param site Site to wake.
+    */
+   void wake(Site site)
+   {
+      lock.lock();
+      try
+      {
+         Entry entry = sites.get(site);
+         if (entry != null)
+            makeReady(entry);
+      }
+      finally
+      {
+         lock.unlock();
+      }
+   }
+
+   /**
+    * Wakes a site after a delay, such as when its next host is ready.  A sleeping site
+    * keeps the earliest wake time it was given.
+    * @param site Site to wake.
+    * @param delayNanos Delay in nanoseconds.
+    */
+   void wake(Site site, long delayNanos)
+   {
+      lock.lock();
+      try
+      {
+         Entry entry = sites.get(site);
+         if (entry == null || entry.removed || entry.state == State.READY)
+            return;
+
+         long wakeNanos = System.nanoTime() + Math.max(delayNanos, 0);
+         if (entry.timed && wakeNanos - entry.wakeNanos >= 0)
+            return;
+
+         if (entry.state == State.SLEEPING && entry.timed)
+            sleeping.remove(entry);
+         entry.wakeNanos = wakeNanos;
+         entry.timed = true;
+         if (entry.state == State.SLEEPING)
+         {
+            sleeping.add(entry);
+            ready.signal();
+         }
+      }
+      finally
+      {
+         lock.unlock();
+      }
+   }
+
+   /**
+    * Waits until a site is removed and its pages are finished.
+    * @param site Site to wait for.
+    * @param timeout Duration to wait.
+    * @param unit Time unit of timeout.
+    * @return True if the site is done or false if the timeout elapsed.
+    * @throws InterruptedException If interrupted while waiting.
+    */
+   boolean awaitIdle(Site site, long timeout, TimeUnit unit) throws InterruptedException
+   {
+      long nanos = unit.toNanos(timeout);
+      lock.lockInterruptibly();
+      try
+      {
+         while (sites.containsKey(site))
+         {
+            if (nanos <= 0)
+               return false;
+            nanos = idle.awaitNanos(nanos);
+         }
+         return true;
+      }
+      finally
+      {
+         lock.unlock();
+      }
+   }
+
+   /**
+    * Runs a crawl thread, which starts the pages of the sites in turn until the pool is closed.
+    */
+   private void run()
+   {
+      try
+      {
+         while (true)
+         {
+            Entry entry = nextTurn();
+            if (entry == null)
+               return;
+
+            Runnable page = null;
+            try
+            {
+               page = entry.site.nextPage();
+            }
+            catch (RuntimeException ex)
+            {
+               logger.error("Error taking a page.", ex);
+            }
+            turnTaken(entry, page);
+            if (page == null)
+               continue;
+
+            try
+            {
+               page.run();
+            }
+            catch (RuntimeException ex)
+            {
+               logger.error("Error crawling a page.", ex);
+            }
+            finally
+            {
+               pageDone(entry);
+            }
+         }
+      }
+      catch (InterruptedException ex)
+      {
+         Thread.currentThread().interrupt(); // Preserve interrupted status
+      }
+   }
+
+   /**
+    * Takes the site with the lowest pass that may have a page ready, waiting until
+    * one is woken.
+    * @return Site to ask for a page or null if the pool is closed.
+    * @throws InterruptedException If interrupted while waiting.
+    */
+   private Entry nextTurn() throws InterruptedException
+   {
+      lock.lockInterruptibly();
+      try
+      {
+         while (!closed)
+         {
+            long now = System.nanoTime();
+            while (!sleeping.isEmpty() && now - sleeping.peek().wakeNanos >= 0)
+            {
+               Entry woken = sleeping.poll();
+               woken.timed = false;
+               makeReady(woken);
+            }
+
+            Entry entry = turns.poll();
+            if (entry != null)
+            {
+               entry.state = State.TAKING;
+               entry.woken = false;
+               entry.timed = false;
+
+               // Another thread takes over the next turn or the next wake time.
+               if (!turns.isEmpty() || !sleeping.isEmpty())
+                  ready.signal();
+               return entry;
+            }
+
+            if (sleeping.isEmpty())
+               ready.await();
+            else
+               ready.awaitNanos(sleeping.peek().wakeNanos - now);
+         }
+         return null;
+      }
+      finally
+      {
+         lock.unlock();
+      }
+   }
+
+   /**
+    * Ends a site's turn.  A site that started a page stays in turn with its pass moved
+    * on, and one that had none sleeps unless it was woken during its turn.
+    * @param entry Turn-taking state of the site.
+    * @param page Page started or null if none was ready.
+    */
+   private void turnTaken(Entry entry, Runnable page)
+   {
+      lock.lock();
+      try
+      {
+         entry.state = State.SLEEPING;
+         if (page != null)
+         {
+            // The pass of the pool follows the site whose turn it is, so no site falls far behind it.
+            pass = Math.max(pass, entry.pass);
+            entry.pass = pass + STRIDE / entry.weight;
+            ++entry.running;
+         }
+
+         if (entry.removed)
+            removeIfIdle(entry);
+         else if (page != null || entry.woken)
+            makeReady(entry);
+         else if (entry.timed)
+         {
+            sleeping.add(entry);
+            ready.signal();
+         }
+      }
+      finally
+      {
+         lock.unlock();
+      }
+   }
+
+   /**
+    * Counts a page of a site as finished, which wakes the site since it may have freed a slot.
+    * @param entry Turn-taking state of the site.
+    */
+   private void pageDone(Entry entry)
+   {
+      lock.lock();
+      try
+      {
+         --entry.running;
+         if (entry.removed)
+            removeIfIdle(entry);
+         else
+            makeReady(entry);
+      }
+      finally
+      {
+         lock.unlock();
+      }
+   }
+
+   /**
+    * Puts a site in turn, or marks it as woken if a thread is asking it for a page.
+    * Must be called with the lock held.
+    * @param entry Turn-taking state of the site.
+    */
+   private void makeReady(Entry entry)
+   {
+      if (entry.removed || entry.state == State.READY)
+         return;
+
+      if (entry.state == State.TAKING)
+      {
+         entry.woken = true;
+         return;
+      }
+
+      if (entry.timed)
+         sleeping.remove(entry);
+      entry.timed = false;
+      entry.state = State.READY;
+      turns.add(entry);
+      ready.signal();
+   }
+
+   /**
+    * Forgets a removed site once no thread is on it.  Must be called with the lock held.
+    * @param entry Turn-taking state of the site.
+    */
+   private void removeIfIdle(Entry entry)
+   {
+      if (entry.running == 0 && entry.state != State.TAKING)
+      {
+         sites.remove(entry.site);
+         idle.signalAll();
+      }
+   }
+}
@@ -0,0 +1,17 @@
+package com.rolls.crawler.crawl;
+
+import java.util.Date;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Outcome of a crawl, which the future returned when it was started completes with.
+ */
+@AllArgsConstructor
+@Getter
+public class CrawlResult
+{
+   private Date startTime;       // Start time of the crawl.
+   private long durationMillis;  // Duration, in milliseconds, of the crawl.
+   private boolean cancelled;    // True if the crawl was cancelled.
+}
@@ -0,0 +1,322 @@
+package com.rolls.crawler.crawl;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Locale;
+
+/**
+ * Decides which URLs belong to the site being crawled.  A URL is in scope if its
+ * scheme is one of the schemes of the site, its host matches one of the hosts,
+ * and its path is allowed.
+ * <p>
+ * A host is a name with an optional port, such as www.site.org or localhost:8080.
+ * A host that starts with *. matches every subdomain of the name after it, but not
+ * the name itself.  Default ports of the URL's scheme are ignored, so hosts should
+ * leave them out.  Listing more than one scheme, such as http and https, makes
+ * them the same site.
+ * <p>
+ * Paths are matched by prefix, and the longest allowed or denied prefix that
+ * matches wins.  A path that matches none is allowed only if no allowed prefixes
+ * are given.  An empty path is matched as /.
+ * <p>
+ * The hosts are compiled into a trie of their reversed names and the paths into a
+ * trie of the prefixes, so a URL is classified in a single scan without creating
+ * any objects.  The scope is immutable and thread safe.
+ */
+public class CrawlScope
+{
+   private final static byte EXACT = 1;
+   private final static byte SUBDOMAINS = 2;
+   private final static byte ALLOW = 1;
+   private final static byte DENY = 2;
+
+   private final String[] schemes;
+   private final Node hostRoot = new Node();
+   private final Node pathRoot = new Node();
+   private final boolean allowByDefault;
+
+   /**
+    * Node of a character trie.  The children are kept sorted by character.
+    */
+   private static class Node
+   {
+      private char[] keys = new char[0];
+      private Node[] children = new Node[0];
+      private byte flags = 0;
+
+      /**
+       * Gets the child of a character.
+       * @param key Character.
+       * @return Child or null if none.
+       */
+      public Node get(char key)
+      {
+         int index = Arrays.binarySearch(keys, key);
+         return (index >= 0 ? children[index] : null);
+      }
+
+      /**
+       * Gets the child of a character, adding it if needed.
+       * @param key Character.
+       * @return Child.
+       */
+      public Node add(char key)
+      {
+         int index = Arrays.binarySearch(keys, key);
+         if (index >= 0)
+            return children[index];
+
+         index = -index - 1;
+         char[] newKeys = new char[keys.length + 1];
+         Node[] newChildren = new Node[children.length + 1];
+         System.arraycopy(keys, 0, newKeys, 0, index);
+         System.arraycopy(children, 0, newChildren, 0, index);
+         newKeys[index] = key;
+         newChildren[index] = new Node();
+         System.arraycopy(keys, index, newKeys, index + 1, keys.length - index);
+         System.arraycopy(children, index, newChildren, index + 1, children.length - index);
+         keys = newKeys;
+         children = newChildren;
+         return children[index];
+      }
+   }
+
+   /**
+    * Constructs a new crawl scope.
+    * @param schemes Schemes of the site, such as http and https.
+    * @param hosts Hosts of the site.  A host that starts with *. matches its subdomains.
+    * @param allowPaths Path prefixes that are crawled.  Null or empty means every path.
+    * @param denyPaths Path prefixes that are not crawled.  Null means none.
+    */
+   public CrawlScope(Collection<String> schemes, Collection<String> hosts,
+         Collection<String> allowPaths, Collection<String> denyPaths)
+   {
+      if (schemes == null || schemes.isEmpty())
+         throw new IllegalArgumentException("Null schemes.");
+      if (hosts == null || hosts.isEmpty())
+         throw new IllegalArgumentException("Null hosts.");
+
+      this.schemes = new String[schemes.size()];
+      int index = 0;
+      for (String scheme : schemes)
+         this.schemes[index++] = checkScheme(scheme);
+
+      for (String host : hosts)
+         addHost(host);
+
+      if (allowPaths != null)
+         allowPaths.forEach((path) -> addPath(path, ALLOW));
+      if (denyPaths != null)
+         denyPaths.forEach((path) -> addPath(path, DENY));
+
+      this.allowByDefault = (allowPaths == null || allowPaths.isEmpty());
+   }
+
+   /**
+    * Returns if a URL is in scope.
+    * @param url Absolute URL.
+    * @return True if in scope.
+    */
+   public boolean contains(String url)
+   {
+      int length = url.length();
+      int schemeEnd = url.indexOf("://");
+      if (schemeEnd <= 0 || !isScheme(url, schemeEnd))
+         return false;
+
+      // scheme://userinfo@host:port/path?query#fragment
+      int hostStart = schemeEnd + 3;
+      int portStart = -1;
+      int pathStart = hostStart;
+      for (; pathStart < length; ++pathStart)
+      {
+         char c = url.charAt(pathStart);
+         if (c == '/' || c == '?' || c == '#')
+            break;
+         else if (c == '@')
+         {
+            hostStart = pathStart + 1;
+            portStart = -1;
+         }
+         else if (c == ':')
+            portStart = pathStart;
+         else if (c == ']')
+            portStart = -1;
+      }
+
+      int hostEnd = pathStart;
+      if (portStart >= 0 && isDefaultPort(url, schemeEnd, portStart + 1, pathStart))
+         hostEnd = portStart;
+
+      return (isHost(url, hostStart, hostEnd) && isAllowedPath(url, pathStart));
+   }
+
+   /**
+    * Returns if the scheme of a URL is one of the schemes of the site.
+    * @param url URL.
+    * @param schemeEnd End of the scheme.
+    * @return True if it is.
+    */
+   private boolean isScheme(String url, int schemeEnd)
+   {
+      for (String scheme : schemes)
+      {
+         if (scheme.length() == schemeEnd && url.regionMatches(true, 0, scheme, 0, schemeEnd))
+            return true;
+      }
+      return false;
+   }
+
+   /**
+    * Returns if the port of a URL is empty or the default port of its scheme.
+    * @param url URL.
+    * @param schemeEnd End of the scheme.
+    * @param start Start of the port.
+    * @param end End of the port.
+    * @return True if the port can be ignored.
+    */
+   private static boolean isDefaultPort(String url, int schemeEnd, int start, int end)
+   {
+      if (start == end)
+         return true;
+      else if (url.regionMatches(true, 0, "http", 0, schemeEnd) && schemeEnd == 4)
+         return (end - start == 2 && url.startsWith("80", start));
+      else if (url.regionMatches(true, 0, "https", 0, schemeEnd) && schemeEnd == 5)
+         return (end - start == 3 && url.startsWith("443", start));
+      return false;
+   }
+
+   /**
+    * Returns if the host of a URL matches one of the hosts, walking the host trie from
+    * the last character of the host.
+    * @param url URL.
+    * @param start Start of the host.
+    * @param end End of the host, with the port if it is not the default.
+    * @return True if it matches.
+    */
+   private boolean isHost(String url, int start, int end)
+   {
+      Node node = hostRoot;
+      for (int i = end - 1; i >= start; --i)
+      {
+         if ((node.flags & SUBDOMAINS) != 0)
+            return true;
+
+         node = node.get(toLowerCase(url.charAt(i)));
+         if (node == null)
+            return false;
+      }
+      return ((node.flags & EXACT) != 0);
+   }
+
+   /**
+    * Returns if the path of a URL is allowed, walking the path trie to the longest
+    * prefix that matches.
+    * @param url URL.
+    * @param start Start of the path.
+    * @return True if allowed.
+    */
+   private boolean isAllowedPath(String url, int start)
+   {
+      int length = url.length();
+      byte verdict = 0;
+      Node node = pathRoot;
+      if (start == length || url.charAt(start) == '?' || url.charAt(start) == '#')
+      {
+         node = node.get('/');
+         if (node != null)
+            verdict = node.flags;
+      }
+      else
+      {
+         for (int i = start; i < length; ++i)
+         {
+            char c = url.charAt(i);
+            if (c == '?' || c == '#')
+               break;
+
+            node = node.get(c);
+            if (node == null)
+               break;
+            if (node.flags != 0)
+               verdict = node.flags;
+         }
+      }
+
+      return (verdict == 0 ? allowByDefault : verdict == ALLOW);
+   }
+
+   /**
+    * Adds a host to the host trie, reversed.
+    * @param host Host with an optional port.  A host that starts with *. matches its subdomains.
+    */
+   private void addHost(String host)
+   {
+      if (host == null)
+         throw new IllegalArgumentException("Null host.");
+
+      host = host.trim().toLowerCase(Locale.ROOT);
+      boolean subdomains = host.startsWith("*.");
+      if (subdomains)
+         host = host.substring(1);
+
+      if (host.isEmpty() || host.equals(".") || host.startsWith(":") || host.contains("*"))
+         throw new IllegalArgumentException(String.format("Invalid host %s.", host));
+      for (int i = 0; i < host.length(); ++i)
+      {
+         if ("/?#@ ".indexOf(host.charAt(i)) >= 0)
+            throw new IllegalArgumentException(String.format("Invalid host %s.", host));
+      }
+
+      Node node = hostRoot;
+      for (int i = host.length() - 1; i >= 0; --i)
+         node = node.add(host.charAt(i));
+      node.flags |= (subdomains ? SUBDOMAINS : EXACT);
+   }
+
+   /**
+    * Adds a path prefix to the path trie.  A prefix that is both allowed and denied is denied.
+    * @param path Path prefix, which starts with /.
+    * @param verdict ALLOW or DENY.
+    */
+   private void addPath(String path, byte verdict)
+   {
+      if (path == null || !path.startsWith("/"))
+         throw new IllegalArgumentException(String.format("Invalid path %s.", path));
+
+      Node node = pathRoot;
+      for (int i = 0; i < path.length(); ++i)
+         node = node.add(path.charAt(i));
+      node.flags = (byte)Math.max(node.flags, verdict);
+   }
+
+   /**
+    * Checks a scheme.
+    * @param scheme Scheme, such as http.
+    * @return Scheme in lower case.
+    */
+   private static String checkScheme(String scheme)
+   {
+      if (scheme == null || scheme.trim().isEmpty())
+         throw new IllegalArgumentException("Null scheme.");
+
+      scheme = scheme.trim().toLowerCase(Locale.ROOT);
+      for (int i = 0; i < scheme.length(); ++i)
+      {
+         char c = scheme.charAt(i);
+         if (!(c >= 'a' && c <= 'z') && !(i > 0 && ((c >= '0' && c <= '9') || c == '+' || c == '-' || c == '.')))
+            throw new IllegalArgumentException(String.format("Invalid scheme %s.", scheme));
+      }
+      return scheme;
+   }
+
+   /**
+    * Converts an ASCII character to lower case.
+    * @param c Character.
+    * @return Lower case character.
+    */
+   private static char toLowerCase(char c)
+   {
+      return (c >= 'A' && c <= 'Z' ? (char)(c + ('a' - 'A')) : c);
+   }
+}
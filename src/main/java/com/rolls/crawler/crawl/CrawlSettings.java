@@ -0,0 +1,91 @@
+package com.rolls.crawler.crawl;
+
+import java.util.List;
+import java.util.Set;
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * Settings for a web crawler.
+ */
+@Getter
+@Setter
+public class CrawlSettings
+{
+   /**
+    * Default number of URLs expected, used to size the seen URL set.
+    */
+   public final static int DEFAULT_EXPECTED_URLS = 100000;
+
+   /**
+    * Default false positive rate of a BLOOM seen URL set.
+    */
+   public final static double DEFAULT_FALSE_POSITIVE_RATE = 0.0001;
+
+   /**
+    * Default maximum number of pages in flight with virtual threads or an asynchronous parser.
+    */
+   public final static int DEFAULT_MAX_IN_FLIGHT_PAGES = 1000;
+
+   /**
+    * Default number of times a page throttled by its server is tried again.
+    */
+   public final static int DEFAULT_MAX_THROTTLE_RETRIES = 3;
+
+   /**
+    * Default maximum number of URLs read from sitemaps.
+    */
+   public final static int DEFAULT_MAX_SITEMAP_URLS = 100000;
+
+   /**
+    * Default interval, in milliseconds, between adaptive concurrency decisions.
+    */
+   public final static long DEFAULT_CONCURRENCY_INTERVAL_MILLIS = 2000;
+
+   /**
+    * Default number of crawled pages buffered for the observers.
+    */
+   public final static int DEFAULT_OBSERVER_BUFFER_SIZE = 1024;
+
+   /**
+    * Default maximum number of pages handed to an observer at once.
+    */
+   public final static int DEFAULT_OBSERVER_BATCH_SIZE = 64;
+
+   private int numThreads = CrawlerImpl.MIN_THREADS;                // Number of threads to use when fetch and parse are not separate stages.
+   private int numFetchThreads = 0;                                 // Threads that download pages.  Value <= 0 means fetch and parse on the same threads.
+   private int numParseThreads = 0;                                 // Threads that parse downloaded pages.  Value <= 0 means one per processor.
+   private int parseQueueSize = 0;                                  // Downloaded pages waiting to be parsed.  Value <= 0 means twice the parse threads.
+   private boolean virtualThreads = false;                          // Crawl with one virtual thread per page in flight instead of numThreads or numFetchThreads.
+   private int maxInFlightPages = DEFAULT_MAX_IN_FLIGHT_PAGES;      // Pages in flight with virtual threads or an asynchronous parser.
+   private Set<UrlRule> urlRules = UrlNormalizer.DEFAULT_RULES;     // Rules that normalize URLs before they are checked against the seen URLs.  Null means the default.
+   private List<String> scopeSchemes;                               // Schemes of the same site, such as http and https.  Null or empty means the scheme of the starting URL.
+   private List<String> scopeHosts;                                 // Hosts of the site.  *.name matches the subdomains of name.  Null or empty means the host of the starting URL.
+   private List<String> scopeAllowPaths;                            // Path prefixes that are crawled.  Null or empty means every path.
+   private List<String> scopeDenyPaths;                             // Path prefixes that are not crawled.  The longest allowed or denied prefix wins.
+   private SeenUrlStore seenUrlStore = SeenUrlStore.STRING;         // Type of set that tracks the URLs already queued.
+   private int expectedUrls = DEFAULT_EXPECTED_URLS;                // Number of URLs expected, used to size the seen URL set.
+   private double falsePositiveRate = DEFAULT_FALSE_POSITIVE_RATE;  // False positive rate of a BLOOM seen URL set.
+   private int frontierMemoryUrls = 0;                              // Queued URLs kept in memory before spilling to disk.  Value <= 0 means no limit.
+   private String frontierSpillPath;                                // Directory for spilled frontier segments.  Null means the temp directory.
+   private String checkpointPath;                                   // Directory of the crawl checkpoint.  Null means no checkpoint.
+   private long checkpointIntervalMillis = CrawlCheckpoint.DEFAULT_INTERVAL_MILLIS; // Interval, in milliseconds, between forcing the checkpoint to disk.
+   private boolean resume = false;                                  // Continue the crawl in the checkpoint instead of starting a new one.
+   private int maxRequestsPerHost = 0;                              // Requests to a host at the same time.  Value <= 0 means no limit.
+   private long minRequestDelayMillis = 0;                          // Minimum time, in milliseconds, between the start of requests to a host.
+   private int maxThrottleRetries = DEFAULT_MAX_THROTTLE_RETRIES;   // Times a page answered with 429 or 503 is tried again after its host backs off.
+   private boolean recrawl = false;                                 // Crawl the pages of the previous checkpoint again and reuse the links of unchanged pages.  Needs a checkpoint path.
+   private boolean sitemaps = false;                                // Seed the frontier with the pages of the sitemaps in robots.txt, or /sitemap.xml if it lists none.
+   private int maxSitemapUrls = DEFAULT_MAX_SITEMAP_URLS;           // URLs read from sitemaps that are queued.  Value <= 0 means the default.
+   private boolean priorityFrontier = false;                        // Crawl shallow pages, and pages with more links to them, first.  Keeps every queued URL in memory.
+   private int maxDepth = 0;                                        // Links followed from the starting URL.  Value <= 0 means no limit.
+   private int maxPages = 0;                                        // Pages queued, including the starting URL.  Value <= 0 means no limit.
+   private long timeBudgetMillis = 0;                               // Time, in milliseconds, after which no new pages are started.  Value <= 0 means no limit.
+   private boolean adaptiveConcurrency = false;                     // Tune the pages crawled at the same time from the latency, errors, and throughput seen.
+   private int minConcurrency = 0;                                  // Fewest pages crawled at the same time with adaptive concurrency.  Value <= 0 means MIN_THREADS.
+   private int maxConcurrency = 0;                                  // Most pages crawled at the same time with adaptive concurrency.  Value <= 0 means four times the starting number.
+   private long concurrencyIntervalMillis = DEFAULT_CONCURRENCY_INTERVAL_MILLIS;   // Interval, in milliseconds, between adaptive concurrency decisions.
+   private int observerBufferSize = DEFAULT_OBSERVER_BUFFER_SIZE;   // Crawled pages buffered for observers that have not read them yet.
+   private int observerBatchSize = DEFAULT_OBSERVER_BATCH_SIZE;     // Most pages handed to an observer at once.
+   private int siteWeight = 1;                                      // Share of a crawl pool's threads, relative to the other sites crawled with it.
+}
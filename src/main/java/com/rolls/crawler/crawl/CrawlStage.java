@@ -0,0 +1,46 @@
+package com.rolls.crawler.crawl;
+
+/**
+ * Stages of crawling a page that are timed by the crawl metrics.  The download stages
+ * are timed by the parser, and are only recorded for the stages it can tell apart.
+ */
+public enum CrawlStage
+{
+   /**
+    * Resolving the host name.  Cached and reused connections take no time.
+    */
+   DNS,
+
+   /**
+    * Opening the connection, including the TLS handshake of an HTTPS connection.
+    */
+   CONNECT,
+
+   /**
+    * From sending the request to the first byte of the response.  Includes DNS and
+    * CONNECT for parsers that cannot time them on their own.
+    */
+   FIRST_BYTE,
+
+   /**
+    * Reading the rest of the response.
+    */
+   DOWNLOAD,
+
+   /**
+    * Extracting the links of a downloaded page.  Includes the download for parsers
+    * that do not download and parse as separate steps.
+    */
+   PARSE,
+
+   /**
+    * Splitting the links of a page into internal and external links and queuing the
+    * new internal links.
+    */
+   ROUTE,
+
+   /**
+    * Handing a crawled page to the observers and the checkpoint.
+    */
+   DISPATCH
+}
@@ -0,0 +1,34 @@
+package com.rolls.crawler.crawl;
+
+/**
+ * Consumer of the pages of a crawl that asks for pages as it is ready for them, so
+ * it sets the pace of the crawl.  Follows the Reactive Streams Subscriber contract:
+ * onSubscribe is called first, then onNext at most as many times as requested, then
+ * onComplete or onError, unless the subscription is cancelled.  The calls are never
+ * made at the same time.
+ */
+public interface CrawlSubscriber
+{
+   /**
+    * The subscription has started.  No pages are sent until they are requested.
+    * @param subscription Subscription to request pages from or cancel.
+    */
+   public void onSubscribe(CrawlSubscription subscription);
+
+   /**
+    * A page has been processed.
+    * @param page Crawl page.
+    */
+   public void onNext(CrawlPage page);
+
+   /**
+    * The crawl was cancelled, or the subscription failed, and no more pages are sent.
+    * @param cause Cause of the failure.
+    */
+   public void onError(Throwable cause);
+
+   /**
+    * The crawl has completed and every page has been sent.
+    */
+   public void onComplete();
+}
@@ -0,0 +1,19 @@
+package com.rolls.crawler.crawl;
+
+/**
+ * Subscription of a crawl subscriber to the pages of a crawl.  Follows the Reactive
+ * Streams Subscription contract.  Can be called from any thread.
+ */
+public interface CrawlSubscription
+{
+   /**
+    * Asks for more pages.  Requests add up, and Long.MAX_VALUE means no limit.
+    * @param count Number of pages.  Value <= 0 fails the subscription.
+    */
+   public void request(long count);
+
+   /**
+    * Stops sending pages.  The crawl goes on.
+    */
+   public void cancel();
+}
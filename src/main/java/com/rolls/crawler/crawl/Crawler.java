@@ -1,6 +1,7 @@
 package com.rolls.crawler.crawl;
 
 import java.net.MalformedURLException;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -15,11 +16,23 @@ public interface Crawler
    public void addObserver(CrawlObserver observer);
 
    /**
-    * Starts crawling all pages in the same domain as the starting URL.
+    * Adds a subscriber to the pages of the next crawl started.  The crawl only runs
+    * as fast as the subscriber asks for pages.  A subscriber gets the pages of one
+    * crawl, and is dropped once it completes.
+    * @param subscriber Subscriber to the pages.
+    */
+   public void subscribe(CrawlSubscriber subscriber);
+
+   /**
+    * Starts crawling all pages in the same domain as the starting URL.  The future
+    * completes once the crawl is complete or cancelled and the observers have been
+    * told, on the thread that completed the crawl.  It is never completed
+    * exceptionally, and cancelling it does not cancel the crawl.
     * @param startingUrl URL to start crawling.
+    * @return Future of the crawl's result.
     * @throws MalformedURLException If starting URL is malformed.
     */
-   public void start(String startingUrl) throws MalformedURLException;
+   public CompletableFuture<CrawlResult> start(String startingUrl) throws MalformedURLException;
 
    /**
     * Waits for crawl to complete.
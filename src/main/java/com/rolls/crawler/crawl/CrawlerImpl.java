@@ -1,24 +1,44 @@
 package com.rolls.crawler.crawl;
 
+import java.io.IOException;
+import java.lang.reflect.Method;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
-import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
 import org.apache.commons.lang3.concurrent.BasicThreadFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import com.rolls.crawler.parse.AsyncParser;
+import com.rolls.crawler.parse.FetchedPage;
 import com.rolls.crawler.parse.LinkDetails;
 import com.rolls.crawler.parse.PageDetails;
 import com.rolls.crawler.parse.Parser;
+import com.rolls.crawler.parse.RobotsDetails;
+import com.rolls.crawler.parse.SitemapParser;
+import com.rolls.crawler.parse.StagedParser;
 
 /**
  * Implementation of a web crawler that finds pages of a single domain.
@@ -30,308 +50,1887 @@ public class CrawlerImpl implements Crawler
     */
    public final static int MIN_THREADS = 1;
 
+   /**
+    * Number of threads that read robots.txt and sitemaps.
+    */
+   public final static int SITEMAP_THREADS = 4;
+
+   /**
+    * Maximum number of sitemaps read, including those listed in sitemap indexes.
+    */
+   public final static int MAX_SITEMAPS = 1000;
+
+   private final static int SITEMAP_BATCH_SIZE = 100;
+
    private final static Logger logger = LoggerFactory.getLogger(CrawlerImpl.class);
+   private final static Method virtualExecutorFactory = findVirtualExecutorFactory();
 
    private final Queue<CrawlObserver> observers = new ConcurrentLinkedQueue<>();
+   private final Map<CrawlObserver, Backpressure> backpressures = new ConcurrentHashMap<>();
+   private final Queue<CrawlSubscriber> subscribers = new ConcurrentLinkedQueue<>();
+   private final CrawlSettings settings;
    private final int numThreads;
    private final Parser parser;
+   private final StagedParser stagedParser;
+   private final AsyncParser asyncParser;
+   private final SitemapParser sitemapParser;
+   private final int numFetchThreads;
+   private final int numParseThreads;
+   private final int parseQueueSize;
+   private final boolean virtualThreads;
+   private final int maxInFlightPages;
+   private final CrawlPool pool;
+   private final UrlNormalizer urlNormalizer;
+   private final CrawlMetrics metrics = new CrawlMetrics();
 
    private Worker worker = null;
+   private volatile List<CrawlPage> previousPages = null;
 
    /**
     * Worker that handles the crawling.  This object removes itself from the outer
     * object when done.  This structure allows for minimal synchronization.
+    * The seen URLs are kept in a thread safe set and the number of pages that are
+    * queued or being parsed is kept in an atomic counter, so link admission does
+    * not take a lock.  The crawl is complete when the counter drops to zero.
+    * Queued URLs wait in the frontier, which the crawl threads pull from.
+    * <p>
+    * With a staged parser and fetch threads configured, the crawl runs as two stages:
+    * fetch threads download pages and hand them to parse threads through a bounded
+    * queue.  Otherwise each crawl thread downloads and parses its own pages.
+    * <p>
+    * With virtual threads, the pages are downloaded on a new thread per page instead
+    * of a fixed number of threads, and the number of pages in flight is capped.
+    * With an asynchronous parser, the pages are downloaded by the parser's own I/O
+    * threads and handed to the parse threads, again with a cap on pages in flight.
+    * <p>
+    * With a checkpoint, every crawled page is also written to disk.  A resumed crawl
+    * reports the pages in the checkpoint again and queues the links they found that
+    * were not crawled.  A recrawl also queues the pages of the previous crawl, those
+    * that changed most recently first, and reuses the links of pages whose content
+    * has not changed instead of extracting them again.
+    * <p>
+    * The frontier is wrapped in a host scheduler, so each host gets no more than its
+    * share of requests.  A page throttled by its server is queued again after the host
+    * backs off, and is only processed once it loads or runs out of retries.
+    * <p>
+    * With sitemaps, the robots.txt and sitemaps of the site are read on their own threads
+    * while the crawl runs, and their pages are queued as they are read, so the crawl
+    * threads have work before links are followed and orphan pages are found too.
+    * <p>
+    * With adaptive concurrency, the number of pages crawled at the same time is tuned
+    * by a concurrency controller from the latency, errors, and throughput it sees.
+    * The thread pool is started with the maximum number of threads, and the threads
+    * over the limit wait for a slot.  With virtual threads or an asynchronous parser,
+    * the limit caps the pages in flight instead.
+    * <p>
+    * Crawled pages are published to an observer dispatcher, which calls each observer
+    * on its own thread, so a slow observer only holds up the crawl threads if it asks
+    * for every page and the dispatcher's buffer is full.  The observers are told the
+    * crawl is complete once they have read every page.
+    * <p>
+    * Subscribers get the pages through the same dispatcher, as fast as they ask for
+    * them, and a page is only started while every subscriber has asked for more pages
+    * than are in flight or waiting for it.
+    * <p>
+    * With a crawl pool, the crawl has no threads of its own.  The pool's threads take
+    * its pages in turn with the other sites' crawls, and download and parse each one.
     */
    private class Worker
    {
-      private final String hostUrl;
-      private final ThreadPoolExecutor executor;
+      private final CrawlScope scope;
+      private final ObserverDispatcher dispatcher = createDispatcher();
+      private final PagePublisher publisher = createPublisher(dispatcher, this::wakePoolSite);
+      private final CompletableFuture<CrawlResult> result = new CompletableFuture<>();
+      private final ConcurrencyController concurrency = createConcurrencyController();
+      private final int crawlThreads = (concurrency != null && concurrency.isAdaptive() ? concurrency.getMaxLimit() : numThreads);
+      private final int fetchThreads = (concurrency != null && concurrency.isAdaptive() ? concurrency.getMaxLimit() : numFetchThreads);
+      private final ExecutorService executor;
+      private final ExecutorService parseExecutor;
+      private final ExecutorService sitemapExecutor;
+      private final ExecutorService resumeExecutor;
+      private final StageQueue<FetchedPage> fetchedPages;
       private final Date startTime;
 
-      private final Set<String> urls = new HashSet<>();
-      private int urlsRequested = 0;
-      private int urlsProcessed = 0;
-      private boolean cancelled = false;
+      private final SeenUrlSet urls = createSeenUrlSet();
+      private final HostScheduler frontier = new HostScheduler(createFrontier(),
+            settings.getMaxRequestsPerHost(), settings.getMinRequestDelayMillis());
+      private final Map<String, Integer> throttledUrls = new ConcurrentHashMap<>();
+      private final Set<String> sitemapUrls = ConcurrentHashMap.newKeySet();
+      private final AtomicInteger sitemapPages = new AtomicInteger();
+      private final Map<String, Integer> depths = (settings.isPriorityFrontier() || settings.getMaxDepth() > 0 ?
+            new ConcurrentHashMap<>() : null);
+      private final AtomicInteger pagesQueued = new AtomicInteger();
+      private final Map<String, Long> requestStarts = (settings.isAdaptiveConcurrency() ? new ConcurrentHashMap<>() : null);
+      private final long deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(settings.getTimeBudgetMillis());
+      private final CrawlCheckpoint checkpoint = createCheckpoint();
+      private Map<String, CrawlPage> previousByUrl = null;
+      private final AtomicInteger urlsPending = new AtomicInteger();
+      private volatile boolean cancelled = false;
       private boolean complete = false;
+      private volatile PoolSite poolSite = null;
 
-      public Worker(String hostUrl)
+      public Worker(CrawlScope scope)
       {
-         this.hostUrl = hostUrl;
-         this.executor = new ThreadPoolExecutor(numThreads, numThreads,
-               0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
-               new BasicThreadFactory.Builder().namingPattern("Crawler-%d").daemon(true).build()
-               );
+         this.scope = scope;
+         if (asyncParser != null)
+         {
+            this.executor = createExecutor(1, "Crawler-%d");
+            this.parseExecutor = createExecutor(numParseThreads, "Crawler-Parse-%d");
+            this.fetchedPages = null;
+         }
+         else if (stagedParser == null)
+         {
+            this.executor = (virtualThreads ? createPageExecutor("Crawler-%d") : createExecutor(crawlThreads, "Crawler-%d"));
+            this.parseExecutor = null;
+            this.fetchedPages = null;
+         }
+         else
+         {
+            this.executor = (virtualThreads ? createPageExecutor("Crawler-Fetch-%d") :
+                  createExecutor(fetchThreads, "Crawler-Fetch-%d"));
+            this.parseExecutor = createExecutor(numParseThreads, "Crawler-Parse-%d");
+            this.fetchedPages = new StageQueue<>(parseQueueSize);
+         }
+         this.sitemapExecutor = (sitemapParser != null ? createExecutor(SITEMAP_THREADS, "Crawler-Sitemap-%d") : null);
+         this.resumeExecutor = (checkpoint != null && settings.isResume() && checkpoint.exists() ?
+               createExecutor(1, "Crawler-Resume-%d") : null);
          this.startTime = new Date();
       }
 
       /**
-       * Waits for executor to terminate.
-       * @param timeout Duration to wait for completion.
-       * @param unit Time unit of timeout.
-       * @return True if terminated.
+       * Starts the crawl threads.  The starting URL is handed straight to the first
+       * thread so it is always crawled, even if the crawl is cancelled right away.
+       * Its request still counts against the host's limits.
+       * A resumed crawl queues its pending URLs in the frontier instead, and reports
+       * the pages already crawled once the crawl threads are started.
+       * @param startingUrl URL to start crawling.
        */
-      public boolean awaitTermination(long timeout, TimeUnit unit)
+      public void start(String startingUrl)
       {
-         try
+         startingUrl = normalizeUrl(startingUrl);
+         if (publisher != null)
+            publisher.start();
+         dispatcher.start();
+         metrics.reset();
+         metrics.setGauges(frontier::size, () -> Math.max(urlsPending.get() - frontier.size(), 0));
+
+         String firstUrl = startingUrl;
+         boolean resume = (resumeExecutor != null);
+         long resumedPages = 0;
+         if (resume)
          {
-            return executor.awaitTermination(timeout, unit);
+            // Pending URLs of a resumed crawl are all in the frontier.
+            firstUrl = null;
+            resumedPages = resume(startingUrl);
          }
-         catch (InterruptedException e)
+         else
          {
-            Thread.currentThread().interrupt(); // Preserve interrupted status
-            return true;
+            urls.add(startingUrl);
+            urlsPending.incrementAndGet();
+            pagesQueued.incrementAndGet();
+            if (depths != null)
+               depths.put(startingUrl, 0);
+         }
+
+         previousPages = null;
+         if (checkpoint != null && settings.isRecrawl())
+         {
+            if (!resume)
+               checkpoint.keepAsPrevious();
+            recrawl(startingUrl);
+         }
+
+         if (checkpoint != null)
+            checkpoint.open(startingUrl, resume);
+
+         // The starting URL, or the report of a resumed crawl's pages, is always pending
+         // here, so a crawl with every page already in the checkpoint completes once they
+         // are reported.
+
+         // Sitemap reads count as pending, so they start before a page can complete the crawl.
+         if (sitemapExecutor != null)
+            readRobots(startingUrl);
+
+         if (firstUrl != null)
+         {
+            frontier.acquire(firstUrl);
+            requestStarted(firstUrl);
+         }
+
+         // A small crawl can complete and shut down the executors before all threads are started.
+         if (pool != null)
+         {
+            poolSite = new PoolSite(this, firstUrl);
+            pool.register(poolSite, settings.getSiteWeight());
+         }
+         else if (virtualThreads || asyncParser != null)
+            execute(executor, new PageDispatcher(this, firstUrl));
+         else if (stagedParser == null)
+         {
+            for (int i = 0; i < crawlThreads; ++i)
+               execute(executor, new PageParser(this, (i == 0 ? firstUrl : null)));
+         }
+         else
+         {
+            for (int i = 0; i < fetchThreads; ++i)
+               execute(executor, new PageFetcher(this, (i == 0 ? firstUrl : null)));
+         }
+
+         if (fetchedPages != null)
+         {
+            for (int i = 0; i < numParseThreads; ++i)
+               execute(parseExecutor, new PageExtractor(this));
          }
+
+         if (resume)
+            publishResumedPages(startingUrl, resumedPages);
       }
 
       /**
-       * Cancels the crawl.
-       * @return True if the cancel was successful.
+       * Reads the robots.txt of the starting URL's site on the sitemap threads.  Its
+       * Crawl-delay is set on the site's host, and the sitemaps it lists are read,
+       * or /sitemap.xml if it lists none.
+       * @param startingUrl URL to start crawling.
        */
-      public boolean cancel()
+      private void readRobots(String startingUrl)
       {
-         cancelled = true;
-         executor.shutdownNow();
-
+         String robotsUrl;
+         String defaultSitemapUrl;
          try
          {
-            if (!executor.awaitTermination(10, TimeUnit.SECONDS))
-               return false;
+            robotsUrl = new URL(new URL(startingUrl), "/robots.txt").toExternalForm();
+            defaultSitemapUrl = new URL(new URL(startingUrl), "/sitemap.xml").toExternalForm();
          }
-         catch (InterruptedException ex)
+         catch (MalformedURLException ex)
          {
-            Thread.currentThread().interrupt(); // Preserve interrupted status
-            return false;
+            logger.info("No sitemaps for {}.  CAUSE: {}", startingUrl, ex.toString());
+            return;
          }
 
-         complete();
-         return true;
+         startSitemapTask(() -> {
+            List<String> sitemaps = Collections.emptyList();
+            try
+            {
+               RobotsDetails robots = sitemapParser.parseRobots(robotsUrl);
+               if (robots.getCrawlDelayMillis() > 0)
+                  frontier.setCrawlDelay(HostScheduler.getHostName(robotsUrl), robots.getCrawlDelayMillis());
+               sitemaps = robots.getSitemaps();
+            }
+            catch (IOException ex)
+            {
+               logger.info("Unable to read {}.  CAUSE: {}", robotsUrl, ex.toString());
+            }
+
+            if (sitemaps.isEmpty())
+               sitemaps = Collections.singletonList(defaultSitemapUrl);
+            sitemaps.forEach((url) -> readSitemap(url));
+         });
       }
 
       /**
-       * Submits a task to parse a web page if the URL
-       * has not already been queued for parsing.
-       * @param url URL to the page.
+       * Reads a sitemap on the sitemap threads, unless it has already been read.  Its pages
+       * that are in scope are queued in batches while it is downloaded, and the sitemaps
+       * of a sitemap index are read on the other sitemap threads.
+       * @param url URL to the sitemap.
        */
-      public synchronized void crawlPage(String url)
+      private void readSitemap(String url)
       {
-         url = (!url.endsWith("/") ? url : url.substring(0, url.length() - 1));
-         if (!urls.contains(url))
-         {
-            urls.add(url);
-            ++urlsRequested;
+         if (cancelled || sitemapUrls.size() >= MAX_SITEMAPS || !sitemapUrls.add(url))
+            return;
 
-            executor.submit(new PageParser(url, this));
-         }
+         startSitemapTask(() -> {
+            List<String> pages = new ArrayList<>(SITEMAP_BATCH_SIZE);
+            try
+            {
+               sitemapParser.parseSitemap(url, (pageUrl) -> {
+                  if (isInScope(normalizeUrl(pageUrl)))
+                  {
+                     pages.add(pageUrl);
+                     if (pages.size() >= SITEMAP_BATCH_SIZE)
+                     {
+                        seedPages(pages);
+                        pages.clear();
+                     }
+                  }
+               }, (sitemapUrl) -> readSitemap(sitemapUrl));
+            }
+            catch (IOException ex)
+            {
+               logger.info("Unable to read sitemap {}.  CAUSE: {}", url, ex.toString());
+            }
+            seedPages(pages);
+         });
       }
 
       /**
-       * Crawls a list of web pages.
-       * @param urls URLs to crawl.
+       * Queues pages read from a sitemap, up to the maximum number of sitemap URLs.
+       * @param urls URLs to the pages.
        */
-      public synchronized void crawlPages(List<String> urls)
+      private void seedPages(List<String> urls)
       {
-         if (urls != null && !urls.isEmpty())
-            urls.forEach((url) -> crawlPage(url));
+         int maxUrls = (settings.getMaxSitemapUrls() > 0 ? settings.getMaxSitemapUrls() : CrawlSettings.DEFAULT_MAX_SITEMAP_URLS);
+         int allowed = Math.min(urls.size(), maxUrls - sitemapPages.getAndAdd(urls.size()));
+         if (allowed > 0)
+            crawlPages(urls.subList(0, allowed), 1);
       }
 
       /**
-       * Returns if the crawl has been cancelled.
-       * @return True if cancelled.
+       * Runs a task on the sitemap threads.  The task counts as a pending page until it
+       * is done, so the crawl does not complete while sitemaps are still being read.
+       * @param task Task to run.
        */
-      public boolean isCancelled()
+      private void startSitemapTask(Runnable task)
       {
-         return cancelled;
+         urlsPending.incrementAndGet();
+         boolean started = execute(sitemapExecutor, () -> {
+            try
+            {
+               task.run();
+            }
+            finally
+            {
+               pageProcessed();
+            }
+         });
+
+         if (!started)
+            pageProcessed();
       }
 
       /**
-       * Returns if a URL is a domain URL.
-       * @param url URL to check.
-       * @return True if domain URL.
+       * Restores the crawl in the checkpoint.  The pages already crawled are marked as
+       * seen.  Then the starting URL and the internal links of those pages that are not
+       * yet seen are queued.  The checkpoint is read twice so a link is not queued before
+       * the page it points to is found.  Reporting the pages counts as pending until
+       * publishResumedPages is done.  Must be called before the crawl threads start.
+       * @param startingUrl URL the crawl started from.
+       * @return Number of pages in the checkpoint.
        */
-      public boolean isDomainUrl(String url)
+      private long resume(String startingUrl)
       {
-         return (url.toLowerCase().startsWith(hostUrl));
+         long pages = checkpoint.read(startingUrl, (page) -> urls.add(normalizeUrl(page.getUrl())));
+
+         admit(startingUrl, 0);
+         checkpoint.read(startingUrl, (page) -> parseUrls(page.getInternalLinks(), (url) -> admit(url, 1)));
+         urlsPending.incrementAndGet();
+
+         logger.info("Resuming crawl of {} with {} pages crawled and {} pending.", startingUrl, pages, urlsPending.get() - 1);
+         return pages;
       }
 
       /**
-       * Marks a page as processed and returns if the crawl has completed.
-       * @return True if completed.
+       * Reports the pages of a resumed checkpoint to the observers on the resume thread.
+       * Observers and subscribers may take them slower than they are read, so start
+       * does not wait for them.  Only the pages there when the crawl resumed are read,
+       * not those the crawl has written since.
+       * @param startingUrl URL the crawl started from.
+       * @param pages Number of pages in the checkpoint when the crawl resumed.
        */
-      public synchronized boolean pageProcessed()
+      private void publishResumedPages(String startingUrl, long pages)
       {
-         ++urlsProcessed;
-         return (urlsProcessed == urlsRequested);
+         boolean started = execute(resumeExecutor, () -> {
+            try
+            {
+               checkpoint.read(startingUrl, (page) -> {
+                  if (!cancelled)
+                     publishPage(page);
+               }, pages);
+            }
+            finally
+            {
+               pageProcessed();
+            }
+         });
+
+         if (!started)
+            pageProcessed();
       }
 
       /**
-       * Marks the crawl as complete, notifies observers of the completion,
-       * cleans up, and removes itself from the outer class.
+       * Loads the pages of the previous crawl and queues those not yet seen.  Pages that
+       * changed in fewer of the crawls before are more likely to have changed again, so
+       * they are queued first.  Must be called before the crawl threads start.
+       * @param startingUrl URL the crawl started from.
        */
-      public synchronized void complete()
+      private void recrawl(String startingUrl)
       {
-         if (complete)
-            return;
+         Map<String, CrawlPage> pages = new LinkedHashMap<>();
+         checkpoint.readPrevious(startingUrl, (page) -> pages.put(normalizeUrl(page.getUrl()), page));
 
-         long durationMillis = System.currentTimeMillis() - startTime.getTime();
+         List<CrawlPage> ordered = new ArrayList<>(pages.values());
+         ordered.sort(Comparator.comparingInt(CrawlPage::getUnchangedCrawls));
+         ordered.forEach((page) -> admit(page.getUrl(), 1));
 
-         complete = true;
-         executor.shutdown();
+         previousByUrl = pages;
+         previousPages = Collections.unmodifiableList(new ArrayList<>(pages.values()));
+         logger.info("Recrawling {} with {} pages from the previous crawl.", startingUrl, pages.size());
+      }
 
-         observers.stream().forEach((observer) -> observer.onComplete(startTime, durationMillis, cancelled));
+      /**
+       * Queues a URL if it has not been seen and the page budget allows.  Used before the
+       * crawl threads start.  The depth of the pages found in a checkpoint is not known,
+       * so they are queued as if linked from the starting URL.
+       * @param url URL to queue.
+       * @param depth Number of links from the starting URL.
+       */
+      private void admit(String url, int depth)
+      {
+         url = normalizeUrl(url);
+         if (urls.add(url) && reservePages(1) > 0)
+         {
+            urlsPending.incrementAndGet();
+            queue(url, depth);
+         }
+      }
 
-         // Delete the current worker from the outer class.
-         worker = null;
+      /**
+       * Returns if the crawl is a recrawl, so unchanged pages can be found before they are extracted.
+       * @return True if a recrawl.
+       */
+      public boolean isRecrawl()
+      {
+         return (previousByUrl != null);
       }
-   }
 
-   /**
-    * Task that runs in the thread pool to process each web page.
-    */
-   private class PageParser implements Runnable
-   {
-      private final String url;
-      private final Worker worker;
+      /**
+       * Returns the page of a URL in the previous crawl.
+       * @param url URL to the page.
+       * @return Previous page or null if not a recrawl or the page was not crawled before.
+       */
+      public CrawlPage getPreviousPage(String url)
+      {
+         return (previousByUrl != null ? previousByUrl.get(url) : null);
+      }
 
-      public PageParser(String url, Worker worker)
+      /**
+       * Publishes a crawled page to the observers.
+       * @param page Crawled page.
+       */
+      public void publishPage(CrawlPage page)
       {
-         this.url = url;
-         this.worker = worker;
+         if (publisher != null)
+            publisher.pagePublished();
+         dispatcher.publish(page);
       }
 
       /**
-       * Parses the web page, notifies observers of the page, add domain links
-       * to queue for parsing, and determines if the crawl is complete.
+       * Writes a crawled page to the checkpoint, if there is one.  A page that cannot be
+       * written is logged and left out of the checkpoint.
+       * @param page Crawled page.
        */
-      @Override
-      public void run()
+      public void saveCheckpoint(CrawlPage page)
       {
+         if (checkpoint == null)
+            return;
+
          try
          {
-            PageDetails pageDetails = parser.parse(url);
-            if (worker.isCancelled())
-               return;
-
-            CrawlPage crawlPage = buildCrawlPage(url, pageDetails);
-            observers.stream().forEach((observer) -> observer.onPage(crawlPage));
-
-            Set<LinkDetails> links = pageDetails.getLinks();
-            if (links != null && !links.isEmpty())
-            {
-               List<String> domainLinks = new LinkedList<>();
-               for (LinkDetails link : links)
-               {
-                  String linkUrl = link.getUrl();
-                  if (worker.isDomainUrl(linkUrl))
-                     domainLinks.add(linkUrl);
-               }
-               worker.crawlPages(domainLinks);
-            }
-
-            if (worker.pageProcessed())
-               worker.complete();
+            checkpoint.write(page);
          }
-         catch (Exception ex)
+         catch (RuntimeException ex)
          {
-            logger.error(String.format("Error parsing %s.", url), ex);
+            // The page is still crawled, and its links followed, without its record.
+            logger.error(String.format("Error saving %s to the checkpoint.", page.getUrl()), ex);
          }
       }
 
       /**
-       * Creates a crawl page for a parsed page.
-       * @param url URL that was parsed.
-       * @param pageDetails Page details.
-       * @return
+       * Runs a task on the thread of a new page.
+       * @param task Task to run.
+       * @return True if started or false if the crawl is complete.
        */
-      private CrawlPage buildCrawlPage(String url, PageDetails pageDetails)
+      public boolean startPage(Runnable task)
       {
-         CrawlPage crawlPage = new CrawlPage();
+         return execute(executor, task);
+      }
 
-         crawlPage.setUrl(url);
-         crawlPage.setLoadError(pageDetails.getLoadError());
-         crawlPage.setTitle(pageDetails.getTitle());
+      /**
+       * Runs a task on the parse threads.
+       * @param task Task to run.
+       * @return True if started or false if the crawl is complete.
+       */
+      public boolean startExtract(Runnable task)
+      {
+         return execute(parseExecutor, task);
+      }
 
-         // Split page links into internal and external links
-         List<String> internalLinks = new LinkedList<>();
-         List<String> externalLinks = new LinkedList<>();
-         parseLinks(pageDetails.getLinks(), (link) -> {
-            String linkUrl = link.getUrl();
-            if (worker.isDomainUrl(linkUrl))
-               internalLinks.add(linkUrl);
-            else
-               externalLinks.add(linkUrl);
-         });
+      /**
+       * Waits for executors to terminate.
+       * @param timeout Duration to wait for completion.
+       * @param unit Time unit of timeout.
+       * @return True if terminated.
+       */
+      public boolean awaitTermination(long timeout, TimeUnit unit)
+      {
+         try
+         {
+            long deadline = System.nanoTime() + unit.toNanos(timeout);
+            if (!executor.awaitTermination(timeout, unit))
+               return false;
 
-         if (!internalLinks.isEmpty())
-            crawlPage.setInternalLinks(internalLinks);
+            // With a crawl pool the executor runs nothing and is shut down by completing or
+            // cancelling, so the pages still on the pool's threads are waited for instead.
+            // The resume thread may complete the crawl, so it is waited for too.
+            if (resumeExecutor != null && !resumeExecutor.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS))
+               return false;
 
-         if (!externalLinks.isEmpty())
-            crawlPage.setExternalLinks(externalLinks);
+            PoolSite site = poolSite;
+            if (site != null)
+               return pool.awaitIdle(site, deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
 
-         // Add all page imports and media as content links
-         List<String> contentLinks = new LinkedList<>();
-         parseLinks(pageDetails.getImports(), (link) -> {
-            contentLinks.add(link.getUrl());
-         });
+            return (parseExecutor == null ||
+                  parseExecutor.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS));
+         }
+         catch (InterruptedException e)
+         {
+            Thread.currentThread().interrupt(); // Preserve interrupted status
+            return true;
+         }
+      }
 
-         parseLinks(pageDetails.getMedia(), (link) -> {
-            contentLinks.add(link.getUrl());
-         });
+      /**
+       * Cancels the crawl.
+       * @return True if the cancel was successful.
+       */
+      public boolean cancel()
+      {
+         cancelled = true;
+         // Subscribers that stopped asking for pages must not hold up the crawl threads or completion.
+         if (publisher != null)
+            publisher.abort();
+         executor.shutdownNow();
+         if (parseExecutor != null)
+            parseExecutor.shutdownNow();
+         // Sitemap reads are not waited for.  They queue nothing once the crawl is cancelled.
+         if (sitemapExecutor != null)
+            sitemapExecutor.shutdownNow();
+         // Stops reporting the resumed pages.
+         if (resumeExecutor != null)
+            resumeExecutor.shutdownNow();
+         if (poolSite != null)
+            pool.unregister(poolSite);
 
-         if (!contentLinks.isEmpty())
-            crawlPage.setContentLinks(contentLinks);
+         if (!awaitTermination(10, TimeUnit.SECONDS) || Thread.currentThread().isInterrupted())
+            return false;
 
-         return crawlPage;
+         complete();
+         return true;
       }
-   }
 
-   /**
-    * Performs an action on every link in a list.
-    * @param links List of links.
-    * @param action Action to perform.
-    */
-   private static void parseLinks(Set<LinkDetails> links, Consumer<? super LinkDetails> action)
-   {
-      if (links != null && !links.isEmpty())
-         links.forEach(action);
-   }
+      /**
+       * Crawls the internal links of a crawled page, one link deeper than the page.
+       * @param url URL to the crawled page.
+       * @param links URLs the page links to.
+       */
+      public void crawlLinks(String url, List<String> links)
+      {
+         Integer depth = (depths != null ? depths.remove(url) : null);
+         crawlPages(links, (depth != null ? depth + 1 : 1));
+      }
 
-   /**
-    * Constructs a new web crawler.
-    * @param numThreads Number of threads to use.  Value < MIN_THREADS defaults to MIN_THREADS.
-    * @param parser Web page parser to use.
-    */
-   public CrawlerImpl(int numThreads, Parser parser)
-   {
-      if (parser == null)
-         throw new IllegalArgumentException("Null parser.");
+      /**
+       * Crawls a list of web pages.  The new URLs are admitted as a batch so the
+       * pending counter is only updated once per page.  Pages past the maximum depth,
+       * over the page budget, or found after the time budget is spent are not crawled.
+       * Links to pages already seen count towards the priority of those still queued.
+       * @param urls URLs to crawl.
+       * @param depth Number of links from the starting URL.
+       */
+      public void crawlPages(List<String> urls, int depth)
+      {
+         if (urls == null || urls.isEmpty() || cancelled || isOverTime() ||
+               (settings.getMaxDepth() > 0 && depth > settings.getMaxDepth()))
+            return;
 
-      this.numThreads = (numThreads >= MIN_THREADS ? numThreads : MIN_THREADS);
-      this.parser = parser;
-   }
+         List<String> admitted = new ArrayList<>(urls.size());
+         for (String url : urls)
+         {
+            url = normalizeUrl(url);
+            if (this.urls.add(url))
+               admitted.add(url);
+            else if (depths != null)
+               frontier.linkFound(url);
+         }
 
-   @Override
-   public void addObserver(CrawlObserver observer)
-   {
-      if (observer == null)
-         throw new IllegalArgumentException("Null observer.");
+         int allowed = reservePages(admitted.size());
+         if (allowed <= 0)
+            return;
 
-      observers.add(observer);
-   }
+         urlsPending.addAndGet(allowed);
+         admitted.subList(0, allowed).forEach((url) -> queue(url, depth));
+      }
 
-   @Override
-   public synchronized void start(String startingUrl) throws MalformedURLException
-   {
-      if (worker != null)
-         throw new IllegalStateException("The crawler is already started.");
+      /**
+       * Takes pages from the page budget.
+       * @param count Number of pages wanted.
+       * @return Number of pages allowed, which is less than wanted once the budget runs out.
+       */
+      private int reservePages(int count)
+      {
+         if (settings.getMaxPages() <= 0 || count <= 0)
+            return count;
 
-      if (startingUrl != null)
-         startingUrl = startingUrl.trim().toLowerCase();
+         int queued = pagesQueued.getAndAdd(count);
+         return Math.max(Math.min(count, settings.getMaxPages() - queued), 0);
+      }
+
+      /**
+       * Returns if the time budget of the crawl is spent.
+       * @return True if no new pages are started.
+       */
+      private boolean isOverTime()
+      {
+         return (settings.getTimeBudgetMillis() > 0 && System.nanoTime() - deadlineNanos >= 0);
+      }
+
+      /**
+       * Adds an admitted URL to the frontier.  If the frontier fails, the URL is
+       * no longer pending so the crawl can still complete.
+       * @param url URL to the page.
+       * @param depth Number of links from the starting URL.
+       */
+      private void queue(String url, int depth)
+      {
+         try
+         {
+            if (depths != null)
+               depths.put(url, depth);
+            frontier.add(url, depth);
+         }
+         catch (RuntimeException ex)
+         {
+            urlsPending.decrementAndGet();
+            throw ex;
+         }
+
+         wakePoolSite();
+      }
+
+      /**
+       * Wakes the crawl pool's site of this crawl, because it may have a page ready.
+       */
+      private void wakePoolSite()
+      {
+         PoolSite site = poolSite;
+         if (site != null)
+            pool.wake(site);
+      }
+
+      /**
+       * Returns the next URL to crawl, waiting until one is available.
+       * @return Next URL or null if the crawl is complete.
+       * @throws InterruptedException If interrupted while waiting.
+       */
+      public String nextUrl() throws InterruptedException
+      {
+         String url = null;
+         while (url == null && !frontier.isClosed())
+         {
+            url = frontier.poll(1, TimeUnit.SECONDS);
+            if (url != null && !admitUrl(url))
+               url = null;
+         }
+         return url;
+      }
+
+      /**
+       * Returns the next URL to crawl without waiting.  It must be passed to admitUrl
+       * before it is crawled.
+       * @param readyNanos Set to the time in nanoseconds until a host that must wait is ready, or -1 if none.
+       * @return Next URL or null if none is ready.
+       * @throws InterruptedException If interrupted while waiting for the frontier.
+       */
+      public String pollUrl(long[] readyNanos) throws InterruptedException
+      {
+         return frontier.poll(readyNanos);
+      }
+
+      /**
+       * Counts the request for a URL taken from the frontier as started, unless the
+       * time budget is spent.
+       * @param url URL to the page.
+       * @return True if the page is to be crawled or false if it was dropped.
+       */
+      public boolean admitUrl(String url)
+      {
+         if (isOverTime())
+         {
+            // Once the time budget is spent, queued pages are dropped so the crawl
+            // completes when the pages in flight are done.
+            frontier.release(url, false, 0);
+            if (depths != null)
+               depths.remove(url);
+            pageProcessed();
+            return false;
+         }
+
+         requestStarted(url);
+         return true;
+      }
+
+      /**
+       * Takes a slot of the concurrency limit, waiting until one is free and the
+       * subscribers have asked for another page.  Without a concurrency controller or
+       * subscribers there is no limit.
+       * @return True if taken or false if the crawl is complete.
+       * @throws InterruptedException If interrupted while waiting.
+       */
+      public boolean acquireSlot() throws InterruptedException
+      {
+         if (publisher != null && !publisher.acquire())
+            return false;
+         if (concurrency == null || concurrency.acquire())
+            return true;
+
+         if (publisher != null)
+            publisher.release();
+         return false;
+      }
+
+      /**
+       * Takes a slot of the concurrency limit if one is free and the subscribers have
+       * asked for another page, without waiting.
+       * @return True if taken or false if none is free.
+       */
+      public boolean tryAcquireSlot()
+      {
+         if (publisher != null && !publisher.tryAcquire())
+            return false;
+         if (concurrency == null || concurrency.tryAcquire())
+            return true;
+
+         if (publisher != null)
+            publisher.release();
+         return false;
+      }
+
+      /**
+       * Gives back a slot of the concurrency limit.
+       */
+      public void releaseSlot()
+      {
+         if (concurrency != null)
+            concurrency.release();
+         if (publisher != null)
+            publisher.release();
+      }
+
+      /**
+       * Counts the request for a page as started, so its latency can be measured by
+       * an adaptive concurrency controller.
+       * @param url URL to the page.
+       */
+      private void requestStarted(String url)
+      {
+         if (requestStarts == null)
+            return;
+
+         requestStarts.put(url, System.nanoTime());
+         concurrency.requestStarted();
+      }
+
+      /**
+       * Counts the request for a page as done, so the next request to its host can start.
+       * A throttled page is queued again, after its host backs off, until it has been
+       * throttled more times than the retry limit.
+       * @param url URL to the page.
+       * @param failed True if the page failed to load.
+       * @param throttled True if the server throttled the request.
+       * @param retryAfterMillis Delay the server asked for.  Value <= 0 means the default back off.
+       * @return True if the page was queued again and must not be processed.
+       */
+      public boolean requestDone(String url, boolean failed, boolean throttled, long retryAfterMillis)
+      {
+         frontier.release(url, throttled, retryAfterMillis);
+         if (requestStarts != null)
+         {
+            Long startNanos = requestStarts.remove(url);
+            if (startNanos != null)
+               concurrency.requestDone(System.nanoTime() - startNanos, failed, throttled);
+         }
+
+         if (!throttled)
+         {
+            if (!throttledUrls.isEmpty())
+               throttledUrls.remove(url);
+            return false;
+         }
+
+         if (cancelled || throttledUrls.merge(url, 1, Integer::sum) > settings.getMaxThrottleRetries())
+         {
+            throttledUrls.remove(url);
+            return false;
+         }
+
+         frontier.add(url, getDepth(url));
+         return true;
+      }
+
+      /**
+       * Gets the link depth of a queued or crawling page.
+       * @param url URL to the page.
+       * @return Number of links from the starting URL.  0 if not known.
+       */
+      private int getDepth(String url)
+      {
+         Integer depth = (depths != null ? depths.get(url) : null);
+         return (depth != null ? depth : 0);
+      }
+
+      /**
+       * Hands a downloaded page to the parse stage, waiting while the parse stage is full.
+       * @param page Fetched page.
+       * @return True if queued or false if the crawl is complete.
+       * @throws InterruptedException If interrupted while waiting.
+       */
+      public boolean pageFetched(FetchedPage page) throws InterruptedException
+      {
+         return fetchedPages.put(page);
+      }
+
+      /**
+       * Returns the next downloaded page to parse, waiting until one is available.
+       * @return Next fetched page or null if the crawl is complete.
+       * @throws InterruptedException If interrupted while waiting.
+       */
+      public FetchedPage nextFetchedPage() throws InterruptedException
+      {
+         FetchedPage page = null;
+         while (page == null && !fetchedPages.isClosed())
+            page = fetchedPages.poll(1, TimeUnit.SECONDS);
+         return page;
+      }
+
+      /**
+       * Returns if the crawl has been cancelled.
+       * @return True if cancelled.
+       */
+      public boolean isCancelled()
+      {
+         return cancelled;
+      }
+
+      /**
+       * Returns if a URL is in the scope of the crawl.
+       * @param url URL to check.
+       * @return True if in scope.
+       */
+      public boolean isInScope(String url)
+      {
+         return scope.contains(url);
+      }
+
+      /**
+       * Marks a page as processed and completes the crawl if it was the last page.
+       */
+      public void pageProcessed()
+      {
+         // A failed page still counts as processed, otherwise the crawl never completes.
+         if (!cancelled && urlsPending.decrementAndGet() == 0)
+            complete();
+      }
+
+      /**
+       * Gets the future completed with the result of the crawl.
+       * @return Future of the crawl's result.
+       */
+      public CompletableFuture<CrawlResult> getResult()
+      {
+         return result;
+      }
+
+      /**
+       * Marks the crawl as complete, notifies observers of the completion,
+       * cleans up, removes itself from the outer class, and completes the future of
+       * its result.
+       */
+      public synchronized void complete()
+      {
+         if (complete)
+            return;
+
+         long durationMillis = System.currentTimeMillis() - startTime.getTime();
+
+         complete = true;
+         metrics.setGauges(null, null);
+         frontier.close();
+         if (concurrency != null)
+            concurrency.close();
+         if (publisher != null)
+            publisher.close();
+         if (checkpoint != null)
+            checkpoint.close();
+         executor.shutdown();
+         if (poolSite != null)
+            pool.unregister(poolSite);
+         if (fetchedPages != null)
+            fetchedPages.close();
+         if (parseExecutor != null)
+            parseExecutor.shutdown();
+         if (sitemapExecutor != null)
+            sitemapExecutor.shutdown();
+         if (resumeExecutor != null)
+            resumeExecutor.shutdown();
+
+         dispatcher.close();
+         for (CrawlObserver observer : observers)
+         {
+            long dropped = dispatcher.getDroppedPages(observer);
+            if (dropped > 0)
+               logger.warn("Crawl observer {} fell behind and missed {} pages.", observer, dropped);
+         }
+
+         observers.stream().forEach((observer) -> observer.onComplete(startTime, durationMillis, cancelled));
+         if (publisher != null)
+            publisher.complete(startTime, durationMillis, cancelled);
+
+         // Delete the current worker from the outer class.
+         worker = null;
+
+         // Completed last, so whatever runs on completion can start the next crawl.
+         result.complete(new CrawlResult(startTime, durationMillis, cancelled));
+      }
+   }
+
+   /**
+    * Base of the tasks that hand parsed pages to the observers and queue their domain links.
+    */
+   private abstract class PageTask implements Runnable
+   {
+      protected final Worker worker;
+
+      public PageTask(Worker worker)
+      {
+         this.worker = worker;
+      }
+
+      /**
+       * Notifies observers of a parsed page, adds domain links
+       * to queue for parsing, and determines if the crawl is complete.
+       * @param url URL to the page.
+       * @param pageDetails Page details.
+       */
+      protected void pageParsed(String url, PageDetails pageDetails)
+      {
+         long start = System.nanoTime();
+         CrawlPage crawlPage = buildCrawlPage(url, pageDetails);
+
+         CrawlPage previous = worker.getPreviousPage(url);
+         if (previous != null && crawlPage.getContentHash() != null && crawlPage.getContentHash().equals(previous.getContentHash()))
+            crawlPage.setUnchangedCrawls(previous.getUnchangedCrawls() + 1);
+
+         pageCrawled(crawlPage, System.nanoTime() - start);
+      }
+
+      /**
+       * Reports a page of a recrawl whose content is the same as in the previous crawl.
+       * The previous page is reported again so its links are not extracted again.
+       * @param page Fetched page.
+       * @return True if the page is unchanged and has been processed.
+       */
+      protected boolean pageUnchanged(FetchedPage page)
+      {
+         CrawlPage previous = worker.getPreviousPage(page.getUrl());
+         if (previous == null || page.getLoadError() != null || page.getContentHash() == null ||
+               !page.getContentHash().equals(previous.getContentHash()))
+            return false;
+
+         CrawlPage crawlPage = new CrawlPage();
+         crawlPage.setUrl(page.getUrl());
+         crawlPage.setTitle(previous.getTitle());
+         crawlPage.setContentHash(previous.getContentHash());
+         crawlPage.setUnchangedCrawls(previous.getUnchangedCrawls() + 1);
+         crawlPage.setInternalLinks(previous.getInternalLinks());
+         crawlPage.setExternalLinks(previous.getExternalLinks());
+         crawlPage.setContentLinks(previous.getContentLinks());
+
+         pageCrawled(crawlPage, 0);
+         return true;
+      }
+
+      /**
+       * Publishes a crawled page to the observers, writes it to the checkpoint, and adds
+       * its internal links to queue for parsing.  The time taken to publish the page and
+       * write the checkpoint is recorded as the dispatch stage, and the time taken to
+       * route the links as the route stage.
+       * @param crawlPage Crawled page.
+       * @param routeNanos Time, in nanoseconds, already spent routing the page.
+       */
+      private void pageCrawled(CrawlPage crawlPage, long routeNanos)
+      {
+         long start = System.nanoTime();
+         worker.publishPage(crawlPage);
+         worker.saveCheckpoint(crawlPage);
+         long dispatched = System.nanoTime();
+         metrics.record(CrawlStage.DISPATCH, dispatched - start);
+
+         worker.crawlLinks(crawlPage.getUrl(), crawlPage.getInternalLinks());
+         metrics.record(CrawlStage.ROUTE, routeNanos + System.nanoTime() - dispatched);
+         metrics.pageCrawled(crawlPage.getLoadError() != null);
+      }
+
+      /**
+       * Creates a crawl page for a parsed page.
+       * @param url URL that was parsed.
+       * @param pageDetails Page details.
+       * @return
+       */
+      private CrawlPage buildCrawlPage(String url, PageDetails pageDetails)
+      {
+         CrawlPage crawlPage = new CrawlPage();
+
+         crawlPage.setUrl(url);
+         crawlPage.setLoadError(pageDetails.getLoadError());
+         crawlPage.setSkipMessage(pageDetails.getSkipMessage());
+         crawlPage.setTitle(pageDetails.getTitle());
+         crawlPage.setContentHash(pageDetails.getContentHash());
+
+         // Split page links into internal and external links
+         List<String> internalLinks = new LinkedList<>();
+         List<String> externalLinks = new LinkedList<>();
+         parseLinks(pageDetails.getLinks(), (link) -> {
+            String linkUrl = link.getUrl();
+            if (worker.isInScope(normalizeUrl(linkUrl)))
+               internalLinks.add(linkUrl);
+            else
+               externalLinks.add(linkUrl);
+         });
+
+         if (!internalLinks.isEmpty())
+            crawlPage.setInternalLinks(internalLinks);
+
+         if (!externalLinks.isEmpty())
+            crawlPage.setExternalLinks(externalLinks);
+
+         // Add all page imports and media as content links
+         List<String> contentLinks = new LinkedList<>();
+         parseLinks(pageDetails.getImports(), (link) -> {
+            contentLinks.add(link.getUrl());
+         });
+
+         parseLinks(pageDetails.getMedia(), (link) -> {
+            contentLinks.add(link.getUrl());
+         });
+
+         if (!contentLinks.isEmpty())
+            crawlPage.setContentLinks(contentLinks);
+
+         return crawlPage;
+      }
+   }
+
+   /**
+    * Task that runs in the thread pool and downloads and parses the web pages
+    * pulled from the frontier until the crawl is complete.
+    */
+   private class PageParser extends PageTask
+   {
+      private final String firstUrl;
+
+      public PageParser(Worker worker, String firstUrl)
+      {
+         super(worker);
+         this.firstUrl = firstUrl;
+      }
+
+      @Override
+      public void run()
+      {
+         try
+         {
+            // The starting URL does not wait for a slot, since the other threads may hold
+            // them all while they wait for the links it finds.
+            if (firstUrl != null)
+               parsePage(firstUrl);
+
+            while (!worker.isCancelled() && worker.acquireSlot())
+            {
+               try
+               {
+                  String url = worker.nextUrl();
+                  if (url == null)
+                     break;
+                  parsePage(url);
+               }
+               finally
+               {
+                  worker.releaseSlot();
+               }
+            }
+         }
+         catch (InterruptedException ex)
+         {
+            Thread.currentThread().interrupt(); // Preserve interrupted status
+         }
+      }
+
+      /**
+       * Parses the web page and processes the result.
+       * @param url URL to the page.
+       */
+      public void parsePage(String url)
+      {
+         boolean requestDone = false;
+         boolean retry = false;
+         try
+         {
+            PageDetails pageDetails;
+            if (parser instanceof StagedParser)
+            {
+               // Fetch first, so the download is timed on its own and an unchanged page is not extracted.
+               StagedParser pageParser = (StagedParser)parser;
+               FetchedPage page = pageParser.fetch(url);
+               requestDone = true;
+               metrics.pageFetched(page);
+               retry = worker.requestDone(url, (page.getLoadError() != null), page.isThrottled(), page.getRetryAfterMillis());
+               if (retry || worker.isCancelled() || pageUnchanged(page))
+                  return;
+
+               long start = System.nanoTime();
+               pageDetails = pageParser.extract(page);
+               metrics.record(CrawlStage.PARSE, System.nanoTime() - start);
+            }
+            else
+            {
+               long start = System.nanoTime();
+               pageDetails = parser.parse(url);
+               metrics.record(CrawlStage.PARSE, System.nanoTime() - start);
+               requestDone = true;
+               retry = worker.requestDone(url, (pageDetails.getLoadError() != null), pageDetails.isThrottled(), pageDetails.getRetryAfterMillis());
+               if (retry)
+                  return;
+            }
+
+            if (worker.isCancelled())
+               return;
+
+            pageParsed(url, pageDetails);
+         }
+         catch (Exception ex)
+         {
+            logger.error(String.format("Error parsing %s.", url), ex);
+         }
+         finally
+         {
+            if (!requestDone)
+               worker.requestDone(url, true, false, 0);
+            if (!retry)
+               worker.pageProcessed();
+         }
+      }
+   }
+
+   /**
+    * Task of the fetch stage.  Downloads the web pages pulled from the frontier
+    * and hands them to the parse stage until the crawl is complete.
+    */
+   private class PageFetcher implements Runnable
+   {
+      private final Worker worker;
+      private final String firstUrl;
+
+      public PageFetcher(Worker worker, String firstUrl)
+      {
+         this.worker = worker;
+         this.firstUrl = firstUrl;
+      }
+
+      @Override
+      public void run()
+      {
+         try
+         {
+            // The starting URL does not wait for a slot, since the other threads may hold
+            // them all while they wait for the links it finds.
+            if (firstUrl != null)
+               fetchPage(firstUrl);
+
+            while (!worker.isCancelled() && worker.acquireSlot())
+            {
+               try
+               {
+                  String url = worker.nextUrl();
+                  if (url == null)
+                     break;
+                  fetchPage(url);
+               }
+               finally
+               {
+                  worker.releaseSlot();
+               }
+            }
+         }
+         catch (InterruptedException ex)
+         {
+            Thread.currentThread().interrupt(); // Preserve interrupted status
+         }
+      }
+
+      /**
+       * Downloads the web page and hands it to the parse stage.
+       * @param url URL to the page.
+       * @throws InterruptedException If interrupted while waiting for the parse stage.
+       */
+      public void fetchPage(String url) throws InterruptedException
+      {
+         boolean requestDone = false;
+         boolean queued = false;
+         try
+         {
+            FetchedPage page = stagedParser.fetch(url);
+            requestDone = true;
+            metrics.pageFetched(page);
+
+            // A throttled page queued again in the frontier is not processed yet either.
+            queued = (worker.requestDone(url, (page.getLoadError() != null), page.isThrottled(), page.getRetryAfterMillis()) ||
+                  worker.pageFetched(page));
+         }
+         catch (RuntimeException ex)
+         {
+            logger.error(String.format("Error fetching %s.", url), ex);
+         }
+         finally
+         {
+            if (!requestDone)
+               worker.requestDone(url, true, false, 0);
+            if (!queued)
+               worker.pageProcessed();
+         }
+      }
+   }
+
+   /**
+    * Task that pulls URLs from the frontier and starts a new thread or asynchronous
+    * download for each page, waiting while the maximum number of pages are in flight.
+    * URLs stay in the frontier until a page can start, so a spilling frontier still
+    * bounds memory.  A page is in flight until it is parsed.
+    */
+   private class PageDispatcher implements Runnable
+   {
+      private final Worker worker;
+      private final String firstUrl;
+      private final PageParser pageParser;
+      private final PageFetcher pageFetcher;
+      private final PageExtractor pageExtractor;
+
+      public PageDispatcher(Worker worker, String firstUrl)
+      {
+         this.worker = worker;
+         this.firstUrl = firstUrl;
+         this.pageParser = new PageParser(worker, null);
+         this.pageFetcher = new PageFetcher(worker, null);
+         this.pageExtractor = new PageExtractor(worker);
+      }
+
+      @Override
+      public void run()
+      {
+         try
+         {
+            String url = (firstUrl != null ? firstUrl : worker.nextUrl());
+            boolean acquired = worker.acquireSlot();
+            while (url != null && acquired && startPage(url))
+            {
+               if (worker.isCancelled() || !worker.acquireSlot())
+                  break;
+
+               url = worker.nextUrl();
+            }
+         }
+         catch (InterruptedException ex)
+         {
+            Thread.currentThread().interrupt(); // Preserve interrupted status
+         }
+      }
+
+      /**
+       * Starts downloading a page.  An asynchronous parser downloads it on its I/O
+       * threads.  Otherwise a new thread downloads the page and either parses it or
+       * hands it to the parse stage.
+       * @param url URL to the page.
+       * @return True if started or false if the crawl is complete.
+       */
+      private boolean startPage(String url)
+      {
+         if (asyncParser != null)
+         {
+            try
+            {
+               asyncParser.fetchAsync(url).whenComplete((page, ex) -> pageFetched(url, page, ex));
+            }
+            catch (RuntimeException ex)
+            {
+               pageFetched(url, null, ex);
+            }
+            return true;
+         }
+
+         boolean started = worker.startPage(() -> {
+            try
+            {
+               if (stagedParser == null)
+                  pageParser.parsePage(url);
+               else
+                  pageFetcher.fetchPage(url);
+            }
+            catch (InterruptedException ex)
+            {
+               Thread.currentThread().interrupt(); // Preserve interrupted status
+            }
+            finally
+            {
+               worker.releaseSlot();
+            }
+         });
+
+         if (!started)
+         {
+            worker.requestDone(url, false, false, 0);
+            worker.releaseSlot();
+         }
+
+         return started;
+      }
+
+      /**
+       * Hands a page downloaded by the asynchronous parser to the parse threads.
+       * Runs on an I/O thread of the parser, so it must not block.
+       * @param url URL to the page.
+       * @param page Fetched page.  Null if the download failed.
+       * @param cause Cause of a failed download.
+       */
+      private void pageFetched(String url, FetchedPage page, Throwable cause)
+      {
+         if (page != null)
+            metrics.pageFetched(page);
+         if (worker.requestDone(url, (page == null || page.getLoadError() != null), (page != null && page.isThrottled()),
+               (page != null ? page.getRetryAfterMillis() : 0)))
+         {
+            worker.releaseSlot();
+            return;
+         }
+
+         if (cause == null && worker.startExtract(() -> {
+            try
+            {
+               pageExtractor.extractPage(page);
+            }
+            finally
+            {
+               worker.releaseSlot();
+            }
+         }))
+            return;
+
+         if (cause != null)
+            logger.error(String.format("Error fetching %s.", url), cause);
+
+         worker.pageProcessed();
+         worker.releaseSlot();
+      }
+   }
+
+   /**
+    * Site of a crawl run by a crawl pool.  Each page is downloaded and parsed on the
+    * pool thread that takes it.
+    */
+   private class PoolSite implements CrawlPool.Site
+   {
+      private final Worker worker;
+      private final PageParser pageParser;
+      private final AtomicReference<String> firstUrl;
+
+      public PoolSite(Worker worker, String firstUrl)
+      {
+         this.worker = worker;
+         this.pageParser = new PageParser(worker, null);
+         this.firstUrl = new AtomicReference<>(firstUrl);
+      }
+
+      @Override
+      public Runnable nextPage()
+      {
+         // The starting URL does not wait for a slot, as with the crawl threads.
+         String url = firstUrl.getAndSet(null);
+         if (url != null)
+         {
+            String startingUrl = url;
+            return () -> pageParser.parsePage(startingUrl);
+         }
+
+         if (worker.isCancelled() || !worker.tryAcquireSlot())
+            return null;
+
+         long[] readyNanos = {-1};
+         try
+         {
+            url = worker.pollUrl(readyNanos);
+         }
+         catch (InterruptedException ex)
+         {
+            Thread.currentThread().interrupt(); // Preserve interrupted status
+         }
+         if (url == null)
+         {
+            // A URL added or a page finished wakes the site, but a host becoming ready does not.
+            worker.releaseSlot();
+            if (readyNanos[0] >= 0)
+               pool.wake(this, readyNanos[0]);
+            return null;
+         }
+
+         // Runs outside the pool's lock, since dropping the page may complete the crawl.
+         String pageUrl = url;
+         return () -> {
+            try
+            {
+               if (worker.admitUrl(pageUrl))
+                  pageParser.parsePage(pageUrl);
+            }
+            finally
+            {
+               worker.releaseSlot();
+            }
+         };
+      }
+   }
+
+   /**
+    * Task of the parse stage.  Parses the pages downloaded by the fetch
+    * stage and processes the results until the crawl is complete.
+    */
+   private class PageExtractor extends PageTask
+   {
+      public PageExtractor(Worker worker)
+      {
+         super(worker);
+      }
+
+      @Override
+      public void run()
+      {
+         try
+         {
+            FetchedPage page;
+            while (!worker.isCancelled() && (page = worker.nextFetchedPage()) != null)
+               extractPage(page);
+         }
+         catch (InterruptedException ex)
+         {
+            Thread.currentThread().interrupt(); // Preserve interrupted status
+         }
+      }
+
+      /**
+       * Parses a downloaded page and processes the result.
+       * @param page Fetched page.
+       */
+      public void extractPage(FetchedPage page)
+      {
+         try
+         {
+            if (worker.isCancelled() || pageUnchanged(page))
+               return;
+
+            long start = System.nanoTime();
+            PageDetails pageDetails = stagedParser.extract(page);
+            metrics.record(CrawlStage.PARSE, System.nanoTime() - start);
+            if (worker.isCancelled())
+               return;
+
+            pageParsed(page.getUrl(), pageDetails);
+         }
+         catch (Exception ex)
+         {
+            logger.error(String.format("Error parsing %s.", page.getUrl()), ex);
+         }
+         finally
+         {
+            worker.pageProcessed();
+         }
+      }
+   }
+
+   /**
+    * Normalizes a URL before it is checked against the seen URLs.
+    * @param url URL to normalize.
+    * @return Normalized URL.
+    */
+   private String normalizeUrl(String url)
+   {
+      return urlNormalizer.normalize(url);
+   }
+
+   /**
+    * Performs an action on every link in a list.
+    * @param links List of links.
+    * @param action Action to perform.
+    */
+   private static void parseLinks(Set<LinkDetails> links, Consumer<? super LinkDetails> action)
+   {
+      if (links != null && !links.isEmpty())
+         links.forEach(action);
+   }
+
+   /**
+    * Performs an action on every URL in a list.
+    * @param urls List of URLs.
+    * @param action Action to perform.
+    */
+   private static void parseUrls(List<String> urls, Consumer<String> action)
+   {
+      if (urls != null && !urls.isEmpty())
+         urls.forEach(action);
+   }
+
+   /**
+    * Constructs a new web crawler.
+    * @param numThreads Number of threads to use.  Value < MIN_THREADS defaults to MIN_THREADS.
+    * @param parser Web page parser to use.
+    */
+   public CrawlerImpl(int numThreads, Parser parser)
+   {
+      this(createSettings(numThreads), parser);
+   }
+
+   /**
+    * Constructs a new web crawler.
+    * @param settings Crawler settings.  Number of threads < MIN_THREADS defaults to MIN_THREADS.
+    * @param parser Web page parser to use.
+    */
+   public CrawlerImpl(CrawlSettings settings, Parser parser)
+   {
+      this(settings, parser, null);
+   }
+
+   /**
+    * Constructs a new web crawler that runs on the threads of a crawl pool, shared
+    * with the crawls of other sites.  Pages are downloaded and parsed on the pool's
+    * threads, so the thread, stage, and virtual thread settings are not used.
+    * @param settings Crawler settings.
+    * @param parser Web page parser to use, which may be shared with the other crawls.
+    * @param pool Crawl pool to run on.  Null means the crawler starts its own threads.
+    */
+   public CrawlerImpl(CrawlSettings settings, Parser parser, CrawlPool pool)
+   {
+      if (settings == null)
+         throw new IllegalArgumentException("Null settings.");
+
+      if (parser == null)
+         throw new IllegalArgumentException("Null parser.");
+
+      this.settings = settings;
+      this.numThreads = (settings.getNumThreads() >= MIN_THREADS ? settings.getNumThreads() : MIN_THREADS);
+      this.parser = parser;
+
+      // Only run separate fetch and parse stages if the parser supports it.  An asynchronous
+      // parser always runs separate stages since it downloads on its own threads.
+      this.pool = pool;
+      this.asyncParser = (parser instanceof AsyncParser && pool == null ? (AsyncParser)parser : null);
+      this.stagedParser = (asyncParser != null ? asyncParser :
+            parser instanceof StagedParser && settings.getNumFetchThreads() > 0 && pool == null ? (StagedParser)parser : null);
+      this.numFetchThreads = settings.getNumFetchThreads();
+      this.numParseThreads = (settings.getNumParseThreads() >= MIN_THREADS ?
+            settings.getNumParseThreads() : Runtime.getRuntime().availableProcessors());
+      this.parseQueueSize = (settings.getParseQueueSize() > 0 ? settings.getParseQueueSize() : numParseThreads * 2);
+      this.virtualThreads = (settings.isVirtualThreads() && pool == null);
+      this.maxInFlightPages = (settings.getMaxInFlightPages() >= MIN_THREADS ?
+            settings.getMaxInFlightPages() : CrawlSettings.DEFAULT_MAX_IN_FLIGHT_PAGES);
+      this.sitemapParser = (settings.isSitemaps() && parser instanceof SitemapParser ? (SitemapParser)parser : null);
+      this.urlNormalizer = new UrlNormalizer(settings.getUrlRules() != null ? settings.getUrlRules() : UrlNormalizer.DEFAULT_RULES);
+   }
+
+   /**
+    * Creates default settings with a number of threads.
+    * @param numThreads Number of threads to use.
+    * @return Crawler settings.
+    */
+   private static CrawlSettings createSettings(int numThreads)
+   {
+      CrawlSettings settings = new CrawlSettings();
+      settings.setNumThreads(numThreads);
+      return settings;
+   }
+
+   /**
+    * Creates a thread pool with a fixed number of daemon threads.
+    * @param threads Number of threads.
+    * @param namingPattern Thread naming pattern.
+    * @return Thread pool.
+    */
+   private static ThreadPoolExecutor createExecutor(int threads, String namingPattern)
+   {
+      return new ThreadPoolExecutor(threads, threads,
+            0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+            new BasicThreadFactory.Builder().namingPattern(namingPattern).daemon(true).build()
+            );
+   }
+
+   /**
+    * Runs a task on an executor.
+    * @param executor Executor to run the task.
+    * @param task Task to run.
+    * @return True if started or false if the executor is shut down.
+    */
+   private static boolean execute(ExecutorService executor, Runnable task)
+   {
+      try
+      {
+         executor.execute(task);
+         return true;
+      }
+      catch (RejectedExecutionException ex)
+      {
+         return false;
+      }
+   }
+
+   /**
+    * Creates an executor that runs each task on a new virtual thread.  If the JVM does not
+    * support virtual threads, daemon platform threads are created as needed instead and
+    * reused once idle.
+    * @param namingPattern Thread naming pattern of platform threads.
+    * @return Executor.
+    */
+   private static ExecutorService createPageExecutor(String namingPattern)
+   {
+      if (virtualExecutorFactory != null)
+      {
+         try
+         {
+            return (ExecutorService)virtualExecutorFactory.invoke(null);
+         }
+         catch (ReflectiveOperationException | RuntimeException ex)
+         {
+            logger.warn("Unable to create virtual threads.  Using platform threads.", ex);
+         }
+      }
+      else
+         logger.warn("Virtual threads are not supported by this JVM.  Using platform threads.");
+
+      return new ThreadPoolExecutor(0, Integer.MAX_VALUE,
+            60L, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+            new BasicThreadFactory.Builder().namingPattern(namingPattern).daemon(true).build()
+            );
+   }
+
+   /**
+    * Finds the factory method of the virtual thread executor, which is only
+    * available on newer JVMs.
+    * @return Factory method or null if not supported.
+    */
+   private static Method findVirtualExecutorFactory()
+   {
+      try
+      {
+         return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+      }
+      catch (NoSuchMethodException ex)
+      {
+         return null;
+      }
+   }
+
+   /**
+    * Returns if the JVM supports virtual threads.  Without them, crawls
+    * with virtual threads run on platform threads instead.
+    * @return True if supported.
+    */
+   public static boolean isVirtualThreadSupported()
+   {
+      return (virtualExecutorFactory != null);
+   }
+
+   /**
+    * Creates the dispatcher that hands crawled pages to the observers added so far.
+    * @return Observer dispatcher.
+    */
+   private ObserverDispatcher createDispatcher()
+   {
+      ObserverDispatcher dispatcher = new ObserverDispatcher(settings.getObserverBufferSize(), settings.getObserverBatchSize());
+      int count = 0;
+      for (CrawlObserver observer : observers)
+         dispatcher.subscribe(observer, backpressures.get(observer), "Crawler-Observer-" + (++count));
+      return dispatcher;
+   }
+
+   /**
+    * Creates the publisher that streams crawled pages to the subscribers waiting for
+    * the next crawl, and subscribes them to the observer dispatcher.
+    * @param dispatcher Observer dispatcher of the crawl.
+    * @param demandListener Called when the subscribers may have asked for more pages.
+    * @return Page publisher or null if there are no subscribers.
+    */
+   private PagePublisher createPublisher(ObserverDispatcher dispatcher, Runnable demandListener)
+   {
+      PagePublisher publisher = null;
+      int count = 0;
+      CrawlSubscriber subscriber;
+      while ((subscriber = subscribers.poll()) != null)
+      {
+         if (publisher == null)
+            publisher = new PagePublisher(demandListener);
+         dispatcher.subscribe(publisher.subscribe(subscriber), Backpressure.BLOCK, "Crawler-Subscriber-" + (++count));
+      }
+      return publisher;
+   }
+
+   /**
+    * Creates the frontier that holds the URLs waiting to be crawled.  A priority
+    * frontier keeps every URL in memory, so it is never spilled to disk.
+    * @return Frontier.
+    */
+   private Frontier createFrontier()
+   {
+      if (settings.isPriorityFrontier())
+         return new PriorityFrontier();
+      else if (settings.getFrontierMemoryUrls() <= 0)
+         return new MemoryFrontier();
+
+      String spillPath = settings.getFrontierSpillPath();
+      return new SpillingFrontier(settings.getFrontierMemoryUrls(),
+            Paths.get(spillPath != null ? spillPath : System.getProperty("java.io.tmpdir")));
+   }
+
+   /**
+    * Creates the controller of the number of pages crawled at the same time.  With
+    * adaptive concurrency, the limit starts at the number of crawl or fetch threads,
+    * or the maximum pages in flight.  Otherwise only the pages in flight with virtual
+    * threads or an asynchronous parser are limited, to the fixed maximum.
+    * @return Concurrency controller or null if there is no limit.
+    */
+   private ConcurrencyController createConcurrencyController()
+   {
+      boolean dispatched = (virtualThreads || asyncParser != null);
+      if (!settings.isAdaptiveConcurrency())
+         return (dispatched ? new ConcurrencyController(maxInFlightPages, maxInFlightPages, maxInFlightPages, 0) : null);
+
+      int initial = (dispatched ? maxInFlightPages : stagedParser != null ? numFetchThreads : numThreads);
+      int min = (settings.getMinConcurrency() >= MIN_THREADS ? settings.getMinConcurrency() : MIN_THREADS);
+      int max = (settings.getMaxConcurrency() >= MIN_THREADS ? settings.getMaxConcurrency() : initial * 4);
+      return new ConcurrencyController(min, max, initial, settings.getConcurrencyIntervalMillis());
+   }
+
+   /**
+    * Creates the checkpoint of the crawl.
+    * @return Checkpoint or null if the crawl is not checkpointed.
+    */
+   private CrawlCheckpoint createCheckpoint()
+   {
+      String checkpointPath = settings.getCheckpointPath();
+      if (checkpointPath == null || checkpointPath.isEmpty())
+         return null;
+
+      return new CrawlCheckpoint(Paths.get(checkpointPath), settings.getCheckpointIntervalMillis());
+   }
+
+   /**
+    * Creates the set that tracks the URLs already queued by a crawl.
+    * @return Seen URL set.
+    */
+   private SeenUrlSet createSeenUrlSet()
+   {
+      SeenUrlStore store = settings.getSeenUrlStore();
+      if (store == SeenUrlStore.FINGERPRINT)
+         return new FingerprintSeenUrlSet(settings.getExpectedUrls());
+      else if (store == SeenUrlStore.BLOOM)
+         return new BloomSeenUrlSet(settings.getExpectedUrls(), settings.getFalsePositiveRate());
+      else
+         return new StringSeenUrlSet();
+   }
+
+   /**
+    * Returns the pages of the previous crawl loaded by the last recrawl, so the
+    * crawl can be compared to it.
+    * @return Previous pages in the order they were crawled or null if the last crawl was not a recrawl.
+    */
+   public List<CrawlPage> getPreviousPages()
+   {
+      return previousPages;
+   }
+
+   /**
+    * Gets the metrics of the current or last crawl.  They are cleared when a crawl starts.
+    * @return Crawl metrics.
+    */
+   public CrawlMetrics getMetrics()
+   {
+      return metrics;
+   }
+
+   @Override
+   public void addObserver(CrawlObserver observer)
+   {
+      addObserver(observer, Backpressure.BLOCK);
+   }
+
+   /**
+    * Adds an handler for crawl events, which is called on its own thread.  Observers
+    * added while a crawl runs are only called from the next crawl.
+    * @param observer Object to handle the events.
+    * @param backpressure What happens when the observer falls behind the crawl.
+    */
+   public void addObserver(CrawlObserver observer, Backpressure backpressure)
+   {
+      if (observer == null)
+         throw new IllegalArgumentException("Null observer.");
+      if (backpressure == null)
+         throw new IllegalArgumentException("Null backpressure.");
+
+      backpressures.put(observer, backpressure);
+      observers.add(observer);
+   }
+
+   @Override
+   public void subscribe(CrawlSubscriber subscriber)
+   {
+      if (subscriber == null)
+         throw new IllegalArgumentException("Null subscriber.");
+
+      subscribers.add(subscriber);
+   }
+
+   @Override
+   public synchronized CompletableFuture<CrawlResult> start(String startingUrl) throws MalformedURLException
+   {
+      if (worker != null)
+         throw new IllegalStateException("The crawler is already started.");
+
+      // Only the scheme and host are case-insensitive, and the URL normalizer lowercases them.
+      if (startingUrl != null)
+         startingUrl = startingUrl.trim();
 
       URL url = new URL(startingUrl);
-      URL hostUrl = new URL(url.getProtocol(), url.getHost(), url.getPort(), "");
 
-      this.worker = new Worker(hostUrl.toString());
-      this.worker.crawlPage(url.toString());
+      // A crawl with nothing left to do completes, and clears the worker, before start returns.
+      Worker newCrawl = new Worker(createScope(url));
+      this.worker = newCrawl;
+      newCrawl.start(url.toString());
+      return newCrawl.getResult();
+   }
+
+   /**
+    * Creates the scope of the crawl from the settings.  The scheme and host of the
+    * starting URL are used when the settings do not list any.
+    * @param url Starting URL.
+    * @return Crawl scope.
+    */
+   private CrawlScope createScope(URL url)
+   {
+      List<String> schemes = settings.getScopeSchemes();
+      if (schemes == null || schemes.isEmpty())
+         schemes = Collections.singletonList(url.getProtocol());
+
+      List<String> hosts = settings.getScopeHosts();
+      if (hosts == null || hosts.isEmpty())
+      {
+         String host = url.getHost();
+         if (url.getPort() >= 0 && url.getPort() != url.getDefaultPort())
+            host = host + ":" + url.getPort();
+         hosts = Collections.singletonList(host);
+      }
+
+      return new CrawlScope(schemes, hosts, settings.getScopeAllowPaths(), settings.getScopeDenyPaths());
    }
 
    @Override
@@ -0,0 +1,145 @@
+package com.rolls.crawler.crawl;
+
+/**
+ * Seen URL set that keeps a 64-bit fingerprint of each URL instead of the URL itself.
+ * The fingerprints are held in open addressing tables of primitive longs, so memory grows
+ * by 8 bytes per table slot rather than by a string object per URL.  The set is split into
+ * segments, each with its own lock, so threads adding different URLs rarely contend.
+ */
+public class FingerprintSeenUrlSet implements SeenUrlSet
+{
+   private final static int SEGMENT_BITS = 6;
+   private final static int SEGMENT_COUNT = 1 << SEGMENT_BITS;
+   private final static int MIN_SEGMENT_CAPACITY = 16;
+
+   private final Segment[] segments = new Segment[SEGMENT_COUNT];
+
+   /**
+    * Table of fingerprints for one segment.  Zero marks an empty slot.
+    */
+   private static class Segment
+   {
+      private long[] table;
+      private int size = 0;
+
+      public Segment(int capacity)
+      {
+         this.table = new long[capacity];
+      }
+
+      public synchronized boolean add(long fingerprint)
+      {
+         if (!insert(table, fingerprint))
+            return false;
+
+         // Keep the load factor at or below 3/4.
+         if (++size > table.length - (table.length >>> 2))
+            resize();
+
+         return true;
+      }
+
+      public synchronized boolean contains(long fingerprint)
+      {
+         long[] tbl = table;
+         int mask = tbl.length - 1;
+         for (int i = index(fingerprint, mask); tbl[i] != 0; i = (i + 1) & mask)
+         {
+            if (tbl[i] == fingerprint)
+               return true;
+         }
+         return false;
+      }
+
+      public synchronized int size()
+      {
+         return size;
+      }
+
+      private void resize()
+      {
+         long[] newTable = new long[table.length << 1];
+         for (long fingerprint : table)
+         {
+            if (fingerprint != 0)
+               insert(newTable, fingerprint);
+         }
+         table = newTable;
+      }
+
+      private static boolean insert(long[] tbl, long fingerprint)
+      {
+         int mask = tbl.length - 1;
+         int i = index(fingerprint, mask);
+         for (; tbl[i] != 0; i = (i + 1) & mask)
+         {
+            if (tbl[i] == fingerprint)
+               return false;
+         }
+         tbl[i] = fingerprint;
+         return true;
+      }
+
+      private static int index(long fingerprint, int mask)
+      {
+         // The low bits choose the slot, the high bits choose the segment.
+         return (int)fingerprint & mask;
+      }
+   }
+
+   /**
+    * Constructs a new fingerprint set.
+    * @param expectedUrls Number of URLs expected.  The tables grow past this as needed.
+    */
+   public FingerprintSeenUrlSet(int expectedUrls)
+   {
+      int perSegment = Math.max(expectedUrls / SEGMENT_COUNT, 1);
+
+      // Size tables so the expected URLs fit without a resize.
+      int capacity = MIN_SEGMENT_CAPACITY;
+      while (capacity - (capacity >>> 2) < perSegment && capacity < (1 << 30))
+         capacity <<= 1;
+
+      for (int i = 0; i < SEGMENT_COUNT; ++i)
+         segments[i] = new Segment(capacity);
+   }
+
+   @Override
+   public boolean add(String url)
+   {
+      long fingerprint = fingerprint(url);
+      return segmentFor(fingerprint).add(fingerprint);
+   }
+
+   @Override
+   public boolean contains(String url)
+   {
+      long fingerprint = fingerprint(url);
+      return segmentFor(fingerprint).contains(fingerprint);
+   }
+
+   @Override
+   public long size()
+   {
+      long size = 0;
+      for (Segment segment : segments)
+         size += segment.size();
+      return size;
+   }
+
+   /**
+    * Returns the fingerprint of a URL.  Zero is reserved for empty slots.
+    * @param url URL to fingerprint.
+    * @return Non-zero fingerprint.
+    */
+   private static long fingerprint(String url)
+   {
+      long fingerprint = UrlFingerprint.of(url);
+      return (fingerprint != 0 ? fingerprint : 1);
+   }
+
+   private Segment segmentFor(long fingerprint)
+   {
+      return segments[(int)(fingerprint >>> (64 - SEGMENT_BITS))];
+   }
+}
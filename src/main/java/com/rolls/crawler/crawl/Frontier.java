@@ -0,0 +1,62 @@
+package com.rolls.crawler.crawl;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Queue of URLs waiting to be crawled.  The crawl threads pull URLs from the
+ * frontier.  Implementations must be safe to use from multiple threads.
+ */
+public interface Frontier
+{
+   /**
+    * Adds a URL to the end of the frontier.  Ignored if the frontier is closed.
+    * @param url URL to add.
+    */
+   public void add(String url);
+
+   /**
+    * Adds a URL found at a link depth.  Frontiers that do not order URLs by priority
+    * add it to the end.
+    * @param url URL to add.
+    * @param depth Number of links from the starting URL.
+    */
+   public default void add(String url, int depth)
+   {
+      add(url);
+   }
+
+   /**
+    * Counts another link found to a URL that may still be in the frontier.
+    * Frontiers that do not order URLs by priority ignore it.
+    * @param url URL linked to.
+    */
+   public default void linkFound(String url)
+   {
+   }
+
+   /**
+    * Removes the next URL from the frontier, waiting if none are available.
+    * @param timeout Duration to wait for a URL.
+    * @param unit Time unit of timeout.
+    * @return Next URL or null if the timeout elapsed or the frontier is closed.
+    * @throws InterruptedException If interrupted while waiting.
+    */
+   public String poll(long timeout, TimeUnit unit) throws InterruptedException;
+
+   /**
+    * Returns the number of URLs in the frontier.
+    * @return Number of URLs.
+    */
+   public long size();
+
+   /**
+    * Returns if the frontier is closed.
+    * @return True if closed.
+    */
+   public boolean isClosed();
+
+   /**
+    * Closes the frontier, wakes any waiting threads, and releases its resources.
+    */
+   public void close();
+}
@@ -0,0 +1,493 @@
+package com.rolls.crawler.crawl;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Frontier that only hands out a URL when its host may be sent another request.
+ * Each host has a cap on requests running at the same time and a minimum delay
+ * between the start of its requests, which is the larger of the crawl delay and
+ * the delay of the host.  A host that throttles a request is backed off for the
+ * time it asked for in its Retry-After header, or for a time that doubles with
+ * every throttled request in a row.
+ * <p>
+ * URLs are pulled from the frontier in order.  A URL whose host must wait is held
+ * until the host is ready, so URLs of other hosts can still be crawled.  Only a
+ * limited number of URLs are held, so a spilling frontier still bounds memory.
+ * Once that many are held, the crawl threads wait for a host to become ready.
+ * <p>
+ * A priority frontier is not pulled from in order.  Its most important URL whose
+ * host is ready is taken instead, and the others stay in it, so URLs found while a
+ * host waits still go ahead of less important URLs of the host.
+ * <p>
+ * Every URL handed out must be released once its request is done.
+ */
+class HostScheduler implements Frontier
+{
+   /**
+    * Maximum number of URLs held while their hosts are not ready.
+    */
+   public final static int MAX_WAITING_URLS = 1000;
+
+   /**
+    * Back off time, in milliseconds, of the first throttled request without a Retry-After header.
+    */
+   public final static long DEFAULT_BACKOFF_MILLIS = 1000;
+
+   /**
+    * Maximum back off time, in milliseconds, even if a Retry-After header asks for longer.
+    */
+   public final static long MAX_BACKOFF_MILLIS = 60000;
+
+   private final Frontier frontier;
+   private final PriorityFrontier priorityFrontier;
+   private final int maxRequestsPerHost;
+   private final long minDelayNanos;
+   private final ReentrantLock lock = new ReentrantLock();
+   private final Condition changed = lock.newCondition();
+   private final Map<String, Host> hosts = new HashMap<>();
+   private final ArrayDeque<Host> waitingHosts = new ArrayDeque<>();
+
+   private int waitingUrls = 0;
+   private boolean closed = false;
+
+   /**
+    * Request state of a host.
+    */
+   private static class Host
+   {
+      private final ArrayDeque<String> waiting = new ArrayDeque<>();
+      private int activeRequests = 0;
+      private long nextStartNanos;
+      private long crawlDelayNanos = 0;
+      private int throttledRequests = 0;
+
+      public Host(long now)
+      {
+         this.nextStartNanos = now;
+      }
+   }
+
+   /**
+    * Constructs a new host scheduler.
+    * @param frontier Frontier that holds the URLs in the order they are crawled.
+    * @param maxRequestsPerHost Maximum requests to a host at the same time.  Value <= 0 means no limit.
+    * @param minDelayMillis Minimum time, in milliseconds, between the start of requests to a host.
+    */
+   public HostScheduler(Frontier frontier, int maxRequestsPerHost, long minDelayMillis)
+   {
+      if (frontier == null)
+         throw new IllegalArgumentException("Null frontier.");
+
+      this.frontier = frontier;
+      this.priorityFrontier = (frontier instanceof PriorityFrontier ? (PriorityFrontier)frontier : null);
+      this.maxRequestsPerHost = (maxRequestsPerHost > 0 ? maxRequestsPerHost : Integer.MAX_VALUE);
+      this.minDelayNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(minDelayMillis, 0));
+   }
+
+   @Override
+   public void add(String url)
+   {
+      frontier.add(url);
+
+      lock.lock();
+      try
+      {
+         changed.signal();
+      }
+      finally
+      {
+         lock.unlock();
+      }
+   }
+
+   @Override
+   public void add(String url, int depth)
+   {
+      frontier.add(url, depth);
+
+      lock.lock();
+      try
+      {
+         changed.signal();
+      }
+      finally
+      {
+         lock.unlock();
+      }
+   }
+
+   @Override
+   public void linkFound(String url)
+   {
+      frontier.linkFound(url);
+   }
+
+   /**
+    * Removes the next URL whose host is ready and counts its request as started.
+    * @param timeout Duration to wait for a URL.
+    * @param unit Time unit of timeout.
+    * @return Next URL or null if the timeout elapsed or the frontier is closed.
+    * @throws InterruptedException If interrupted while waiting.
+    */
+   @Override
+   public String poll(long timeout, TimeUnit unit) throws InterruptedException
+   {
+      long deadline = System.nanoTime() + unit.toNanos(timeout);
+
+      lock.lockInterruptibly();
+      try
+      {
+         while (!closed)
+         {
+            long now = System.nanoTime();
+            long[] readyNanos = {-1};
+            String url = (priorityFrontier != null ? pollPriority(now, readyNanos) : pollInOrder(now, readyNanos));
+            if (url != null)
+               return url;
+
+            long nanos = deadline - System.nanoTime();
+            if (nanos <= 0)
+               return null;
+
+            if (readyNanos[0] >= 0)
+               nanos = Math.min(nanos, Math.max(readyNanos[0], 1));
+            changed.awaitNanos(nanos);
+         }
+         return null;
+      }
+      finally
+      {
+         lock.unlock();
+      }
+   }
+
+   /**
+    * Removes the next URL whose host is ready and counts its request as started, without waiting.
+    * @param readyNanos Set to the time in nanoseconds until a host that must wait is ready, or -1 if none.
+    * @return Next URL or null if none is ready or the frontier is closed.
+    * @throws InterruptedException If interrupted.
+    */
+   public String poll(long[] readyNanos) throws InterruptedException
+   {
+      readyNanos[0] = -1;
+      lock.lockInterruptibly();
+      try
+      {
+         if (closed)
+            return null;
+
+         long now = System.nanoTime();
+         return (priorityFrontier != null ? pollPriority(now, readyNanos) : pollInOrder(now, readyNanos));
+      }
+      finally
+      {
+         lock.unlock();
+      }
+   }
+
+   /**
+    * Counts a request to the host of a URL that was not pulled from this frontier as started,
+    * even if the host is not ready.
+    * @param url URL requested.
+    */
+   public void acquire(String url)
+   {
+      lock.lock();
+      try
+      {
+         long now = System.nanoTime();
+         startRequest(getHost(url, now), now);
+      }
+      finally
+      {
+         lock.unlock();
+      }
+   }
+
+   /**
+    * Counts a request to the host of a URL as done.  A throttled request backs off the host.
+    * @param url URL requested.
+    * @param throttled True if the server throttled the request.
+    * @param retryAfterMillis Delay the server asked for.  Value <= 0 means the default back off.
+    */
+   public void release(String url, boolean throttled, long retryAfterMillis)
+   {
+      lock.lock();
+      try
+      {
+         long now = System.nanoTime();
+         Host host = getHost(url, now);
+         host.activeRequests = Math.max(host.activeRequests - 1, 0);
+         if (throttled)
+         {
+            long backoffMillis = (retryAfterMillis > 0 ? retryAfterMillis :
+                  DEFAULT_BACKOFF_MILLIS << Math.min(host.throttledRequests, 16));
+            long backoffStart = now + TimeUnit.MILLISECONDS.toNanos(Math.min(backoffMillis, MAX_BACKOFF_MILLIS));
+            if (backoffStart - host.nextStartNanos > 0)
+               host.nextStartNanos = backoffStart;
+            ++host.throttledRequests;
+         }
+         else
+            host.throttledRequests = 0;
+
+         changed.signalAll();
+      }
+      finally
+      {
+         lock.unlock();
+      }
+   }
+
+   /**
+    * Sets the crawl delay a host asked for, such as in its robots.txt.  The delay between
+    * requests to the host is the larger of it and the minimum delay.
+    * @param host Host name with the port, if any, as in the authority of its URLs.
+    * @param crawlDelayMillis Crawl delay in milliseconds.
+    */
+   public void setCrawlDelay(String host, long crawlDelayMillis)
+   {
+      if (host == null)
+         throw new IllegalArgumentException("Null host.");
+
+      lock.lock();
+      try
+      {
+         long now = System.nanoTime();
+         hosts.computeIfAbsent(host.toLowerCase(Locale.ROOT), (key) -> new Host(now)).crawlDelayNanos =
+               TimeUnit.MILLISECONDS.toNanos(Math.max(crawlDelayMillis, 0));
+         changed.signalAll();
+      }
+      finally
+      {
+         lock.unlock();
+      }
+   }
+
+   @Override
+   public long size()
+   {
+      lock.lock();
+      try
+      {
+         return frontier.size() + waitingUrls;
+      }
+      finally
+      {
+         lock.unlock();
+      }
+   }
+
+   @Override
+   public boolean isClosed()
+   {
+      lock.lock();
+      try
+      {
+         return closed;
+      }
+      finally
+      {
+         lock.unlock();
+      }
+   }
+
+   @Override
+   public void close()
+   {
+      lock.lock();
+      try
+      {
+         closed = true;
+         waitingHosts.clear();
+         hosts.clear();
+         waitingUrls = 0;
+         frontier.close();
+         changed.signalAll();
+      }
+      finally
+      {
+         lock.unlock();
+      }
+   }
+
+   /**
+    * Removes the next URL whose host is ready, pulling URLs from the frontier in order
+    * and holding those whose host must wait.  Must be called with the lock held.
+    * @param now Current time in nanoseconds.
+    * @param readyNanos Set to the time in nanoseconds until the first host with held URLs is ready, or -1 if none.
+    * @return URL or null if none is ready.
+    * @throws InterruptedException If interrupted.
+    */
+   private String pollInOrder(long now, long[] readyNanos) throws InterruptedException
+   {
+      String url = pollWaiting(now);
+      if (url != null)
+         return url;
+
+      while (waitingUrls < MAX_WAITING_URLS && (url = frontier.poll(0, TimeUnit.MILLISECONDS)) != null)
+      {
+         Host host = getHost(url, now);
+         if (host.waiting.isEmpty() && isReady(host, now))
+         {
+            startRequest(host, now);
+            return url;
+         }
+
+         if (host.waiting.isEmpty())
+            waitingHosts.addLast(host);
+         host.waiting.addLast(url);
+         ++waitingUrls;
+      }
+
+      readyNanos[0] = getNanosUntilReady(now);
+      return null;
+   }
+
+   /**
+    * Removes the most important URL of the priority frontier whose host is ready.  The
+    * URLs of hosts that must wait stay in the frontier, and each host is checked once.
+    * A host without requests yet is ready.  Must be called with the lock held.
+    * @param now Current time in nanoseconds.
+    * @param readyNanos Set to the time in nanoseconds until the first host passed over is ready, or -1 if none.
+    * @return URL or null if none is ready.
+    */
+   private String pollPriority(long now, long[] readyNanos)
+   {
+      String url = priorityFrontier.poll((hostName) -> {
+         Host host = hosts.get(hostName);
+         return (host == null || isReady(host, now, readyNanos));
+      });
+      if (url != null)
+         startRequest(getHost(url, now), now);
+      return url;
+   }
+
+   /**
+    * Removes a held URL whose host is ready.  Hosts take turns so one host's
+    * URLs do not hold back the others.  Must be called with the lock held.
+    * @param now Current time in nanoseconds.
+    * @return URL or null if no held URL's host is ready.
+    */
+   private String pollWaiting(long now)
+   {
+      for (int i = waitingHosts.size(); i > 0; --i)
+      {
+         Host host = waitingHosts.pollFirst();
+         if (isReady(host, now))
+         {
+            String url = host.waiting.pollFirst();
+            --waitingUrls;
+            if (!host.waiting.isEmpty())
+               waitingHosts.addLast(host);
+
+            startRequest(host, now);
+            return url;
+         }
+         waitingHosts.addLast(host);
+      }
+      return null;
+   }
+
+   /**
+    * Gets the time until the first host with held URLs and a free request slot is ready.
+    * Must be called with the lock held.
+    * @param now Current time in nanoseconds.
+    * @return Time in nanoseconds or -1 if none.
+    */
+   private long getNanosUntilReady(long now)
+   {
+      long readyNanos = -1;
+      for (Host host : waitingHosts)
+      {
+         if (host.activeRequests < maxRequestsPerHost)
+         {
+            long nanos = Math.max(host.nextStartNanos - now, 0);
+            readyNanos = (readyNanos < 0 ? nanos : Math.min(readyNanos, nanos));
+         }
+      }
+      return readyNanos;
+   }
+
+   /**
+    * Returns if a request to a host can start.
+    * @param host Host to check.
+    * @param now Current time in nanoseconds.
+    * @return True if ready.
+    */
+   private boolean isReady(Host host, long now)
+   {
+      return (host.activeRequests < maxRequestsPerHost && now - host.nextStartNanos >= 0);
+   }
+
+   /**
+    * Returns if a request to a host can start, and keeps the time until the first host
+    * that is not ready but has a free request slot will be.
+    * @param host Host to check.
+    * @param now Current time in nanoseconds.
+    * @param readyNanos Time in nanoseconds until the first host is ready, or -1 if none.  Updated if the host is sooner.
+    * @return True if ready.
+    */
+   private boolean isReady(Host host, long now, long[] readyNanos)
+   {
+      if (isReady(host, now))
+         return true;
+
+      if (host.activeRequests < maxRequestsPerHost)
+      {
+         long nanos = Math.max(host.nextStartNanos - now, 0);
+         readyNanos[0] = (readyNanos[0] < 0 ? nanos : Math.min(readyNanos[0], nanos));
+      }
+      return false;
+   }
+
+   /**
+    * Counts a request to a host as started and sets when the next may start.
+    * @param host Host requested.
+    * @param now Current time in nanoseconds.
+    */
+   private void startRequest(Host host, long now)
+   {
+      ++host.activeRequests;
+      long nextStart = now + Math.max(minDelayNanos, host.crawlDelayNanos);
+      if (nextStart - host.nextStartNanos > 0)
+         host.nextStartNanos = nextStart;
+   }
+
+   /**
+    * Gets the state of the host of a URL.  Must be called with the lock held.
+    * @param url URL to the page.
+    * @param now Current time in nanoseconds, when a new host is ready.
+    * @return Host state.
+    */
+   private Host getHost(String url, long now)
+   {
+      return hosts.computeIfAbsent(getHostName(url), (key) -> new Host(now));
+   }
+
+   /**
+    * Gets the host name, with the port if any, of a URL.
+    * @param url URL to the page.
+    * @return Host name in lower case.  Empty if the URL has none.
+    */
+   static String getHostName(String url)
+   {
+      int start = url.indexOf("://");
+      start = (start >= 0 ? start + 3 : 0);
+
+      int end = start;
+      while (end < url.length() && "/?#".indexOf(url.charAt(end)) < 0)
+         ++end;
+
+      int userInfo = url.lastIndexOf('@', end - 1);
+      if (userInfo >= start)
+         start = userInfo + 1;
+
+      return url.substring(start, end).toLowerCase(Locale.ROOT);
+   }
+}
@@ -0,0 +1,157 @@
+package com.rolls.crawler.crawl;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of latencies that many threads can record into without locks or
+ * creating objects.  Latencies are kept in microseconds in buckets that grow
+ * exponentially, with SUB_BUCKETS buckets for each power of two, so a percentile is
+ * within about 12% of the true value.  Latencies over MAX_MICROS fall in the last
+ * bucket.
+ * <p>
+ * Reads do not stop recording, so a percentile read while threads record may miss
+ * the latest latencies.
+ */
+public class LatencyHistogram
+{
+   /**
+    * Buckets for each power of two.
+    */
+   public final static int SUB_BUCKETS = 8;
+
+   /**
+    * Largest latency, in microseconds, that has its own bucket.  About 19 hours.
+    */
+   public final static long MAX_MICROS = (1L << 36) - 1;
+
+   private final static int SUB_BUCKET_BITS = Integer.numberOfTrailingZeros(SUB_BUCKETS);
+   private final static int BUCKETS = bucketOf(MAX_MICROS) + 1;
+
+   private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+   private final AtomicLong count = new AtomicLong();
+   private final AtomicLong totalMicros = new AtomicLong();
+   private final AtomicLong maxMicros = new AtomicLong();
+
+   /**
+    * Records a latency.
+    * @param nanos Latency in nanoseconds.  Negative values count as 0.
+    */
+   public void record(long nanos)
+   {
+      long micros = Math.max(TimeUnit.NANOSECONDS.toMicros(nanos), 0);
+      counts.incrementAndGet(bucketOf(Math.min(micros, MAX_MICROS)));
+      count.incrementAndGet();
+      totalMicros.addAndGet(micros);
+
+      long max;
+      while (micros > (max = maxMicros.get()) && !maxMicros.compareAndSet(max, micros))
+      {
+         // Another thread recorded a new maximum first.  Try again.
+      }
+   }
+
+   /**
+    * Gets the number of latencies recorded.
+    * @return Count.
+    */
+   public long getCount()
+   {
+      return count.get();
+   }
+
+   /**
+    * Gets the average latency.
+    * @return Average in milliseconds.  0 if none recorded.
+    */
+   public double getMeanMillis()
+   {
+      long recorded = count.get();
+      return (recorded > 0 ? totalMicros.get() / 1000.0 / recorded : 0);
+   }
+
+   /**
+    * Gets the largest latency.
+    * @return Maximum in milliseconds.  0 if none recorded.
+    */
+   public double getMaxMillis()
+   {
+      return maxMicros.get() / 1000.0;
+   }
+
+   /**
+    * Gets a percentile of the latencies, which is the upper bound of the bucket it falls in.
+    * @param percentile Percentile from 0 to 100.
+    * @return Latency in milliseconds.  0 if none recorded.
+    */
+   public double getPercentileMillis(double percentile)
+   {
+      long total = 0;
+      for (int i = 0; i < BUCKETS; ++i)
+         total += counts.get(i);
+      if (total == 0)
+         return 0;
+
+      long rank = Math.max((long)Math.ceil(total * Math.min(Math.max(percentile, 0), 100) / 100), 1);
+      long seen = 0;
+      for (int i = 0; i < BUCKETS; ++i)
+      {
+         seen += counts.get(i);
+         if (seen >= rank)
+            return Math.min(upperBoundOf(i), maxMicros.get()) / 1000.0;
+      }
+      return getMaxMillis();
+   }
+
+   /**
+    * Clears the recorded latencies.  Latencies recorded at the same time may be partly kept.
+    */
+   public void reset()
+   {
+      for (int i = 0; i < BUCKETS; ++i)
+         counts.set(i, 0);
+      count.set(0);
+      totalMicros.set(0);
+      maxMicros.set(0);
+   }
+
+   @Override
+   public String toString()
+   {
+      return String.format("count=%d, mean=%.1f, p50=%.1f, p99=%.1f, max=%.1f",
+            getCount(), getMeanMillis(), getPercentileMillis(50), getPercentileMillis(99), getMaxMillis());
+   }
+
+   /**
+    * Gets the bucket of a latency.  Latencies below SUB_BUCKETS have a bucket each.  Above
+    * that, the highest bit picks a group of SUB_BUCKETS buckets and the next bits pick the bucket.
+    * @param micros Latency in microseconds.
+    * @return Bucket index.
+    */
+   static int bucketOf(long micros)
+   {
+      if (micros < SUB_BUCKETS)
+         return (int)micros;
+
+      int highestBit = 63 - Long.numberOfLeadingZeros(micros);
+      int subBucket = (int)(micros >>> (highestBit - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+      return (highestBit - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+   }
+
+   /**
+    * Gets the largest latency of a bucket.
+    * @param bucket Bucket index.
+    * @return Latency in microseconds.
+    */
+   static long upperBoundOf(int bucket)
+   {
+      if (bucket < SUB_BUCKETS)
+         return bucket;
+
+      int highestBit = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+      long subBucket = bucket % SUB_BUCKETS;
+      long lower = (1L << highestBit) | (subBucket << (highestBit - SUB_BUCKET_BITS));
+      return lower + (1L << (highestBit - SUB_BUCKET_BITS)) - 1;
+   }
+}
@@ -0,0 +1,102 @@
+package com.rolls.crawler.crawl;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Frontier that keeps all URLs in memory with no bound.
+ */
+public class MemoryFrontier implements Frontier
+{
+   private final ReentrantLock lock = new ReentrantLock();
+   private final Condition notEmpty = lock.newCondition();
+   private final ArrayDeque<String> urls = new ArrayDeque<>();
+
+   private boolean closed = false;
+
+   @Override
+   public void add(String url)
+   {
+      lock.lock();
+      try
+      {
+         if (closed)
+            return;
+
+         urls.addLast(url);
+         notEmpty.signal();
+      }
+      finally
+      {
+         lock.unlock();
+      }
+   }
+
+   @Override
+   public String poll(long timeout, TimeUnit unit) throws InterruptedException
+   {
+      long nanos = unit.toNanos(timeout);
+
+      lock.lockInterruptibly();
+      try
+      {
+         while (urls.isEmpty() && !closed)
+         {
+            if (nanos <= 0)
+               return null;
+            nanos = notEmpty.awaitNanos(nanos);
+         }
+         return (closed ? null : urls.pollFirst());
+      }
+      finally
+      {
+         lock.unlock();
+      }
+   }
+
+   @Override
+   public long size()
+   {
+      lock.lock();
+      try
+      {
+         return urls.size();
+      }
+      finally
+      {
+         lock.unlock();
+      }
+   }
+
+   @Override
+   public boolean isClosed()
+   {
+      lock.lock();
+      try
+      {
+         return closed;
+      }
+      finally
+      {
+         lock.unlock();
+      }
+   }
+
+   @Override
+   public void close()
+   {
+      lock.lock();
+      try
+      {
+         closed = true;
+         urls.clear();
+         notEmpty.signalAll();
+      }
+      finally
+      {
+         lock.unlock();
+      }
+   }
+}
@@ -0,0 +1,257 @@
+package com.rolls.crawler.crawl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Hands crawled pages to the observers on their own threads, so a slow observer
+ * does not hold up the crawl threads.  Pages are published into a bounded ring
+ * buffer that every observer reads at its own pace, in order, through its own cursor.
+ * An observer gets the pages waiting for it in batches, up to the batch size.
+ * <p>
+ * Publishing waits only for the observers with BLOCK backpressure.  The others skip
+ * the pages that are overwritten before they read them, or sample the pages while
+ * they are far behind.  Closing the dispatcher lets each observer read the pages
+ * still waiting for it before its thread ends.
+ */
+class ObserverDispatcher
+{
+   private final static Logger logger = LoggerFactory.getLogger(ObserverDispatcher.class);
+
+   private final ReentrantLock lock = new ReentrantLock();
+   private final Condition notEmpty = lock.newCondition();
+   private final Condition notFull = lock.newCondition();
+   private final CrawlPage[] pages;
+   private final int batchSize;
+   private final List<Subscriber> subscribers = new ArrayList<>();
+
+   private long published = 0;
+   private boolean closed = false;
+
+   /**
+    * Observer reading the ring buffer on its own thread.
+    */
+   private class Subscriber implements Runnable
+   {
+      private final CrawlObserver observer;
+      private final Backpressure backpressure;
+      private final Thread thread;
+      private long next = 0;
+      private long dropped = 0;
+
+      public Subscriber(CrawlObserver observer, Backpressure backpressure, String threadName)
+      {
+         this.observer = observer;
+         this.backpressure = backpressure;
+         this.thread = new Thread(this, threadName);
+         this.thread.setDaemon(true);
+      }
+
+      @Override
+      public void run()
+      {
+         List<CrawlPage> batch;
+         while ((batch = nextBatch(this)) != null)
+         {
+            try
+            {
+               observer.onPages(batch);
+            }
+            catch (RuntimeException ex)
+            {
+               logger.error("Error in crawl observer.", ex);
+            }
+         }
+      }
+   }
+
+   /**
+    * Constructs a new observer dispatcher.
+    * @param capacity Pages the ring buffer holds.  Value < 1 defaults to 1.
+    * @param batchSize Most pages handed to an observer at once.  Value < 1 defaults to 1.
+    */
+   public ObserverDispatcher(int capacity, int batchSize)
+   {
+      this.pages = new CrawlPage[Math.max(capacity, 1)];
+      this.batchSize = Math.max(batchSize, 1);
+   }
+
+   /**
+    * Adds an observer.  Must be called before the dispatcher is started.
+    * @param observer Observer to add.
+    * @param backpressure What happens when the observer falls behind.
+    * @param threadName Name of the observer's thread.
+    */
+   public void subscribe(CrawlObserver observer, Backpressure backpressure, String threadName)
+   {
+      subscribers.add(new Subscriber(observer, (backpressure != null ? backpressure : Backpressure.BLOCK), threadName));
+   }
+
+   /**
+    * Starts the observer threads.
+    */
+   public void start()
+   {
+      subscribers.forEach((subscriber) -> subscriber.thread.start());
+   }
+
+   /**
+    * Publishes a page to the observers, waiting while an observer with BLOCK
+    * backpressure has not read the page it would overwrite.  A cancelled crawl
+    * interrupts the wait, so it does not hang on an observer that stopped reading.
+    * @param page Crawled page.
+    * @return True if published or false if the dispatcher is closed or the wait interrupted.
+    */
+   public boolean publish(CrawlPage page)
+   {
+      lock.lock();
+      try
+      {
+         while (!closed && published - slowestBlocking() >= pages.length)
+            notFull.await();
+         if (closed)
+            return false;
+
+         pages[(int)(published % pages.length)] = page;
+         ++published;
+         notEmpty.signalAll();
+         return true;
+      }
+      catch (InterruptedException ex)
+      {
+         Thread.currentThread().interrupt(); // Preserve interrupted status
+         return false;
+      }
+      finally
+      {
+         lock.unlock();
+      }
+   }
+
+   /**
+    * Closes the dispatcher and waits for the observers to read the pages waiting for
+    * them.  The wait is not interrupted, so the observers have every page before they
+    * are told the crawl is complete.  An observer calling this from its own thread is
+    * not waited for.
+    */
+   public void close()
+   {
+      lock.lock();
+      try
+      {
+         closed = true;
+         notEmpty.signalAll();
+         notFull.signalAll();
+      }
+      finally
+      {
+         lock.unlock();
+      }
+
+      boolean interrupted = false;
+      for (Subscriber subscriber : subscribers)
+      {
+         while (subscriber.thread != Thread.currentThread() && subscriber.thread.isAlive())
+         {
+            try
+            {
+               subscriber.thread.join();
+            }
+            catch (InterruptedException ex)
+            {
+               interrupted = true;
+            }
+         }
+      }
+      if (interrupted)
+         Thread.currentThread().interrupt(); // Preserve interrupted status
+   }
+
+   /**
+    * Returns the number of pages an observer did not get because it fell behind.
+    * @param observer Observer.
+    * @return Number of pages or 0 if the observer is not subscribed.
+    */
+   public long getDroppedPages(CrawlObserver observer)
+   {
+      lock.lock();
+      try
+      {
+         for (Subscriber subscriber : subscribers)
+         {
+            if (subscriber.observer == observer)
+               return subscriber.dropped;
+         }
+         return 0;
+      }
+      finally
+      {
+         lock.unlock();
+      }
+   }
+
+   /**
+    * Takes the next pages for an observer, waiting until there are some.
+    * @param subscriber Observer reading.
+    * @return Pages or null once the dispatcher is closed and every page is read.
+    */
+   private List<CrawlPage> nextBatch(Subscriber subscriber)
+   {
+      lock.lock();
+      try
+      {
+         while (subscriber.next == published && !closed)
+            notEmpty.awaitUninterruptibly();
+         if (subscriber.next == published)
+            return null;
+
+         // Only a subscriber the publishers do not wait for can be lapped.
+         long oldest = published - pages.length;
+         if (subscriber.next < oldest)
+         {
+            subscriber.dropped += oldest - subscriber.next;
+            subscriber.next = oldest;
+         }
+
+         List<CrawlPage> batch = new ArrayList<>(Math.min(batchSize, (int)(published - subscriber.next)));
+         while (subscriber.next < published && batch.size() < batchSize)
+         {
+            batch.add(pages[(int)(subscriber.next % pages.length)]);
+            ++subscriber.next;
+            if (subscriber.backpressure == Backpressure.SAMPLE && subscriber.next < published &&
+                  published - subscriber.next > pages.length / 2)
+            {
+               ++subscriber.dropped;
+               ++subscriber.next;
+            }
+         }
+
+         if (subscriber.backpressure == Backpressure.BLOCK)
+            notFull.signalAll();
+         return batch;
+      }
+      finally
+      {
+         lock.unlock();
+      }
+   }
+
+   /**
+    * Gets the cursor of the slowest observer with BLOCK backpressure.
+    * @return Next page it reads or the published count if there is none.
+    */
+   private long slowestBlocking()
+   {
+      long slowest = published;
+      for (Subscriber subscriber : subscribers)
+      {
+         if (subscriber.backpressure == Backpressure.BLOCK)
+            slowest = Math.min(slowest, subscriber.next);
+      }
+      return slowest;
+   }
+}
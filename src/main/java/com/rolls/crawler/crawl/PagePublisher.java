@@ -0,0 +1,347 @@
+package com.rolls.crawler.crawl;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Streams the pages of a crawl to subscribers at the pace they ask for them.  Each
+ * subscription reads the pages from the observer dispatcher like a blocking
+ * observer, and sends them only as far as the subscriber has asked.
+ * <p>
+ * The demand also limits the crawl.  A page holds a slot from the time its URL is
+ * pulled from the frontier until it is done, and a slot is only given while the
+ * slots taken and the pages waiting to be sent are fewer than the pages asked for by
+ * every subscriber.  A slow subscriber then holds back new pages instead of letting
+ * them pile up in memory.  The starting URL is not limited.  The pages of a resumed
+ * checkpoint are published from the resume thread after the crawl starts, and count
+ * as waiting like any other page, so they hold back the crawl until asked for.
+ */
+class PagePublisher
+{
+   private final static Logger logger = LoggerFactory.getLogger(PagePublisher.class);
+
+   private final ReentrantLock lock = new ReentrantLock();
+   private final Condition changed = lock.newCondition();
+   private final List<PageSubscription> subscriptions = new ArrayList<>();
+   private final Runnable demandListener;
+
+   private int active = 0;
+   private boolean closed = false;
+   private boolean aborted = false;
+
+   /**
+    * Constructs a new publisher.
+    * @param demandListener Called, without the lock held, when the subscribers may have
+    * asked for more pages, for threads that only try for a slot.  Null for none.
+    */
+   public PagePublisher(Runnable demandListener)
+   {
+      this.demandListener = demandListener;
+   }
+
+   /**
+    * Subscription of one subscriber, which is called on its observer thread.
+    */
+   private class PageSubscription implements CrawlSubscription, CrawlObserver
+   {
+      private final CrawlSubscriber subscriber;
+      private long demand = 0;
+      private long waiting = 0;
+      private boolean cancelled = false;
+      private Throwable error = null;
+
+      public PageSubscription(CrawlSubscriber subscriber)
+      {
+         this.subscriber = subscriber;
+      }
+
+      @Override
+      public void request(long count)
+      {
+         lock.lock();
+         try
+         {
+            if (cancelled)
+               return;
+
+            // The error is sent from the observer thread, so the calls are never made at the same time.
+            if (count <= 0)
+               error = new IllegalArgumentException("Non-positive request.");
+            else
+               demand = (demand + count < 0 ? Long.MAX_VALUE : demand + count);
+            changed.signalAll();
+         }
+         finally
+         {
+            lock.unlock();
+         }
+         demandChanged();
+      }
+
+      @Override
+      public void cancel()
+      {
+         lock.lock();
+         try
+         {
+            cancelled = true;
+            changed.signalAll();
+         }
+         finally
+         {
+            lock.unlock();
+         }
+         demandChanged();
+      }
+
+      @Override
+      public void onPage(CrawlPage page)
+      {
+         if (!awaitDemand())
+            return;
+
+         try
+         {
+            subscriber.onNext(page);
+         }
+         catch (RuntimeException ex)
+         {
+            logger.error("Error in crawl subscriber.", ex);
+            cancel();
+         }
+      }
+
+      @Override
+      public void onComplete(Date startTime, long durationMillis, boolean cancelled)
+      {
+         Throwable cause = null;
+         lock.lock();
+         try
+         {
+            if (this.cancelled && error == null)
+               return;
+
+            cause = (error != null ? error : (cancelled ? new CancellationException("The crawl was cancelled.") : null));
+            this.cancelled = true;
+         }
+         finally
+         {
+            lock.unlock();
+         }
+
+         if (cause != null)
+            subscriber.onError(cause);
+         else
+            subscriber.onComplete();
+      }
+
+      /**
+       * Waits until the subscriber has asked for another page, and takes it from the demand.
+       * @return True if the page is to be sent or false if it is dropped.
+       */
+      private boolean awaitDemand()
+      {
+         boolean send;
+         lock.lock();
+         try
+         {
+            while (demand == 0 && !cancelled && error == null && !aborted)
+               changed.awaitUninterruptibly();
+
+            --waiting;
+            send = (!cancelled && error == null && !aborted);
+            if (send && demand != Long.MAX_VALUE)
+               --demand;
+            changed.signalAll();
+         }
+         finally
+         {
+            lock.unlock();
+         }
+         demandChanged();
+         return send;
+      }
+
+      /**
+       * Tells the listener the demand may have changed.
+       */
+      private void demandChanged()
+      {
+         if (demandListener != null)
+            demandListener.run();
+      }
+   }
+
+   /**
+    * Adds a subscriber.  Must be called before the publisher is started.
+    * @param subscriber Subscriber to add.
+    * @return Observer that sends the pages to the subscriber.
+    */
+   public CrawlObserver subscribe(CrawlSubscriber subscriber)
+   {
+      PageSubscription subscription = new PageSubscription(subscriber);
+      subscriptions.add(subscription);
+      return subscription;
+   }
+
+   /**
+    * Starts the subscriptions.  The subscribers may ask for pages straight away.
+    */
+   public void start()
+   {
+      subscriptions.forEach((subscription) -> subscription.subscriber.onSubscribe(subscription));
+   }
+
+   /**
+    * Takes a slot for a page, waiting until every subscriber has asked for more
+    * pages than are taken or waiting to be sent.
+    * @return True if taken or false if the publisher is closed.
+    * @throws InterruptedException If interrupted while waiting.
+    */
+   public boolean acquire() throws InterruptedException
+   {
+      lock.lockInterruptibly();
+      try
+      {
+         while (!closed && !hasDemand())
+            changed.await();
+         if (closed)
+            return false;
+
+         ++active;
+         return true;
+      }
+      finally
+      {
+         lock.unlock();
+      }
+   }
+
+   /**
+    * Takes a slot for a page if every subscriber has asked for more pages than are
+    * taken or waiting to be sent, without waiting.
+    * @return True if taken or false if there is no demand or the publisher is closed.
+    */
+   public boolean tryAcquire()
+   {
+      lock.lock();
+      try
+      {
+         if (closed || !hasDemand())
+            return false;
+
+         ++active;
+         return true;
+      }
+      finally
+      {
+         lock.unlock();
+      }
+   }
+
+   /**
+    * Gives back a slot.
+    */
+   public void release()
+   {
+      lock.lock();
+      try
+      {
+         --active;
+         changed.signalAll();
+      }
+      finally
+      {
+         lock.unlock();
+      }
+   }
+
+   /**
+    * Counts a page as waiting to be sent to each subscriber.  Called before the page
+    * is published to the observer dispatcher.
+    */
+   public void pagePublished()
+   {
+      lock.lock();
+      try
+      {
+         for (PageSubscription subscription : subscriptions)
+            ++subscription.waiting;
+      }
+      finally
+      {
+         lock.unlock();
+      }
+   }
+
+   /**
+    * Closes the publisher once the crawl is complete, waking the threads waiting for
+    * a slot.  The pages waiting are still sent as they are asked for.
+    */
+   public void close()
+   {
+      lock.lock();
+      try
+      {
+         closed = true;
+         changed.signalAll();
+      }
+      finally
+      {
+         lock.unlock();
+      }
+   }
+
+   /**
+    * Tells the subscribers the crawl is complete.  Called once every page has been read
+    * from the observer dispatcher.
+    * @param startTime Start time of the crawl.
+    * @param durationMillis Duration, in milliseconds, of the crawl.
+    * @param cancelled True if the crawl was cancelled.
+    */
+   public void complete(Date startTime, long durationMillis, boolean cancelled)
+   {
+      subscriptions.forEach((subscription) -> subscription.onComplete(startTime, durationMillis, cancelled));
+   }
+
+   /**
+    * Closes the publisher when the crawl is cancelled.  The pages waiting are dropped,
+    * so the crawl does not wait for subscribers that stopped asking.
+    */
+   public void abort()
+   {
+      lock.lock();
+      try
+      {
+         closed = true;
+         aborted = true;
+         changed.signalAll();
+      }
+      finally
+      {
+         lock.unlock();
+      }
+   }
+
+   /**
+    * Returns if every subscriber has asked for more pages than are taken or waiting.
+    * Cancelled and failed subscriptions do not count.  Must hold the lock.
+    * @return True if another slot may be taken.
+    */
+   private boolean hasDemand()
+   {
+      for (PageSubscription subscription : subscriptions)
+      {
+         if (!subscription.cancelled && subscription.error == null &&
+               subscription.demand != Long.MAX_VALUE && active + subscription.waiting >= subscription.demand)
+            return false;
+      }
+      return true;
+   }
+}
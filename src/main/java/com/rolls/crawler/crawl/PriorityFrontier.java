@@ -0,0 +1,356 @@
+package com.rolls.crawler.crawl;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+
+/**
+ * Frontier that hands out the most important URLs first, so a crawl that is cut short
+ * has covered the most important part of the site.  All URLs are kept in memory.
+ * <p>
+ * A URL's score is its link depth times DEPTH_WEIGHT, less one for each link found to
+ * it after the first, up to MAX_LINK_BONUS.  Lower scores are crawled first, so
+ * shallow pages always come before deeper ones, and pages linked from many others
+ * come first within a depth.
+ * <p>
+ * URLs are grouped into sections by host and first path segment, such as
+ * www.site.org/docs/.  The section whose best URL has the lowest score goes next,
+ * and sections whose best URLs have the same score take turns, so one large section
+ * does not hold back the rest of the site.
+ * <p>
+ * The sections are kept in order within their host, and the hosts in the order of their
+ * best sections, so a check of whether a host may be crawled is made once per host
+ * instead of once per section.
+ */
+public class PriorityFrontier implements Frontier
+{
+   /**
+    * Score of each link of depth.
+    */
+   public final static int DEPTH_WEIGHT = 10;
+
+   /**
+    * Maximum score taken off for links found to a URL, which keeps it within its depth.
+    */
+   public final static int MAX_LINK_BONUS = DEPTH_WEIGHT - 1;
+
+   private final static Comparator<Entry> entryOrder =
+         Comparator.comparingInt(Entry::getScore).thenComparingLong((entry) -> entry.sequence);
+   private final static Comparator<Section> sectionOrder =
+         Comparator.comparingInt((Section section) -> section.urls.first().getScore())
+         .thenComparingLong((section) -> section.lastServed)
+         .thenComparing((section) -> section.name);
+   private final static Comparator<Host> hostOrder =
+         Comparator.comparing((Host host) -> host.readySections.first(), sectionOrder)
+         .thenComparing((host) -> host.name);
+
+   private final ReentrantLock lock = new ReentrantLock();
+   private final Condition notEmpty = lock.newCondition();
+   private final Map<String, Entry> entries = new HashMap<>();
+   private final Map<String, Section> sections = new HashMap<>();
+   private final Map<String, Host> hosts = new HashMap<>();
+   private final TreeSet<Host> readyHosts = new TreeSet<>(hostOrder);
+
+   private long sequence = 0;
+   private boolean closed = false;
+
+   /**
+    * URL waiting in the frontier.
+    */
+   private static class Entry
+   {
+      private final String url;
+      private final Section section;
+      private final int depth;
+      private final long sequence;
+      private int links = 1;
+
+      public Entry(String url, Section section, int depth, long sequence)
+      {
+         this.url = url;
+         this.section = section;
+         this.depth = depth;
+         this.sequence = sequence;
+      }
+
+      public int getScore()
+      {
+         return depth * DEPTH_WEIGHT - Math.min(links - 1, MAX_LINK_BONUS);
+      }
+   }
+
+   /**
+    * URLs of a section of the site.  A section with URLs is in the ready sections of
+    * its host, and must be taken out before its order changes.
+    */
+   private static class Section
+   {
+      private final String name;
+      private final Host host;
+      private final TreeSet<Entry> urls = new TreeSet<>(entryOrder);
+      private long lastServed = 0;
+
+      public Section(String name, Host host)
+      {
+         this.name = name;
+         this.host = host;
+      }
+   }
+
+   /**
+    * Sections of a host.  A host with ready sections is in the ready hosts, and must be
+    * taken out before its order changes.
+    */
+   private static class Host
+   {
+      private final String name;
+      private final TreeSet<Section> readySections = new TreeSet<>(sectionOrder);
+
+      public Host(String name)
+      {
+         this.name = name;
+      }
+   }
+
+   /**
+    * Adds a URL at depth 0.
+    * @param url URL to add.
+    */
+   @Override
+   public void add(String url)
+   {
+      add(url, 0);
+   }
+
+   @Override
+   public void add(String url, int depth)
+   {
+      lock.lock();
+      try
+      {
+         if (closed || entries.containsKey(url))
+            return;
+
+         String name = getSectionName(url);
+         Section section = sections.get(name);
+         if (section == null)
+         {
+            section = new Section(name, hosts.computeIfAbsent(HostScheduler.getHostName(url), (key) -> new Host(key)));
+            sections.put(name, section);
+         }
+         Entry entry = new Entry(url, section, Math.max(depth, 0), ++sequence);
+
+         unready(section);
+         section.urls.add(entry);
+         ready(section);
+         entries.put(url, entry);
+         notEmpty.signal();
+      }
+      finally
+      {
+         lock.unlock();
+      }
+   }
+
+   @Override
+   public void linkFound(String url)
+   {
+      lock.lock();
+      try
+      {
+         Entry entry = entries.get(url);
+         if (entry == null)
+            return;
+
+         if (entry.links > MAX_LINK_BONUS)
+         {
+            // The score no longer changes.
+            ++entry.links;
+            return;
+         }
+
+         Section section = entry.section;
+         unready(section);
+         section.urls.remove(entry);
+         ++entry.links;
+         section.urls.add(entry);
+         ready(section);
+      }
+      finally
+      {
+         lock.unlock();
+      }
+   }
+
+   @Override
+   public String poll(long timeout, TimeUnit unit) throws InterruptedException
+   {
+      long nanos = unit.toNanos(timeout);
+
+      lock.lockInterruptibly();
+      try
+      {
+         while (readyHosts.isEmpty() && !closed)
+         {
+            if (nanos <= 0)
+               return null;
+            nanos = notEmpty.awaitNanos(nanos);
+         }
+         if (closed)
+            return null;
+
+         return take(readyHosts.first().readySections.first());
+      }
+      finally
+      {
+         lock.unlock();
+      }
+   }
+
+   /**
+    * Removes the most important URL whose host a check accepts, without waiting.  The
+    * check is made once for each host with URLs, in the order of their most important
+    * URLs, such as whether the host is ready.  URLs that are not accepted keep their place.
+    * @param acceptHost Check of a host name, with the port if any, in lower case.
+    * @return URL or null if the check accepts no host or the frontier is closed.
+    */
+   public String poll(Predicate<String> acceptHost)
+   {
+      lock.lock();
+      try
+      {
+         if (closed)
+            return null;
+
+         for (Host host : readyHosts)
+         {
+            if (acceptHost.test(host.name))
+               return take(host.readySections.first());
+         }
+         return null;
+      }
+      finally
+      {
+         lock.unlock();
+      }
+   }
+
+   @Override
+   public long size()
+   {
+      lock.lock();
+      try
+      {
+         return entries.size();
+      }
+      finally
+      {
+         lock.unlock();
+      }
+   }
+
+   @Override
+   public boolean isClosed()
+   {
+      lock.lock();
+      try
+      {
+         return closed;
+      }
+      finally
+      {
+         lock.unlock();
+      }
+   }
+
+   @Override
+   public void close()
+   {
+      lock.lock();
+      try
+      {
+         closed = true;
+         entries.clear();
+         sections.clear();
+         hosts.clear();
+         readyHosts.clear();
+         notEmpty.signalAll();
+      }
+      finally
+      {
+         lock.unlock();
+      }
+   }
+
+   /**
+    * Removes the most important URL of a section.  Must be called with the lock held.
+    * @param section Section with URLs.
+    * @return URL.
+    */
+   private String take(Section section)
+   {
+      unready(section);
+      Entry entry = section.urls.pollFirst();
+      section.lastServed = ++sequence;
+      ready(section);
+
+      entries.remove(entry.url);
+      return entry.url;
+   }
+
+   /**
+    * Takes a section and its host out of the ready sections and hosts, before the
+    * order of the section changes.  Must be called with the lock held.
+    * @param section Section to take out.
+    */
+   private void unready(Section section)
+   {
+      // An empty section or host is not in the ready ones, and has no order to compare.
+      if (!section.host.readySections.isEmpty())
+         readyHosts.remove(section.host);
+      if (!section.urls.isEmpty())
+         section.host.readySections.remove(section);
+   }
+
+   /**
+    * Puts a section and its host back in the ready sections and hosts, if they have
+    * URLs.  Must be called with the lock held.
+    * @param section Section to put back.
+    */
+   private void ready(Section section)
+   {
+      if (!section.urls.isEmpty())
+         section.host.readySections.add(section);
+      if (!section.host.readySections.isEmpty())
+         readyHosts.add(section.host);
+   }
+
+   /**
+    * Gets the section of a URL, which is its host and first path segment.  Pages at the
+    * root of the site are in the root section.
+    * @param url URL.
+    * @return Section name, such as www.site.org/docs/ or www.site.org/.
+    */
+   static String getSectionName(String url)
+   {
+      int start = url.indexOf("://");
+      start = (start >= 0 ? start + 3 : 0);
+
+      int length = url.length();
+      int hostEnd = start;
+      while (hostEnd < length && "/?#".indexOf(url.charAt(hostEnd)) < 0)
+         ++hostEnd;
+      if (hostEnd == length || url.charAt(hostEnd) != '/')
+         return url.substring(start, hostEnd) + "/";
+
+      int end = hostEnd + 1;
+      while (end < length && "/?#".indexOf(url.charAt(end)) < 0)
+         ++end;
+      return (end < length && url.charAt(end) == '/' ? url.substring(start, end + 1) : url.substring(start, hostEnd + 1));
+   }
+}
@@ -0,0 +1,28 @@
+package com.rolls.crawler.crawl;
+
+/**
+ * Set of URLs that have already been queued by a crawl.  Implementations
+ * must be safe to use from multiple threads.
+ */
+public interface SeenUrlSet
+{
+   /**
+    * Adds a URL to the set.
+    * @param url URL to add.
+    * @return True if the URL was not already in the set.
+    */
+   public boolean add(String url);
+
+   /**
+    * Returns if a URL is in the set.
+    * @param url URL to check.
+    * @return True if the URL is in the set.
+    */
+   public boolean contains(String url);
+
+   /**
+    * Returns the number of URLs added to the set.
+    * @return Number of URLs.
+    */
+   public long size();
+}
@@ -0,0 +1,24 @@
+package com.rolls.crawler.crawl;
+
+/**
+ * Types of seen URL sets a crawl can use.
+ */
+public enum SeenUrlStore
+{
+   /**
+    * Keeps every URL as a string.  Exact but uses the most memory.
+    */
+   STRING,
+
+   /**
+    * Keeps a 64-bit fingerprint of every URL in primitive arrays.
+    * About 10 to 20 bytes per URL with a negligible chance of collision.
+    */
+   FINGERPRINT,
+
+   /**
+    * Keeps URLs in a fixed size Bloom filter sized from the expected number of URLs
+    * and the false positive rate.  A false positive means a page is not crawled.
+    */
+   BLOOM
+}
@@ -0,0 +1,383 @@
+package com.rolls.crawler.crawl;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Frontier that keeps a bounded number of URLs in memory and spills the rest to
+ * memory-mapped segment files on disk, so the heap used does not grow with the backlog.
+ * <p>
+ * URLs are kept in FIFO order.  While the backlog fits in memory the segment files are
+ * never touched.  Once the memory head is full, new URLs are appended to the last segment
+ * and the head is refilled from the oldest segment when it runs empty.  Drained segments
+ * are reused for new writes instead of being unmapped, which Java cannot do explicitly,
+ * and all segment files are deleted when the frontier is closed.
+ */
+public class SpillingFrontier implements Frontier
+{
+   /**
+    * Default size, in bytes, of a segment file.
+    */
+   public final static int DEFAULT_SEGMENT_BYTES = 64 * 1024 * 1024;
+
+   private final static Logger logger = LoggerFactory.getLogger(SpillingFrontier.class);
+
+   private final ReentrantLock lock = new ReentrantLock();
+   private final Condition notEmpty = lock.newCondition();
+   private final ArrayDeque<String> head;
+   private final int headCapacity;
+   private final Path dir;
+   private final int segmentBytes;
+
+   // Segments holding spilled URLs, oldest first.  The last one is written to.
+   private final ArrayDeque<Segment> segments = new ArrayDeque<>();
+   private final ArrayDeque<Segment> freeSegments = new ArrayDeque<>();
+   private long spilledUrls = 0;
+   private int segmentsCreated = 0;
+   private boolean closed = false;
+
+   /**
+    * Segment file of URL records.  Each record is the length of the URL in bytes
+    * followed by the UTF-8 bytes of the URL.
+    */
+   private static class Segment
+   {
+      private final Path path;
+      private final FileChannel channel;
+      private final MappedByteBuffer buffer;
+      private int writePos = 0;
+      private int readPos = 0;
+
+      public Segment(Path path, int size) throws IOException
+      {
+         this.path = path;
+         this.channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+               StandardOpenOption.WRITE, StandardOpenOption.SPARSE);
+         this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+      }
+
+      public boolean write(byte[] bytes)
+      {
+         if (writePos + Integer.BYTES + bytes.length > buffer.capacity())
+            return false;
+
+         buffer.position(writePos);
+         buffer.putInt(bytes.length);
+         buffer.put(bytes);
+         writePos = buffer.position();
+         return true;
+      }
+
+      public String read()
+      {
+         if (readPos >= writePos)
+            return null;
+
+         buffer.position(readPos);
+         byte[] bytes = new byte[buffer.getInt()];
+         buffer.get(bytes);
+         readPos = buffer.position();
+         return new String(bytes, StandardCharsets.UTF_8);
+      }
+
+      public boolean isDrained()
+      {
+         return (readPos >= writePos);
+      }
+
+      public void reset()
+      {
+         readPos = 0;
+         writePos = 0;
+      }
+
+      public void delete()
+      {
+         try
+         {
+            channel.close();
+            Files.deleteIfExists(path);
+         }
+         catch (IOException ex)
+         {
+            // Still mapped on some platforms.  Delete it when the JVM exits.
+            path.toFile().deleteOnExit();
+         }
+      }
+   }
+
+   /**
+    * Constructs a new spilling frontier with the default segment size.
+    * @param headCapacity Maximum number of URLs kept in memory.
+    * @param spillPath Directory to create the segment files in.  Created if it does not exist.
+    */
+   public SpillingFrontier(int headCapacity, Path spillPath)
+   {
+      this(headCapacity, spillPath, DEFAULT_SEGMENT_BYTES);
+   }
+
+   /**
+    * Constructs a new spilling frontier.
+    * @param headCapacity Maximum number of URLs kept in memory.
+    * @param spillPath Directory to create the segment files in.  Created if it does not exist.
+    * @param segmentBytes Size, in bytes, of each segment file.
+    */
+   public SpillingFrontier(int headCapacity, Path spillPath, int segmentBytes)
+   {
+      if (headCapacity < 1)
+         throw new IllegalArgumentException("Invalid head capacity.");
+
+      if (spillPath == null)
+         throw new IllegalArgumentException("Null spill path.");
+
+      if (segmentBytes < 1024)
+         throw new IllegalArgumentException("Invalid segment size.");
+
+      this.headCapacity = headCapacity;
+      this.head = new ArrayDeque<>(Math.min(headCapacity, 1024));
+      this.segmentBytes = segmentBytes;
+
+      try
+      {
+         Files.createDirectories(spillPath);
+         this.dir = Files.createTempDirectory(spillPath, "frontier-");
+      }
+      catch (IOException ex)
+      {
+         throw new RuntimeException(String.format("Unable to create frontier directory in %s.", spillPath), ex);
+      }
+   }
+
+   @Override
+   public void add(String url)
+   {
+      lock.lock();
+      try
+      {
+         if (closed)
+            return;
+
+         // Once anything is spilled, new URLs go behind it to keep FIFO order.
+         if (spilledUrls == 0 && head.size() < headCapacity)
+            head.addLast(url);
+         else
+            spill(url);
+
+         notEmpty.signal();
+      }
+      finally
+      {
+         lock.unlock();
+      }
+   }
+
+   @Override
+   public String poll(long timeout, TimeUnit unit) throws InterruptedException
+   {
+      long nanos = unit.toNanos(timeout);
+
+      lock.lockInterruptibly();
+      try
+      {
+         while (head.isEmpty() && spilledUrls == 0 && !closed)
+         {
+            if (nanos <= 0)
+               return null;
+            nanos = notEmpty.awaitNanos(nanos);
+         }
+
+         if (closed)
+            return null;
+
+         if (head.isEmpty())
+            refill();
+
+         return head.pollFirst();
+      }
+      finally
+      {
+         lock.unlock();
+      }
+   }
+
+   @Override
+   public long size()
+   {
+      lock.lock();
+      try
+      {
+         return head.size() + spilledUrls;
+      }
+      finally
+      {
+         lock.unlock();
+      }
+   }
+
+   /**
+    * Returns the number of URLs on disk.
+    * @return Number of spilled URLs.
+    */
+   public long getSpilledUrls()
+   {
+      lock.lock();
+      try
+      {
+         return spilledUrls;
+      }
+      finally
+      {
+         lock.unlock();
+      }
+   }
+
+   /**
+    * Returns the number of segment files created.
+    * @return Number of segment files.
+    */
+   public int getSegmentsCreated()
+   {
+      lock.lock();
+      try
+      {
+         return segmentsCreated;
+      }
+      finally
+      {
+         lock.unlock();
+      }
+   }
+
+   @Override
+   public boolean isClosed()
+   {
+      lock.lock();
+      try
+      {
+         return closed;
+      }
+      finally
+      {
+         lock.unlock();
+      }
+   }
+
+   @Override
+   public void close()
+   {
+      lock.lock();
+      try
+      {
+         if (closed)
+            return;
+
+         closed = true;
+         head.clear();
+         spilledUrls = 0;
+
+         segments.forEach((segment) -> segment.delete());
+         freeSegments.forEach((segment) -> segment.delete());
+         segments.clear();
+         freeSegments.clear();
+
+         try
+         {
+            Files.deleteIfExists(dir);
+         }
+         catch (IOException ex)
+         {
+            dir.toFile().deleteOnExit();
+         }
+
+         notEmpty.signalAll();
+      }
+      finally
+      {
+         lock.unlock();
+      }
+   }
+
+   /**
+    * Appends a URL to the last segment.  Must be called with the lock held.
+    * @param url URL to spill.
+    */
+   private void spill(String url)
+   {
+      byte[] bytes = url.getBytes(StandardCharsets.UTF_8);
+
+      // Checked before a segment is taken, so a URL that can never fit doesn't leave one behind.
+      if (Integer.BYTES + bytes.length > segmentBytes)
+         throw new IllegalArgumentException(String.format("URL too long for frontier segment: %d bytes.", bytes.length));
+
+      Segment segment = segments.peekLast();
+      if (segment == null || !segment.write(bytes))
+      {
+         segment = nextSegment();
+         segment.write(bytes);
+         segments.addLast(segment);
+      }
+
+      ++spilledUrls;
+   }
+
+   /**
+    * Moves spilled URLs from the oldest segments into the memory head until it
+    * is full or nothing is left on disk.  Must be called with the lock held.
+    */
+   private void refill()
+   {
+      while (head.size() < headCapacity && spilledUrls > 0)
+      {
+         Segment segment = segments.peekFirst();
+         String url = segment.read();
+         if (url != null)
+         {
+            head.addLast(url);
+            --spilledUrls;
+         }
+
+         if (segment.isDrained())
+         {
+            segments.pollFirst();
+            segment.reset();
+            freeSegments.addLast(segment);
+         }
+      }
+   }
+
+   /**
+    * Returns a free segment or creates a new segment file.  Must be called with the lock held.
+    * @return Empty segment.
+    */
+   private Segment nextSegment()
+   {
+      Segment segment = freeSegments.pollFirst();
+      if (segment != null)
+         return segment;
+
+      Path path = dir.resolve(String.format("segment-%05d.dat", segmentsCreated));
+      try
+      {
+         segment = new Segment(path, segmentBytes);
+      }
+      catch (IOException ex)
+      {
+         throw new RuntimeException(String.format("Unable to create frontier segment %s.", path), ex);
+      }
+
+      ++segmentsCreated;
+      logger.debug("Created frontier segment {}.", path);
+      return segment;
+   }
+}
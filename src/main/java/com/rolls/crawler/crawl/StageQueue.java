@@ -0,0 +1,147 @@
+package com.rolls.crawler.crawl;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded queue that joins two stages of the crawl pipeline.  A full queue blocks the
+ * producing stage, so a slow stage holds back the stage in front of it instead of
+ * letting work pile up in memory.  Closing the queue wakes all waiting threads.
+ * @param <T> Type of item.
+ */
+class StageQueue<T>
+{
+   private final ReentrantLock lock = new ReentrantLock();
+   private final Condition notEmpty = lock.newCondition();
+   private final Condition notFull = lock.newCondition();
+   private final ArrayDeque<T> items;
+   private final int capacity;
+
+   private boolean closed = false;
+
+   /**
+    * Constructs a new stage queue.
+    * @param capacity Maximum number of items.  Value < 1 defaults to 1.
+    */
+   public StageQueue(int capacity)
+   {
+      this.capacity = Math.max(capacity, 1);
+      this.items = new ArrayDeque<>(this.capacity);
+   }
+
+   /**
+    * Adds an item, waiting while the queue is full.
+    * @param item Item to add.
+    * @return True if added or false if the queue is closed.
+    * @throws InterruptedException If interrupted while waiting.
+    */
+   public boolean put(T item) throws InterruptedException
+   {
+      lock.lockInterruptibly();
+      try
+      {
+         while (items.size() >= capacity && !closed)
+            notFull.await();
+
+         if (closed)
+            return false;
+
+         items.addLast(item);
+         notEmpty.signal();
+         return true;
+      }
+      finally
+      {
+         lock.unlock();
+      }
+   }
+
+   /**
+    * Removes the next item, waiting if the queue is empty.
+    * @param timeout Duration to wait for an item.
+    * @param unit Time unit of timeout.
+    * @return Next item or null if the timeout elapsed or the queue is closed.
+    * @throws InterruptedException If interrupted while waiting.
+    */
+   public T poll(long timeout, TimeUnit unit) throws InterruptedException
+   {
+      long nanos = unit.toNanos(timeout);
+
+      lock.lockInterruptibly();
+      try
+      {
+         while (items.isEmpty() && !closed)
+         {
+            if (nanos <= 0)
+               return null;
+            nanos = notEmpty.awaitNanos(nanos);
+         }
+
+         if (closed)
+            return null;
+
+         T item = items.pollFirst();
+         notFull.signal();
+         return item;
+      }
+      finally
+      {
+         lock.unlock();
+      }
+   }
+
+   /**
+    * Returns the number of items in the queue.
+    * @return Number of items.
+    */
+   public int size()
+   {
+      lock.lock();
+      try
+      {
+         return items.size();
+      }
+      finally
+      {
+         lock.unlock();
+      }
+   }
+
+   /**
+    * Returns if the queue is closed.
+    * @return True if closed.
+    */
+   public boolean isClosed()
+   {
+      lock.lock();
+      try
+      {
+         return closed;
+      }
+      finally
+      {
+         lock.unlock();
+      }
+   }
+
+   /**
+    * Closes the queue, drops any items, and wakes all waiting threads.
+    */
+   public void close()
+   {
+      lock.lock();
+      try
+      {
+         closed = true;
+         items.clear();
+         notEmpty.signalAll();
+         notFull.signalAll();
+      }
+      finally
+      {
+         lock.unlock();
+      }
+   }
+}
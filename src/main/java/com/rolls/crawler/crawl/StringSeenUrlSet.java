@@ -0,0 +1,30 @@
+package com.rolls.crawler.crawl;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Seen URL set that keeps every URL as a string in a concurrent set.
+ */
+public class StringSeenUrlSet implements SeenUrlSet
+{
+   private final Set<String> urls = ConcurrentHashMap.newKeySet();
+
+   @Override
+   public boolean add(String url)
+   {
+      return urls.add(url);
+   }
+
+   @Override
+   public boolean contains(String url)
+   {
+      return urls.contains(url);
+   }
+
+   @Override
+   public long size()
+   {
+      return urls.size();
+   }
+}
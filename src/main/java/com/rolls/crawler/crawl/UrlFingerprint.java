@@ -0,0 +1,47 @@
+package com.rolls.crawler.crawl;
+
+/**
+ * Computes 64-bit fingerprints of URLs.
+ */
+public final class UrlFingerprint
+{
+   private final static long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+   private final static long FNV_PRIME = 0x100000001b3L;
+
+   private UrlFingerprint()
+   {
+   }
+
+   /**
+    * Computes the fingerprint of a URL.  The characters are hashed with FNV-1a and
+    * the result is mixed so all 64 bits are usable for table indexes.
+    * @param url URL to fingerprint.
+    * @return 64-bit fingerprint.
+    */
+   public static long of(CharSequence url)
+   {
+      long hash = FNV_OFFSET_BASIS;
+      for (int i = 0, len = url.length(); i < len; ++i)
+      {
+         char c = url.charAt(i);
+         hash = (hash ^ (c & 0xff)) * FNV_PRIME;
+         hash = (hash ^ (c >>> 8)) * FNV_PRIME;
+      }
+      return mix(hash);
+   }
+
+   /**
+    * Finalization mix of MurmurHash3.  Spreads every input bit over the result.
+    * @param hash Value to mix.
+    * @return Mixed value.
+    */
+   static long mix(long hash)
+   {
+      hash ^= (hash >>> 33);
+      hash *= 0xff51afd7ed558ccdL;
+      hash ^= (hash >>> 33);
+      hash *= 0xc4ceb9fe1a85ec53L;
+      hash ^= (hash >>> 33);
+      return hash;
+   }
+}
@@ -0,0 +1,404 @@
+package com.rolls.crawler.crawl;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Normalizes URLs so the URLs of the same page are the same string before they are
+ * checked against the URLs already seen.  Only the rules given are applied.
+ * <p>
+ * Most URLs found on a page are already normal, so a URL is scanned once and returned
+ * as is if no rule changes it.  A new string is only built for URLs that change.
+ * URLs without an authority, such as mailto: links, only have their fragment and
+ * trailing slash removed.
+ */
+public class UrlNormalizer
+{
+   /**
+    * Rules applied by default, which are all of them.
+    */
+   public final static Set<UrlRule> DEFAULT_RULES = Collections.unmodifiableSet(EnumSet.allOf(UrlRule.class));
+
+   private final static Comparator<String> parameterNameOrder = (a, b) -> compareNames(a, b);
+
+   private final boolean removeFragment;
+   private final boolean lowerCaseHost;
+   private final boolean removeDefaultPort;
+   private final boolean normalizePercentEncoding;
+   private final boolean removeDotSegments;
+   private final boolean sortQueryParameters;
+   private final boolean removeTrailingSlash;
+
+   /**
+    * Constructs a new URL normalizer.
+    * @param rules Rules to apply.
+    */
+   public UrlNormalizer(Set<UrlRule> rules)
+   {
+      if (rules == null)
+         throw new IllegalArgumentException("Null rules.");
+
+      this.removeFragment = rules.contains(UrlRule.REMOVE_FRAGMENT);
+      this.lowerCaseHost = rules.contains(UrlRule.LOWER_CASE_HOST);
+      this.removeDefaultPort = rules.contains(UrlRule.REMOVE_DEFAULT_PORT);
+      this.normalizePercentEncoding = rules.contains(UrlRule.NORMALIZE_PERCENT_ENCODING);
+      this.removeDotSegments = rules.contains(UrlRule.REMOVE_DOT_SEGMENTS);
+      this.sortQueryParameters = rules.contains(UrlRule.SORT_QUERY_PARAMETERS);
+      this.removeTrailingSlash = rules.contains(UrlRule.REMOVE_TRAILING_SLASH);
+   }
+
+   /**
+    * Normalizes a URL.
+    * @param url Absolute URL.
+    * @return Normalized URL.  The same string if no rule changes it.
+    */
+   public String normalize(String url)
+   {
+      int length = url.length();
+      int fragmentStart = url.indexOf('#');
+      if (fragmentStart < 0)
+         fragmentStart = length;
+      int end = (removeFragment ? fragmentStart : length);
+
+      int schemeEnd = url.indexOf("://");
+      if (schemeEnd <= 0 || schemeEnd > fragmentStart)
+      {
+         while (removeTrailingSlash && end > 0 && url.charAt(end - 1) == '/')
+            --end;
+         return (end == length ? url : url.substring(0, end));
+      }
+
+      // scheme://userinfo@host:port/path?query#fragment
+      int authorityStart = schemeEnd + 3;
+      int pathStart = authorityStart;
+      while (pathStart < fragmentStart && url.charAt(pathStart) != '/' && url.charAt(pathStart) != '?')
+         ++pathStart;
+      int hostStart = url.lastIndexOf('@', pathStart - 1) + 1;
+      if (hostStart < authorityStart)
+         hostStart = authorityStart;
+      int queryStart = url.indexOf('?', pathStart);
+      int pathEnd = (queryStart >= 0 && queryStart < fragmentStart ? queryStart : fragmentStart);
+      int portStart = getDefaultPortStart(url, schemeEnd, hostStart, pathStart);
+
+      if (end == length &&
+            !(lowerCaseHost && (hasUpperCase(url, 0, schemeEnd) || hasUpperCase(url, hostStart, pathStart))) &&
+            portStart < 0 &&
+            !(normalizePercentEncoding && hasPercentToNormalize(url, pathStart, fragmentStart)) &&
+            !(removeDotSegments && hasDotSegments(url, pathStart, pathEnd)) &&
+            !(sortQueryParameters && pathEnd < fragmentStart && !isSorted(url, pathEnd + 1, fragmentStart)) &&
+            !(removeTrailingSlash && pathEnd > pathStart && url.charAt(pathEnd - 1) == '/'))
+         return url;
+
+      StringBuilder normal = new StringBuilder(length);
+      appendCase(normal, url, 0, schemeEnd);
+      normal.append(url, schemeEnd, hostStart);
+      appendCase(normal, url, hostStart, (portStart >= 0 ? portStart : pathStart));
+
+      String path = encode(url, pathStart, pathEnd);
+      if (removeDotSegments)
+         path = removeDotSegments(path);
+      int pathLength = path.length();
+      while (removeTrailingSlash && pathLength > 0 && path.charAt(pathLength - 1) == '/')
+         --pathLength;
+      normal.append(path, 0, pathLength);
+
+      if (pathEnd < fragmentStart)
+      {
+         String query = encode(url, pathEnd + 1, fragmentStart);
+         normal.append('?').append(sortQueryParameters ? sortParameters(query) : query);
+      }
+
+      normal.append(url, fragmentStart, end);
+      return normal.toString();
+   }
+
+   /**
+    * Gets where the port starts if the rule is on and it is the default of the scheme or empty.
+    * @param url URL to check.
+    * @param schemeEnd End of the scheme.
+    * @param hostStart Start of the host.
+    * @param authorityEnd End of the authority.
+    * @return Index of the colon before the port or -1 if it is kept.
+    */
+   private int getDefaultPortStart(String url, int schemeEnd, int hostStart, int authorityEnd)
+   {
+      if (!removeDefaultPort)
+         return -1;
+
+      int colon = url.lastIndexOf(':', authorityEnd - 1);
+      if (colon < hostStart || url.indexOf(']', colon) >= 0 && url.indexOf(']', colon) < authorityEnd)
+         return -1;
+
+      int portLength = authorityEnd - colon - 1;
+      if (portLength == 0 ||
+            portLength == 2 && url.startsWith("80", colon + 1) && schemeEnd == 4 && url.regionMatches(true, 0, "http", 0, 4) ||
+            portLength == 3 && url.startsWith("443", colon + 1) && schemeEnd == 5 && url.regionMatches(true, 0, "https", 0, 5))
+         return colon;
+      return -1;
+   }
+
+   /**
+    * Appends part of a URL, lower cased if the rule is on.
+    * @param normal URL being built.
+    * @param url URL to copy from.
+    * @param start Start of the part.
+    * @param end End of the part.
+    */
+   private void appendCase(StringBuilder normal, String url, int start, int end)
+   {
+      for (int i = start; i < end; ++i)
+      {
+         char c = url.charAt(i);
+         normal.append(lowerCaseHost && c >= 'A' && c <= 'Z' ? (char)(c + ('a' - 'A')) : c);
+      }
+   }
+
+   /**
+    * Gets part of a URL with its percent-encoding normalized if the rule is on.
+    * @param url URL to copy from.
+    * @param start Start of the part.
+    * @param end End of the part.
+    * @return Part of the URL.
+    */
+   private String encode(String url, int start, int end)
+   {
+      if (!normalizePercentEncoding || !hasPercentToNormalize(url, start, end))
+         return url.substring(start, end);
+
+      StringBuilder part = new StringBuilder(end - start);
+      for (int i = start; i < end; ++i)
+      {
+         char c = url.charAt(i);
+         int value = (c == '%' ? getEncodedValue(url, i, end) : -1);
+         if (value < 0)
+            part.append(c);
+         else
+         {
+            if (isUnreserved(value))
+               part.append((char)value);
+            else
+               part.append('%').append(Character.toUpperCase(url.charAt(i + 1))).append(Character.toUpperCase(url.charAt(i + 2)));
+            i += 2;
+         }
+      }
+      return part.toString();
+   }
+
+   /**
+    * Removes the . and .. segments of a path as in RFC 3986, section 5.2.4.
+    * @param path Path to resolve.
+    * @return Path without dot segments.
+    */
+   static String removeDotSegments(String path)
+   {
+      if (path.indexOf('.') < 0)
+         return path;
+
+      StringBuilder output = new StringBuilder(path.length());
+      int i = 0;
+      int length = path.length();
+      while (i < length)
+      {
+         if (path.startsWith("../", i))
+            i += 3;
+         else if (path.startsWith("./", i))
+            i += 2;
+         else if (path.startsWith("/./", i))
+            i += 2;
+         else if (path.startsWith("/.", i) && i + 2 == length)
+         {
+            output.append('/');
+            i = length;
+         }
+         else if (path.startsWith("/../", i) || path.startsWith("/..", i) && i + 3 == length)
+         {
+            output.setLength(Math.max(output.lastIndexOf("/"), 0));
+            if (i + 3 == length)
+               output.append('/');
+            i += 3;
+         }
+         else if (i + 1 == length && path.charAt(i) == '.' || i + 2 == length && path.startsWith("..", i))
+            i = length;
+         else
+         {
+            int next = path.indexOf('/', i + 1);
+            if (next < 0)
+               next = length;
+            output.append(path, i, next);
+            i = next;
+         }
+      }
+      return output.toString();
+   }
+
+   /**
+    * Sorts the parameters of a query by name.  The sort is stable, so parameters
+    * with the same name keep their order.
+    * @param query Query without the question mark.
+    * @return Sorted query.
+    */
+   private static String sortParameters(String query)
+   {
+      if (isSorted(query, 0, query.length()))
+         return query;
+
+      String[] parameters = query.split("&", -1);
+      Arrays.sort(parameters, parameterNameOrder);
+      return String.join("&", parameters);
+   }
+
+   /**
+    * Returns if the parameters of a query are sorted by name.
+    * @param url URL or query to check.
+    * @param start Start of the query.
+    * @param end End of the query.
+    * @return True if sorted.
+    */
+   private static boolean isSorted(String url, int start, int end)
+   {
+      int previousStart = -1;
+      int previousEnd = -1;
+      int parameterStart = start;
+      while (parameterStart <= end)
+      {
+         int parameterEnd = parameterStart;
+         while (parameterEnd < end && url.charAt(parameterEnd) != '&')
+            ++parameterEnd;
+
+         int nameEnd = parameterStart;
+         while (nameEnd < parameterEnd && url.charAt(nameEnd) != '=')
+            ++nameEnd;
+
+         if (previousStart >= 0 && compareNames(url, previousStart, previousEnd, url, parameterStart, nameEnd) > 0)
+            return false;
+
+         previousStart = parameterStart;
+         previousEnd = nameEnd;
+         parameterStart = parameterEnd + 1;
+      }
+      return true;
+   }
+
+   /**
+    * Compares the names of two query parameters.
+    * @param a First parameter.
+    * @param b Second parameter.
+    * @return Comparison of the names.
+    */
+   private static int compareNames(String a, String b)
+   {
+      int aEnd = a.indexOf('=');
+      int bEnd = b.indexOf('=');
+      return compareNames(a, 0, (aEnd >= 0 ? aEnd : a.length()), b, 0, (bEnd >= 0 ? bEnd : b.length()));
+   }
+
+   /**
+    * Compares two names by character.
+    * @param a String holding the first name.
+    * @param aStart Start of the first name.
+    * @param aEnd End of the first name.
+    * @param b String holding the second name.
+    * @param bStart Start of the second name.
+    * @param bEnd End of the second name.
+    * @return Negative, zero, or positive as the first name is before, the same as, or after the second.
+    */
+   private static int compareNames(String a, int aStart, int aEnd, String b, int bStart, int bEnd)
+   {
+      int aLength = aEnd - aStart;
+      int bLength = bEnd - bStart;
+      for (int i = 0; i < aLength && i < bLength; ++i)
+      {
+         int diff = a.charAt(aStart + i) - b.charAt(bStart + i);
+         if (diff != 0)
+            return diff;
+      }
+      return aLength - bLength;
+   }
+
+   /**
+    * Returns if part of a URL has upper case letters.
+    * @param url URL to check.
+    * @param start Start of the part.
+    * @param end End of the part.
+    * @return True if any letter is upper case.
+    */
+   private static boolean hasUpperCase(String url, int start, int end)
+   {
+      for (int i = start; i < end; ++i)
+      {
+         char c = url.charAt(i);
+         if (c >= 'A' && c <= 'Z')
+            return true;
+      }
+      return false;
+   }
+
+   /**
+    * Returns if part of a URL has an encoded unreserved character or lower case hex digits.
+    * @param url URL to check.
+    * @param start Start of the part.
+    * @param end End of the part.
+    * @return True if the percent-encoding is not normal.
+    */
+   private static boolean hasPercentToNormalize(String url, int start, int end)
+   {
+      for (int i = url.indexOf('%', start); i >= 0 && i < end; i = url.indexOf('%', i + 1))
+      {
+         int value = getEncodedValue(url, i, end);
+         if (value >= 0 && (isUnreserved(value) || Character.isLowerCase(url.charAt(i + 1)) || Character.isLowerCase(url.charAt(i + 2))))
+            return true;
+      }
+      return false;
+   }
+
+   /**
+    * Returns if a path has . or .. segments.
+    * @param url URL to check.
+    * @param start Start of the path.
+    * @param end End of the path.
+    * @return True if the path has dot segments.
+    */
+   private static boolean hasDotSegments(String url, int start, int end)
+   {
+      for (int i = url.indexOf("/.", start); i >= 0 && i < end; i = url.indexOf("/.", i + 1))
+      {
+         int next = i + 2;
+         if (next < end && url.charAt(next) == '.')
+            ++next;
+         if (next == end || url.charAt(next) == '/')
+            return true;
+      }
+      return false;
+   }
+
+   /**
+    * Gets the value of a percent-encoded octet.
+    * @param url URL holding the octet.
+    * @param index Index of the percent sign.
+    * @param end End of the part of the URL.
+    * @return Value or -1 if the percent sign is not followed by two hex digits.
+    */
+   private static int getEncodedValue(String url, int index, int end)
+   {
+      if (index + 2 >= end)
+         return -1;
+
+      int high = Character.digit(url.charAt(index + 1), 16);
+      int low = Character.digit(url.charAt(index + 2), 16);
+      return (high >= 0 && low >= 0 ? high * 16 + low : -1);
+   }
+
+   /**
+    * Returns if a character is unreserved, so encoding it does not change the URL.
+    * @param c Character value.
+    * @return True if unreserved.
+    */
+   private static boolean isUnreserved(int c)
+   {
+      return (c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' ||
+            c == '-' || c == '.' || c == '_' || c == '~');
+   }
+}
@@ -0,0 +1,44 @@
+package com.rolls.crawler.crawl;
+
+/**
+ * Rules a URL normalizer can apply so URLs of the same page are the same string.
+ */
+public enum UrlRule
+{
+   /**
+    * Removes the fragment, since it is not sent to the server.  http://a.org/b#c becomes http://a.org/b.
+    */
+   REMOVE_FRAGMENT,
+
+   /**
+    * Lower cases the scheme and host, which are not case sensitive.  HTTP://A.org/B becomes http://a.org/B.
+    */
+   LOWER_CASE_HOST,
+
+   /**
+    * Removes the port if it is the default of the scheme.  http://a.org:80/b becomes http://a.org/b.
+    */
+   REMOVE_DEFAULT_PORT,
+
+   /**
+    * Decodes percent-encoded unreserved characters and upper cases the hex digits of
+    * the rest.  /%7euser/a%2fb becomes /~user/a%2Fb.
+    */
+   NORMALIZE_PERCENT_ENCODING,
+
+   /**
+    * Resolves the . and .. segments of the path.  /a/./b/../c becomes /a/c.
+    */
+   REMOVE_DOT_SEGMENTS,
+
+   /**
+    * Sorts the query parameters by name.  Parameters with the same name keep their order.
+    * ?b=1&amp;a=2 becomes ?a=2&amp;b=1.
+    */
+   SORT_QUERY_PARAMETERS,
+
+   /**
+    * Removes the slashes at the end of the path.  http://a.org/b/ becomes http://a.org/b.
+    */
+   REMOVE_TRAILING_SLASH
+}
@@ -0,0 +1,36 @@
+package com.rolls.crawler.parse;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Web page parser that downloads pages without blocking the calling thread,
+ * so many pages can be downloaded at once by a few threads.
+ */
+public interface AsyncParser extends StagedParser
+{
+   /**
+    * Starts downloading a web page without parsing it.  The future is completed
+    * on an I/O thread of the parser, so its callbacks must not block.
+    * @param url URL to the page.
+    * @return Future of the fetched page.  Never completes exceptionally; load errors
+    * are in the page.
+    */
+   public CompletableFuture<FetchedPage> fetchAsync(String url);
+
+   /**
+    * Starts downloading a web page and parses it once downloaded.  The page is
+    * parsed on the common pool so the I/O threads are never held up.
+    * @param url URL to the page.
+    * @return Future of the page details.
+    */
+   public default CompletableFuture<PageDetails> parseAsync(String url)
+   {
+      return fetchAsync(url).thenApplyAsync(this::extract);
+   }
+
+   @Override
+   public default FetchedPage fetch(String url)
+   {
+      return fetchAsync(url).join();
+   }
+}
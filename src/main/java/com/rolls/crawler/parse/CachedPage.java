@@ -0,0 +1,18 @@
+package com.rolls.crawler.parse;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * A page kept by the page cache.  The validators of the response it was extracted
+ * from are sent with the next request for the page.
+ */
+@AllArgsConstructor
+@Getter
+public class CachedPage
+{
+   private String url;           // URL that was requested.
+   private String etag;          // ETag header of the response.  Null if none.
+   private String lastModified;  // Last-Modified header of the response.  Null if none.
+   private PageDetails details;  // Details extracted from the page.
+}
@@ -0,0 +1,132 @@
+package com.rolls.crawler.parse;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Connection counters of a pooled parser.  Updated by the download threads and safe to read at any time.
+ */
+public class ConnectionMetrics
+{
+   private final AtomicLong requests = new AtomicLong();             // Requests sent, including redirects.
+   private final AtomicLong connectionsAcquired = new AtomicLong();  // Connections used by requests.
+   private final AtomicLong connectionsOpened = new AtomicLong();    // New connections opened for requests.
+   private final AtomicLong http2Requests = new AtomicLong();        // Requests sent on HTTP/2 connections.
+   private final AtomicLong handshakes = new AtomicLong();           // TLS handshakes completed.
+   private final AtomicLong handshakeNanos = new AtomicLong();       // Total time of the TLS handshakes.
+
+   /**
+    * Gets the number of requests sent, including redirects.
+    * @return Number of requests.
+    */
+   public long getRequests()
+   {
+      return requests.get();
+   }
+
+   /**
+    * Gets the number of times a request got a connection, new or reused.
+    * @return Number of connections acquired.
+    */
+   public long getConnectionsAcquired()
+   {
+      return connectionsAcquired.get();
+   }
+
+   /**
+    * Gets the number of new connections opened.
+    * @return Number of connections opened.
+    */
+   public long getConnectionsOpened()
+   {
+      return connectionsOpened.get();
+   }
+
+   /**
+    * Gets the number of times a request got a connection that was already open.
+    * Includes requests multiplexed on an HTTP/2 connection.
+    * @return Number of connections reused.
+    */
+   public long getConnectionsReused()
+   {
+      return Math.max(connectionsAcquired.get() - connectionsOpened.get(), 0);
+   }
+
+   /**
+    * Gets the fraction of requests that reused an open connection.
+    * @return Reuse ratio from 0 to 1.  0 if no requests.
+    */
+   public double getReuseRatio()
+   {
+      long acquired = connectionsAcquired.get();
+      return (acquired > 0 ? (double)getConnectionsReused() / acquired : 0);
+   }
+
+   /**
+    * Gets the number of requests sent on HTTP/2 connections.
+    * @return Number of HTTP/2 requests.
+    */
+   public long getHttp2Requests()
+   {
+      return http2Requests.get();
+   }
+
+   /**
+    * Gets the number of TLS handshakes completed.
+    * @return Number of handshakes.
+    */
+   public long getHandshakes()
+   {
+      return handshakes.get();
+   }
+
+   /**
+    * Gets the average time of a TLS handshake.
+    * @return Average handshake time in milliseconds.  0 if no handshakes.
+    */
+   public double getAverageHandshakeMillis()
+   {
+      long count = handshakes.get();
+      return (count > 0 ? (double)handshakeNanos.get() / count / TimeUnit.MILLISECONDS.toNanos(1) : 0);
+   }
+
+   @Override
+   public String toString()
+   {
+      return String.format("requests=%d, connectionsOpened=%d, connectionsReused=%d, reuseRatio=%.3f, http2Requests=%d, handshakes=%d, averageHandshakeMillis=%.1f",
+            getRequests(), getConnectionsOpened(), getConnectionsReused(), getReuseRatio(),
+            getHttp2Requests(), getHandshakes(), getAverageHandshakeMillis());
+   }
+
+   /**
+    * Counts a request sent.
+    */
+   void requestSent()
+   {
+      requests.incrementAndGet();
+   }
+
+   /**
+    * Counts a connection given to a request.
+    * @param opened True if the connection was opened for the request.
+    * @param http2 True if an HTTP/2 connection.
+    */
+   void connectionAcquired(boolean opened, boolean http2)
+   {
+      connectionsAcquired.incrementAndGet();
+      if (opened)
+         connectionsOpened.incrementAndGet();
+      if (http2)
+         http2Requests.incrementAndGet();
+   }
+
+   /**
+    * Counts a completed TLS handshake.
+    * @param nanos Handshake time in nanoseconds.
+    */
+   void handshakeCompleted(long nanos)
+   {
+      handshakes.incrementAndGet();
+      handshakeNanos.addAndGet(nanos);
+   }
+}
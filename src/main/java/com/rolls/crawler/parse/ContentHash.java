@@ -0,0 +1,38 @@
+package com.rolls.crawler.parse;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Hash of the content of a web page, used to tell if a page changed between crawls.
+ */
+public final class ContentHash
+{
+   private ContentHash()
+   {
+   }
+
+   /**
+    * Gets the hash of some bytes.
+    * @param bytes Bytes to hash.
+    * @return SHA-1 hash of the bytes in hex or null if the bytes are null.
+    */
+   public static String of(byte[] bytes)
+   {
+      if (bytes == null)
+         return null;
+
+      try
+      {
+         byte[] hash = MessageDigest.getInstance("SHA-1").digest(bytes);
+         StringBuilder hex = new StringBuilder(hash.length * 2);
+         for (byte b : hash)
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+         return hex.toString();
+      }
+      catch (NoSuchAlgorithmException ex)
+      {
+         throw new RuntimeException("Unable to hash content.", ex);
+      }
+   }
+}
@@ -0,0 +1,149 @@
+package com.rolls.crawler.parse;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Content types that are downloaded and the maximum body size of each.  Responses of
+ * other types, or larger than the limit of their type, are skipped.  The limits are
+ * checked against the response headers before the body is read, and again while it
+ * is read when the server does not send a content length.
+ * <p>
+ * Limits are keyed by media type, such as text/html, or by a type with a wildcard
+ * subtype, such as text/*.  A response with no content type is treated as text/html.
+ */
+public class ContentLimits
+{
+   /**
+    * Default maximum body size in bytes.
+    */
+   public final static int DEFAULT_MAX_BYTES = 2 * 1024 * 1024;
+
+   /**
+    * Returned by getMaxBytes for a content type that is not downloaded.
+    */
+   public final static int NOT_DOWNLOADED = -1;
+
+   private final static String DEFAULT_TYPE = "text/html";
+
+   private final Map<String, Integer> maxBytes;  // Maximum body size by lower case media type.
+   private final int largestMaxBytes;
+
+   /**
+    * Constructs the default limits.  HTML and XHTML pages up to the default size are downloaded.
+    */
+   public ContentLimits()
+   {
+      this(defaultLimits());
+   }
+
+   /**
+    * Constructs new limits.
+    * @param maxBytes Maximum body size in bytes by media type.
+    */
+   public ContentLimits(Map<String, Integer> maxBytes)
+   {
+      if (maxBytes == null)
+         throw new IllegalArgumentException("Null max bytes.");
+
+      Map<String, Integer> limits = new LinkedHashMap<>();
+      int largest = 0;
+      for (Map.Entry<String, Integer> entry : maxBytes.entrySet())
+      {
+         Integer limit = entry.getValue();
+         if (entry.getKey() == null || limit == null || limit <= 0)
+            throw new IllegalArgumentException(String.format("Invalid limit for %s.", entry.getKey()));
+
+         limits.put(entry.getKey().trim().toLowerCase(Locale.ENGLISH), limit);
+         largest = Math.max(largest, limit);
+      }
+
+      this.maxBytes = Collections.unmodifiableMap(limits);
+      this.largestMaxBytes = largest;
+   }
+
+   /**
+    * Gets the limits.
+    * @return Maximum body size in bytes by lower case media type.
+    */
+   public Map<String, Integer> getLimits()
+   {
+      return maxBytes;
+   }
+
+   /**
+    * Gets the largest limit of any content type.
+    * @return Maximum body size in bytes.  0 if nothing is downloaded.
+    */
+   public int getLargestMaxBytes()
+   {
+      return largestMaxBytes;
+   }
+
+   /**
+    * Gets the maximum body size of a content type.
+    * @param contentType Content type header, with or without parameters.  May be null.
+    * @return Maximum body size in bytes or NOT_DOWNLOADED.
+    */
+   public int getMaxBytes(String contentType)
+   {
+      String mediaType = getMediaType(contentType);
+      Integer limit = maxBytes.get(mediaType);
+      if (limit == null)
+      {
+         int slash = mediaType.indexOf('/');
+         if (slash > 0)
+            limit = maxBytes.get(mediaType.substring(0, slash + 1) + "*");
+      }
+      return (limit != null ? limit : NOT_DOWNLOADED);
+   }
+
+   /**
+    * Checks if a response should be skipped.
+    * @param contentType Content type header.  May be null.
+    * @param contentLength Body size in bytes.  Value < 0 means not known.
+    * @return Reason to skip the response or null to download it.
+    */
+   public SkipReason check(String contentType, long contentLength)
+   {
+      int limit = getMaxBytes(contentType);
+      if (limit == NOT_DOWNLOADED)
+         return SkipReason.CONTENT_TYPE;
+      return (contentLength > limit ? SkipReason.TOO_LARGE : null);
+   }
+
+   @Override
+   public String toString()
+   {
+      return maxBytes.toString();
+   }
+
+   /**
+    * Gets the media type of a content type header.
+    * @param contentType Content type header.  May be null.
+    * @return Lower case media type without parameters.
+    */
+   private static String getMediaType(String contentType)
+   {
+      if (contentType == null)
+         return DEFAULT_TYPE;
+
+      int semicolon = contentType.indexOf(';');
+      String mediaType = (semicolon >= 0 ? contentType.substring(0, semicolon) : contentType).trim();
+      return (mediaType.isEmpty() ? DEFAULT_TYPE : mediaType.toLowerCase(Locale.ENGLISH));
+   }
+
+   /**
+    * Creates the default limits.
+    * @return Limits by media type.
+    */
+   private static Map<String, Integer> defaultLimits()
+   {
+      Map<String, Integer> limits = new LinkedHashMap<>();
+      limits.put("text/html", DEFAULT_MAX_BYTES);
+      limits.put("application/xhtml+xml", DEFAULT_MAX_BYTES);
+      return limits;
+   }
+}
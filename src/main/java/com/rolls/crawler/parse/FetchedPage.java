@@ -0,0 +1,32 @@
+package com.rolls.crawler.parse;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * Raw response of a web page that has been downloaded but not parsed.
+ */
+@Getter
+@Setter
+public class FetchedPage
+{
+   private String url;            // URL that was requested.
+   private String location;       // URL of the page after redirects.  Base for relative links.
+   private String loadError;
+   private SkipReason skipReason; // Why the body was not downloaded.  Null if it was.
+   private String skipMessage;    // Description of the skip reason.
+   private int statusCode;
+   private String contentType;
+   private String charset;        // Charset from the response headers.  Null means detect from the body.
+   private String etag;           // ETag header of the response.  Null if none.
+   private String lastModified;   // Last-Modified header of the response.  Null if none.
+   private PageDetails cachedDetails; // Details from the page cache when the server answered 304 Not Modified.
+   private String contentHash;    // Hash of the body.  Null if there is no body.
+   private boolean throttled;     // Server answered 429 Too Many Requests or 503 Service Unavailable.
+   private long retryAfterMillis; // Delay asked for by the Retry-After header of a throttled page.  0 if none.
+   private long dnsNanos;         // Time, in nanoseconds, to resolve the host.  0 if not timed.
+   private long connectNanos;     // Time, in nanoseconds, to open the connection, including the TLS handshake.  0 if not timed.
+   private long firstByteNanos;   // Time, in nanoseconds, from sending the request to the first byte of the response.  0 if not timed.
+   private long downloadNanos;    // Time, in nanoseconds, to read the rest of the response.  0 if not timed.
+   private byte[] body;
+}
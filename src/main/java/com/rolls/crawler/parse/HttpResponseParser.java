@@ -0,0 +1,355 @@
+package com.rolls.crawler.parse;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Incremental parser of an HTTP/1.1 response to a GET request.  Bytes are fed as they
+ * arrive from the network, so a response can be parsed without a thread waiting on it.
+ * Handles bodies delimited by content length, chunked transfer encoding, or the end
+ * of the connection.  Interim (1xx) responses are skipped.  A body larger than the
+ * maximum size is truncated and the response is treated as complete.
+ */
+class HttpResponseParser
+{
+   private final static int MAX_LINE_LENGTH = 64 * 1024;
+
+   private enum State
+   {
+      STATUS_LINE,
+      HEADERS,
+      BODY_LENGTH,
+      CHUNK_SIZE,
+      CHUNK_DATA,
+      CHUNK_END,
+      TRAILERS,
+      BODY_TO_CLOSE,
+      COMPLETE
+   }
+
+   private final int maxBodyBytes;
+   private final StringBuilder line = new StringBuilder();
+   private final Map<String, String> headers = new LinkedHashMap<>();
+   private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+   private State state = State.STATUS_LINE;
+   private int statusCode = 0;
+   private long remaining = 0;
+   private boolean truncated = false;
+
+   /**
+    * Constructs a new response parser.
+    * @param maxBodyBytes Maximum number of body bytes kept.  Value <= 0 means no limit.
+    */
+   public HttpResponseParser(int maxBodyBytes)
+   {
+      this.maxBodyBytes = (maxBodyBytes > 0 ? maxBodyBytes : Integer.MAX_VALUE);
+   }
+
+   /**
+    * Parses the bytes received.  Bytes after the end of the response are not consumed.
+    * @param buffer Bytes received.
+    * @throws IOException If the response is malformed.
+    */
+   public void feed(ByteBuffer buffer) throws IOException
+   {
+      while (buffer.hasRemaining() && state != State.COMPLETE)
+      {
+         switch (state)
+         {
+            case STATUS_LINE:
+            case HEADERS:
+            case CHUNK_SIZE:
+            case CHUNK_END:
+            case TRAILERS:
+               if (readLine(buffer))
+               {
+                  String text = line.toString();
+                  line.setLength(0);
+                  lineRead(text);
+               }
+               break;
+
+            case BODY_LENGTH:
+            case CHUNK_DATA:
+               int count = (int)Math.min(remaining, buffer.remaining());
+               if (!readBody(buffer, count))
+                  break;
+
+               remaining -= count;
+               if (remaining == 0)
+                  state = (state == State.BODY_LENGTH ? State.COMPLETE : State.CHUNK_END);
+               break;
+
+            case BODY_TO_CLOSE:
+               readBody(buffer, buffer.remaining());
+               break;
+
+            default:
+               break;
+         }
+      }
+   }
+
+   /**
+    * Tells the parser the connection was closed by the server.
+    * @throws IOException If the response was not complete.
+    */
+   public void endOfStream() throws IOException
+   {
+      if (state == State.BODY_TO_CLOSE)
+         state = State.COMPLETE;
+      else if (state != State.COMPLETE)
+         throw new IOException("Connection closed before the response was complete.");
+   }
+
+   /**
+    * Returns if the whole response has been parsed.
+    * @return True if complete.
+    */
+   public boolean isComplete()
+   {
+      return (state == State.COMPLETE);
+   }
+
+   /**
+    * Returns if the headers of the final response have been parsed, so they can be
+    * checked before the body is read.
+    * @return True if the headers are parsed.
+    */
+   public boolean hasHeaders()
+   {
+      return (state != State.STATUS_LINE && state != State.HEADERS);
+   }
+
+   /**
+    * Returns if the body was larger than the maximum size and has been cut short.
+    * @return True if truncated.
+    */
+   public boolean isTruncated()
+   {
+      return truncated;
+   }
+
+   /**
+    * Returns the status code of the response.
+    * @return Status code or 0 if the status line has not been parsed.
+    */
+   public int getStatusCode()
+   {
+      return statusCode;
+   }
+
+   /**
+    * Returns a response header.  Repeated headers are joined with commas.
+    * @param name Header name.  Not case sensitive.
+    * @return Header value or null if not present.
+    */
+   public String getHeader(String name)
+   {
+      return headers.get(name.toLowerCase(Locale.ROOT));
+   }
+
+   /**
+    * Returns the body of the response.
+    * @return Body bytes.
+    */
+   public byte[] getBody()
+   {
+      return body.toByteArray();
+   }
+
+   /**
+    * Reads bytes into the current line until a line feed is found.
+    * @param buffer Bytes received.
+    * @return True if a whole line has been read.
+    * @throws IOException If the line is too long.
+    */
+   private boolean readLine(ByteBuffer buffer) throws IOException
+   {
+      while (buffer.hasRemaining())
+      {
+         char c = (char)(buffer.get() & 0xff);
+         if (c == '\n')
+         {
+            int length = line.length();
+            if (length > 0 && line.charAt(length - 1) == '\r')
+               line.setLength(length - 1);
+            return true;
+         }
+
+         if (line.length() >= MAX_LINE_LENGTH)
+            throw new IOException("Response line too long.");
+
+         line.append(c);
+      }
+      return false;
+   }
+
+   /**
+    * Processes a whole line of the status, headers, or chunk framing.
+    * @param text Line without the line ending.
+    * @throws IOException If the line is malformed.
+    */
+   private void lineRead(String text) throws IOException
+   {
+      switch (state)
+      {
+         case STATUS_LINE:
+            statusCode = parseStatusLine(text);
+            headers.clear();
+            state = State.HEADERS;
+            break;
+
+         case HEADERS:
+            if (text.isEmpty())
+               headersRead();
+            else
+               addHeader(text);
+            break;
+
+         case CHUNK_SIZE:
+            int extension = text.indexOf(';');
+            String size = (extension >= 0 ? text.substring(0, extension) : text).trim();
+            try
+            {
+               remaining = Long.parseLong(size, 16);
+            }
+            catch (NumberFormatException ex)
+            {
+               throw new IOException(String.format("Invalid chunk size: %s", size));
+            }
+
+            if (remaining < 0)
+               throw new IOException(String.format("Invalid chunk size: %s", size));
+
+            state = (remaining == 0 ? State.TRAILERS : State.CHUNK_DATA);
+            break;
+
+         case CHUNK_END:
+            if (!text.isEmpty())
+               throw new IOException("Missing end of chunk.");
+            state = State.CHUNK_SIZE;
+            break;
+
+         case TRAILERS:
+            if (text.isEmpty())
+               state = State.COMPLETE;
+            break;
+
+         default:
+            break;
+      }
+   }
+
+   /**
+    * Chooses how the body is read once all headers are parsed.
+    * @throws IOException If the content length is invalid.
+    */
+   private void headersRead() throws IOException
+   {
+      // Interim responses are followed by the real one.
+      if (statusCode >= 100 && statusCode < 200)
+      {
+         state = State.STATUS_LINE;
+         return;
+      }
+
+      String transferEncoding = getHeader("Transfer-Encoding");
+      String contentLength = getHeader("Content-Length");
+      if (statusCode == 204 || statusCode == 304)
+         state = State.COMPLETE;
+      else if (transferEncoding != null && transferEncoding.toLowerCase(Locale.ROOT).contains("chunked"))
+         state = State.CHUNK_SIZE;
+      else if (contentLength != null)
+      {
+         try
+         {
+            remaining = Long.parseLong(contentLength.trim());
+         }
+         catch (NumberFormatException ex)
+         {
+            throw new IOException(String.format("Invalid content length: %s", contentLength));
+         }
+
+         if (remaining < 0)
+            throw new IOException(String.format("Invalid content length: %s", contentLength));
+
+         state = (remaining == 0 ? State.COMPLETE : State.BODY_LENGTH);
+      }
+      else
+         state = State.BODY_TO_CLOSE;
+   }
+
+   /**
+    * Adds a header line to the headers.
+    * @param text Header line.
+    */
+   private void addHeader(String text)
+   {
+      int colon = text.indexOf(':');
+      if (colon <= 0)
+         return; // Ignore malformed headers as browsers do.
+
+      String name = text.substring(0, colon).trim().toLowerCase(Locale.ROOT);
+      String value = text.substring(colon + 1).trim();
+      headers.merge(name, value, (oldValue, newValue) -> oldValue + ", " + newValue);
+   }
+
+   /**
+    * Keeps body bytes up to the maximum size.  Once more bytes than the maximum
+    * are received, the response is complete.
+    * @param buffer Bytes received.
+    * @param count Number of body bytes in the buffer.
+    * @return True if all the bytes were kept or false if the body was truncated.
+    */
+   private boolean readBody(ByteBuffer buffer, int count)
+   {
+      int keep = Math.min(count, maxBodyBytes - body.size());
+      if (buffer.hasArray())
+      {
+         body.write(buffer.array(), buffer.arrayOffset() + buffer.position(), keep);
+         buffer.position(buffer.position() + keep);
+      }
+      else
+      {
+         for (int i = 0; i < keep; ++i)
+            body.write(buffer.get());
+      }
+
+      if (keep < count)
+      {
+         truncated = true;
+         state = State.COMPLETE;
+         return false;
+      }
+      return true;
+   }
+
+   /**
+    * Gets the status code from the status line.
+    * @param text Status line.
+    * @return Status code.
+    * @throws IOException If the status line is malformed.
+    */
+   private static int parseStatusLine(String text) throws IOException
+   {
+      // HTTP/1.1 200 OK
+      String[] parts = text.split(" ", 3);
+      if (parts.length < 2 || !parts[0].startsWith("HTTP/"))
+         throw new IOException(String.format("Invalid status line: %s", text));
+
+      try
+      {
+         return Integer.parseInt(parts[1].trim());
+      }
+      catch (NumberFormatException ex)
+      {
+         throw new IOException(String.format("Invalid status line: %s", text));
+      }
+   }
+}
@@ -0,0 +1,1029 @@
+package com.rolls.crawler.parse;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import org.jsoup.internal.StringUtil;
+import org.jsoup.parser.Parser;
+
+/**
+ * Link extraction that scans the HTML of a page as a token stream in a single pass,
+ * without building a document.  Only the title and the attributes that hold links are
+ * turned into strings.
+ * <p>
+ * The page details are the same as ParserImpl, which builds a Jsoup 1.13 document.  The
+ * scanner follows the Jsoup tokeniser for charset detection, character references,
+ * comments, raw text and script elements, and the first base href, which applies to every
+ * link on the page.  Of the tree construction rules, it follows the ones that commonly
+ * change which elements exist: the content of select and frameset elements, image as a
+ * name for img, and repeated html and body tags.  Rarer ones, such as the table tags
+ * dropped outside a table, are not followed.
+ * <p>
+ * An instance scans one page and is not thread safe.
+ */
+final class LinkTokenizer
+{
+   private final static int CHARSET_SCAN_BYTES = 5 * 1024 - 1;  // Bytes Jsoup reads to find a meta charset.
+   private final static String DEFAULT_CHARSET = "UTF-8";
+   private final static int NO_MATCH = -2;
+
+   // States of the attribute part of a tag.
+   private final static int BEFORE_ATTRIBUTE_NAME = 0;
+   private final static int ATTRIBUTE_NAME = 1;
+   private final static int AFTER_ATTRIBUTE_NAME = 2;
+   private final static int BEFORE_ATTRIBUTE_VALUE = 3;
+   private final static int AFTER_QUOTED_VALUE = 4;
+   private final static int SELF_CLOSING = 5;
+
+   // States of script data.
+   private final static int SCRIPT = 0;
+   private final static int ESCAPED = 1;
+   private final static int DOUBLE_ESCAPED = 2;
+
+   private final static String[] headTags = {
+         "base", "basefont", "bgsound", "command", "head", "html", "link", "meta",
+         "noframes", "noscript", "script", "style", "template", "title"};
+
+   private final char[] text;
+   private final int start;
+   private final int end;
+   private final String location;     // Base URI of the page before any base tag.
+   private final boolean charsetScan; // Only look for a meta charset.
+
+   private int nameStart;             // Name of the current tag.
+   private int nameEnd;
+   private boolean selfClosing;
+   private int[] attributes = new int[32]; // Name start, name end, value start and value end of each attribute.  Value start -1 means no value.
+   private int attributeCount;
+   private int rawTextEnd;            // End of the content of the last raw text element.
+   private int scanEnd;               // Where scanning continues after an end tag that did not match.
+
+   private boolean inSelect = false;
+   private int framesetDepth = -1;    // Open frameset tags.  -1 if the page is not a frameset.
+   private boolean bodyStarted = false;
+   private int svgDepth = 0;
+   private boolean htmlSrc = false;
+   private boolean bodySrc = false;
+
+   private String title;              // Null until a title element is found.
+   private String baseUri;            // Null until a base tag with a usable href is found.
+   private String metaCharset;
+   private final List<String> importUrls = new ArrayList<>();
+   private final List<String> mediaTags = new ArrayList<>();
+   private final List<String> mediaUrls = new ArrayList<>();
+   private final List<String> linkUrls = new ArrayList<>();
+
+   /**
+    * Constructs a new tokenizer.
+    * @param chars Decoded page.
+    * @param location Base URI of the page.
+    * @param charsetScan True to only look for a meta charset.
+    */
+   private LinkTokenizer(CharBuffer chars, String location, boolean charsetScan)
+   {
+      this.text = chars.array();
+      this.start = chars.arrayOffset() + chars.position();
+      this.end = chars.arrayOffset() + chars.limit();
+      this.location = location;
+      this.charsetScan = charsetScan;
+   }
+
+   /**
+    * Parses a downloaded web page for links.
+    * @param page Fetched page.
+    * @return Page details.  Never null.
+    */
+   public static PageDetails extract(FetchedPage page)
+   {
+      PageDetails details = new PageDetails();
+      if (page.getLoadError() != null)
+      {
+         details.setLoadError(page.getLoadError());
+         return details;
+      }
+
+      if (page.getSkipReason() != null)
+      {
+         details.setSkipReason(page.getSkipReason());
+         details.setSkipMessage(page.getSkipMessage());
+         return details;
+      }
+
+      try
+      {
+         if (page.getLocation() == null)
+            throw new IllegalArgumentException("Null location.");
+
+         LinkTokenizer tokenizer = new LinkTokenizer(decode(page.getBody(), page.getCharset()), page.getLocation(), false);
+         tokenizer.scan();
+
+         URL base = toUrl(tokenizer.baseUri != null ? tokenizer.baseUri : page.getLocation());
+         details.setTitle(tokenizer.title != null ? tokenizer.title : "");
+         details.setImports(toLinks("link", null, tokenizer.importUrls, base));
+         details.setMedia(toLinks(null, tokenizer.mediaTags, tokenizer.mediaUrls, base));
+         details.setLinks(toLinks("a", null, tokenizer.linkUrls, base));
+      }
+      catch (Exception ex)
+      {
+         details = new PageDetails();
+         details.setLoadError(String.format("Unable to load %s.  CAUSE: %s", page.getUrl(), ex.toString()));
+      }
+
+      return details;
+   }
+
+   /**
+    * Decodes a page body the way Jsoup does.  A byte order mark wins over the charset of
+    * the response, and without either the start of the page is searched for a meta
+    * charset or an XML declaration.  The default is UTF-8.
+    * @param body Page body.
+    * @param charsetName Charset from the response headers.  Null means detect from the body.
+    * @return Decoded page.
+    */
+   private static CharBuffer decode(byte[] body, String charsetName)
+   {
+      boolean skipBom = false;
+      if (body.length >= 4)
+      {
+         if (body[0] == 0x00 && body[1] == 0x00 && body[2] == (byte)0xFE && body[3] == (byte)0xFF ||
+               body[0] == (byte)0xFF && body[1] == (byte)0xFE && body[2] == 0x00 && body[3] == 0x00)
+            charsetName = "UTF-32";
+         else if (body[0] == (byte)0xFE && body[1] == (byte)0xFF || body[0] == (byte)0xFF && body[1] == (byte)0xFE)
+            charsetName = "UTF-16";
+         else if (body[0] == (byte)0xEF && body[1] == (byte)0xBB && body[2] == (byte)0xBF)
+         {
+            charsetName = DEFAULT_CHARSET;
+            skipBom = true;
+         }
+      }
+
+      if (charsetName == null)
+      {
+         int count = Math.min(body.length, CHARSET_SCAN_BYTES);
+         CharBuffer first = StandardCharsets.UTF_8.decode(ByteBuffer.wrap(body, 0, count));
+         String found = findCharset(first);
+         if (found != null && !found.equalsIgnoreCase(DEFAULT_CHARSET))
+            charsetName = found.trim().replaceAll("[\"']", "");
+         else if (count == body.length)
+            return first;
+         else
+            charsetName = DEFAULT_CHARSET;
+      }
+
+      CharBuffer chars = Charset.forName(charsetName).decode(ByteBuffer.wrap(body));
+      if (!chars.hasArray())
+         chars = CharBuffer.wrap(chars.toString().toCharArray());
+      if (skipBom && chars.hasRemaining())
+         chars.get();
+      return chars;
+   }
+
+   /**
+    * Finds the charset of a page from the first meta tag that has one, or else from an
+    * XML declaration at the start.
+    * @param first Start of the page decoded as UTF-8.
+    * @return Supported charset name or null if none.
+    */
+   private static String findCharset(CharBuffer first)
+   {
+      LinkTokenizer scanner = new LinkTokenizer(first, "", true);
+      scanner.scan();
+      if (scanner.metaCharset != null)
+         return ResponseChecks.validateCharset(scanner.metaCharset);
+
+      // <?xml ... ?> is a comment to an HTML parser.  It counts if it is the first node.
+      int p = scanner.skipWhitespace(scanner.start);
+      if (!scanner.startsWith(p, "<?"))
+         return null;
+
+      int gt = scanner.indexOf('>', p + 2);
+      String data = new String(scanner.text, p + 1, (gt >= 0 ? gt : scanner.end) - p - 1);
+      if (data.length() <= 1)
+         return null;
+
+      LinkTokenizer declaration = new LinkTokenizer(CharBuffer.wrap(("<" + data.substring(1, data.length() - 1) + ">").toCharArray()), "", true);
+      if (declaration.end < 2 || !Character.isLetter(declaration.text[1]) || declaration.parseTag(1) < 0 || !declaration.isTag("xml"))
+         return null;
+
+      int encoding = declaration.findAttribute("encoding", false);
+      return ResponseChecks.validateCharset(encoding >= 0 ? declaration.value(encoding) : null);
+   }
+
+   /**
+    * Scans the page.
+    */
+   private void scan()
+   {
+      int pos = start;
+      while (pos < end && !(charsetScan && metaCharset != null))
+      {
+         int lt = indexOf('<', pos);
+         if (lt < 0 || lt + 1 >= end)
+            return;
+
+         char c = text[lt + 1];
+         if (c == '!')
+            pos = skipMarkupDeclaration(lt + 2);
+         else if (c == '/')
+            pos = endTag(lt + 2);
+         else if (c == '?')
+            pos = skipPast('>', lt + 2);
+         else if (Character.isLetter(c))
+            pos = startTag(lt + 1);
+         else
+            pos = lt + 1;
+      }
+   }
+
+   /**
+    * Skips a comment, doctype, CDATA section, or bogus comment.
+    * @param p Position after "&lt;!".
+    * @return Position after the declaration.
+    */
+   private int skipMarkupDeclaration(int p)
+   {
+      if (startsWith(p, "--"))
+      {
+         // Any number of dashes then > ends the comment at once.
+         int i = p + 2;
+         while (i < end && text[i] == '-')
+            ++i;
+         if (i < end && text[i] == '>')
+            return i + 1;
+
+         while (true)
+         {
+            int dashes = indexOf("--", i);
+            if (dashes < 0)
+               return end;
+
+            int j = dashes + 2;
+            while (j < end && text[j] == '-')
+               ++j;
+            if (j >= end)
+               return end;
+            if (text[j] == '>')
+               return j + 1;
+            if (text[j] == '!' && j + 1 < end && text[j + 1] == '>')
+               return j + 2;
+            i = j;
+         }
+      }
+
+      if (startsWithIgnoreCase(p, "DOCTYPE"))
+         return skipPast('>', p + 7);
+
+      if (startsWith(p, "[CDATA["))
+      {
+         int close = indexOf("]]>", p + 7);
+         return (close >= 0 ? close + 3 : end);
+      }
+
+      return skipPast('>', p);
+   }
+
+   /**
+    * Handles an end tag or bogus comment.
+    * @param p Position after "&lt;/".
+    * @return Position to continue scanning.
+    */
+   private int endTag(int p)
+   {
+      if (p >= end)
+         return end;
+
+      char c = text[p];
+      if (c == '>')
+         return p + 1;
+      if (!Character.isLetter(c))
+         return skipPast('>', p);
+
+      int next = parseTag(p);
+      if (next < 0)
+         return end;
+
+      if (isTag("svg"))
+      {
+         if (svgDepth > 0)
+            --svgDepth;
+      }
+      else if (isTag("select"))
+         inSelect = false;
+      else if (isTag("frameset") && framesetDepth > 0)
+         --framesetDepth;
+
+      return next;
+   }
+
+   /**
+    * Handles a start tag.
+    * @param p Position of the tag name.
+    * @return Position to continue scanning.
+    */
+   private int startTag(int p)
+   {
+      int next = parseTag(p);
+      if (next < 0)
+         return end;
+
+      if (inSelect)
+      {
+         // Only a few tags are allowed in a select.  Some end it.
+         if (isTag("select"))
+         {
+            inSelect = false;
+            return next;
+         }
+         if (isTag("input") || isTag("keygen") || isTag("textarea"))
+            inSelect = false;
+         else if (!isTag("option") && !isTag("optgroup") && !isTag("script"))
+            return next;
+      }
+      else if (framesetDepth >= 0)
+      {
+         if (framesetDepth > 0 && isTag("frameset") && !selfClosing)
+            ++framesetDepth;
+         else if (framesetDepth > 0 && isTag("frame"))
+            addLinks(false);
+         else if (isTag("noframes") && !selfClosing)
+            return skipRawText(next, "noframes", false);
+         return next;
+      }
+      else if (isTag("frameset"))
+      {
+         // A frameset replaces the body if nothing has started it yet.
+         if (!bodyStarted)
+            framesetDepth = (selfClosing ? 0 : 1);
+         return next;
+      }
+      else if (isTag("frame"))
+         return next;
+
+      if (!bodyStarted && !isHeadTag())
+         bodyStarted = true;
+
+      boolean image = (svgDepth == 0 && isTag("image"));
+      if (isTag("svg") && !selfClosing)
+         ++svgDepth;
+      else if (isTag("select") && !selfClosing)
+         inSelect = true;
+
+      if (charsetScan)
+      {
+         if (isTag("meta"))
+            checkMeta();
+      }
+      else
+         addLinks(image);
+
+      if (isTag("plaintext"))
+         return end;
+
+      if (isTag("title"))
+      {
+         if (selfClosing)
+         {
+            if (title == null)
+               title = "";
+            return next;
+         }
+
+         int after = skipRawText(next, "title", true);
+         if (title == null && !charsetScan)
+            title = titleText(next, rawTextEnd);
+         return after;
+      }
+
+      if (selfClosing)
+         return next;
+      if (isTag("textarea"))
+         return skipRawText(next, "textarea", true);
+      if (isTag("script"))
+         return skipScript(next);
+      if (isTag("style") || isTag("xmp") || isTag("iframe") || isTag("noembed") || isTag("noframes"))
+         return skipRawText(next, lowerName(), false);
+      return next;
+   }
+
+   /**
+    * Records the links of the current start tag.
+    * @param image True if an image tag that is an img element.
+    */
+   private void addLinks(boolean image)
+   {
+      int href = findAttribute("href", true);
+      if (href >= 0)
+      {
+         if (isTag("a"))
+            linkUrls.add(value(href));
+         else if (isTag("link"))
+            importUrls.add(value(href));
+         else if (baseUri == null && isTag("base"))
+         {
+            String url = absUrl(toUrl(location), value(href));
+            if (!url.isEmpty())
+               baseUri = url;
+         }
+      }
+
+      int src = findAttribute("src", true);
+      if (src >= 0)
+      {
+         // Repeated html and body tags add their missing attributes to the first one.
+         if (isTag("html"))
+         {
+            if (htmlSrc)
+               return;
+            htmlSrc = true;
+         }
+         else if (isTag("body"))
+         {
+            if (bodySrc)
+               return;
+            bodySrc = true;
+         }
+
+         mediaTags.add(image ? "img" : lowerName());
+         mediaUrls.add(value(src));
+      }
+   }
+
+   /**
+    * Records the charset of the current meta tag, if it has one.
+    */
+   private void checkMeta()
+   {
+      int httpEquiv = findAttribute("http-equiv", true);
+      int charset = findAttribute("charset", true);
+      if (charset < 0 && (httpEquiv < 0 || !value(httpEquiv).trim().equalsIgnoreCase("content-type")))
+         return;
+
+      if (httpEquiv >= 0)
+      {
+         int content = findAttribute("content", true);
+         metaCharset = ResponseChecks.getCharset(content >= 0 ? value(content) : "");
+      }
+      if (metaCharset == null && charset >= 0)
+         metaCharset = value(charset);
+   }
+
+   /**
+    * Skips the content of a raw text element, up to its end tag.
+    * @param p Position after the start tag.
+    * @param name Lower case tag name.
+    * @param rcdata True if the content may not contain other tags, but a start tag ends
+    *        it when there is no end tag after it.
+    * @return Position after the end tag.
+    */
+   private int skipRawText(int p, String name, boolean rcdata)
+   {
+      int lastEndTag = NO_MATCH;
+      while (true)
+      {
+         int lt = indexOf('<', p);
+         if (lt < 0 || lt + 1 >= end)
+            break;
+
+         if (text[lt + 1] == '/')
+         {
+            int after = endTagAt(lt, name, !rcdata);
+            if (after != NO_MATCH)
+            {
+               rawTextEnd = lt;
+               return after;
+            }
+            p = scanEnd;
+         }
+         else if (rcdata && Character.isLetter(text[lt + 1]))
+         {
+            if (lastEndTag == NO_MATCH)
+               lastEndTag = Math.max(lastIndexOf("</" + name), lastIndexOf("</" + name.toUpperCase(Locale.ENGLISH)));
+            if (lastEndTag <= lt)
+            {
+               rawTextEnd = lt;
+               return lt;
+            }
+            p = lt + 1;
+         }
+         else
+            p = lt + 1;
+      }
+
+      rawTextEnd = end;
+      return end;
+   }
+
+   /**
+    * Skips the content of a script element, up to its end tag.  Tags in a comment in
+    * the script are escaped, and so is an end tag after another script start tag there.
+    * @param p Position after the start tag.
+    * @return Position after the end tag.
+    */
+   private int skipScript(int p)
+   {
+      int state = SCRIPT;
+      int dashes = 0;
+      while (p < end)
+      {
+         if (state == SCRIPT)
+         {
+            int lt = indexOf('<', p);
+            if (lt < 0 || lt + 1 >= end)
+               break;
+
+            p = lt + 1;
+            if (text[p] == '/')
+            {
+               int after = endTagAt(lt, "script", true);
+               if (after != NO_MATCH)
+               {
+                  rawTextEnd = lt;
+                  return after;
+               }
+               p = scanEnd;
+            }
+            else if (startsWith(p, "!--"))
+            {
+               state = ESCAPED;
+               dashes = 2;
+               p += 3;
+            }
+            continue;
+         }
+
+         char c = text[p];
+         if (c == '-')
+         {
+            ++dashes;
+            ++p;
+            continue;
+         }
+         if (c == '>')
+         {
+            if (dashes >= 2)
+               state = SCRIPT;
+            dashes = 0;
+            ++p;
+            continue;
+         }
+
+         dashes = 0;
+         if (c != '<' || ++p >= end)
+         {
+            ++p;
+            continue;
+         }
+
+         if (state == ESCAPED && text[p] == '/')
+         {
+            int after = endTagAt(p - 1, "script", true);
+            if (after != NO_MATCH)
+            {
+               rawTextEnd = p - 1;
+               return after;
+            }
+            p = scanEnd;
+         }
+         else if (state == ESCAPED && Character.isLetter(text[p]) ||
+               state == DOUBLE_ESCAPED && text[p] == '/' && ++p < end)
+         {
+            // <script starts double escaping and </script ends it, both case sensitive.
+            int q = p;
+            while (q < end && Character.isLetter(text[q]))
+               ++q;
+            if (q < end && (isWhitespace(text[q]) || text[q] == '/' || text[q] == '>'))
+            {
+               if (q - p == 6 && new String(text, p, 6).equals("script"))
+                  state = (state == ESCAPED ? DOUBLE_ESCAPED : ESCAPED);
+               ++q;
+            }
+            p = q;
+         }
+      }
+
+      rawTextEnd = end;
+      return end;
+   }
+
+   /**
+    * Checks for the end tag of a raw text element.  Sets scanEnd if not found.
+    * @param lt Position of the "&lt;/".
+    * @param name Lower case tag name.
+    * @param consumeMismatch True if the character after a matching name is skipped when
+    *        it does not end the name, as Jsoup does for raw text but not for rcdata.
+    * @return Position after the end tag or NO_MATCH.
+    */
+   private int endTagAt(int lt, String name, boolean consumeMismatch)
+   {
+      int p = lt + 2;
+      while (p < end && Character.isLetter(text[p]))
+         ++p;
+
+      scanEnd = p;
+      if (p >= end || !equalsIgnoreCase(lt + 2, p, name))
+         return NO_MATCH;
+
+      char c = text[p];
+      if (c == '>')
+         return p + 1;
+
+      if (!isWhitespace(c) && c != '/')
+      {
+         if (consumeMismatch)
+            scanEnd = p + 1;
+         return NO_MATCH;
+      }
+
+      int next = parseAttributes(p + 1, (c == '/' ? SELF_CLOSING : BEFORE_ATTRIBUTE_NAME));
+      return (next >= 0 ? next : end);
+   }
+
+   /**
+    * Parses a tag's name and attributes.
+    * @param p Position of the tag name.
+    * @return Position after the tag or -1 if the page ends in the tag, which drops it.
+    */
+   private int parseTag(int p)
+   {
+      nameStart = p;
+      while (p < end && !isWhitespace(text[p]) && text[p] != '/' && text[p] != '>' && text[p] != '<')
+         ++p;
+      nameEnd = p;
+      selfClosing = false;
+      attributeCount = 0;
+
+      if (p >= end)
+         return -1;
+
+      char c = text[p];
+      if (c == '<')
+         return p;  // Jsoup ends the tag at a < and scans the < again.
+      if (c == '>')
+         return p + 1;
+      return parseAttributes(p + 1, (c == '/' ? SELF_CLOSING : BEFORE_ATTRIBUTE_NAME));
+   }
+
+   /**
+    * Parses the attributes of a tag.
+    * @param p Position to start.
+    * @param state State at the position.
+    * @return Position after the tag or -1 if the page ends in the tag.
+    */
+   private int parseAttributes(int p, int state)
+   {
+      while (p < end)
+      {
+         char c = text[p];
+         switch (state)
+         {
+            case BEFORE_ATTRIBUTE_NAME:
+               if (c == '/')
+                  state = SELF_CLOSING;
+               else if (c == '<')
+                  return p;
+               else if (c == '>')
+                  return p + 1;
+               else if (!isWhitespace(c))
+               {
+                  addAttribute(p);
+                  state = ATTRIBUTE_NAME;
+               }
+               ++p;
+               break;
+
+            case ATTRIBUTE_NAME:
+               if (isWhitespace(c) || c == '/' || c == '=' || c == '>')
+               {
+                  attributes[(attributeCount - 1) * 4 + 1] = p;
+                  if (c == '>')
+                     return p + 1;
+                  state = (c == '=' ? BEFORE_ATTRIBUTE_VALUE : (c == '/' ? SELF_CLOSING : AFTER_ATTRIBUTE_NAME));
+               }
+               ++p;
+               break;
+
+            case AFTER_ATTRIBUTE_NAME:
+               if (c == '/')
+                  state = SELF_CLOSING;
+               else if (c == '=')
+                  state = BEFORE_ATTRIBUTE_VALUE;
+               else if (c == '>')
+                  return p + 1;
+               else if (!isWhitespace(c))
+               {
+                  addAttribute(p);
+                  state = ATTRIBUTE_NAME;
+               }
+               ++p;
+               break;
+
+            case BEFORE_ATTRIBUTE_VALUE:
+               if (c == '"' || c == '\'')
+               {
+                  int quote = indexOf(c, p + 1);
+                  if (quote < 0)
+                     return -1;
+                  setValue(p + 1, quote);
+                  state = AFTER_QUOTED_VALUE;
+                  p = quote + 1;
+               }
+               else if (c == '>')
+                  return p + 1;
+               else if (isWhitespace(c))
+                  ++p;
+               else
+               {
+                  int q = p;
+                  while (q < end && !isWhitespace(text[q]) && text[q] != '>')
+                     ++q;
+                  setValue(p, q);
+                  if (q >= end)
+                     return -1;
+                  if (text[q] == '>')
+                     return q + 1;
+                  state = BEFORE_ATTRIBUTE_NAME;
+                  p = q + 1;
+               }
+               break;
+
+            case AFTER_QUOTED_VALUE:
+               state = BEFORE_ATTRIBUTE_NAME;
+               if (c == '/')
+                  state = SELF_CLOSING;
+               else if (c == '>')
+                  return p + 1;
+               else if (!isWhitespace(c))
+                  break;  // Scan the character again before an attribute name.
+               ++p;
+               break;
+
+            default:
+               // SELF_CLOSING
+               if (c == '>')
+               {
+                  selfClosing = true;
+                  return p + 1;
+               }
+               state = BEFORE_ATTRIBUTE_NAME;
+               break;
+         }
+      }
+
+      // Jsoup keeps a tag that ends before an attribute value, but drops the others.
+      return (state == BEFORE_ATTRIBUTE_VALUE ? end : -1);
+   }
+
+   /**
+    * Starts a new attribute of the current tag.
+    * @param p Position of the attribute name.
+    */
+   private void addAttribute(int p)
+   {
+      int index = attributeCount * 4;
+      if (index + 4 > attributes.length)
+         attributes = Arrays.copyOf(attributes, attributes.length * 2);
+
+      attributes[index] = p;
+      attributes[index + 1] = end;
+      attributes[index + 2] = -1;
+      attributes[index + 3] = -1;
+      ++attributeCount;
+   }
+
+   /**
+    * Sets the value of the last attribute of the current tag.
+    * @param valueStart Start of the value.
+    * @param valueEnd End of the value.
+    */
+   private void setValue(int valueStart, int valueEnd)
+   {
+      int index = (attributeCount - 1) * 4;
+      attributes[index + 2] = valueStart;
+      attributes[index + 3] = valueEnd;
+   }
+
+   /**
+    * Finds the first attribute of the current tag with a name.
+    * @param name Attribute name.  Lower case if ignoreCase is true.
+    * @param ignoreCase True to ignore the case of the attribute names.
+    * @return Index of the attribute or -1 if not found.
+    */
+   private int findAttribute(String name, boolean ignoreCase)
+   {
+      for (int i = 0; i < attributeCount; ++i)
+      {
+         int nameFrom = attributes[i * 4];
+         int nameTo = attributes[i * 4 + 1];
+         if (ignoreCase ? equalsIgnoreCase(nameFrom, nameTo, name) : equals(nameFrom, nameTo, name))
+            return i;
+      }
+      return -1;
+   }
+
+   /**
+    * Gets the value of an attribute of the current tag, with character references decoded.
+    * @param index Index of the attribute.
+    * @return Attribute value.  Empty if the attribute has no value.
+    */
+   private String value(int index)
+   {
+      int valueStart = attributes[index * 4 + 2];
+      if (valueStart < 0)
+         return "";
+
+      String value = new String(text, valueStart, attributes[index * 4 + 3] - valueStart);
+      return (value.indexOf('&') >= 0 ? Parser.unescapeEntities(value, true) : value);
+   }
+
+   /**
+    * Gets the text of a title the way Jsoup's Document.title() does.
+    * @param from Start of the content.
+    * @param to End of the content.
+    * @return Title with whitespace normalized.
+    */
+   private String titleText(int from, int to)
+   {
+      String raw = new String(text, from, to - from);
+      if (raw.indexOf('&') >= 0)
+         raw = Parser.unescapeEntities(raw, false);
+      return StringUtil.normaliseWhitespace(StringUtil.normaliseWhitespace(raw).trim()).trim();
+   }
+
+   /**
+    * Returns if the current tag has a name.
+    * @param name Lower case tag name.
+    * @return True if the names match, ignoring case.
+    */
+   private boolean isTag(String name)
+   {
+      return equalsIgnoreCase(nameStart, nameEnd, name);
+   }
+
+   /**
+    * Returns if the current tag may be in the head, so it does not start the body.
+    * @return True if a head tag.
+    */
+   private boolean isHeadTag()
+   {
+      for (String name : headTags)
+      {
+         if (isTag(name))
+            return true;
+      }
+      return false;
+   }
+
+   /**
+    * Gets the name of the current tag in lower case, as Jsoup normalizes it.
+    * @return Tag name.
+    */
+   private String lowerName()
+   {
+      return new String(text, nameStart, nameEnd - nameStart).toLowerCase(Locale.ENGLISH);
+   }
+
+   private boolean equalsIgnoreCase(int from, int to, String lowerName)
+   {
+      if (to - from != lowerName.length())
+         return false;
+
+      for (int i = from; i < to; ++i)
+      {
+         if (Character.toLowerCase(text[i]) != lowerName.charAt(i - from))
+            return false;
+      }
+      return true;
+   }
+
+   private boolean equals(int from, int to, String name)
+   {
+      if (to - from != name.length())
+         return false;
+
+      for (int i = from; i < to; ++i)
+      {
+         if (text[i] != name.charAt(i - from))
+            return false;
+      }
+      return true;
+   }
+
+   private boolean startsWith(int p, String prefix)
+   {
+      return (p + prefix.length() <= end && equals(p, p + prefix.length(), prefix));
+   }
+
+   private boolean startsWithIgnoreCase(int p, String prefix)
+   {
+      return (p + prefix.length() <= end && equalsIgnoreCase(p, p + prefix.length(), prefix.toLowerCase(Locale.ENGLISH)));
+   }
+
+   private int indexOf(char c, int from)
+   {
+      for (int i = from; i < end; ++i)
+      {
+         if (text[i] == c)
+            return i;
+      }
+      return -1;
+   }
+
+   private int indexOf(String s, int from)
+   {
+      char first = s.charAt(0);
+      for (int i = indexOf(first, from); i >= 0 && i + s.length() <= end; i = indexOf(first, i + 1))
+      {
+         if (equals(i, i + s.length(), s))
+            return i;
+      }
+      return -1;
+   }
+
+   private int lastIndexOf(String s)
+   {
+      for (int i = end - s.length(); i >= start; --i)
+      {
+         if (equals(i, i + s.length(), s))
+            return i;
+      }
+      return -1;
+   }
+
+   private int skipPast(char c, int from)
+   {
+      int i = indexOf(c, from);
+      return (i >= 0 ? i + 1 : end);
+   }
+
+   private int skipWhitespace(int p)
+   {
+      while (p < end && isWhitespace(text[p]))
+         ++p;
+      return p;
+   }
+
+   private static boolean isWhitespace(char c)
+   {
+      return (c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f');
+   }
+
+   /**
+    * Parses a base URL.
+    * @param url URL.
+    * @return URL or null if not valid.
+    */
+   private static URL toUrl(String url)
+   {
+      try
+      {
+         return new URL(url);
+      }
+      catch (MalformedURLException ex)
+      {
+         return null;
+      }
+   }
+
+   /**
+    * Resolves a link the way Jsoup's absUrl does.
+    * @param base Base URL.  Null if the base is not valid.
+    * @param relUrl Link.
+    * @return Absolute URL or empty if not valid.
+    */
+   private static String absUrl(URL base, String relUrl)
+   {
+      try
+      {
+         return (base != null ? StringUtil.resolve(base, relUrl) : new URL(relUrl)).toExternalForm();
+      }
+      catch (MalformedURLException ex)
+      {
+         return "";
+      }
+   }
+
+   /**
+    * Creates the link details of a list of links.
+    * @param tag Tag of every link.  Null to use tags.
+    * @param tags Tag of each link.
+    * @param urls Links.
+    * @param base Base URL.
+    * @return Set of links.
+    */
+   private static Set<LinkDetails> toLinks(String tag, List<String> tags, List<String> urls, URL base)
+   {
+      Set<LinkDetails> links = new LinkedHashSet<>(urls.size());
+      for (int i = 0; i < urls.size(); ++i)
+         links.add(new LinkDetails(tag != null ? tag : tags.get(i), absUrl(base, urls.get(i))));
+      return links;
+   }
+}
@@ -0,0 +1,155 @@
+package com.rolls.crawler.parse;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * I/O thread of the NIO parser.  Runs any number of exchanges on one selector and
+ * ends the ones that take longer than their timeout.  Exchanges are handed over
+ * through a queue so only this thread touches the selector and the exchanges.
+ */
+class NioEventLoop implements Runnable, Closeable
+{
+   private final static Logger logger = LoggerFactory.getLogger(NioEventLoop.class);
+   private final static long TIMEOUT_CHECK_MILLIS = 100;
+
+   private final Selector selector;
+   private final Thread thread;
+   private final Queue<NioExchange> newExchanges = new ConcurrentLinkedQueue<>();
+   private final Set<NioExchange> exchanges = new HashSet<>();
+   private final ByteBuffer readBuffer = ByteBuffer.allocate(64 * 1024);
+
+   private volatile boolean closed = false;
+
+   /**
+    * Constructs and starts a new I/O thread.
+    * @param name Thread name.
+    * @throws IOException If unable to open the selector.
+    */
+   public NioEventLoop(String name) throws IOException
+   {
+      this.selector = Selector.open();
+      this.thread = new Thread(this, name);
+      this.thread.setDaemon(true);
+      this.thread.start();
+   }
+
+   /**
+    * Runs an exchange on this thread.
+    * @param exchange Exchange to run.
+    */
+   public void execute(NioExchange exchange)
+   {
+      newExchanges.add(exchange);
+      if (closed)
+         failNewExchanges();
+      else
+         selector.wakeup();
+   }
+
+   @Override
+   public void run()
+   {
+      long nextTimeoutCheck = System.nanoTime();
+      try
+      {
+         while (!closed)
+         {
+            selector.select(TIMEOUT_CHECK_MILLIS);
+
+            NioExchange exchange;
+            while ((exchange = newExchanges.poll()) != null)
+            {
+               if (exchange.start(selector))
+                  exchanges.add(exchange);
+            }
+
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext())
+            {
+               SelectionKey key = keys.next();
+               keys.remove();
+
+               exchange = (NioExchange)key.attachment();
+               if (!key.isValid() || !exchange.handle(readBuffer))
+                  exchanges.remove(exchange);
+            }
+
+            long now = System.nanoTime();
+            if (now - nextTimeoutCheck >= 0)
+            {
+               exchanges.removeIf((running) -> {
+                  if (!running.isExpired(now))
+                     return false;
+
+                  running.timeout();
+                  return true;
+               });
+               nextTimeoutCheck = now + TimeUnit.MILLISECONDS.toNanos(TIMEOUT_CHECK_MILLIS);
+            }
+         }
+      }
+      catch (IOException | RuntimeException ex)
+      {
+         logger.error("I/O thread failed.", ex);
+      }
+      finally
+      {
+         closed = true;
+         IOException cause = new IOException("Parser closed.");
+         exchanges.forEach((running) -> running.fail(cause));
+         exchanges.clear();
+         failNewExchanges();
+
+         try
+         {
+            selector.close();
+         }
+         catch (IOException ex)
+         {
+            // Nothing else to do with the selector.
+         }
+      }
+   }
+
+   /**
+    * Stops the thread and fails the exchanges still running.
+    */
+   @Override
+   public void close()
+   {
+      closed = true;
+      selector.wakeup();
+      try
+      {
+         if (Thread.currentThread() != thread)
+            thread.join(TimeUnit.SECONDS.toMillis(10));
+      }
+      catch (InterruptedException ex)
+      {
+         Thread.currentThread().interrupt(); // Preserve interrupted status
+      }
+   }
+
+   /**
+    * Fails the exchanges that were never started.
+    */
+   private void failNewExchanges()
+   {
+      IOException cause = new IOException("Parser closed.");
+      NioExchange exchange;
+      while ((exchange = newExchanges.poll()) != null)
+         exchange.fail(cause);
+   }
+}
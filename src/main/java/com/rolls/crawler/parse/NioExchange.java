@@ -0,0 +1,523 @@
+package com.rolls.crawler.parse;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLParameters;
+import org.jsoup.helper.HttpConnection;
+
+/**
+ * A single page download run by an I/O thread of the NIO parser.  Sends a GET request
+ * and parses the response as the bytes arrive.  Redirects are followed on a new
+ * connection.  Host names are resolved by the parser's resolver threads, before the
+ * exchange is handed to an I/O thread and again after each redirect.  Like the Jsoup
+ * connection used by ParserImpl, error statuses are load errors.  A page whose content
+ * type is not crawled or whose body is too large is skipped as soon as its headers
+ * show it.  Every method except the constructor, lookUp, and fail must be called on
+ * the I/O thread that owns the exchange.
+ */
+class NioExchange
+{
+   private enum State
+   {
+      CONNECTING,
+      HANDSHAKING,
+      WRITING,
+      READING
+   }
+
+   private final FetchedPage page;
+   private final CompletableFuture<FetchedPage> future;
+   private final SSLContext sslContext;
+   private final ContentLimits limits;
+   private final CachedPage cached;
+   private final boolean hashContent;
+   private final Consumer<NioExchange> resolver;
+   private final long deadlineNanos;
+
+   private URL url;
+   private InetSocketAddress address;
+   private int redirects = 0;
+
+   private State state;
+   private SocketChannel channel;
+   private SelectionKey key;
+   private NioTransport transport;
+   private ByteBuffer request;
+   private HttpResponseParser response;
+   private boolean headersChecked;
+   private boolean firstByteRead;
+   private long stageStart;
+
+   /**
+    * Constructs a new exchange.  The host name is not resolved until lookUp is called.
+    * @param page Page to fill in.  The URL is the page to download.
+    * @param future Future completed with the page.
+    * @param sslContext SSL context of HTTPS connections.
+    * @param limits Content types downloaded and the maximum body size of each.
+    * @param cached Cached page whose validators are sent.  Null for an unconditional request.
+    * @param hashContent True to keep a hash of the body.
+    * @param timeoutMillis Timeout for the whole download.  Value <= 0 means no timeout.
+    * @param resolver Looks up the host of a redirect and runs the exchange again on an I/O thread.
+    * @throws IOException If the URL is invalid.
+    */
+   public NioExchange(FetchedPage page, CompletableFuture<FetchedPage> future, SSLContext sslContext,
+         ContentLimits limits, CachedPage cached, boolean hashContent, int timeoutMillis, Consumer<NioExchange> resolver)
+         throws IOException
+   {
+      this.page = page;
+      this.future = future;
+      this.sslContext = sslContext;
+      this.limits = limits;
+      this.cached = cached;
+      this.hashContent = hashContent;
+      this.resolver = resolver;
+      this.deadlineNanos = (timeoutMillis > 0 ? System.nanoTime() + timeoutMillis * 1000000L : 0);
+      this.url = checkUrl(new URL(page.getUrl()));
+   }
+
+   /**
+    * Resolves the address of the current URL's host, adding the time to the page's DNS
+    * time.  Called on a resolver thread before the exchange is handed to an I/O thread.
+    * @return True if resolved or false if the exchange ended with a load error.
+    */
+   public boolean lookUp()
+   {
+      long start = System.nanoTime();
+      try
+      {
+         address = resolve(url);
+      }
+      catch (UnknownHostException ex)
+      {
+         fail(ex);
+         return false;
+      }
+      finally
+      {
+         page.setDnsNanos(page.getDnsNanos() + System.nanoTime() - start);
+      }
+
+      if (isExpired(System.nanoTime()))
+      {
+         timeout();
+         return false;
+      }
+      return true;
+   }
+
+   /**
+    * Opens the connection and registers it with a selector.
+    * @param selector Selector of the I/O thread.
+    * @return True if the exchange is still running or false if done.
+    */
+   public boolean start(Selector selector)
+   {
+      try
+      {
+         channel = SocketChannel.open();
+         channel.configureBlocking(false);
+         channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+
+         transport = (isHttps(url) ? new TlsTransport(channel, createEngine()) : new PlainTransport(channel));
+         request = buildRequest(url, cached);
+         response = new HttpResponseParser((int)Math.min(limits.getLargestMaxBytes() + 1L, Integer.MAX_VALUE));
+         headersChecked = false;
+         firstByteRead = false;
+         state = State.CONNECTING;
+
+         stageStart = System.nanoTime();
+         boolean connected = channel.connect(address);
+         key = channel.register(selector, SelectionKey.OP_CONNECT, this);
+         return (connected ? process(null) : true);
+      }
+      catch (IOException | RuntimeException ex)
+      {
+         fail(ex);
+         return false;
+      }
+   }
+
+   /**
+    * Continues the exchange after the channel is ready.
+    * @param readBuffer Buffer of the I/O thread to read into.
+    * @return True if the exchange is still running or false if done.
+    */
+   public boolean handle(ByteBuffer readBuffer)
+   {
+      try
+      {
+         return process(readBuffer);
+      }
+      catch (IOException | RuntimeException ex)
+      {
+         fail(ex);
+         return false;
+      }
+   }
+
+   /**
+    * Returns if the exchange took longer than its timeout.
+    * @param nowNanos Current value of System.nanoTime().
+    * @return True if timed out.
+    */
+   public boolean isExpired(long nowNanos)
+   {
+      return (deadlineNanos != 0 && nowNanos - deadlineNanos > 0);
+   }
+
+   /**
+    * Ends the exchange with a load error.  Does nothing if already done.
+    * @param cause Cause of the failure.
+    */
+   public void fail(Exception cause)
+   {
+      closeChannel();
+      if (!future.isDone())
+      {
+         page.setLoadError(String.format("Unable to load %s.  CAUSE: %s", page.getUrl(), cause.toString()));
+         future.complete(page);
+      }
+   }
+
+   /**
+    * Ends the exchange because it took longer than its timeout.
+    */
+   public void timeout()
+   {
+      fail(new SocketTimeoutException("Read timed out"));
+   }
+
+   /**
+    * Does all the I/O the channel allows and waits for the next event it needs.
+    * @param readBuffer Buffer of the I/O thread to read into.  Null if not reading.
+    * @return True if the exchange is still running or false if done.
+    * @throws IOException If the download fails.
+    */
+   private boolean process(ByteBuffer readBuffer) throws IOException
+   {
+      if (state == State.CONNECTING)
+      {
+         if (!channel.finishConnect())
+            return waitFor(SelectionKey.OP_CONNECT);
+         state = State.HANDSHAKING;
+      }
+
+      if (state == State.HANDSHAKING)
+      {
+         if (!transport.handshake())
+            return waitFor(transport.isWritePending() ? SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+         state = State.WRITING;
+         page.setConnectNanos(page.getConnectNanos() + nextStage());
+      }
+
+      if (state == State.WRITING)
+      {
+         if (!transport.write(request))
+            return waitFor(SelectionKey.OP_WRITE);
+         state = State.READING;
+         nextStage();
+         return waitFor(SelectionKey.OP_READ);
+      }
+
+      if (readBuffer == null)
+         return waitFor(SelectionKey.OP_READ);
+
+      int count;
+      do
+      {
+         readBuffer.clear();
+         count = transport.read(readBuffer);
+         readBuffer.flip();
+         if (!firstByteRead && readBuffer.hasRemaining())
+         {
+            firstByteRead = true;
+            page.setFirstByteNanos(page.getFirstByteNanos() + nextStage());
+         }
+         response.feed(readBuffer);
+         if (!headersChecked && response.hasHeaders())
+         {
+            headersChecked = true;
+            if (skipHeaders())
+               return false;
+         }
+      }
+      while (count > 0 && !response.isComplete());
+
+      if (count < 0)
+         response.endOfStream();
+
+      if (!response.isComplete())
+         return waitFor(SelectionKey.OP_READ | (transport.isWritePending() ? SelectionKey.OP_WRITE : 0));
+
+      responseRead();
+      return false;
+   }
+
+   /**
+    * Sets the events to wait for.
+    * @param ops Interest operations.
+    * @return Always true, the exchange is still running.
+    */
+   private boolean waitFor(int ops)
+   {
+      key.interestOps(ops);
+      return true;
+   }
+
+   /**
+    * Completes the page without reading the body if the headers show it is skipped.
+    * Redirects and errors are handled once the response is read.
+    * @return True if the page is skipped.
+    */
+   private boolean skipHeaders()
+   {
+      int statusCode = response.getStatusCode();
+      if (statusCode < 200 || statusCode >= 300)
+         return false;
+
+      if (!ResponseChecks.skipHeaders(page, limits, response.getHeader("Content-Type"),
+            ResponseChecks.getContentLength(response.getHeader("Content-Length"))))
+         return false;
+
+      closeChannel();
+      page.setDownloadNanos(page.getDownloadNanos() + nextStage());
+      page.setLocation(url.toExternalForm());
+      page.setStatusCode(statusCode);
+      future.complete(page);
+      return true;
+   }
+
+   /**
+    * Completes the page from the response or follows a redirect.  A redirect leaves
+    * this I/O thread while its host is resolved.
+    * @throws IOException If the response is an error.
+    */
+   private void responseRead() throws IOException
+   {
+      closeChannel();
+      page.setDownloadNanos(page.getDownloadNanos() + nextStage());
+
+      int statusCode = response.getStatusCode();
+      String location = response.getHeader("Location");
+      if (statusCode >= 300 && statusCode < 400 && statusCode != 304 && location != null)
+      {
+         if (++redirects > NioParser.MAX_REDIRECTS)
+            throw new IOException(String.format("Too many redirects occurred trying to load URL %s", page.getUrl()));
+
+         url = checkUrl(new URL(url, location.replace(" ", "%20")));
+         resolver.accept(this);
+         return;
+      }
+
+      ResponseChecks.checkStatus(page, statusCode, response.getHeader("Retry-After"), url);
+      page.setLocation(url.toExternalForm());
+      page.setStatusCode(statusCode);
+
+      String contentType = response.getHeader("Content-Type");
+      if (!ResponseChecks.notModified(page, cached, statusCode) && !ResponseChecks.skipHeaders(page, limits, contentType, -1))
+      {
+         byte[] body = response.getBody();
+         String encoding = response.getHeader("Content-Encoding");
+         if (encoding != null && encoding.toLowerCase(Locale.ROOT).contains("gzip"))
+            body = decompress(body, limits.getMaxBytes(contentType) + 1);
+
+         // A truncated body is larger than the largest limit, even if it decompresses to less.
+         if (!ResponseChecks.skipBody(page, limits, contentType, (response.isTruncated() ? Long.MAX_VALUE : body.length)))
+         {
+            page.setContentType(contentType);
+            page.setCharset(ResponseChecks.getCharset(contentType));
+            page.setEtag(response.getHeader("ETag"));
+            page.setLastModified(response.getHeader("Last-Modified"));
+            page.setBody(body);
+            if (hashContent)
+               page.setContentHash(ContentHash.of(body));
+         }
+      }
+
+      future.complete(page);
+   }
+
+   /**
+    * Closes the connection.
+    */
+   private void closeChannel()
+   {
+      try
+      {
+         if (transport != null)
+            transport.close();
+         else if (channel != null)
+            channel.close();
+      }
+      catch (IOException ex)
+      {
+         // Nothing else to do with the connection.
+      }
+   }
+
+   /**
+    * Creates the SSL engine of an HTTPS connection.  The server certificate must match the host.
+    * @return Client mode SSL engine.
+    */
+   private SSLEngine createEngine()
+   {
+      SSLEngine engine = sslContext.createSSLEngine(url.getHost(), address.getPort());
+      engine.setUseClientMode(true);
+
+      SSLParameters params = engine.getSSLParameters();
+      params.setEndpointIdentificationAlgorithm("HTTPS");
+      engine.setSSLParameters(params);
+      return engine;
+   }
+
+   /**
+    * Builds the GET request of a URL.  The connection is closed after the response.
+    * @param url URL to request.
+    * @param cached Cached page whose validators are sent.  May be null.
+    * @return Request bytes.
+    */
+   private static ByteBuffer buildRequest(URL url, CachedPage cached)
+   {
+      StringBuilder request = new StringBuilder(256);
+      request.append("GET ").append(requestTarget(url)).append(" HTTP/1.1\r\n");
+      request.append("Host: ").append(url.getHost());
+      if (url.getPort() != -1)
+         request.append(':').append(url.getPort());
+      request.append("\r\n");
+      request.append("User-Agent: ").append(HttpConnection.DEFAULT_UA).append("\r\n");
+      request.append("Accept: text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8\r\n");
+      request.append("Accept-Encoding: gzip\r\n");
+      request.append("Connection: close\r\n");
+      if (cached != null && cached.getEtag() != null)
+         request.append("If-None-Match: ").append(cached.getEtag()).append("\r\n");
+      if (cached != null && cached.getLastModified() != null)
+         request.append("If-Modified-Since: ").append(cached.getLastModified()).append("\r\n");
+      request.append("\r\n");
+      return ByteBuffer.wrap(request.toString().getBytes(StandardCharsets.ISO_8859_1));
+   }
+
+   /**
+    * Gets the path and query of a URL with the characters that are not allowed in a request escaped.
+    * @param url URL to request.
+    * @return Request target.
+    */
+   private static String requestTarget(URL url)
+   {
+      String file = url.getFile();
+      if (file.isEmpty())
+         return "/";
+
+      StringBuilder target = new StringBuilder(file.length() + 16);
+      for (byte b : file.getBytes(StandardCharsets.UTF_8))
+      {
+         int c = b & 0xff;
+         if (c <= ' ' || c >= 0x7f)
+            target.append('%').append(Character.toUpperCase(Character.forDigit(c >> 4, 16)))
+                  .append(Character.toUpperCase(Character.forDigit(c & 0xf, 16)));
+         else
+            target.append((char)c);
+      }
+      return target.toString();
+   }
+
+   /**
+    * Checks that a URL can be downloaded.
+    * @param url URL to check.
+    * @return The URL.
+    * @throws MalformedURLException If not an HTTP or HTTPS URL.
+    */
+   private static URL checkUrl(URL url) throws MalformedURLException
+   {
+      String protocol = url.getProtocol();
+      if (!protocol.equals("http") && !protocol.equals("https"))
+         throw new MalformedURLException("Only http & https protocols supported");
+      return url;
+   }
+
+   /**
+    * Returns if a URL uses HTTPS.
+    * @param url URL to check.
+    * @return True if HTTPS.
+    */
+   private static boolean isHttps(URL url)
+   {
+      return url.getProtocol().equals("https");
+   }
+
+   /**
+    * Starts the next stage of the exchange.
+    * @return Time, in nanoseconds, of the stage that ended.
+    */
+   private long nextStage()
+   {
+      long now = System.nanoTime();
+      long nanos = now - stageStart;
+      stageStart = now;
+      return nanos;
+   }
+
+   /**
+    * Resolves the address of a URL's host.
+    * @param url URL to resolve.
+    * @return Socket address.
+    * @throws UnknownHostException If the host is unknown.
+    */
+   private static InetSocketAddress resolve(URL url) throws UnknownHostException
+   {
+      String host = url.getHost();
+      if (host.startsWith("[") && host.endsWith("]"))
+         host = host.substring(1, host.length() - 1);
+
+      InetSocketAddress address = new InetSocketAddress(host, (url.getPort() != -1 ? url.getPort() : url.getDefaultPort()));
+      if (address.isUnresolved())
+         throw new UnknownHostException(host);
+      return address;
+   }
+
+   /**
+    * Decompresses a gzip body.  A body truncated by the maximum size is decompressed as far as possible.
+    * @param body Compressed body.
+    * @param maxBytes Maximum number of bytes kept.
+    * @return Decompressed body.
+    * @throws IOException If the body is not gzip data.
+    */
+   private static byte[] decompress(byte[] body, int maxBytes) throws IOException
+   {
+      if (body.length == 0)
+         return body;
+
+      ByteArrayOutputStream out = new ByteArrayOutputStream(body.length * 4);
+      try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(body)))
+      {
+         byte[] buffer = new byte[8192];
+         int count;
+         while ((count = in.read(buffer)) > 0 && out.size() < maxBytes)
+            out.write(buffer, 0, Math.min(count, maxBytes - out.size()));
+      }
+      catch (EOFException ex)
+      {
+         // Truncated body.  Keep what was decompressed.
+      }
+      return out.toByteArray();
+   }
+}
@@ -0,0 +1,169 @@
+package com.rolls.crawler.parse;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.net.ssl.SSLContext;
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+
+/**
+ * Web page parser that downloads pages on a few NIO selector threads instead of one
+ * blocked thread per page, so thousands of slow downloads can be open at once.
+ * Each download is an HTTP/1.1 GET on its own connection.  Host names are resolved
+ * on a few resolver threads, so a slow DNS lookup blocks neither the caller nor the
+ * downloads in flight, and a download only reaches an I/O thread once its address is
+ * known.  Pages are parsed the same way as ParserImpl.
+ */
+public class NioParser extends ParserImpl implements AsyncParser, Closeable
+{
+   /**
+    * Maximum number of redirects followed for a page.
+    */
+   public final static int MAX_REDIRECTS = 20;
+
+   /**
+    * Number of threads resolving host names.
+    */
+   public final static int RESOLVER_THREADS = 4;
+
+   private final int timeoutMillis;
+   private final SSLContext sslContext;
+   private final NioEventLoop[] loops;
+   private final ExecutorService resolver;
+   private final AtomicInteger nextLoop = new AtomicInteger();
+
+   private volatile boolean closed = false;
+
+   /**
+    * Constructs a new parser that trusts the JVM's default certificates.
+    * @param timeoutMillis Timeout for a page to download.  Value <= 0 means no timeout.
+    * @param numIoThreads Number of I/O threads.  Value < 1 defaults to 1.
+    */
+   public NioParser(int timeoutMillis, int numIoThreads)
+   {
+      this(timeoutMillis, numIoThreads, null);
+   }
+
+   /**
+    * Constructs a new parser.
+    * @param timeoutMillis Timeout for a page to download.  Value <= 0 means no timeout.
+    * @param numIoThreads Number of I/O threads.  Value < 1 defaults to 1.
+    * @param sslContext SSL context of HTTPS connections.  Null means the JVM default.
+    */
+   public NioParser(int timeoutMillis, int numIoThreads, SSLContext sslContext)
+   {
+      this(timeoutMillis, numIoThreads, sslContext, new ThreadPoolExecutor(RESOLVER_THREADS, RESOLVER_THREADS,
+            0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+            new BasicThreadFactory.Builder().namingPattern("Parser-Resolve-%d").daemon(true).build()
+            ));
+   }
+
+   /**
+    * Constructs a new parser that resolves host names on the given executor.
+    * @param timeoutMillis Timeout for a page to download.  Value <= 0 means no timeout.
+    * @param numIoThreads Number of I/O threads.  Value < 1 defaults to 1.
+    * @param sslContext SSL context of HTTPS connections.  Null means the JVM default.
+    * @param resolver Executor resolving host names.  Shut down when the parser is closed.
+    */
+   NioParser(int timeoutMillis, int numIoThreads, SSLContext sslContext, ExecutorService resolver)
+   {
+      super(timeoutMillis);
+      this.timeoutMillis = timeoutMillis;
+      this.resolver = resolver;
+
+      try
+      {
+         this.sslContext = (sslContext != null ? sslContext : SSLContext.getDefault());
+      }
+      catch (NoSuchAlgorithmException ex)
+      {
+         throw new RuntimeException("Unable to create SSL context.", ex);
+      }
+
+      this.loops = new NioEventLoop[Math.max(numIoThreads, 1)];
+      try
+      {
+         for (int i = 0; i < loops.length; ++i)
+            loops[i] = new NioEventLoop(String.format("Parser-IO-%d", i + 1));
+      }
+      catch (IOException ex)
+      {
+         close();
+         throw new RuntimeException("Unable to open selector.", ex);
+      }
+   }
+
+   @Override
+   public CompletableFuture<FetchedPage> fetchAsync(String url)
+   {
+      CompletableFuture<FetchedPage> future = new CompletableFuture<>();
+      FetchedPage page = new FetchedPage();
+      page.setUrl(url);
+
+      NioExchange exchange;
+      try
+      {
+         exchange = new NioExchange(page, future, sslContext, getContentLimits(), getCachedPage(url), isHashContent(),
+               timeoutMillis, this::resolve);
+      }
+      catch (IOException | RuntimeException ex)
+      {
+         page.setLoadError(String.format("Unable to load %s.  CAUSE: %s", url, ex.toString()));
+         future.complete(page);
+         return future;
+      }
+
+      resolve(exchange);
+      return future;
+   }
+
+   @Override
+   public FetchedPage fetch(String url)
+   {
+      return fetchAsync(url).join();
+   }
+
+   /**
+    * Stops the resolver and I/O threads.  Downloads still running end with a load error.
+    */
+   @Override
+   public void close()
+   {
+      closed = true;
+      resolver.shutdown();
+      for (NioEventLoop loop : loops)
+      {
+         if (loop != null)
+            loop.close();
+      }
+   }
+
+   /**
+    * Resolves the host of an exchange on a resolver thread, then runs the exchange on
+    * the next I/O thread.  Used for the first request and for every redirect.
+    * @param exchange Exchange to run.
+    */
+   private void resolve(NioExchange exchange)
+   {
+      try
+      {
+         resolver.execute(() -> {
+            if (closed)
+               exchange.fail(new IOException("Parser closed."));
+            else if (exchange.lookUp())
+               loops[Math.floorMod(nextLoop.getAndIncrement(), loops.length)].execute(exchange);
+         });
+      }
+      catch (RejectedExecutionException ex)
+      {
+         exchange.fail(new IOException("Parser closed."));
+      }
+   }
+}
@@ -0,0 +1,41 @@
+package com.rolls.crawler.parse;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Non-blocking transport of an HTTP exchange over a connected socket channel.
+ * Every method returns right away, doing only the I/O the channel allows.
+ */
+interface NioTransport extends Closeable
+{
+   /**
+    * Continues the connection handshake.
+    * @return True if the transport is ready for application data.
+    * @throws IOException If the handshake fails.
+    */
+   public boolean handshake() throws IOException;
+
+   /**
+    * Writes application data.
+    * @param src Data to write.
+    * @return True if all the data has been written to the channel.
+    * @throws IOException If unable to write.
+    */
+   public boolean write(ByteBuffer src) throws IOException;
+
+   /**
+    * Reads application data.
+    * @param dst Buffer to read into.
+    * @return Number of bytes read, which may be zero, or -1 if the connection was closed.
+    * @throws IOException If unable to read.
+    */
+   public int read(ByteBuffer dst) throws IOException;
+
+   /**
+    * Returns if the transport has data waiting for the channel to be writable.
+    * @return True if waiting to write.
+    */
+   public boolean isWritePending();
+}
@@ -0,0 +1,484 @@
+package com.rolls.crawler.parse;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Persistent cache of extracted pages, keyed by URL, so a later crawl can send
+ * conditional requests and reuse the extraction when a page has not changed.
+ * <p>
+ * Each page is a small file named by a hash of its URL, holding the ETag and
+ * Last-Modified validators of the response and the page details.  The files are kept
+ * across crawls.  When their total size is over the maximum, the least recently used
+ * pages are deleted.  Use is tracked in memory and by the file modified times, so the
+ * order survives a restart.  Safe for use by many threads.
+ */
+public class PageCache
+{
+   /**
+    * Default maximum total size, in bytes, of the cached pages.
+    */
+   public final static long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+
+   private final static Logger logger = LoggerFactory.getLogger(PageCache.class);
+   private final static int FORMAT_VERSION = 2;
+   private final static String FILE_SUFFIX = ".page";
+
+   private final Path dir;
+   private final long maxBytes;
+
+   // File size by file name, least recently used first.  Guarded by itself.
+   private final LinkedHashMap<String, Long> files = new LinkedHashMap<>(1024, 0.75f, true);
+   private long totalBytes = 0;
+
+   private final AtomicLong hits = new AtomicLong();         // Lookups that found a page.
+   private final AtomicLong misses = new AtomicLong();       // Lookups that found nothing.
+   private final AtomicLong revalidated = new AtomicLong();  // Pages reused because the server answered 304.
+   private final AtomicLong stored = new AtomicLong();       // Pages written.
+   private final AtomicLong evicted = new AtomicLong();      // Pages deleted to stay under the maximum size.
+
+   /**
+    * Opens a cache.  Pages already in the directory are kept.
+    * @param cachePath Directory of the cache files.  Created if it does not exist.
+    * @param maxBytes Maximum total size, in bytes, of the cached pages.  Value <= 0 means the default.
+    */
+   public PageCache(Path cachePath, long maxBytes)
+   {
+      if (cachePath == null)
+         throw new IllegalArgumentException("Null cache path.");
+
+      this.dir = cachePath;
+      this.maxBytes = (maxBytes > 0 ? maxBytes : DEFAULT_MAX_BYTES);
+
+      try
+      {
+         Files.createDirectories(dir);
+         loadIndex();
+      }
+      catch (IOException ex)
+      {
+         throw new RuntimeException(String.format("Unable to open page cache in %s.", dir), ex);
+      }
+
+      synchronized (files)
+      {
+         evict();
+      }
+   }
+
+   /**
+    * Gets a cached page.
+    * @param url URL that was requested.
+    * @return Cached page or null if not cached.
+    */
+   public CachedPage get(String url)
+   {
+      String name = fileName(url);
+      synchronized (files)
+      {
+         if (files.get(name) == null)
+         {
+            misses.incrementAndGet();
+            return null;
+         }
+      }
+
+      Path path = filePath(name);
+      try
+      {
+         CachedPage page = read(Files.readAllBytes(path));
+         if (page.getUrl().equals(url))
+         {
+            Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis()));
+            hits.incrementAndGet();
+            return page;
+         }
+      }
+      catch (NoSuchFileException ex)
+      {
+         // Evicted by another thread.
+      }
+      catch (IOException | RuntimeException ex)
+      {
+         logger.debug("Unable to read cached page {}.", path, ex);
+         delete(name);
+      }
+
+      misses.incrementAndGet();
+      return null;
+   }
+
+   /**
+    * Adds or replaces a cached page.  A page that cannot be written is not cached.
+    * @param page Page to cache.
+    */
+   public void put(CachedPage page)
+   {
+      if (page == null)
+         throw new IllegalArgumentException("Null page.");
+
+      String name = fileName(page.getUrl());
+      Path path = filePath(name);
+      try
+      {
+         byte[] bytes = write(page);
+         Files.createDirectories(path.getParent());
+         Path temp = Files.createTempFile(path.getParent(), name, ".tmp");
+         try
+         {
+            Files.write(temp, bytes);
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+         }
+         finally
+         {
+            Files.deleteIfExists(temp);
+         }
+
+         synchronized (files)
+         {
+            Long oldSize = files.put(name, (long)bytes.length);
+            totalBytes += bytes.length - (oldSize != null ? oldSize : 0);
+            evict();
+         }
+         stored.incrementAndGet();
+      }
+      catch (IOException | RuntimeException ex)
+      {
+         logger.debug("Unable to cache page {}.", page.getUrl(), ex);
+      }
+   }
+
+   /**
+    * Removes a cached page.
+    * @param url URL that was requested.
+    */
+   public void remove(String url)
+   {
+      delete(fileName(url));
+   }
+
+   /**
+    * Gets the directory of the cache files.
+    * @return Cache path.
+    */
+   public Path getPath()
+   {
+      return dir;
+   }
+
+   /**
+    * Gets the maximum total size of the cached pages.
+    * @return Maximum size in bytes.
+    */
+   public long getMaxBytes()
+   {
+      return maxBytes;
+   }
+
+   /**
+    * Gets the number of cached pages.
+    * @return Number of pages.
+    */
+   public int getSize()
+   {
+      synchronized (files)
+      {
+         return files.size();
+      }
+   }
+
+   /**
+    * Gets the total size of the cached pages.
+    * @return Size in bytes.
+    */
+   public long getTotalBytes()
+   {
+      synchronized (files)
+      {
+         return totalBytes;
+      }
+   }
+
+   /**
+    * Gets the number of lookups that found a page.
+    * @return Number of hits.
+    */
+   public long getHits()
+   {
+      return hits.get();
+   }
+
+   /**
+    * Gets the number of lookups that found nothing.
+    * @return Number of misses.
+    */
+   public long getMisses()
+   {
+      return misses.get();
+   }
+
+   /**
+    * Gets the number of cached pages reused because the server said they had not changed.
+    * @return Number of pages revalidated.
+    */
+   public long getRevalidated()
+   {
+      return revalidated.get();
+   }
+
+   /**
+    * Gets the number of pages written to the cache.
+    * @return Number of pages stored.
+    */
+   public long getStored()
+   {
+      return stored.get();
+   }
+
+   /**
+    * Gets the number of pages deleted to keep the cache under its maximum size.
+    * @return Number of pages evicted.
+    */
+   public long getEvicted()
+   {
+      return evicted.get();
+   }
+
+   @Override
+   public String toString()
+   {
+      return String.format("pages=%d, bytes=%d, hits=%d, misses=%d, revalidated=%d, stored=%d, evicted=%d",
+            getSize(), getTotalBytes(), getHits(), getMisses(), getRevalidated(), getStored(), getEvicted());
+   }
+
+   /**
+    * Counts a cached page reused after the server answered 304 Not Modified.
+    */
+   void pageRevalidated()
+   {
+      revalidated.incrementAndGet();
+   }
+
+   /**
+    * Rebuilds the index from the files in the directory, least recently used first.
+    * Temporary files left by a crash are deleted.
+    * @throws IOException If unable to list the directory.
+    */
+   private void loadIndex() throws IOException
+   {
+      List<Path> paths;
+      try (Stream<Path> stream = Files.walk(dir, 2))
+      {
+         paths = stream.filter(Files::isRegularFile).collect(Collectors.toList());
+      }
+
+      Map<Path, FileTime> pages = new HashMap<>(paths.size() * 2);
+      for (Path path : paths)
+      {
+         String name = path.getFileName().toString();
+         if (name.endsWith(FILE_SUFFIX))
+            pages.put(path, Files.getLastModifiedTime(path));
+         else if (name.endsWith(".tmp"))
+            Files.deleteIfExists(path);
+      }
+
+      List<Path> sorted = new ArrayList<>(pages.keySet());
+      sorted.sort(Comparator.comparing(pages::get));
+
+      synchronized (files)
+      {
+         for (Path path : sorted)
+         {
+            String name = path.getFileName().toString();
+            long size = Files.size(path);
+            files.put(name.substring(0, name.length() - FILE_SUFFIX.length()), size);
+            totalBytes += size;
+         }
+      }
+   }
+
+   /**
+    * Deletes the least recently used pages until the total size is under the maximum.
+    * Must be called with the index locked.
+    */
+   private void evict()
+   {
+      Iterator<Map.Entry<String, Long>> iterator = files.entrySet().iterator();
+      while (totalBytes > maxBytes && iterator.hasNext())
+      {
+         Map.Entry<String, Long> entry = iterator.next();
+         iterator.remove();
+         totalBytes -= entry.getValue();
+         deleteFile(entry.getKey());
+         evicted.incrementAndGet();
+      }
+   }
+
+   /**
+    * Deletes a page from the index and the directory.
+    * @param name File name of the page.
+    */
+   private void delete(String name)
+   {
+      synchronized (files)
+      {
+         Long size = files.remove(name);
+         if (size != null)
+            totalBytes -= size;
+      }
+      deleteFile(name);
+   }
+
+   /**
+    * Deletes the file of a page.
+    * @param name File name of the page.
+    */
+   private void deleteFile(String name)
+   {
+      try
+      {
+         Files.deleteIfExists(filePath(name));
+      }
+      catch (IOException ex)
+      {
+         logger.debug("Unable to delete cached page {}.", name, ex);
+      }
+   }
+
+   /**
+    * Gets the path of a page file.  Files are spread over subdirectories named by the
+    * first two characters of the name, so no directory gets too large.
+    * @param name File name of the page.
+    * @return Path of the page file.
+    */
+   private Path filePath(String name)
+   {
+      return dir.resolve(name.substring(0, 2)).resolve(name + FILE_SUFFIX);
+   }
+
+   /**
+    * Gets the file name of a URL.
+    * @param url URL that was requested.
+    * @return SHA-1 hash of the URL in hex.
+    */
+   private static String fileName(String url)
+   {
+      if (url == null)
+         throw new IllegalArgumentException("Null URL.");
+
+      return ContentHash.of(url.getBytes(StandardCharsets.UTF_8));
+   }
+
+   /**
+    * Serializes a page.
+    * @param page Page to write.
+    * @return Page bytes.
+    * @throws IOException If a string is too long to write.
+    */
+   private static byte[] write(CachedPage page) throws IOException
+   {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024);
+      try (DataOutputStream out = new DataOutputStream(bytes))
+      {
+         PageDetails details = page.getDetails();
+         out.writeInt(FORMAT_VERSION);
+         out.writeUTF(page.getUrl());
+         writeString(out, page.getEtag());
+         writeString(out, page.getLastModified());
+         writeString(out, details.getContentHash());
+         writeString(out, details.getTitle());
+         writeLinks(out, details.getImports());
+         writeLinks(out, details.getMedia());
+         writeLinks(out, details.getLinks());
+      }
+      return bytes.toByteArray();
+   }
+
+   /**
+    * Deserializes a page.
+    * @param bytes Page bytes.
+    * @return Cached page.
+    * @throws IOException If the bytes are not a page.
+    */
+   private static CachedPage read(byte[] bytes) throws IOException
+   {
+      try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes)))
+      {
+         int version = in.readInt();
+         if (version != FORMAT_VERSION)
+            throw new IOException(String.format("Unknown cache format: %d", version));
+
+         String url = in.readUTF();
+         String etag = readString(in);
+         String lastModified = readString(in);
+
+         PageDetails details = new PageDetails();
+         details.setContentHash(readString(in));
+         details.setTitle(readString(in));
+         details.setImports(readLinks(in));
+         details.setMedia(readLinks(in));
+         details.setLinks(readLinks(in));
+         return new CachedPage(url, etag, lastModified, details);
+      }
+   }
+
+   private static void writeString(DataOutputStream out, String value) throws IOException
+   {
+      out.writeBoolean(value != null);
+      if (value != null)
+         out.writeUTF(value);
+   }
+
+   private static String readString(DataInputStream in) throws IOException
+   {
+      return (in.readBoolean() ? in.readUTF() : null);
+   }
+
+   private static void writeLinks(DataOutputStream out, Set<LinkDetails> links) throws IOException
+   {
+      out.writeInt(links != null ? links.size() : -1);
+      if (links != null)
+      {
+         for (LinkDetails link : links)
+         {
+            out.writeUTF(link.getTag());
+            out.writeUTF(link.getUrl());
+         }
+      }
+   }
+
+   private static Set<LinkDetails> readLinks(DataInputStream in) throws IOException
+   {
+      int count = in.readInt();
+      if (count < 0)
+         return null;
+
+      Set<LinkDetails> links = new LinkedHashSet<>(count);
+      for (int i = 0; i < count; ++i)
+         links.add(new LinkDetails(in.readUTF(), in.readUTF()));
+      return links;
+   }
+}
@@ -12,6 +12,11 @@ import lombok.Setter;
 public class PageDetails
 {
    private String loadError;
+   private SkipReason skipReason;
+   private String skipMessage;
+   private String contentHash;    // Hash of the page body.  Null if the page was not downloaded.
+   private boolean throttled;     // Server answered 429 Too Many Requests or 503 Service Unavailable.
+   private long retryAfterMillis; // Delay asked for by the Retry-After header of a throttled page.  0 if none.
    private String title;
    private Set<LinkDetails> imports;
    private Set<LinkDetails> media;
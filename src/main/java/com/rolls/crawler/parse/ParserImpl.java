@@ -1,7 +1,13 @@
 package com.rolls.crawler.parse;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.LinkedHashSet;
 import java.util.Set;
+import java.util.function.Consumer;
+import org.jsoup.Connection;
+import org.jsoup.HttpStatusException;
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
@@ -9,11 +15,16 @@ import org.jsoup.select.Elements;
 
 /**
  * Implementation of web page parser.  Reads imports (HTML link tag), links (HTML a tag),
- * and media (HTML tags that contain src attribute).
+ * and media (HTML tags that contain src attribute).  Also reads robots.txt files and
+ * sitemaps, which are always downloaded with a Jsoup connection.
  */
-public class ParserImpl implements Parser
+public class ParserImpl implements StagedParser, SitemapParser
 {
    private final int timeoutMillis;
+   private boolean streamingExtract = false;
+   private boolean hashContent = false;
+   private ContentLimits contentLimits = new ContentLimits();
+   private PageCache pageCache = null;
 
    /**
     * Constructs a new parser.
@@ -24,19 +35,256 @@ public class ParserImpl implements Parser
       this.timeoutMillis = (timeoutMillis >= 0 ? timeoutMillis: 0);
    }
 
+   /**
+    * Sets if pages are parsed by scanning them for links instead of building a Jsoup
+    * document.  The page details are the same, with less time and memory per page.
+    * @param streamingExtract True to scan pages for links.
+    */
+   public void setStreamingExtract(boolean streamingExtract)
+   {
+      this.streamingExtract = streamingExtract;
+   }
+
+   /**
+    * Gets if pages are parsed by scanning them for links instead of building a Jsoup document.
+    * @return True if pages are scanned for links.
+    */
+   public boolean isStreamingExtract()
+   {
+      return streamingExtract;
+   }
+
+   /**
+    * Sets if a hash of each page body is kept, to tell if the page changed since an
+    * earlier crawl.  Only a recrawl and the page cache use the hash, so it is off by
+    * default and pages are not hashed for nothing.
+    * @param hashContent True to hash page bodies.
+    */
+   public void setHashContent(boolean hashContent)
+   {
+      this.hashContent = hashContent;
+   }
+
+   /**
+    * Gets if a hash of each page body is kept.
+    * @return True if page bodies are hashed.
+    */
+   public boolean isHashContent()
+   {
+      return hashContent;
+   }
+
+   /**
+    * Sets the content types that are downloaded and the maximum body size of each.
+    * Other pages are skipped without reading their body.
+    * @param contentLimits Content limits.
+    */
+   public void setContentLimits(ContentLimits contentLimits)
+   {
+      if (contentLimits == null)
+         throw new IllegalArgumentException("Null content limits.");
+
+      this.contentLimits = contentLimits;
+   }
+
+   /**
+    * Gets the content types that are downloaded and the maximum body size of each.
+    * @return Content limits.
+    */
+   public ContentLimits getContentLimits()
+   {
+      return contentLimits;
+   }
+
+   /**
+    * Sets the cache of extracted pages.  A cached page is requested with its validators,
+    * and its details are reused if the server answers 304 Not Modified.  Pages whose
+    * response has an ETag or Last-Modified header are added to the cache.
+    * @param pageCache Page cache.  Null means no cache.
+    */
+   public void setPageCache(PageCache pageCache)
+   {
+      this.pageCache = pageCache;
+   }
+
+   /**
+    * Gets the cache of extracted pages.
+    * @return Page cache or null if none.
+    */
+   public PageCache getPageCache()
+   {
+      return pageCache;
+   }
+
    @Override
-   public PageDetails parse(String url)
+   public FetchedPage fetch(String url)
+   {
+      FetchedPage page = new FetchedPage();
+      page.setUrl(url);
+
+      try
+      {
+         // The body is read after the headers are checked, and one byte past the limit shows it is too large.
+         ContentLimits limits = contentLimits;
+         // Error statuses are checked here, so the Retry-After header of a throttled page can be read.
+         Connection connection = Jsoup.connect(url).followRedirects(true).timeout(timeoutMillis)
+               .ignoreContentType(true).ignoreHttpErrors(true).maxBodySize((int)Math.min(limits.getLargestMaxBytes() + 1L, Integer.MAX_VALUE));
+
+         CachedPage cached = getCachedPage(url);
+         if (cached != null && cached.getEtag() != null)
+            connection.header("If-None-Match", cached.getEtag());
+         if (cached != null && cached.getLastModified() != null)
+            connection.header("If-Modified-Since", cached.getLastModified());
+
+         // Jsoup does not time the DNS lookup and connect apart from the first byte.
+         long startNanos = System.nanoTime();
+         Connection.Response response = connection.execute();
+         long headersNanos = System.nanoTime();
+         page.setFirstByteNanos(headersNanos - startNanos);
+         if (response.statusCode() < 200 || response.statusCode() >= 400)
+         {
+            // Same error as Jsoup raises itself.
+            ResponseChecks.checkThrottled(page, response.statusCode(), response.header("Retry-After"));
+            response.bodyStream().close();
+            throw new HttpStatusException("HTTP error fetching URL", response.statusCode(), response.url().toExternalForm());
+         }
+         page.setLocation(response.url().toExternalForm());
+         page.setStatusCode(response.statusCode());
+
+         String contentType = response.contentType();
+         if (ResponseChecks.notModified(page, cached, response.statusCode()) ||
+               ResponseChecks.skipHeaders(page, limits, contentType, ResponseChecks.getContentLength(response.header("Content-Length"))))
+            response.bodyStream().close();
+         else
+         {
+            byte[] body = response.bodyAsBytes();
+            page.setDownloadNanos(System.nanoTime() - headersNanos);
+            if (!ResponseChecks.skipBody(page, limits, contentType, body.length))
+            {
+               page.setContentType(contentType);
+               page.setCharset(response.charset());
+               page.setEtag(response.header("ETag"));
+               page.setLastModified(response.header("Last-Modified"));
+               page.setBody(body);
+               if (hashContent)
+                  page.setContentHash(ContentHash.of(body));
+            }
+         }
+      }
+      catch (Exception ex)
+      {
+         page.setLoadError(String.format("Unable to load %s.  CAUSE: %s", url, ex.toString()));
+      }
+
+      return page;
+   }
+
+   @Override
+   public PageDetails extract(FetchedPage page)
+   {
+      if (page.getCachedDetails() != null)
+      {
+         if (pageCache != null)
+            pageCache.pageRevalidated();
+         return page.getCachedDetails();
+      }
+
+      PageDetails details = (streamingExtract ? LinkTokenizer.extract(page) : extractDocument(page));
+      if (details.getLoadError() == null && details.getSkipReason() == null)
+         details.setContentHash(page.getContentHash());
+      details.setThrottled(page.isThrottled());
+      details.setRetryAfterMillis(page.getRetryAfterMillis());
+      if (pageCache != null && details.getLoadError() == null && details.getSkipReason() == null &&
+            (page.getEtag() != null || page.getLastModified() != null))
+         pageCache.put(new CachedPage(page.getUrl(), page.getEtag(), page.getLastModified(), details));
+
+      return details;
+   }
+
+   @Override
+   public RobotsDetails parseRobots(String url) throws IOException
+   {
+      try (InputStream in = openStream(url))
+      {
+         return SitemapReader.readRobots(in, url);
+      }
+      catch (HttpStatusException ex)
+      {
+         // A missing robots.txt means the site has no rules.
+         if (ex.getStatusCode() >= 400 && ex.getStatusCode() < 500)
+            return new RobotsDetails();
+         throw ex;
+      }
+   }
+
+   @Override
+   public void parseSitemap(String url, Consumer<String> pages, Consumer<String> sitemaps) throws IOException
+   {
+      try (InputStream in = openStream(url))
+      {
+         SitemapReader.readSitemap(in, pages, sitemaps);
+      }
+   }
+
+   /**
+    * Opens the body of a file to read as it is downloaded.  The timeout covers the whole
+    * download, so a file gets at least the sitemap timeout.
+    * @param url URL to the file.
+    * @return Stream of the body.
+    * @throws IOException If the file could not be loaded.
+    */
+   private InputStream openStream(String url) throws IOException
+   {
+      int timeout = (timeoutMillis > 0 ? Math.max(timeoutMillis, SitemapReader.MIN_TIMEOUT_MILLIS) : 0);
+      Connection.Response response = Jsoup.connect(url).followRedirects(true).timeout(timeout)
+            .ignoreContentType(true).ignoreHttpErrors(true).maxBodySize(SitemapReader.MAX_SITEMAP_BYTES).execute();
+      if (response.statusCode() < 200 || response.statusCode() >= 400)
+      {
+         response.bodyStream().close();
+         throw new HttpStatusException("HTTP error fetching URL", response.statusCode(), response.url().toExternalForm());
+      }
+      return response.bodyStream();
+   }
+
+   /**
+    * Gets the cached page of a URL, to request it with its validators.
+    * @param url URL to request.
+    * @return Cached page or null if none.
+    */
+   CachedPage getCachedPage(String url)
+   {
+      return (pageCache != null ? pageCache.get(url) : null);
+   }
+
+   /**
+    * Parses a downloaded web page into a Jsoup document and selects its links.
+    * @param page Fetched page.
+    * @return Page details.
+    */
+   private PageDetails extractDocument(FetchedPage page)
    {
       PageDetails details = new PageDetails();
+      if (page.getLoadError() != null)
+      {
+         details.setLoadError(page.getLoadError());
+         return details;
+      }
+
+      if (page.getSkipReason() != null)
+      {
+         details.setSkipReason(page.getSkipReason());
+         details.setSkipMessage(page.getSkipMessage());
+         return details;
+      }
 
       Document doc;
       try
       {
-         doc = Jsoup.connect(url).followRedirects(true).timeout(timeoutMillis).get();
+         doc = Jsoup.parse(new ByteArrayInputStream(page.getBody()), page.getCharset(), page.getLocation());
       }
       catch (Exception ex)
       {
-         details.setLoadError(String.format("Unable to load %s.  CAUSE: %s", url, ex.toString()));
+         details.setLoadError(String.format("Unable to load %s.  CAUSE: %s", page.getUrl(), ex.toString()));
          return details;
       }
 
@@ -0,0 +1,53 @@
+package com.rolls.crawler.parse;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Transport of an HTTP exchange without encryption.
+ */
+class PlainTransport implements NioTransport
+{
+   private final SocketChannel channel;
+
+   /**
+    * Constructs a new plain transport.
+    * @param channel Connected socket channel.
+    */
+   public PlainTransport(SocketChannel channel)
+   {
+      this.channel = channel;
+   }
+
+   @Override
+   public boolean handshake()
+   {
+      return true;
+   }
+
+   @Override
+   public boolean write(ByteBuffer src) throws IOException
+   {
+      channel.write(src);
+      return !src.hasRemaining();
+   }
+
+   @Override
+   public int read(ByteBuffer dst) throws IOException
+   {
+      return channel.read(dst);
+   }
+
+   @Override
+   public boolean isWritePending()
+   {
+      return false;
+   }
+
+   @Override
+   public void close() throws IOException
+   {
+      channel.close();
+   }
+}
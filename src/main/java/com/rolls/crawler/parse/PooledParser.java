@@ -0,0 +1,281 @@
+package com.rolls.crawler.parse;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+import org.jsoup.helper.HttpConnection;
+import okhttp3.Call;
+import okhttp3.Connection;
+import okhttp3.ConnectionPool;
+import okhttp3.EventListener;
+import okhttp3.Handshake;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.BufferedSource;
+
+/**
+ * Web page parser that keeps connections open between pages.  Connections are pooled
+ * per host and reused by later pages on the same host, so the TCP and TLS handshakes
+ * are paid once per connection instead of once per page.  New TLS connections resume
+ * the JVM's cached session for the host when the server allows it.  HTTP/2 is used
+ * when the server offers it, and then concurrent pages on a host share one connection.
+ * Pages are parsed the same way as ParserImpl.
+ */
+public class PooledParser extends ParserImpl implements Closeable
+{
+   /**
+    * Default maximum number of idle connections kept in the pool.
+    */
+   public final static int DEFAULT_MAX_IDLE_CONNECTIONS = 100;
+
+   private final static long KEEP_ALIVE_MINUTES = 5;
+
+   private final OkHttpClient client;
+   private final ConnectionMetrics metrics = new ConnectionMetrics();
+
+   /**
+    * Constructs a new parser that trusts the JVM's default certificates.
+    * @param timeoutMillis Timeout for a page to download.  Value <= 0 means no timeout.
+    * @param maxIdleConnections Maximum number of idle connections kept.  Value < 1 means the default.
+    * @param http2 True to use HTTP/2 when the server offers it.
+    */
+   public PooledParser(int timeoutMillis, int maxIdleConnections, boolean http2)
+   {
+      this(timeoutMillis, maxIdleConnections, http2, null);
+   }
+
+   /**
+    * Constructs a new parser.
+    * @param timeoutMillis Timeout for a page to download.  Value <= 0 means no timeout.
+    * @param maxIdleConnections Maximum number of idle connections kept.  Value < 1 means the default.
+    * @param http2 True to use HTTP/2 when the server offers it.
+    * @param trustManager Trust manager of HTTPS connections.  Null means the JVM default.
+    */
+   public PooledParser(int timeoutMillis, int maxIdleConnections, boolean http2, X509TrustManager trustManager)
+   {
+      super(timeoutMillis);
+
+      long timeout = Math.max(timeoutMillis, 0);
+      OkHttpClient.Builder builder = new OkHttpClient.Builder()
+            .connectionPool(new ConnectionPool(maxIdleConnections > 0 ? maxIdleConnections : DEFAULT_MAX_IDLE_CONNECTIONS,
+                  KEEP_ALIVE_MINUTES, TimeUnit.MINUTES))
+            .protocols(http2 ? Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1) : Collections.singletonList(Protocol.HTTP_1_1))
+            .followRedirects(true)
+            .followSslRedirects(true)
+            .connectTimeout(timeout, TimeUnit.MILLISECONDS)
+            .readTimeout(timeout, TimeUnit.MILLISECONDS)
+            .writeTimeout(timeout, TimeUnit.MILLISECONDS)
+            .callTimeout(timeout, TimeUnit.MILLISECONDS)
+            .eventListenerFactory((call) -> new MetricsListener(call.request().tag(FetchedPage.class)));
+
+      if (trustManager != null)
+      {
+         try
+         {
+            SSLContext sslContext = SSLContext.getInstance("TLS");
+            sslContext.init(null, new TrustManager[] {trustManager}, null);
+            builder.sslSocketFactory(sslContext.getSocketFactory(), trustManager);
+         }
+         catch (GeneralSecurityException ex)
+         {
+            throw new RuntimeException("Unable to create SSL context.", ex);
+         }
+      }
+
+      this.client = builder.build();
+   }
+
+   @Override
+   public FetchedPage fetch(String url)
+   {
+      FetchedPage page = new FetchedPage();
+      page.setUrl(url);
+
+      try
+      {
+         Request.Builder request = new Request.Builder()
+               .url(url)
+               .header("User-Agent", HttpConnection.DEFAULT_UA)
+               .header("Accept", "text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8")
+               .tag(FetchedPage.class, page);
+
+         CachedPage cached = getCachedPage(url);
+         if (cached != null && cached.getEtag() != null)
+            request.header("If-None-Match", cached.getEtag());
+         if (cached != null && cached.getLastModified() != null)
+            request.header("If-Modified-Since", cached.getLastModified());
+
+         try (Response response = client.newCall(request.build()).execute())
+         {
+            long headersNanos = System.nanoTime();
+            ResponseChecks.checkStatus(page, response.code(), response.header("Retry-After"), response.request().url());
+            page.setLocation(response.request().url().toString());
+            page.setStatusCode(response.code());
+
+            // Closing a response with an unread body drops its connection instead of reading the rest.
+            ContentLimits limits = getContentLimits();
+            String contentType = response.header("Content-Type");
+            ResponseBody body = response.body();
+            if (!ResponseChecks.notModified(page, cached, response.code()) &&
+                  !ResponseChecks.skipHeaders(page, limits, contentType, (body != null ? body.contentLength() : -1)))
+            {
+               byte[] bytes = readBody(body, limits.getMaxBytes(contentType) + 1L);
+               page.setDownloadNanos(System.nanoTime() - headersNanos);
+               if (!ResponseChecks.skipBody(page, limits, contentType, bytes.length))
+               {
+                  page.setContentType(contentType);
+                  page.setCharset(ResponseChecks.getCharset(contentType));
+                  page.setEtag(response.header("ETag"));
+                  page.setLastModified(response.header("Last-Modified"));
+                  page.setBody(bytes);
+                  if (isHashContent())
+                     page.setContentHash(ContentHash.of(bytes));
+               }
+            }
+         }
+      }
+      catch (Exception ex)
+      {
+         page.setLoadError(String.format("Unable to load %s.  CAUSE: %s", url, ex.toString()));
+      }
+
+      return page;
+   }
+
+   /**
+    * Gets the connection counters.
+    * @return Connection metrics.
+    */
+   public ConnectionMetrics getMetrics()
+   {
+      return metrics;
+   }
+
+   /**
+    * Closes the pooled connections.
+    */
+   @Override
+   public void close()
+   {
+      client.dispatcher().executorService().shutdown();
+      client.connectionPool().evictAll();
+   }
+
+   /**
+    * Reads a response body up to a maximum size.  A truncated body leaves the rest
+    * unread, so the connection is closed instead of going back to the pool.
+    * @param body Response body.  May be null.
+    * @param maxBytes Maximum number of bytes read.
+    * @return Body bytes.
+    * @throws IOException If unable to read.
+    */
+   private static byte[] readBody(ResponseBody body, long maxBytes) throws IOException
+   {
+      if (body == null)
+         return new byte[0];
+
+      BufferedSource source = body.source();
+      Buffer buffer = new Buffer();
+      while (buffer.size() < maxBytes && source.read(buffer, maxBytes - buffer.size()) != -1)
+      {
+         // Keep reading.
+      }
+      return buffer.readByteArray();
+   }
+
+   /**
+    * Counts the connections and handshakes of one call.  A connection is opened for
+    * a request when a connect starts before it is acquired; otherwise it came from the pool.
+    * Also times the DNS lookups, connects, and first bytes of the call's page, adding up
+    * those of its redirects.
+    */
+   private class MetricsListener extends EventListener
+   {
+      private final FetchedPage page;
+      private boolean connecting = false;
+      private long handshakeStart;
+      private long dnsStart;
+      private long connectStart;
+      private long requestStart;
+
+      public MetricsListener(FetchedPage page)
+      {
+         this.page = page;
+      }
+
+      @Override
+      public void dnsStart(Call call, String domainName)
+      {
+         dnsStart = System.nanoTime();
+      }
+
+      @Override
+      public void dnsEnd(Call call, String domainName, List<InetAddress> inetAddressList)
+      {
+         if (page != null)
+            page.setDnsNanos(page.getDnsNanos() + System.nanoTime() - dnsStart);
+      }
+
+      @Override
+      public void requestHeadersStart(Call call)
+      {
+         metrics.requestSent();
+         requestStart = System.nanoTime();
+      }
+
+      @Override
+      public void responseHeadersEnd(Call call, Response response)
+      {
+         // The start event comes before the headers are read, so it does not wait for the server.
+         if (page != null)
+            page.setFirstByteNanos(page.getFirstByteNanos() + System.nanoTime() - requestStart);
+      }
+
+      @Override
+      public void connectStart(Call call, InetSocketAddress inetSocketAddress, Proxy proxy)
+      {
+         connecting = true;
+         connectStart = System.nanoTime();
+      }
+
+      @Override
+      public void connectEnd(Call call, InetSocketAddress inetSocketAddress, Proxy proxy, Protocol protocol)
+      {
+         if (page != null)
+            page.setConnectNanos(page.getConnectNanos() + System.nanoTime() - connectStart);
+      }
+
+      @Override
+      public void secureConnectStart(Call call)
+      {
+         handshakeStart = System.nanoTime();
+      }
+
+      @Override
+      public void secureConnectEnd(Call call, Handshake handshake)
+      {
+         metrics.handshakeCompleted(System.nanoTime() - handshakeStart);
+      }
+
+      @Override
+      public void connectionAcquired(Call call, Connection connection)
+      {
+         metrics.connectionAcquired(connecting, connection.protocol() == Protocol.HTTP_2);
+         connecting = false;
+      }
+   }
+}
@@ -0,0 +1,227 @@
+package com.rolls.crawler.parse;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Response checks shared by the code that downloads or decodes pages.  Like the Jsoup
+ * connection used by ParserImpl, error statuses are load errors, with the same messages.
+ * Content types that are not crawled and bodies that are too large are skipped.
+ */
+final class ResponseChecks
+{
+   private final static Pattern charsetPattern = Pattern.compile("(?i)\\bcharset=\\s*(?:[\"'])?([^\\s,;\"']*)");
+
+   private ResponseChecks()
+   {
+   }
+
+   /**
+    * Checks the status of a final response.
+    * @param statusCode Response status code.
+    * @param url URL of the response.
+    * @throws IOException If the response is an error.
+    */
+   public static void checkStatus(int statusCode, Object url) throws IOException
+   {
+      if (statusCode < 200 || statusCode >= 400)
+         throw new IOException(String.format("HTTP error fetching URL. Status=%d, URL=%s", statusCode, url));
+   }
+
+   /**
+    * Checks the status of a final response.  If the server is throttling requests, the
+    * page is marked as throttled with the delay of its Retry-After header first, so the
+    * crawler can back off the host and try the page again.
+    * @param page Page to fill in.
+    * @param statusCode Response status code.
+    * @param retryAfter Retry-After header.  May be null.
+    * @param url URL of the response.
+    * @throws IOException If the response is an error.
+    */
+   public static void checkStatus(FetchedPage page, int statusCode, String retryAfter, Object url) throws IOException
+   {
+      checkThrottled(page, statusCode, retryAfter);
+      checkStatus(statusCode, url);
+   }
+
+   /**
+    * Marks a page as throttled if the server answered 429 Too Many Requests or
+    * 503 Service Unavailable.
+    * @param page Page to fill in.
+    * @param statusCode Response status code.
+    * @param retryAfter Retry-After header.  May be null.
+    * @return True if the page is throttled.
+    */
+   public static boolean checkThrottled(FetchedPage page, int statusCode, String retryAfter)
+   {
+      if (statusCode != 429 && statusCode != 503)
+         return false;
+
+      page.setThrottled(true);
+      page.setRetryAfterMillis(getRetryAfterMillis(retryAfter, System.currentTimeMillis()));
+      return true;
+   }
+
+   /**
+    * Completes a page from the page cache if the server answered a conditional request
+    * with 304 Not Modified.
+    * @param page Page to fill in.
+    * @param cached Cached page whose validators were sent.  Null if the request was not conditional.
+    * @param statusCode Response status code.
+    * @return True if the cached page is reused.
+    */
+   public static boolean notModified(FetchedPage page, CachedPage cached, int statusCode)
+   {
+      if (statusCode != 304 || cached == null)
+         return false;
+
+      page.setCachedDetails(cached.getDetails());
+      page.setContentHash(cached.getDetails().getContentHash());
+      return true;
+   }
+
+   /**
+    * Checks the headers of a final response against the content limits, before the body
+    * is read.  A skipped page gets its content type and skip reason.
+    * @param page Page to fill in.
+    * @param limits Content limits.
+    * @param contentType Content type header.  May be null.
+    * @param contentLength Content length from the headers.  Value < 0 means not known.
+    * @return True if the page is skipped.
+    */
+   public static boolean skipHeaders(FetchedPage page, ContentLimits limits, String contentType, long contentLength)
+   {
+      SkipReason reason = limits.check(contentType, contentLength);
+      if (reason != null)
+         skip(page, reason, limits, contentType);
+      return (reason != null);
+   }
+
+   /**
+    * Checks the size of a body that was read up to one byte more than its limit.
+    * @param page Page to fill in.
+    * @param limits Content limits.
+    * @param contentType Content type header.  May be null.
+    * @param bodyLength Number of body bytes read.
+    * @return True if the page is skipped.
+    */
+   public static boolean skipBody(FetchedPage page, ContentLimits limits, String contentType, long bodyLength)
+   {
+      boolean tooLarge = (bodyLength > limits.getMaxBytes(contentType));
+      if (tooLarge)
+         skip(page, SkipReason.TOO_LARGE, limits, contentType);
+      return tooLarge;
+   }
+
+   /**
+    * Gets the content length header as a number.
+    * @param contentLength Content length header.  May be null.
+    * @return Content length or -1 if missing or not valid.
+    */
+   public static long getContentLength(String contentLength)
+   {
+      if (contentLength == null)
+         return -1;
+
+      try
+      {
+         return Long.parseLong(contentLength.trim());
+      }
+      catch (NumberFormatException ex)
+      {
+         return -1;
+      }
+   }
+
+   /**
+    * Gets the delay of a Retry-After header, which is either a number of seconds or an HTTP date.
+    * @param retryAfter Retry-After header.  May be null.
+    * @param nowMillis Current time, in milliseconds, to measure a date from.
+    * @return Delay in milliseconds or 0 if missing, not valid, or in the past.
+    */
+   public static long getRetryAfterMillis(String retryAfter, long nowMillis)
+   {
+      if (retryAfter == null || retryAfter.trim().isEmpty())
+         return 0;
+
+      retryAfter = retryAfter.trim();
+      try
+      {
+         if (Character.isDigit(retryAfter.charAt(0)))
+            return Math.multiplyExact(Long.parseLong(retryAfter), 1000L);
+
+         long date = ZonedDateTime.parse(retryAfter, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+         return Math.max(date - nowMillis, 0);
+      }
+      catch (NumberFormatException | ArithmeticException | DateTimeParseException ex)
+      {
+         return 0;
+      }
+   }
+
+   /**
+    * Gets a supported charset from a content type.
+    * @param contentType Content type header.
+    * @return Charset name or null if none or not supported.
+    */
+   public static String getCharset(String contentType)
+   {
+      if (contentType == null)
+         return null;
+
+      Matcher matcher = charsetPattern.matcher(contentType);
+      if (!matcher.find())
+         return null;
+
+      return validateCharset(matcher.group(1).trim().replace("charset=", ""));
+   }
+
+   /**
+    * Checks a charset name the way Jsoup does.  Quotes are removed and an unknown name
+    * is tried again in upper case.
+    * @param charset Charset name.  May be null.
+    * @return Supported charset name or null if empty or not supported.
+    */
+   public static String validateCharset(String charset)
+   {
+      if (charset == null || charset.isEmpty())
+         return null;
+
+      charset = charset.trim().replaceAll("[\"']", "");
+      try
+      {
+         if (Charset.isSupported(charset))
+            return charset;
+
+         charset = charset.toUpperCase(Locale.ENGLISH);
+         return (Charset.isSupported(charset) ? charset : null);
+      }
+      catch (IllegalArgumentException ex)
+      {
+         return null;
+      }
+   }
+
+   /**
+    * Marks a page as skipped.
+    * @param page Page to fill in.
+    * @param reason Reason the page is skipped.
+    * @param limits Content limits.
+    * @param contentType Content type header.  May be null.
+    */
+   private static void skip(FetchedPage page, SkipReason reason, ContentLimits limits, String contentType)
+   {
+      page.setContentType(contentType);
+      page.setSkipReason(reason);
+      if (reason == SkipReason.CONTENT_TYPE)
+         page.setSkipMessage(String.format("Content type %s is not crawled.", contentType));
+      else
+         page.setSkipMessage(String.format("Body is larger than the %d byte limit of its content type.", limits.getMaxBytes(contentType)));
+   }
+}
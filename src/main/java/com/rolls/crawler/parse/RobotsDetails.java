@@ -0,0 +1,17 @@
+package com.rolls.crawler.parse;
+
+import java.util.ArrayList;
+import java.util.List;
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * Information from a site's robots.txt file.
+ */
+@Getter
+@Setter
+public class RobotsDetails
+{
+   private List<String> sitemaps = new ArrayList<>(); // Absolute URLs of the sitemaps declared.
+   private long crawlDelayMillis;                     // Crawl-delay asked of every user agent.  0 if none.
+}
@@ -0,0 +1,29 @@
+package com.rolls.crawler.parse;
+
+import java.io.IOException;
+import java.util.function.Consumer;
+
+/**
+ * Reads the robots.txt and sitemaps of a site, so its pages can be found
+ * without following links from page to page.
+ */
+public interface SitemapParser
+{
+   /**
+    * Loads a robots.txt file.
+    * @param url URL to the robots.txt file.
+    * @return Robots details.  Empty if the site has no robots.txt.  Never null.
+    * @throws IOException If the file could not be loaded.
+    */
+   public RobotsDetails parseRobots(String url) throws IOException;
+
+   /**
+    * Loads a sitemap or sitemap index, which may be gzip compressed.  The sitemap is
+    * parsed as it is downloaded and each URL is handed on as soon as it is read.
+    * @param url URL to the sitemap.
+    * @param pages Called with the URL of each page in a sitemap.
+    * @param sitemaps Called with the URL of each sitemap in a sitemap index.
+    * @throws IOException If the sitemap could not be loaded.
+    */
+   public void parseSitemap(String url, Consumer<String> pages, Consumer<String> sitemaps) throws IOException;
+}
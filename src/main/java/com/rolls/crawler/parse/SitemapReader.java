@@ -0,0 +1,270 @@
+package com.rolls.crawler.parse;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Reads robots.txt files and sitemaps as they are downloaded.  Sitemaps are read with
+ * a streaming XML parser, so a large sitemap is never held in memory.  A gzip
+ * compressed sitemap is found by its magic number rather than its name or headers,
+ * and a sitemap that is not XML is read as a text sitemap with one URL per line.
+ */
+final class SitemapReader
+{
+   /**
+    * Maximum size of a sitemap, in bytes, as downloaded.
+    */
+   public final static int MAX_SITEMAP_BYTES = 50 * 1024 * 1024;
+
+   /**
+    * Minimum time, in milliseconds, to download a robots.txt file or sitemap.
+    */
+   public final static int MIN_TIMEOUT_MILLIS = 60000;
+
+   private final static XMLInputFactory xmlFactory = createXmlFactory();
+
+   private SitemapReader()
+   {
+   }
+
+   /**
+    * Reads a robots.txt file.  Only the Crawl-delay of the group for every user
+    * agent is kept.  Sitemaps are declared outside of the groups.
+    * @param in Stream of the file.
+    * @param url URL of the file, which relative sitemap URLs are resolved against.
+    * @return Robots details.
+    * @throws IOException If the stream could not be read.
+    */
+   public static RobotsDetails readRobots(InputStream in, String url) throws IOException
+   {
+      RobotsDetails details = new RobotsDetails();
+      BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+
+      boolean inAgents = false;
+      boolean everyAgent = false;
+      String line;
+      while ((line = reader.readLine()) != null)
+      {
+         int comment = line.indexOf('#');
+         if (comment >= 0)
+            line = line.substring(0, comment);
+
+         int colon = line.indexOf(':');
+         if (colon < 0)
+            continue;
+
+         String field = line.substring(0, colon).trim().toLowerCase(Locale.ROOT);
+         String value = line.substring(colon + 1).trim();
+         if (field.equals("user-agent"))
+         {
+            // A group starts with one or more User-agent lines.
+            if (!inAgents)
+               everyAgent = false;
+            everyAgent |= value.equals("*");
+            inAgents = true;
+            continue;
+         }
+         inAgents = false;
+
+         if (field.equals("sitemap"))
+         {
+            String sitemapUrl = resolve(url, value);
+            if (sitemapUrl != null && !details.getSitemaps().contains(sitemapUrl))
+               details.getSitemaps().add(sitemapUrl);
+         }
+         else if (field.equals("crawl-delay") && everyAgent)
+         {
+            try
+            {
+               details.setCrawlDelayMillis(Math.max((long)(Double.parseDouble(value) * 1000), 0));
+            }
+            catch (NumberFormatException ex)
+            {
+               // Ignore an invalid delay, as crawlers do.
+            }
+         }
+      }
+
+      return details;
+   }
+
+   /**
+    * Reads a sitemap or sitemap index.
+    * @param in Stream of the sitemap, which may be gzip compressed.
+    * @param pages Called with the URL of each page in a sitemap.
+    * @param sitemaps Called with the URL of each sitemap in a sitemap index.
+    * @throws IOException If the stream could not be read or is not a sitemap.
+    */
+   public static void readSitemap(InputStream in, Consumer<String> pages, Consumer<String> sitemaps) throws IOException
+   {
+      in = decompress(in);
+      if (isXml(in))
+         readXml(in, pages, sitemaps);
+      else
+         readText(in, pages);
+   }
+
+   /**
+    * Reads an XML sitemap.  The loc of a url element is a page and the loc of a
+    * sitemap element is a sitemap.  Namespaces are ignored.
+    * @param in Stream of the sitemap.
+    * @param pages Called with the URL of each page.
+    * @param sitemaps Called with the URL of each sitemap.
+    * @throws IOException If the stream could not be read or is not XML.
+    */
+   private static void readXml(InputStream in, Consumer<String> pages, Consumer<String> sitemaps) throws IOException
+   {
+      XMLStreamReader reader = null;
+      try
+      {
+         reader = xmlFactory.createXMLStreamReader(in);
+
+         String parent = null;
+         while (reader.hasNext())
+         {
+            if (reader.next() != XMLStreamConstants.START_ELEMENT)
+               continue;
+
+            String name = reader.getLocalName();
+            if (name.equals("url") || name.equals("sitemap"))
+               parent = name;
+            else if (name.equals("loc") && parent != null)
+            {
+               String loc = reader.getElementText().trim();
+               if (!loc.isEmpty())
+                  (parent.equals("url") ? pages : sitemaps).accept(loc);
+               parent = null;
+            }
+         }
+      }
+      catch (XMLStreamException ex)
+      {
+         throw new IOException("Invalid sitemap.", ex);
+      }
+      finally
+      {
+         if (reader != null)
+         {
+            try
+            {
+               reader.close();
+            }
+            catch (XMLStreamException ex)
+            {
+               // Nothing more to read.
+            }
+         }
+      }
+   }
+
+   /**
+    * Reads a text sitemap, which has the URL of one page on each line.
+    * @param in Stream of the sitemap.
+    * @param pages Called with the URL of each page.
+    * @throws IOException If the stream could not be read.
+    */
+   private static void readText(InputStream in, Consumer<String> pages) throws IOException
+   {
+      BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+      String line;
+      while ((line = reader.readLine()) != null)
+      {
+         line = line.trim();
+         if (line.startsWith("http://") || line.startsWith("https://"))
+            pages.accept(line);
+      }
+   }
+
+   /**
+    * Wraps a stream that starts with the gzip magic number in a gzip stream.
+    * @param in Stream to read.
+    * @return Stream that supports mark and reset, decompressed if needed.
+    * @throws IOException If the stream could not be read.
+    */
+   private static InputStream decompress(InputStream in) throws IOException
+   {
+      in = new BufferedInputStream(in);
+      in.mark(2);
+      int first = in.read();
+      int second = in.read();
+      in.reset();
+      if (first == 0x1f && second == 0x8b)
+         in = new BufferedInputStream(new GZIPInputStream(in));
+      return in;
+   }
+
+   /**
+    * Returns if a stream is XML, which is if its first character other than white space
+    * or a byte order mark is a '<'.  The stream is left where it was.
+    * @param in Stream that supports mark and reset.
+    * @return True if XML.
+    * @throws IOException If the stream could not be read.
+    */
+   private static boolean isXml(InputStream in) throws IOException
+   {
+      in.mark(1024);
+      try
+      {
+         for (int i = 0; i < 1024; ++i)
+         {
+            int b = in.read();
+            if (b < 0)
+               return false;
+            else if (b == '<')
+               return true;
+            else if (!Character.isWhitespace(b) && b != 0xef && b != 0xbb && b != 0xbf)
+               return false;
+         }
+         return false;
+      }
+      finally
+      {
+         in.reset();
+      }
+   }
+
+   /**
+    * Resolves a URL against the URL of the file it was found in.
+    * @param base URL of the file.
+    * @param url URL found.
+    * @return Absolute URL or null if invalid.
+    */
+   private static String resolve(String base, String url)
+   {
+      try
+      {
+         return new URL(new URL(base), url).toExternalForm();
+      }
+      catch (MalformedURLException ex)
+      {
+         return null;
+      }
+   }
+
+   /**
+    * Creates the XML parser factory.  DTDs and external entities are turned off, so a
+    * sitemap cannot make the parser read other files or expand entities without limit.
+    * @return XML parser factory.
+    */
+   private static XMLInputFactory createXmlFactory()
+   {
+      XMLInputFactory factory = XMLInputFactory.newInstance();
+      factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+      factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+      factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+      return factory;
+   }
+}
@@ -0,0 +1,17 @@
+package com.rolls.crawler.parse;
+
+/**
+ * Reasons a page is not downloaded.  A skipped page is not a load error.
+ */
+public enum SkipReason
+{
+   /**
+    * The content type is not one of the types crawled, such as a PDF or an image.
+    */
+   CONTENT_TYPE,
+
+   /**
+    * The body is larger than the limit of its content type.
+    */
+   TOO_LARGE
+}
@@ -0,0 +1,28 @@
+package com.rolls.crawler.parse;
+
+/**
+ * Web page parser that separates downloading a page from parsing it,
+ * so the network and CPU work can be run on different threads.
+ */
+public interface StagedParser extends Parser
+{
+   /**
+    * Downloads a web page without parsing it.
+    * @param url URL to the page.
+    * @return Fetched page.  Never null.
+    */
+   public FetchedPage fetch(String url);
+
+   /**
+    * Parses a downloaded web page for links.
+    * @param page Fetched page.
+    * @return Page details.  Never null.
+    */
+   public PageDetails extract(FetchedPage page);
+
+   @Override
+   public default PageDetails parse(String url)
+   {
+      return extract(fetch(url));
+   }
+}
@@ -0,0 +1,289 @@
+package com.rolls.crawler.parse;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLEngineResult.HandshakeStatus;
+import javax.net.ssl.SSLException;
+
+/**
+ * Transport of an HTTPS exchange.  Drives an SSL engine over a non-blocking channel.
+ * The engine's delegated tasks are run on the calling I/O thread; they only occur
+ * during the handshake.
+ */
+class TlsTransport implements NioTransport
+{
+   private final static ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+   private final SocketChannel channel;
+   private final SSLEngine engine;
+
+   private ByteBuffer netIn;   // Encrypted bytes read from the channel, in write mode.
+   private ByteBuffer netOut;  // Encrypted bytes waiting for the channel, in write mode.
+   private ByteBuffer appIn;   // Decrypted bytes not yet read, in write mode.
+   private boolean started = false;
+   private boolean handshakeDone = false;
+   private boolean inboundClosed = false;
+
+   /**
+    * Constructs a new TLS transport.
+    * @param channel Connected socket channel.
+    * @param engine Client mode SSL engine for the host.
+    */
+   public TlsTransport(SocketChannel channel, SSLEngine engine)
+   {
+      this.channel = channel;
+      this.engine = engine;
+
+      int packetSize = engine.getSession().getPacketBufferSize();
+      this.netIn = ByteBuffer.allocate(packetSize);
+      this.netOut = ByteBuffer.allocate(packetSize);
+      this.appIn = ByteBuffer.allocate(engine.getSession().getApplicationBufferSize());
+   }
+
+   @Override
+   public boolean handshake() throws IOException
+   {
+      if (!flush())
+         return false;
+
+      if (!started)
+      {
+         engine.beginHandshake();
+         started = true;
+      }
+
+      while (true)
+      {
+         HandshakeStatus status = engine.getHandshakeStatus();
+         switch (status)
+         {
+            case NOT_HANDSHAKING:
+            case FINISHED:
+               handshakeDone = true;
+               return true;
+
+            case NEED_TASK:
+               runTasks();
+               break;
+
+            case NEED_WRAP:
+               wrap(EMPTY);
+               if (!flush())
+                  return false;
+               break;
+
+            default:
+               // NEED_UNWRAP, or NEED_UNWRAP_AGAIN on newer JVMs.
+               if (!unwrap())
+               {
+                  int count = channel.read(netIn);
+                  if (count < 0)
+                     throw new EOFException("Connection closed during TLS handshake.");
+                  if (count == 0)
+                     return false;
+               }
+               break;
+         }
+      }
+   }
+
+   @Override
+   public boolean write(ByteBuffer src) throws IOException
+   {
+      while (src.hasRemaining())
+      {
+         if (!flush())
+            return false;
+         wrap(src);
+      }
+      return flush();
+   }
+
+   @Override
+   public int read(ByteBuffer dst) throws IOException
+   {
+      flush();
+      while (true)
+      {
+         if (appIn.position() > 0)
+            return drain(dst);
+
+         if (inboundClosed)
+            return -1;
+
+         if (unwrap())
+            continue;
+
+         int count = channel.read(netIn);
+         if (count < 0)
+         {
+            // Servers often close without a close_notify, so this is not an error here.
+            inboundClosed = true;
+         }
+         else if (count == 0)
+            return 0;
+      }
+   }
+
+   @Override
+   public boolean isWritePending()
+   {
+      return (netOut.position() > 0);
+   }
+
+   @Override
+   public void close() throws IOException
+   {
+      engine.closeOutbound();
+      channel.close();
+   }
+
+   /**
+    * Decrypts the bytes read from the channel.
+    * @return True if progress was made or false if more bytes must be read.
+    * @throws IOException If the data is invalid.
+    */
+   private boolean unwrap() throws IOException
+   {
+      netIn.flip();
+      SSLEngineResult result;
+      try
+      {
+         result = engine.unwrap(netIn, appIn);
+      }
+      finally
+      {
+         netIn.compact();
+      }
+
+      switch (result.getStatus())
+      {
+         case BUFFER_UNDERFLOW:
+            if (netIn.position() == netIn.capacity())
+               netIn = enlarge(netIn, engine.getSession().getPacketBufferSize());
+            return false;
+
+         case BUFFER_OVERFLOW:
+            appIn = enlarge(appIn, engine.getSession().getApplicationBufferSize());
+            return true;
+
+         case CLOSED:
+            inboundClosed = true;
+            return (appIn.position() > 0);
+
+         default:
+            afterOperation(result);
+            return (result.bytesConsumed() > 0 || result.bytesProduced() > 0);
+      }
+   }
+
+   /**
+    * Encrypts bytes into the outgoing buffer.
+    * @param src Bytes to encrypt.
+    * @throws IOException If unable to encrypt.
+    */
+   private void wrap(ByteBuffer src) throws IOException
+   {
+      SSLEngineResult result = engine.wrap(src, netOut);
+      switch (result.getStatus())
+      {
+         case BUFFER_OVERFLOW:
+            netOut = enlarge(netOut, engine.getSession().getPacketBufferSize());
+            break;
+
+         case CLOSED:
+            throw new SSLException("TLS connection closed.");
+
+         default:
+            afterOperation(result);
+            break;
+      }
+   }
+
+   /**
+    * Handles the handshake work an operation asks for.  After the initial handshake,
+    * the server may still send handshake messages, such as a key update, that need
+    * an answer.
+    * @param result Result of the last engine operation.
+    * @throws IOException If unable to answer.
+    */
+   private void afterOperation(SSLEngineResult result) throws IOException
+   {
+      if (result.getHandshakeStatus() == HandshakeStatus.NEED_TASK)
+         runTasks();
+
+      while (handshakeDone && engine.getHandshakeStatus() == HandshakeStatus.NEED_WRAP)
+      {
+         SSLEngineResult answer = engine.wrap(EMPTY, netOut);
+         if (answer.getStatus() != SSLEngineResult.Status.OK)
+            break;
+      }
+   }
+
+   /**
+    * Writes the outgoing buffer to the channel.
+    * @return True if the buffer is empty.
+    * @throws IOException If unable to write.
+    */
+   private boolean flush() throws IOException
+   {
+      if (netOut.position() == 0)
+         return true;
+
+      netOut.flip();
+      try
+      {
+         channel.write(netOut);
+      }
+      finally
+      {
+         netOut.compact();
+      }
+      return (netOut.position() == 0);
+   }
+
+   /**
+    * Moves decrypted bytes to the caller's buffer.
+    * @param dst Buffer to read into.
+    * @return Number of bytes moved.
+    */
+   private int drain(ByteBuffer dst)
+   {
+      appIn.flip();
+      int count = Math.min(appIn.remaining(), dst.remaining());
+      ByteBuffer slice = appIn.duplicate();
+      slice.limit(slice.position() + count);
+      dst.put(slice);
+      appIn.position(appIn.position() + count);
+      appIn.compact();
+      return count;
+   }
+
+   /**
+    * Runs the engine's delegated tasks.
+    */
+   private void runTasks()
+   {
+      Runnable task;
+      while ((task = engine.getDelegatedTask()) != null)
+         task.run();
+   }
+
+   /**
+    * Creates a bigger buffer with the contents of a buffer in write mode.
+    * @param buffer Buffer to enlarge.
+    * @param minCapacity Minimum capacity needed.
+    * @return New buffer in write mode.
+    */
+   private static ByteBuffer enlarge(ByteBuffer buffer, int minCapacity)
+   {
+      ByteBuffer larger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, minCapacity));
+      buffer.flip();
+      larger.put(buffer);
+      return larger;
+   }
+}
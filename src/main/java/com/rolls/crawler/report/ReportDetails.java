@@ -17,4 +17,5 @@ public class ReportDetails
    private long durationMillis;
    private boolean cancelled;
    private List<ReportPage> pages;
+   private List<ReportPage> previousPages;  // Pages of the previous crawl.  Set to report the changes since then instead of every page.
 }
@@ -13,7 +13,9 @@ public class ReportPage
 {
    private String url;
    private String loadError;
+   private String skipMessage;
    private String title;
+   private String contentHash;
    private List<String> internalLinks;
    private List<String> externalLinks;
    private List<String> contentLinks;
@@ -5,13 +5,22 @@ import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import org.apache.commons.lang3.StringUtils;
 
 /**
  * Implementation of a report writer that saves crawl results to a file.
- * If the file exists, it is appended to.
+ * If the file exists, it is appended to.  If the pages of a previous crawl are
+ * given, only the pages that are new, removed, or changed since then are written.
  */
 public class ReportWriterImpl implements ReportWriter
 {
@@ -58,7 +67,10 @@ public class ReportWriterImpl implements ReportWriter
             writeSeparator(writer);
 
          writeHeader(writer, reportDetails);
-         writePages(writer, reportDetails.getPages());
+         if (reportDetails.getPreviousPages() != null)
+            writeDelta(writer, reportDetails);
+         else
+            writePages(writer, reportDetails.getPages());
       }
       catch (Exception ex)
       {
@@ -131,6 +143,11 @@ public class ReportWriterImpl implements ReportWriter
             writer.write(String.format(" - Load Error: %s", loadErr));
             writer.newLine();
          }
+         else if (!StringUtils.isEmpty(page.getSkipMessage()))
+         {
+            writer.write(String.format(" - Skipped: %s", page.getSkipMessage()));
+            writer.newLine();
+         }
          else
          {
             writer.write(String.format(" - Title: %s", page.getTitle()));
@@ -143,6 +160,148 @@ public class ReportWriterImpl implements ReportWriter
       }
    }
 
+   /**
+    * Writes the pages that changed since the previous crawl to the file.  A page is
+    * changed if its content, load error, or skip message is different.  The content
+    * hash of a new or changed page is only written here, not in the full report.
+    * Pages of the previous crawl that were not crawled are only reported as removed
+    * if the crawl was not cancelled.
+    * @param writer File writer.
+    * @param reportDetails Report details to write.
+    * @throws IOException If write fails.
+    */
+   private void writeDelta(BufferedWriter writer, ReportDetails reportDetails) throws IOException
+   {
+      Map<String, ReportPage> previousPages = mapByUrl(reportDetails.getPreviousPages());
+      Map<String, ReportPage> pages = mapByUrl(reportDetails.getPages());
+
+      List<ReportPage> newPages = new ArrayList<>();
+      List<ReportPage[]> changedPages = new ArrayList<>();
+      for (ReportPage page : pages.values())
+      {
+         ReportPage previous = previousPages.get(page.getUrl());
+         if (previous == null)
+            newPages.add(page);
+         else if (isChanged(previous, page))
+            changedPages.add(new ReportPage[] {previous, page});
+      }
+
+      List<ReportPage> removedPages = new ArrayList<>();
+      if (!reportDetails.isCancelled())
+      {
+         for (ReportPage previous : previousPages.values())
+         {
+            if (!pages.containsKey(previous.getUrl()))
+               removedPages.add(previous);
+         }
+      }
+
+      writer.newLine();
+      writer.write(String.format("Changes: %d new, %d removed, %d changed, %d unchanged pages",
+            newPages.size(), removedPages.size(), changedPages.size(), pages.size() - newPages.size() - changedPages.size()));
+      writer.newLine();
+      if (reportDetails.isCancelled())
+      {
+         writer.write("Removed pages are not checked because the crawl was cancelled.");
+         writer.newLine();
+      }
+
+      for (ReportPage page : newPages)
+      {
+         writer.newLine();
+         writer.write(String.format("New Page: %s", page.getUrl()));
+         writer.newLine();
+         writeStatus(writer, page);
+      }
+
+      for (ReportPage page : removedPages)
+      {
+         writer.newLine();
+         writer.write(String.format("Removed Page: %s", page.getUrl()));
+         writer.newLine();
+      }
+
+      for (ReportPage[] change : changedPages)
+      {
+         ReportPage previous = change[0];
+         ReportPage page = change[1];
+
+         writer.newLine();
+         writer.write(String.format("Changed Page: %s", page.getUrl()));
+         writer.newLine();
+         writeStatus(writer, page);
+
+         Set<String> previousLinks = allLinks(previous);
+         Set<String> links = allLinks(page);
+         writeLinks(writer, "Added Links", links.stream().filter((link) -> !previousLinks.contains(link)).collect(Collectors.toList()));
+         writeLinks(writer, "Removed Links", previousLinks.stream().filter((link) -> !links.contains(link)).collect(Collectors.toList()));
+      }
+   }
+
+   /**
+    * Writes the load error, skip message, or title and content hash of a page to the file.
+    * @param writer File writer.
+    * @param page Report page to write.
+    * @throws IOException If write fails.
+    */
+   private void writeStatus(BufferedWriter writer, ReportPage page) throws IOException
+   {
+      if (!StringUtils.isEmpty(page.getLoadError()))
+         writer.write(String.format(" - Load Error: %s", page.getLoadError()));
+      else if (!StringUtils.isEmpty(page.getSkipMessage()))
+         writer.write(String.format(" - Skipped: %s", page.getSkipMessage()));
+      else
+      {
+         writer.write(String.format(" - Title: %s", page.getTitle()));
+         if (page.getContentHash() != null)
+         {
+            writer.newLine();
+            writer.write(String.format(" - Content Hash: %s", page.getContentHash()));
+         }
+      }
+      writer.newLine();
+   }
+
+   /**
+    * Returns if a page changed since the previous crawl.
+    * @param previous Page in the previous crawl.
+    * @param page Page in this crawl.
+    * @return True if changed.
+    */
+   private static boolean isChanged(ReportPage previous, ReportPage page)
+   {
+      return !Objects.equals(previous.getContentHash(), page.getContentHash()) ||
+            !Objects.equals(previous.getLoadError(), page.getLoadError()) ||
+            !Objects.equals(previous.getSkipMessage(), page.getSkipMessage());
+   }
+
+   /**
+    * Gets the pages by URL, in the order given.
+    * @param pages Report pages.  May be null.
+    * @return Pages by URL.
+    */
+   private static Map<String, ReportPage> mapByUrl(List<ReportPage> pages)
+   {
+      Map<String, ReportPage> pagesByUrl = new LinkedHashMap<>();
+      if (pages != null)
+         pages.forEach((page) -> pagesByUrl.putIfAbsent(page.getUrl(), page));
+      return pagesByUrl;
+   }
+
+   /**
+    * Gets every link of a page.
+    * @param page Report page.
+    * @return Internal, external, and content links, in that order.
+    */
+   private static Set<String> allLinks(ReportPage page)
+   {
+      Set<String> links = new LinkedHashSet<>();
+      Stream.of(page.getInternalLinks(), page.getExternalLinks(), page.getContentLinks())
+            .filter(Objects::nonNull)
+            .forEach(links::addAll);
+      return links;
+   }
+
    /**
     * Writes a list of links to the file.
     * @param writer File writer.
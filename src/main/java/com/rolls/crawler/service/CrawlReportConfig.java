@@ -1,16 +1,29 @@
 package com.rolls.crawler.service;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import org.apache.commons.validator.routines.UrlValidator;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.util.CollectionUtils;
 import org.springframework.util.StringUtils;
+import com.rolls.crawler.crawl.CrawlScope;
+import com.rolls.crawler.crawl.CrawlSettings;
 import com.rolls.crawler.crawl.CrawlerImpl;
+import com.rolls.crawler.crawl.SeenUrlStore;
+import com.rolls.crawler.crawl.UrlRule;
 import lombok.Getter;
 import lombok.Setter;
 
@@ -29,32 +42,175 @@ public class CrawlReportConfig
     */
    public final static int MIN_CRAWL_TIMEOUT_SECONDS = 5;
 
+   /**
+    * Directory of the page cache, under the output path, if pageCachePath is empty.
+    */
+   public final static String DEFAULT_PAGE_CACHE_PATH = "cache";
+
+   /**
+    * Directory of the crawl checkpoint, under the output path, if checkpointPath is empty.
+    */
+   public final static String DEFAULT_CHECKPOINT_PATH = "checkpoint";
+
    private String startingUrl;         // Starting URL.
+   private List<String> startingUrls;  // Starting URLs of more sites, crawled at the same time on the numThreads threads.  Each is "URL" or "URL WEIGHT".
+   private String startingUrlsFile;    // File of more starting URLs, one per line in the same form.  Blank lines and lines starting with # are skipped.
    private String outputPath;          // Output path for logs and result file.
    private String resultFile;          // Filename to place results in.
    private int numThreads;             // Number of threads to use.
+   private int fetchThreads;           // Threads that download pages.  Value <= 0 means numThreads both download and parse.
+   private int parseThreads;           // Threads that parse downloaded pages.  Value <= 0 means one per processor.
+   private int parseQueueSize;         // Downloaded pages waiting to be parsed.  Value <= 0 means twice the parse threads.
+   private boolean virtualThreads;     // Download each page on its own virtual thread instead of numThreads or fetchThreads.
+   private int maxInFlightPages;       // Pages in flight with virtual threads or ioThreads.  Value <= 0 means the default.
+   private int ioThreads;              // Selector threads that download pages without blocking.  Value <= 0 means one thread per download.
+   private boolean pooledConnections;  // Keep connections open and reuse them for later pages on the same host.  Ignored if ioThreads > 0.
+   private int maxIdleConnections;     // Idle connections kept open with pooledConnections.  Value <= 0 means the default.
+   private boolean http2;              // Use HTTP/2 with pooledConnections when the server offers it.
+   private boolean streamingExtract;   // Scan pages for links without building a Jsoup document.
+   private Map<String, Integer> contentLimits; // Maximum body size, in bytes, by content type crawled.  Empty means the default.
+   private boolean pageCache;          // Keep extracted pages on disk and reuse them when a later crawl finds them unchanged.
+   private String pageCachePath;       // Directory of the page cache.  Relative to the output path.  Empty means the default.
+   private int pageCacheMaxMegabytes;  // Maximum size of the page cache.  Value <= 0 means the default.
+   private int maxRequestsPerHost;     // Requests to a host at the same time.  Value <= 0 means no limit.
+   private int minRequestDelayMillis;  // Minimum time, in milliseconds, between the start of requests to a host.
+   private int maxThrottleRetries = -1; // Times a page answered with 429 or 503 is tried again.  Value < 0, or unset, means the default.
+   private boolean sitemaps;           // Seed the crawl with the pages of the sitemaps in robots.txt, or /sitemap.xml.
+   private int maxSitemapUrls;         // URLs read from sitemaps that are queued.  Value <= 0 means the default.
+   private boolean priorityFrontier;   // Crawl shallow pages, and pages with more links to them, first.  Not spilled to disk.
+   private int maxDepth;               // Links followed from the starting URL.  Value <= 0 means no limit.
+   private int maxPages;               // Pages crawled, including the starting URL.  Value <= 0 means no limit.
+   private int timeBudgetSeconds;      // Time, in seconds, after which no new pages are started.  Value <= 0 means no limit.
+   private boolean adaptiveConcurrency; // Tune the pages crawled at the same time from the latency, errors, and throughput seen.
+   private int minConcurrency;         // Fewest pages crawled at the same time with adaptiveConcurrency.  Value <= 0 means one.
+   private int maxConcurrency;         // Most pages crawled at the same time with adaptiveConcurrency.  Value <= 0 means four times the start.
+   private int concurrencyIntervalMillis; // Interval, in milliseconds, between adaptiveConcurrency decisions.  Value <= 0 means the default.
+   private int observerBufferSize;     // Crawled pages buffered for the crawl observers while they catch up.  Value <= 0 means the default.
+   private int observerBatchSize;      // Most pages handed to a crawl observer at once.  Value <= 0 means the default.
    private int progressIntervalMillis; // Interval, in milliseconds, to raise progress event.  Value <= 0 means disable.
    private int parseTimeoutMillis;     // Timeout, in milliseconds, for a page to load and parse.  Value <= 0 means no timeout.
    private int crawlTimeoutSeconds;    // Timeout, in seconds, for entire crawl to complete.
+   private Set<UrlRule> urlRules;      // Rules that normalize URLs before they are checked against the seen URLs.  Empty means the default.
+   private List<String> scopeSchemes;  // Schemes of the same site, such as http and https.  Empty means the scheme of the starting URL.
+   private List<String> scopeHosts;    // Hosts of the site.  *.name matches the subdomains of name.  Empty means the host of the starting URL.
+   private List<String> scopeAllowPaths; // Path prefixes that are crawled.  Empty means every path.
+   private List<String> scopeDenyPaths;  // Path prefixes that are not crawled.  The longest allowed or denied prefix wins.
+   private SeenUrlStore seenUrlStore;  // Type of set that tracks queued URLs: STRING, FINGERPRINT or BLOOM.  Null means STRING.
+   private int expectedUrls;           // Number of URLs expected, used to size the seen URL set.  Value <= 0 means the default.
+   private double seenUrlFalsePositiveRate; // False positive rate of a BLOOM seen URL set.  Value <= 0 means the default.
+   private int frontierMemoryUrls;     // Queued URLs kept in memory before spilling to disk.  Value <= 0 means no limit.
+   private String frontierPath;        // Directory for spilled frontier segments.  Empty means the output path.
+   private boolean checkpoint;         // Write the crawled pages to disk as the crawl runs, so a later run can resume it.
+   private String checkpointPath;      // Directory of the checkpoint.  Relative to the output path.  Empty means the default.
+   private int checkpointIntervalMillis; // Interval, in milliseconds, between forcing the checkpoint to disk.  Value <= 0 means the default.
+   private boolean resume;             // Continue the crawl in the checkpoint instead of starting again from the starting URL.
+   private boolean recrawl;            // Crawl the pages of the previous checkpointed crawl again and report only what changed.
+
+   /**
+    * Gets the sites to crawl: the starting URL, then the starting URLs, then the
+    * starting URLs in the file.
+    * @return Sites to crawl.
+    * @throws IOException If the starting URLs file can't be read.
+    * @throws IllegalArgumentException If the weight of a site is invalid.
+    */
+   public List<CrawlSite> resolveSites() throws IOException
+   {
+      List<CrawlSite> sites = new ArrayList<>();
+      if (!StringUtils.isEmpty(startingUrl))
+         sites.add(new CrawlSite(startingUrl, 1));
+      if (startingUrls != null)
+      {
+         for (String text : startingUrls)
+            sites.add(CrawlSite.parse(text));
+      }
+      if (!StringUtils.isEmpty(startingUrlsFile))
+      {
+         for (String line : Files.readAllLines(Paths.get(startingUrlsFile), StandardCharsets.UTF_8))
+         {
+            if (!line.trim().isEmpty() && !line.trim().startsWith("#"))
+               sites.add(CrawlSite.parse(line));
+         }
+      }
+      return sites;
+   }
+
+   /**
+    * Gets the directory of the page cache.
+    * @return Page cache path, resolved against the output path.
+    */
+   public Path resolvePageCachePath()
+   {
+      return Paths.get(outputPath).resolve(!StringUtils.isEmpty(pageCachePath) ? pageCachePath : DEFAULT_PAGE_CACHE_PATH);
+   }
+
+   /**
+    * Gets the directory of the crawl checkpoint.
+    * @return Checkpoint path, resolved against the output path.
+    */
+   public Path resolveCheckpointPath()
+   {
+      return Paths.get(outputPath).resolve(!StringUtils.isEmpty(checkpointPath) ? checkpointPath : DEFAULT_CHECKPOINT_PATH);
+   }
+
+   /**
+    * Returns if the sites have different names, so their reports and checkpoints
+    * don't overwrite each other.
+    * @param sites Sites to crawl, with valid starting URLs.
+    * @return True if no two sites have the same name.
+    */
+   private static boolean hasUniqueNames(List<CrawlSite> sites)
+   {
+      Set<String> names = new HashSet<>();
+      try
+      {
+         for (CrawlSite site : sites)
+         {
+            if (!names.add(site.getName()))
+               return false;
+         }
+         return true;
+      }
+      catch (IOException ex)
+      {
+         return false;
+      }
+   }
 
    /**
     * Checks if the properties are valid and creates the outputPath folder.
     * If crawlTimeoutSeconds, numThreads, or parseTimeoutMillis are less than
     * their minimums, the values are set to the minimum with no error.
+    * Unset seen URL store properties and maxInFlightPages are set to their defaults with no error.
     * @return List of errors.
     */
    public List<String> validate()
    {
       List<String> errs = new ArrayList<String>();
 
-      if (StringUtils.isEmpty(startingUrl))
+      List<CrawlSite> sites = null;
+      try
+      {
+         sites = resolveSites();
+      }
+      catch (IOException | InvalidPathException ex)
+      {
+         errs.add("Unable to read the starting URLs file.");
+      }
+      catch (IllegalArgumentException ex)
+      {
+         errs.add("Invalid starting URL.");
+      }
+
+      if (sites != null && sites.isEmpty())
          errs.add("Missing starting URL.");
-      else
+      else if (sites != null)
       {
          String[] schemes = {"http", "https"};
          UrlValidator urlValidator = new UrlValidator(schemes);
-         if (!urlValidator.isValid(startingUrl))
+         if (sites.stream().anyMatch((site) -> !urlValidator.isValid(site.getUrl())))
             errs.add("Invalid starting URL.");
+         else if (!hasUniqueNames(sites))
+            errs.add("Duplicate starting URL site.");
       }
 
       if (StringUtils.isEmpty(outputPath))
@@ -94,9 +250,94 @@ public class CrawlReportConfig
       if (numThreads < CrawlerImpl.MIN_THREADS)
          numThreads = CrawlerImpl.MIN_THREADS;
 
+      if (maxInFlightPages <= 0)
+         maxInFlightPages = CrawlSettings.DEFAULT_MAX_IN_FLIGHT_PAGES;
+
+      if (maxThrottleRetries < 0)
+         maxThrottleRetries = CrawlSettings.DEFAULT_MAX_THROTTLE_RETRIES;
+
+      if (maxSitemapUrls <= 0)
+         maxSitemapUrls = CrawlSettings.DEFAULT_MAX_SITEMAP_URLS;
+
+      if (maxConcurrency > 0 && minConcurrency > maxConcurrency)
+         errs.add("Invalid concurrency range.");
+
+      if (concurrencyIntervalMillis <= 0)
+         concurrencyIntervalMillis = (int)CrawlSettings.DEFAULT_CONCURRENCY_INTERVAL_MILLIS;
+
+      if (observerBufferSize <= 0)
+         observerBufferSize = CrawlSettings.DEFAULT_OBSERVER_BUFFER_SIZE;
+
+      if (observerBatchSize <= 0)
+         observerBatchSize = CrawlSettings.DEFAULT_OBSERVER_BATCH_SIZE;
+
       if (crawlTimeoutSeconds < MIN_CRAWL_TIMEOUT_SECONDS)
          crawlTimeoutSeconds = MIN_CRAWL_TIMEOUT_SECONDS;
 
+      if (seenUrlStore == null)
+         seenUrlStore = SeenUrlStore.STRING;
+
+      if (expectedUrls <= 0)
+         expectedUrls = CrawlSettings.DEFAULT_EXPECTED_URLS;
+
+      if (!StringUtils.isEmpty(frontierPath))
+      {
+         try
+         {
+            Paths.get(frontierPath);
+         }
+         catch (Exception ex)
+         {
+            errs.add("Invalid frontier path.");
+         }
+      }
+
+      if (!CollectionUtils.isEmpty(scopeSchemes) || !CollectionUtils.isEmpty(scopeHosts) || !CollectionUtils.isEmpty(scopeAllowPaths) || !CollectionUtils.isEmpty(scopeDenyPaths))
+      {
+         try
+         {
+            new CrawlScope(!CollectionUtils.isEmpty(scopeSchemes) ? scopeSchemes : Collections.singletonList("http"),
+                  !CollectionUtils.isEmpty(scopeHosts) ? scopeHosts : Collections.singletonList("localhost"),
+                  scopeAllowPaths, scopeDenyPaths);
+         }
+         catch (IllegalArgumentException ex)
+         {
+            errs.add("Invalid crawl scope.");
+         }
+      }
+
+      if (!StringUtils.isEmpty(pageCachePath))
+      {
+         try
+         {
+            Paths.get(pageCachePath);
+         }
+         catch (Exception ex)
+         {
+            errs.add("Invalid page cache path.");
+         }
+      }
+
+      if (!StringUtils.isEmpty(checkpointPath))
+      {
+         try
+         {
+            Paths.get(checkpointPath);
+         }
+         catch (Exception ex)
+         {
+            errs.add("Invalid checkpoint path.");
+         }
+      }
+
+      if (contentLimits != null && contentLimits.values().stream().anyMatch((limit) -> limit == null || limit <= 0))
+         errs.add("Invalid content limit.");
+
+      if (seenUrlFalsePositiveRate <= 0)
+         seenUrlFalsePositiveRate = CrawlSettings.DEFAULT_FALSE_POSITIVE_RATE;
+      else if (seenUrlFalsePositiveRate >= 1)
+         errs.add("Invalid seen URL false positive rate.");
+
       return errs;
    }
 }
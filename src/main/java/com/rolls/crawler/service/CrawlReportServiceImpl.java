@@ -1,23 +1,48 @@
 package com.rolls.crawler.service;
 
 import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.net.MalformedURLException;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
 import org.modelmapper.ModelMapper;
 import org.modelmapper.TypeToken;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+import com.rolls.crawler.crawl.CrawlMetrics;
 import com.rolls.crawler.crawl.CrawlObserver;
 import com.rolls.crawler.crawl.CrawlPage;
+import com.rolls.crawler.crawl.CrawlPool;
+import com.rolls.crawler.crawl.CrawlResult;
+import com.rolls.crawler.crawl.CrawlSettings;
 import com.rolls.crawler.crawl.CrawlerImpl;
+import com.rolls.crawler.parse.ContentLimits;
+import com.rolls.crawler.parse.NioParser;
+import com.rolls.crawler.parse.PageCache;
+import com.rolls.crawler.parse.Parser;
 import com.rolls.crawler.parse.ParserImpl;
+import com.rolls.crawler.parse.PooledParser;
 import com.rolls.crawler.report.ReportDetails;
 import com.rolls.crawler.report.ReportPage;
 import com.rolls.crawler.report.ReportWriter;
@@ -25,11 +50,18 @@ import com.rolls.crawler.report.ReportWriterImpl;
 
 /**
  * Implementation of a web crawler that finds pages of a single domain
- * and saves crawl details to a report file.
+ * and saves crawl details to a report file.  With more than one starting URL,
+ * the sites are crawled at the same time on shared threads, and each has its
+ * own report file, named after the site.
  */
 @Component
 public class CrawlReportServiceImpl implements CrawlService
 {
+   /**
+    * Name the crawl metrics are registered under with the platform MBean server.
+    */
+   public final static String METRICS_NAME = "com.rolls.crawler:type=CrawlMetrics";
+
    private final static Logger logger = LoggerFactory.getLogger(CrawlReportServiceImpl.class);
 
    private final Queue<CrawlServiceObserver> observers = new ConcurrentLinkedQueue<>();
@@ -38,6 +70,8 @@ public class CrawlReportServiceImpl implements CrawlService
    private CrawlReportConfig config;
 
    private CrawlObserverImpl crawlObserver = null;
+   private volatile CrawlMetrics metrics = null;
+   private volatile Map<String, CrawlMetrics> siteMetrics = Collections.emptyMap();
 
    /**
     * Internal class to capture events from the web crawler.
@@ -67,6 +101,25 @@ public class CrawlReportServiceImpl implements CrawlService
      }
    }
 
+   /**
+    * Crawl of one of many sites crawled at the same time.
+    */
+   private class SiteCrawl
+   {
+      private final CrawlSite site;
+      private final CrawlerImpl crawler;
+      private final CrawlObserverImpl crawlObserver = new CrawlObserverImpl();
+      private CompletableFuture<CrawlResult> result = null;
+      private ScheduledExecutorService progressTicker = null;
+      private ObjectName metricsName = null;
+
+      public SiteCrawl(CrawlSite site, CrawlerImpl crawler)
+      {
+         this.site = site;
+         this.crawler = crawler;
+      }
+   }
+
    @Override
    public void addObserver(CrawlServiceObserver observer)
    {
@@ -76,6 +129,26 @@ public class CrawlReportServiceImpl implements CrawlService
       observers.add(observer);
    }
 
+   /**
+    * Gets the metrics of the running or last crawl.  With many sites, each has its own
+    * metrics, which are read with getSiteMetrics instead.
+    * @return Crawl metrics or null if no crawl has started or it has many sites.
+    */
+   public CrawlMetrics getMetrics()
+   {
+      return metrics;
+   }
+
+   /**
+    * Gets the metrics of each site of the running or last crawl, in the order the sites
+    * are configured.
+    * @return Crawl metrics by starting URL.  Empty if no crawl has started.
+    */
+   public Map<String, CrawlMetrics> getSiteMetrics()
+   {
+      return siteMetrics;
+   }
+
    @Override
    public void run()
    {
@@ -87,48 +160,54 @@ public class CrawlReportServiceImpl implements CrawlService
          crawlObserver = new CrawlObserverImpl();
       }
 
+      Parser parser = null;
+      ObjectName metricsName = null;
+      ScheduledExecutorService progressTicker = null;
       try
       {
          if (!checkProperties())
             return;
 
-         observers.stream().forEach((observer) -> observer.onStart(config.getStartingUrl()));
+         List<CrawlSite> sites = config.resolveSites();
+         if (sites.size() > 1)
+         {
+            metrics = null;
+            parser = createParser();
+            crawlSites(sites, parser);
+            return;
+         }
+
+         String startingUrl = sites.get(0).getUrl();
+         observers.stream().forEach((observer) -> observer.onStart(startingUrl));
 
-         CrawlerImpl crawler = new CrawlerImpl(config.getNumThreads(),
-               new ParserImpl(config.getParseTimeoutMillis()));
+         parser = createParser();
+         CrawlerImpl crawler = new CrawlerImpl(buildCrawlSettings(), parser);
+         CrawlMetrics metrics = crawler.getMetrics();
+         this.metrics = metrics;
+         siteMetrics = Collections.singletonMap(startingUrl, metrics);
+         metricsName = registerMetrics(metrics, METRICS_NAME);
 
          crawler.addObserver(crawlObserver);
-         crawler.start(config.getStartingUrl());
-
-         boolean complete = false;
-         long crawlTimeoutMillis = config.getCrawlTimeoutSeconds() * 1000;
-         long progressIntervalMillis = config.getProgressIntervalMillis();
-         long startMillis = System.currentTimeMillis();
-         long lastProgressMillis = startMillis;
-         do
-         {
-            long curTime = System.currentTimeMillis();
-            long intervalMiilis = curTime - lastProgressMillis;
-            if (intervalMiilis >= progressIntervalMillis)
-            {
-               observers.stream().forEach((observer) -> observer.onProgress(crawlObserver.pagesProcessed.get()));
-               lastProgressMillis = curTime;
-            }
+         CompletableFuture<CrawlResult> result = crawler.start(startingUrl);
+         progressTicker = startProgressTicker(startingUrl, crawlObserver, metrics);
 
-            complete = crawler.await(progressIntervalMillis, TimeUnit.MILLISECONDS);
+         try
+         {
+            result.get(config.getCrawlTimeoutSeconds() * 1000L, TimeUnit.MILLISECONDS);
          }
-         while (!complete && System.currentTimeMillis() - startMillis < crawlTimeoutMillis);
-
-         if (!complete)
+         catch (TimeoutException ex)
          {
             if (!crawler.cancel())
                logger.error("Cancel after crawl timeout failed.");
          }
+         stopProgressTicker(progressTicker);
 
          File file = Paths.get(config.getOutputPath(), config.getResultFile()).toFile();
-         saveResult(file);
+         saveResult(file, startingUrl, crawlObserver, crawler.getPreviousPages());
+         logger.info("Crawl metrics: {}", metrics);
 
          observers.stream().forEach((observer) -> observer.onComplete(
+               startingUrl,
                crawlObserver.pagesProcessed.get(),
                crawlObserver.cancelled,
                file.getAbsolutePath()
@@ -140,10 +219,160 @@ public class CrawlReportServiceImpl implements CrawlService
       }
       finally
       {
+         if (progressTicker != null)
+            progressTicker.shutdownNow();
+
+         if (metricsName != null)
+            unregisterMetrics(metricsName);
+
+         if (parser instanceof ParserImpl && ((ParserImpl)parser).getPageCache() != null)
+            logger.info("Page cache: {}", ((ParserImpl)parser).getPageCache());
+
+         if (parser instanceof NioParser)
+            ((NioParser)parser).close();
+         else if (parser instanceof PooledParser)
+         {
+            logger.info("Connection metrics: {}", ((PooledParser)parser).getMetrics());
+            ((PooledParser)parser).close();
+         }
+
          crawlObserver = null;
       }
    }
 
+   /**
+    * Crawls many sites at the same time, each with its own crawler on a crawl pool
+    * they share, so each keeps its own scope, seen URLs, checkpoint and report.  The
+    * pool's threads take turns between the sites by their weights.  The crawls share
+    * the crawl timeout, and the events are raised for each site, with its starting URL.
+    * @param sites Sites to crawl.
+    * @param parser Web page parser, shared by the crawlers.
+    * @throws Exception If the crawls fail.
+    */
+   private void crawlSites(List<CrawlSite> sites, Parser parser) throws Exception
+   {
+      CrawlPool pool = new CrawlPool(config.getNumThreads());
+      List<SiteCrawl> crawls = new ArrayList<>();
+      try
+      {
+         Map<String, CrawlMetrics> metricsBySite = new LinkedHashMap<>();
+         for (CrawlSite site : sites)
+         {
+            CrawlSettings settings = buildCrawlSettings();
+            settings.setSiteWeight(site.getWeight());
+            if (settings.getCheckpointPath() != null)
+               settings.setCheckpointPath(Paths.get(settings.getCheckpointPath(), site.getName()).toString());
+
+            SiteCrawl crawl = new SiteCrawl(site, new CrawlerImpl(settings, parser, pool));
+            crawls.add(crawl);
+            metricsBySite.put(site.getUrl(), crawl.crawler.getMetrics());
+         }
+         siteMetrics = Collections.unmodifiableMap(metricsBySite);
+
+         for (SiteCrawl crawl : crawls)
+         {
+            observers.stream().forEach((observer) -> observer.onStart(crawl.site.getUrl()));
+            crawl.metricsName = registerMetrics(crawl.crawler.getMetrics(), METRICS_NAME + ",site=" + ObjectName.quote(crawl.site.getName()));
+
+            crawl.crawler.addObserver(crawl.crawlObserver);
+            crawl.result = crawl.crawler.start(crawl.site.getUrl());
+            crawl.progressTicker = startProgressTicker(crawl.site.getUrl(), crawl.crawlObserver, crawl.crawler.getMetrics());
+         }
+
+         long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(config.getCrawlTimeoutSeconds());
+         for (SiteCrawl crawl : crawls)
+         {
+            try
+            {
+               crawl.result.get(Math.max(deadline - System.nanoTime(), 0), TimeUnit.NANOSECONDS);
+            }
+            catch (TimeoutException ex)
+            {
+               if (!crawl.crawler.cancel())
+                  logger.error("Cancel after crawl timeout failed for {}.", crawl.site.getUrl());
+            }
+            stopProgressTicker(crawl.progressTicker);
+
+            File file = Paths.get(config.getOutputPath(), siteResultFile(crawl.site)).toFile();
+            saveResult(file, crawl.site.getUrl(), crawl.crawlObserver, crawl.crawler.getPreviousPages());
+            logger.info("Crawl metrics of {}: {}", crawl.site.getUrl(), crawl.crawler.getMetrics());
+
+            observers.stream().forEach((observer) -> observer.onComplete(
+                  crawl.site.getUrl(),
+                  crawl.crawlObserver.pagesProcessed.get(),
+                  crawl.crawlObserver.cancelled,
+                  file.getAbsolutePath()
+                  ));
+         }
+      }
+      finally
+      {
+         for (SiteCrawl crawl : crawls)
+         {
+            // Crawls still running if another failed are cancelled before their threads stop.
+            if (crawl.result != null && !crawl.result.isDone())
+               crawl.crawler.cancel();
+            if (crawl.progressTicker != null)
+               crawl.progressTicker.shutdownNow();
+            if (crawl.metricsName != null)
+               unregisterMetrics(crawl.metricsName);
+         }
+         pool.close();
+      }
+   }
+
+   /**
+    * Gets the name of the result file of a site, which is the result file with the
+    * site's name before the extension.
+    * @param site Site crawled.
+    * @return Result file name.
+    * @throws MalformedURLException If the starting URL of the site is malformed.
+    */
+   private String siteResultFile(CrawlSite site) throws MalformedURLException
+   {
+      String resultFile = config.getResultFile();
+      int dot = resultFile.lastIndexOf('.');
+      return (dot > 0 ? resultFile.substring(0, dot) + "-" + site.getName() + resultFile.substring(dot)
+            : resultFile + "-" + site.getName());
+   }
+
+   /**
+    * Starts raising progress events at the progress interval, from the time the crawl starts.
+    * @param startingUrl Starting URL of the crawl.
+    * @param crawlObserver Observer counting the pages processed.
+    * @param metrics Metrics of the crawl.
+    * @return Scheduler of the progress events or null if they are disabled.
+    */
+   private ScheduledExecutorService startProgressTicker(String startingUrl, CrawlObserverImpl crawlObserver, CrawlMetrics metrics)
+   {
+      long progressIntervalMillis = config.getProgressIntervalMillis();
+      if (progressIntervalMillis <= 0)
+         return null;
+
+      ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor(
+            new BasicThreadFactory.Builder().namingPattern("Crawl-Progress").daemon(true).build());
+      ticker.scheduleAtFixedRate(
+            () -> observers.stream().forEach((observer) -> observer.onProgress(startingUrl, crawlObserver.pagesProcessed.get(), metrics)),
+            progressIntervalMillis, progressIntervalMillis, TimeUnit.MILLISECONDS);
+      return ticker;
+   }
+
+   /**
+    * Stops raising progress events, waiting briefly for one being raised, so none is
+    * raised after the crawl completes.
+    * @param ticker Scheduler of the progress events.  Null if they are disabled.
+    * @throws InterruptedException If interrupted while waiting.
+    */
+   private static void stopProgressTicker(ScheduledExecutorService ticker) throws InterruptedException
+   {
+      if (ticker == null)
+         return;
+
+      ticker.shutdown();
+      if (!ticker.awaitTermination(1, TimeUnit.SECONDS))
+         logger.warn("Progress event still running after the crawl.");
+   }
+
    /**
     * Checks if the properties are valid.
     * @return Whether properties are valid.
@@ -158,19 +387,142 @@ public class CrawlReportServiceImpl implements CrawlService
       return false;
    }
 
+   /**
+    * Registers the crawl metrics with the platform MBean server, so they can be watched
+    * with JMX tools while the crawl runs.
+    * @param metrics Crawl metrics.
+    * @param metricsName Name to register the metrics under.
+    * @return Name registered or null if registration failed.
+    */
+   private ObjectName registerMetrics(CrawlMetrics metrics, String metricsName)
+   {
+      try
+      {
+         ObjectName name = new ObjectName(metricsName);
+         MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+         if (server.isRegistered(name))
+            server.unregisterMBean(name);
+         server.registerMBean(metrics, name);
+         return name;
+      }
+      catch (JMException ex)
+      {
+         logger.warn("Crawl metrics not registered.", ex);
+         return null;
+      }
+   }
+
+   /**
+    * Unregisters the crawl metrics from the platform MBean server.
+    * @param name Name registered.
+    */
+   private void unregisterMetrics(ObjectName name)
+   {
+      try
+      {
+         ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+      }
+      catch (JMException ex)
+      {
+         logger.warn("Crawl metrics not unregistered.", ex);
+      }
+   }
+
+   /**
+    * Creates the web page parser from the configuration.
+    * @return Web page parser.
+    */
+   private Parser createParser()
+   {
+      ParserImpl parser;
+      if (config.getIoThreads() > 0)
+         parser = new NioParser(config.getParseTimeoutMillis(), config.getIoThreads());
+      else if (config.isPooledConnections())
+         parser = new PooledParser(config.getParseTimeoutMillis(), config.getMaxIdleConnections(), config.isHttp2());
+      else
+         parser = new ParserImpl(config.getParseTimeoutMillis());
+
+      parser.setStreamingExtract(config.isStreamingExtract());
+      parser.setHashContent(config.isRecrawl() || config.isPageCache());
+      if (config.getContentLimits() != null && !config.getContentLimits().isEmpty())
+         parser.setContentLimits(new ContentLimits(config.getContentLimits()));
+      if (config.isPageCache())
+         parser.setPageCache(new PageCache(config.resolvePageCachePath(), config.getPageCacheMaxMegabytes() * 1024L * 1024L));
+      return parser;
+   }
+
+   /**
+    * Builds the crawler settings from the configuration.
+    * @return Crawler settings.
+    */
+   private CrawlSettings buildCrawlSettings()
+   {
+      CrawlSettings settings = new CrawlSettings();
+      settings.setNumThreads(config.getNumThreads());
+      settings.setNumFetchThreads(config.getFetchThreads());
+      settings.setNumParseThreads(config.getParseThreads());
+      settings.setParseQueueSize(config.getParseQueueSize());
+      settings.setVirtualThreads(config.isVirtualThreads());
+      settings.setMaxInFlightPages(config.getMaxInFlightPages());
+      settings.setMaxRequestsPerHost(config.getMaxRequestsPerHost());
+      settings.setMinRequestDelayMillis(config.getMinRequestDelayMillis());
+      settings.setMaxThrottleRetries(config.getMaxThrottleRetries());
+      settings.setSitemaps(config.isSitemaps());
+      settings.setMaxSitemapUrls(config.getMaxSitemapUrls());
+      settings.setPriorityFrontier(config.isPriorityFrontier());
+      settings.setMaxDepth(config.getMaxDepth());
+      settings.setMaxPages(config.getMaxPages());
+      settings.setTimeBudgetMillis(config.getTimeBudgetSeconds() * 1000L);
+      settings.setAdaptiveConcurrency(config.isAdaptiveConcurrency());
+      settings.setMinConcurrency(config.getMinConcurrency());
+      settings.setMaxConcurrency(config.getMaxConcurrency());
+      settings.setConcurrencyIntervalMillis(config.getConcurrencyIntervalMillis());
+      settings.setObserverBufferSize(config.getObserverBufferSize());
+      settings.setObserverBatchSize(config.getObserverBatchSize());
+      if (config.getUrlRules() != null && !config.getUrlRules().isEmpty())
+         settings.setUrlRules(EnumSet.copyOf(config.getUrlRules()));
+      settings.setScopeSchemes(config.getScopeSchemes());
+      settings.setScopeHosts(config.getScopeHosts());
+      settings.setScopeAllowPaths(config.getScopeAllowPaths());
+      settings.setScopeDenyPaths(config.getScopeDenyPaths());
+      settings.setSeenUrlStore(config.getSeenUrlStore());
+      settings.setExpectedUrls(config.getExpectedUrls());
+      settings.setFalsePositiveRate(config.getSeenUrlFalsePositiveRate());
+      settings.setFrontierMemoryUrls(config.getFrontierMemoryUrls());
+      settings.setFrontierSpillPath(!StringUtils.isEmpty(config.getFrontierPath()) ? config.getFrontierPath() : config.getOutputPath());
+      if (config.isCheckpoint() || config.isResume() || config.isRecrawl())
+      {
+         settings.setCheckpointPath(config.resolveCheckpointPath().toString());
+         settings.setCheckpointIntervalMillis(config.getCheckpointIntervalMillis());
+         settings.setResume(config.isResume());
+         settings.setRecrawl(config.isRecrawl());
+      }
+      return settings;
+   }
+
    /**
     * Saves the crawl result to a file.
+    * @param file File to save to.
+    * @param startingUrl Starting URL of the crawl.
+    * @param crawlObserver Observer that captured the pages of the crawl.
+    * @param previousPages Pages of the previous crawl to report the changes since.  Null to report every page.
     */
-   private void saveResult(File file)
+   private void saveResult(File file, String startingUrl, CrawlObserverImpl crawlObserver, List<CrawlPage> previousPages)
    {
+      // The content hashes only tell the changed pages apart, so they are left out of a full report.
       ModelMapper mapper = new ModelMapper();
+      if (previousPages == null)
+         mapper.typeMap(CrawlPage.class, ReportPage.class)
+               .addMappings((mapping) -> mapping.skip(ReportPage::setContentHash));
 
       ReportDetails reportDetails = new ReportDetails();
-      reportDetails.setStartingUrl(config.getStartingUrl());
+      reportDetails.setStartingUrl(startingUrl);
       reportDetails.setStartTime(crawlObserver.startTime);
       reportDetails.setDurationMillis(crawlObserver.durationMillis);
       reportDetails.setCancelled(crawlObserver.cancelled);
       reportDetails.setPages(mapper.map(crawlObserver.pages, new TypeToken<List<ReportPage>>(){}.getType()));
+      if (previousPages != null)
+         reportDetails.setPreviousPages(mapper.map(previousPages, new TypeToken<List<ReportPage>>(){}.getType()));
 
       ReportWriter writer = new ReportWriterImpl(file);
       writer.save(reportDetails);
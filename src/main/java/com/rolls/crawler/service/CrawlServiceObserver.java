@@ -1,6 +1,7 @@
 package com.rolls.crawler.service;
 
 import java.util.List;
+import com.rolls.crawler.crawl.CrawlMetrics;
 
 /**
  *  Handler of crawl service events.
@@ -25,6 +26,30 @@ public interface CrawlServiceObserver
     */
    public void onProgress(int pagesProcessed);
 
+   /**
+    * Indicates the current progress of the crawler, with its metrics.
+    * By default only the number of pages is passed on.
+    * @param pagesProcessed Number of pages that have been processed.
+    * @param metrics Metrics of the running crawl.
+    */
+   public default void onProgress(int pagesProcessed, CrawlMetrics metrics)
+   {
+      onProgress(pagesProcessed);
+   }
+
+   /**
+    * Indicates the current progress of the crawl of a site, with its metrics.  With
+    * many sites, each site's crawl raises its own events.  By default the site is not
+    * passed on.
+    * @param startingUrl Starting URL of the site.
+    * @param pagesProcessed Number of pages of the site that have been processed.
+    * @param metrics Metrics of the site's running crawl.
+    */
+   public default void onProgress(String startingUrl, int pagesProcessed, CrawlMetrics metrics)
+   {
+      onProgress(pagesProcessed, metrics);
+   }
+
    /**
     * Indicates the crawler is complete.
     * @param pagesProcessed Number of pages that have been processed.
@@ -32,4 +57,17 @@ public interface CrawlServiceObserver
     * @param reportPath Location of report file.
     */
    public void onComplete(int pagesProcessed, boolean cancelled, String reportPath);
+
+   /**
+    * Indicates the crawl of a site is complete.  With many sites, each site's crawl
+    * raises its own event.  By default the site is not passed on.
+    * @param startingUrl Starting URL of the site.
+    * @param pagesProcessed Number of pages of the site that have been processed.
+    * @param cancelled Whether crawl was cancelled.
+    * @param reportPath Location of the site's report file.
+    */
+   public default void onComplete(String startingUrl, int pagesProcessed, boolean cancelled, String reportPath)
+   {
+      onComplete(pagesProcessed, cancelled, reportPath);
+   }
 }
@@ -0,0 +1,62 @@
+package com.rolls.crawler.service;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Site crawled at the same time as others, on threads they share.
+ */
+@AllArgsConstructor
+@Getter
+public class CrawlSite
+{
+   private String url;  // Starting URL.
+   private int weight;  // Share of the threads, relative to the other sites.
+
+   /**
+    * Parses a site from its configuration, which is the starting URL, optionally
+    * followed by whitespace and the weight, such as "https://www.example.com/ 2".
+    * @param text Site configuration.
+    * @return Site.
+    * @throws IllegalArgumentException If the weight is not a positive number.
+    */
+   public static CrawlSite parse(String text)
+   {
+      if (text == null)
+         throw new IllegalArgumentException("Null site.");
+
+      String[] parts = text.trim().split("\\s+");
+      if (parts.length > 2)
+         throw new IllegalArgumentException(String.format("Invalid site %s.", text));
+
+      int weight = 1;
+      if (parts.length == 2)
+      {
+         try
+         {
+            weight = Integer.parseInt(parts[1]);
+         }
+         catch (NumberFormatException ex)
+         {
+            weight = 0;
+         }
+         if (weight <= 0)
+            throw new IllegalArgumentException(String.format("Invalid site weight %s.", text));
+      }
+      return new CrawlSite(parts[0], weight);
+   }
+
+   /**
+    * Gets the name of the site, which tells its report and checkpoint apart from
+    * the other sites'.  The name is the host, and the port if the URL has one.
+    * @return Site name.
+    * @throws MalformedURLException If the starting URL is malformed.
+    */
+   public String getName() throws MalformedURLException
+   {
+      URL startingUrl = new URL(url);
+      return startingUrl.getHost() + (startingUrl.getPort() != -1 ? "-" + startingUrl.getPort() : "");
+   }
+}
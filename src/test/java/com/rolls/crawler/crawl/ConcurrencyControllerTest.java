@@ -0,0 +1,176 @@
+package com.rolls.crawler.crawl;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.junit.jupiter.api.Test;
+
+@SuppressWarnings("javadoc")
+public class ConcurrencyControllerTest
+{
+   private static final long HOUR_MILLIS = TimeUnit.HOURS.toMillis(1);
+   private static final long SECOND_NANOS = TimeUnit.SECONDS.toNanos(1);
+   private static final long LATENCY_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+   @Test
+   public void testLimits()
+   {
+      ConcurrencyController controller = new ConcurrencyController(0, 0, 5, 0);
+      assertThat(controller.getLimit(), is(1));
+      assertThat(controller.getMaxLimit(), is(1));
+      assertThat(controller.isAdaptive(), is(false));
+
+      controller = new ConcurrencyController(2, 8, 20, HOUR_MILLIS);
+      assertThat(controller.getLimit(), is(8));
+      assertThat(controller.isAdaptive(), is(true));
+
+      controller = new ConcurrencyController(2, 8, 1, HOUR_MILLIS);
+      assertThat(controller.getLimit(), is(2));
+
+      // A fixed limit never changes.
+      controller = new ConcurrencyController(4, 4, 4, HOUR_MILLIS);
+      runRequests(controller, 4, 4, 0, 4);
+      assertThat(controller.adjust(System.nanoTime() + SECOND_NANOS), is(4));
+   }
+
+   @Test
+   public void testIncrease()
+   {
+      ConcurrencyController controller = new ConcurrencyController(1, 3, 1, HOUR_MILLIS);
+      long now = System.nanoTime();
+
+      // Every slot was busy, so the limit goes up by one up to the maximum.
+      runRequests(controller, 1, 10, 0, 0);
+      assertThat(controller.adjust(now + SECOND_NANOS), is(2));
+      runRequests(controller, 2, 20, 0, 0);
+      assertThat(controller.adjust(now + 2 * SECOND_NANOS), is(3));
+      runRequests(controller, 3, 30, 0, 0);
+      assertThat(controller.adjust(now + 3 * SECOND_NANOS), is(3));
+
+      // Slots that were not used are not added to.
+      runRequests(controller, 2, 20, 0, 0);
+      assertThat(controller.adjust(now + 4 * SECOND_NANOS), is(3));
+
+      // An interval without requests changes nothing.
+      assertThat(controller.adjust(now + 5 * SECOND_NANOS), is(3));
+   }
+
+   @Test
+   public void testDecrease()
+   {
+      ConcurrencyController controller = new ConcurrencyController(1, 64, 32, HOUR_MILLIS);
+      long now = System.nanoTime();
+
+      runRequests(controller, 32, 100, 0, 1);
+      assertThat(controller.adjust(now + SECOND_NANOS), is(16));
+
+      runRequests(controller, 16, 100, 30, 0);
+      assertThat(controller.adjust(now + 2 * SECOND_NANOS), is(8));
+
+      // Fewer errors than the maximum rate are expected of any site.
+      runRequests(controller, 8, 100, 10, 0);
+      assertThat(controller.adjust(now + 3 * SECOND_NANOS), is(9));
+
+      // Latency well above the lowest seen means the server is overloaded.
+      runRequests(controller, 9, 100, 0, 0, LATENCY_NANOS * 3);
+      assertThat(controller.adjust(now + 4 * SECOND_NANOS), is(4));
+
+      // The limit is never cut below the minimum.
+      controller = new ConcurrencyController(3, 64, 4, HOUR_MILLIS);
+      runRequests(controller, 4, 100, 0, 1);
+      assertThat(controller.adjust(System.nanoTime() + SECOND_NANOS), is(3));
+   }
+
+   @Test
+   public void testThroughput()
+   {
+      ConcurrencyController controller = new ConcurrencyController(1, 64, 8, HOUR_MILLIS);
+      long now = System.nanoTime();
+
+      runRequests(controller, 8, 100, 0, 0);
+      assertThat(controller.adjust(now + SECOND_NANOS), is(9));
+
+      // The increase made throughput drop, so it is taken back and more.
+      runRequests(controller, 9, 50, 0, 0);
+      assertThat(controller.adjust(now + 2 * SECOND_NANOS), is(4));
+
+      // A drop that did not follow an increase is not blamed on the limit.
+      runRequests(controller, 4, 50, 0, 0);
+      assertThat(controller.adjust(now + 3 * SECOND_NANOS), is(5));
+      runRequests(controller, 5, 100, 0, 0);
+      assertThat(controller.adjust(now + 4 * SECOND_NANOS), is(6));
+   }
+
+   @Test
+   public void testAcquire() throws Exception
+   {
+      ConcurrencyController controller = new ConcurrencyController(1, 4, 1, HOUR_MILLIS);
+      assertThat(controller.acquire(), is(true));
+
+      CompletableFuture<Boolean> waiting = acquireAsync(controller);
+      assertThat(isBlocked(waiting), is(true));
+      controller.release();
+      assertThat(waiting.get(5, TimeUnit.SECONDS), is(true));
+
+      // Raising the limit wakes a waiting thread.
+      waiting = acquireAsync(controller);
+      assertThat(isBlocked(waiting), is(true));
+      runRequests(controller, 1, 10, 0, 0);
+      assertThat(controller.adjust(System.nanoTime() + SECOND_NANOS), is(2));
+      assertThat(waiting.get(5, TimeUnit.SECONDS), is(true));
+
+      // Closing wakes waiting threads without a slot.
+      waiting = acquireAsync(controller);
+      assertThat(isBlocked(waiting), is(true));
+      controller.close();
+      assertThat(waiting.get(5, TimeUnit.SECONDS), is(false));
+      assertThat(controller.acquire(), is(false));
+   }
+
+   private static void runRequests(ConcurrencyController controller, int concurrent, int requests, int failed, int throttled)
+   {
+      runRequests(controller, concurrent, requests, failed, throttled, LATENCY_NANOS);
+   }
+
+   private static void runRequests(ConcurrencyController controller, int concurrent, int requests, int failed, int throttled,
+         long latencyNanos)
+   {
+      for (int i = 0; i < requests; i += concurrent)
+      {
+         int batch = Math.min(concurrent, requests - i);
+         for (int j = 0; j < batch; ++j)
+            controller.requestStarted();
+         for (int j = 0; j < batch; ++j)
+            controller.requestDone(latencyNanos, (i + j < failed), (i + j < throttled));
+      }
+   }
+
+   private static CompletableFuture<Boolean> acquireAsync(ConcurrencyController controller)
+   {
+      return CompletableFuture.supplyAsync(() -> {
+         try
+         {
+            return controller.acquire();
+         }
+         catch (InterruptedException ex)
+         {
+            throw new IllegalStateException(ex);
+         }
+      });
+   }
+
+   private static boolean isBlocked(CompletableFuture<Boolean> future) throws Exception
+   {
+      try
+      {
+         future.get(100, TimeUnit.MILLISECONDS);
+         return false;
+      }
+      catch (TimeoutException ex)
+      {
+         return true;
+      }
+   }
+}
@@ -0,0 +1,165 @@
+package com.rolls.crawler.crawl;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.startsWith;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+@SuppressWarnings("javadoc")
+public class CrawlCheckpointTest
+{
+   private static Path testPath = Paths.get("/JUnit_Test").toAbsolutePath();
+   private static final String baseUrl = "http://www.notrealsite.org";
+
+   @BeforeEach
+   @AfterEach
+   private void deleteTestPath() throws IOException
+   {
+      File pathFile = testPath.toFile();
+      if (pathFile.exists())
+         FileUtils.deleteDirectory(pathFile);
+   }
+
+   @Test
+   public void testWriteRead()
+   {
+      CrawlCheckpoint checkpoint = new CrawlCheckpoint(testPath, 0);
+      assertThat(checkpoint.exists(), is(false));
+
+      checkpoint.open(baseUrl, false);
+      checkpoint.write(createPage("/", "Home", "/a.html", "/b.html"));
+      checkpoint.write(createPage("/a.html", null));
+      checkpoint.close();
+      assertThat(checkpoint.getPagesWritten(), is(2L));
+
+      // Writes after close are ignored.
+      checkpoint.write(createPage("/c.html", null));
+
+      List<CrawlPage> pages = readPages(checkpoint);
+      assertThat(pages.size(), is(2));
+      assertThat(pages.get(0).getUrl(), is(baseUrl + "/"));
+      assertThat(pages.get(0).getTitle(), is("Home"));
+      assertThat(pages.get(0).getLoadError(), is(nullValue()));
+      assertThat(pages.get(0).getInternalLinks(), contains(baseUrl + "/a.html", baseUrl + "/b.html"));
+      assertThat(pages.get(0).getExternalLinks(), contains("http://www.google.com"));
+      assertThat(pages.get(1).getUrl(), is(baseUrl + "/a.html"));
+      assertThat(pages.get(1).getInternalLinks(), is(nullValue()));
+
+      // Resuming appends to the pages already written.
+      checkpoint.open(baseUrl, true);
+      checkpoint.write(createPage("/b.html", "B"));
+      checkpoint.close();
+      assertThat(readPages(checkpoint).size(), is(3));
+
+      // A new crawl replaces them.
+      checkpoint.open(baseUrl, false);
+      checkpoint.close();
+      assertThat(readPages(checkpoint).size(), is(0));
+   }
+
+   @Test
+   public void testCutShort() throws IOException
+   {
+      CrawlCheckpoint checkpoint = new CrawlCheckpoint(testPath, 0);
+      checkpoint.open(baseUrl, false);
+      checkpoint.write(createPage("/", "Home", "/a.html"));
+      checkpoint.write(createPage("/a.html", "A", "/b.html"));
+      checkpoint.close();
+
+      // Lose the end of the last record as a crash would.
+      Path file = checkpoint.getFile();
+      try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw"))
+      {
+         raf.setLength(raf.length() - 5);
+      }
+      assertThat(readPages(checkpoint).size(), is(1));
+
+      // The partial record is overwritten by the next page.
+      checkpoint.open(baseUrl, true);
+      checkpoint.write(createPage("/b.html", "B"));
+      checkpoint.close();
+
+      List<CrawlPage> pages = readPages(checkpoint);
+      assertThat(pages.size(), is(2));
+      assertThat(pages.get(1).getTitle(), is("B"));
+      assertThat(Files.size(file) > 0, is(true));
+   }
+
+   @Test
+   public void testLongStrings()
+   {
+      // Strings over the 65535 byte limit of writeUTF, such as the title of a page with an unclosed title tag.
+      String title = StringUtils.repeat("\u00e9t\u00e9 ", 20000);
+      String link = "/" + StringUtils.repeat("a", 70000) + ".html";
+
+      CrawlCheckpoint checkpoint = new CrawlCheckpoint(testPath, 0);
+      checkpoint.open(baseUrl, false);
+      checkpoint.write(createPage("/", title, link));
+      checkpoint.close();
+
+      List<CrawlPage> pages = readPages(checkpoint);
+      assertThat(pages.size(), is(1));
+      assertThat(pages.get(0).getTitle(), is(title));
+      assertThat(pages.get(0).getInternalLinks(), contains(baseUrl + link));
+   }
+
+   @Test
+   public void testOtherStartingUrl()
+   {
+      CrawlCheckpoint checkpoint = new CrawlCheckpoint(testPath, 0);
+      checkpoint.open(baseUrl, false);
+      checkpoint.close();
+
+      IllegalStateException ex = assertThrows(IllegalStateException.class, () -> {
+         checkpoint.open("http://www.othersite.org", true);
+      });
+      assertThat(ex.getMessage(), startsWith("The checkpoint is of a crawl starting at " + baseUrl));
+   }
+
+   @Test
+   public void testNull()
+   {
+      IllegalArgumentException ex = assertThrows(IllegalArgumentException.class, () -> {
+         new CrawlCheckpoint(null, 0);
+      });
+      assertThat(ex.getMessage(), is("Null checkpoint path."));
+   }
+
+   private static CrawlPage createPage(String path, String title, String... internalPaths)
+   {
+      CrawlPage page = new CrawlPage();
+      page.setUrl(baseUrl + path);
+      page.setTitle(title);
+      if (internalPaths.length > 0)
+      {
+         List<String> links = new ArrayList<>();
+         Arrays.stream(internalPaths).forEach((internalPath) -> links.add(baseUrl + internalPath));
+         page.setInternalLinks(links);
+         page.setExternalLinks(Arrays.asList("http://www.google.com"));
+      }
+      return page;
+   }
+
+   private static List<CrawlPage> readPages(CrawlCheckpoint checkpoint)
+   {
+      List<CrawlPage> pages = new ArrayList<>();
+      checkpoint.read(baseUrl, (page) -> pages.add(page));
+      return pages;
+   }
+}
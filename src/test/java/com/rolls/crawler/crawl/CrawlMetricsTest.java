@@ -0,0 +1,95 @@
+package com.rolls.crawler.crawl;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.junit.jupiter.api.Test;
+import com.rolls.crawler.parse.FetchedPage;
+
+@SuppressWarnings("javadoc")
+public class CrawlMetricsTest
+{
+   @Test
+   public void testStages()
+   {
+      CrawlMetrics metrics = new CrawlMetrics();
+      assertThrows(IllegalArgumentException.class, () -> metrics.getHistogram(null));
+
+      FetchedPage page = new FetchedPage();
+      page.setUrl("http://www.a.org/");
+      page.setBody(new byte[100]);
+      page.setConnectNanos(TimeUnit.MILLISECONDS.toNanos(20));
+      page.setFirstByteNanos(TimeUnit.MILLISECONDS.toNanos(50));
+      page.setDownloadNanos(TimeUnit.MILLISECONDS.toNanos(10));
+      metrics.pageFetched(page);
+
+      page = new FetchedPage();
+      page.setUrl("http://www.a.org/slow");
+      page.setThrottled(true);
+      metrics.pageFetched(page);
+
+      metrics.record(CrawlStage.PARSE, TimeUnit.MILLISECONDS.toNanos(4));
+      metrics.pageCrawled(false);
+      metrics.pageCrawled(true);
+
+      // Stages the parser did not time are not recorded.
+      assertThat(metrics.getHistogram(CrawlStage.DNS).getCount(), is(0L));
+      assertThat(metrics.getHistogram(CrawlStage.CONNECT).getCount(), is(1L));
+      assertThat(metrics.getHistogram(CrawlStage.FIRST_BYTE).getCount(), is(1L));
+      assertThat(metrics.getHistogram(CrawlStage.DOWNLOAD).getCount(), is(1L));
+      assertThat(metrics.getMaxMillis().get("FIRST_BYTE"), is(50.0));
+      assertThat(metrics.getMeanMillis().get("PARSE"), is(4.0));
+      assertThat(metrics.getStageCounts().get("ROUTE"), is(0L));
+      assertThat(metrics.getStageCounts().size(), is(CrawlStage.values().length));
+
+      assertThat(metrics.getPagesCrawled(), is(2L));
+      assertThat(metrics.getPagesFailed(), is(1L));
+      assertThat(metrics.getRequestsThrottled(), is(1L));
+      assertThat(metrics.getBytesDownloaded(), is(100L));
+      assertThat(metrics.toString(), containsString("FIRST_BYTE: count=1"));
+
+      metrics.reset();
+      assertThat(metrics.getPagesCrawled(), is(0L));
+      assertThat(metrics.getHistogram(CrawlStage.CONNECT).getCount(), is(0L));
+      assertThat(metrics.getPagesPerSecond(), is(0.0));
+   }
+
+   @Test
+   public void testGauges()
+   {
+      CrawlMetrics metrics = new CrawlMetrics();
+      assertThat(metrics.getFrontierSize(), is(0L));
+
+      metrics.setGauges(() -> 12, () -> 3);
+      assertThat(metrics.getFrontierSize(), is(12L));
+      assertThat(metrics.getPagesInFlight(), is(3L));
+
+      metrics.setGauges(null, null);
+      assertThat(metrics.getFrontierSize(), is(0L));
+      assertThat(metrics.getPagesInFlight(), is(0L));
+   }
+
+   @Test
+   public void testMXBean() throws Exception
+   {
+      CrawlMetrics metrics = new CrawlMetrics();
+      metrics.pageCrawled(false);
+
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName name = new ObjectName("com.rolls.crawler:type=CrawlMetrics,name=CrawlMetricsTest");
+      server.registerMBean(metrics, name);
+      try
+      {
+         assertThat(server.getAttribute(name, "PagesCrawled"), is(1L));
+      }
+      finally
+      {
+         server.unregisterMBean(name);
+      }
+   }
+}
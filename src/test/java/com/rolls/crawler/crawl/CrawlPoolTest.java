@@ -0,0 +1,194 @@
+package com.rolls.crawler.crawl;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import org.junit.jupiter.api.Test;
+import com.rolls.crawler.test.TestTimer;
+
+@SuppressWarnings("javadoc")
+public class CrawlPoolTest
+{
+   private static class TestSite implements CrawlPool.Site
+   {
+      private final AtomicBoolean open;
+      private final AtomicInteger total;
+      private final AtomicInteger maxTotal;
+      private final AtomicInteger pages = new AtomicInteger();
+
+      public TestSite(AtomicBoolean open, AtomicInteger total, AtomicInteger maxTotal)
+      {
+         this.open = open;
+         this.total = total;
+         this.maxTotal = maxTotal;
+      }
+
+      @Override
+      public Runnable nextPage()
+      {
+         if (!open.get() || total.get() >= maxTotal.get())
+            return null;
+
+         total.incrementAndGet();
+         return pages::incrementAndGet;
+      }
+   }
+
+   @Test
+   public void testWeightedTurns() throws InterruptedException
+   {
+      CrawlPool pool = new CrawlPool(1);
+      try
+      {
+         AtomicBoolean open = new AtomicBoolean();
+         AtomicInteger total = new AtomicInteger();
+         AtomicInteger maxTotal = new AtomicInteger(400);
+         TestSite light = new TestSite(open, total, maxTotal);
+         TestSite heavy = new TestSite(open, total, maxTotal);
+         pool.register(light, 1);
+         pool.register(heavy, 3);
+         assertThat(pool.getSiteCount(), is(2));
+         open.set(true);
+         pool.wake();
+
+         waitFor(() -> light.pages.get() + heavy.pages.get() == 400);
+         assertThat((double)heavy.pages.get() / light.pages.get(), closeTo(3, 0.1));
+      }
+      finally
+      {
+         pool.close();
+      }
+   }
+
+   @Test
+   public void testIdleSiteBuildsNoCredit() throws InterruptedException
+   {
+      CrawlPool pool = new CrawlPool(1);
+      try
+      {
+         AtomicBoolean open = new AtomicBoolean(true);
+         AtomicBoolean lateOpen = new AtomicBoolean();
+         AtomicInteger total = new AtomicInteger();
+         AtomicInteger maxTotal = new AtomicInteger(500);
+         TestSite busy = new TestSite(open, total, maxTotal);
+         TestSite late = new TestSite(lateOpen, total, maxTotal);
+         pool.register(busy, 1);
+         pool.register(late, 1);
+         waitFor(() -> busy.pages.get() == 500);
+
+         // The site that had nothing to crawl shares the threads from now on, instead of catching up.
+         lateOpen.set(true);
+         maxTotal.set(1000);
+         pool.wake();
+         waitFor(() -> busy.pages.get() + late.pages.get() == 1000);
+         assertThat((double)late.pages.get(), closeTo(250, 2));
+      }
+      finally
+      {
+         pool.close();
+      }
+   }
+
+   @Test
+   public void testUnregisterWaitsForPages() throws InterruptedException
+   {
+      CrawlPool pool = new CrawlPool(2);
+      try
+      {
+         CountDownLatch started = new CountDownLatch(1);
+         CountDownLatch release = new CountDownLatch(1);
+         AtomicBoolean taken = new AtomicBoolean();
+         CrawlPool.Site site = () -> {
+            if (taken.getAndSet(true))
+               return null;
+            return () -> {
+               started.countDown();
+               try
+               {
+                  release.await(10, TimeUnit.SECONDS);
+               }
+               catch (InterruptedException e)
+               {
+                  Thread.currentThread().interrupt();
+               }
+            };
+         };
+
+         pool.register(site, 1);
+         assertThat(started.await(1, TimeUnit.SECONDS), is(true));
+         pool.unregister(site);
+         assertThat(pool.getSiteCount(), is(0));
+         assertThat(pool.awaitIdle(site, 100, TimeUnit.MILLISECONDS), is(false));
+
+         release.countDown();
+         assertThat(pool.awaitIdle(site, 1, TimeUnit.SECONDS), is(true));
+      }
+      finally
+      {
+         pool.close();
+      }
+   }
+
+   @Test
+   public void testWakeSite() throws InterruptedException
+   {
+      CrawlPool pool = new CrawlPool(2);
+      try
+      {
+         // A site with no page ready sleeps until the delay it asked for, not a poll of every site.
+         AtomicInteger delayedCalls = new AtomicInteger();
+         CountDownLatch delayedRan = new CountDownLatch(1);
+         CrawlPool.Site[] delayed = new CrawlPool.Site[1];
+         delayed[0] = () -> {
+            int call = delayedCalls.incrementAndGet();
+            if (call == 1)
+               pool.wake(delayed[0], TimeUnit.MILLISECONDS.toNanos(200));
+            return (call == 2 ? delayedRan::countDown : null);
+         };
+
+         // A site woken while it is asked for a page is asked again, even though it had none.
+         AtomicInteger wokenCalls = new AtomicInteger();
+         CountDownLatch wokenRan = new CountDownLatch(1);
+         CrawlPool.Site[] woken = new CrawlPool.Site[1];
+         woken[0] = () -> {
+            int call = wokenCalls.incrementAndGet();
+            if (call == 1)
+               pool.wake(woken[0]);
+            return (call == 2 ? wokenRan::countDown : null);
+         };
+
+         TestTimer testTimer = TestTimer.startNewTimer();
+         pool.register(delayed[0], 1);
+         pool.register(woken[0], 1);
+         assertThat(wokenRan.await(1, TimeUnit.SECONDS), is(true));
+         assertThat(delayedRan.await(1, TimeUnit.SECONDS), is(true));
+         assertThat(testTimer.endTimer(), greaterThanOrEqualTo(190L));
+
+         // Once the pages are finished and the sites had nothing more, they sleep until woken.
+         Thread.sleep(100);
+         int calls = delayedCalls.get() + wokenCalls.get();
+         Thread.sleep(200);
+         assertThat(delayedCalls.get() + wokenCalls.get(), is(calls));
+      }
+      finally
+      {
+         pool.close();
+      }
+   }
+
+   private static void waitFor(BooleanSupplier condition) throws InterruptedException
+   {
+      long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+      while (!condition.getAsBoolean())
+      {
+         assertThat(System.nanoTime() - deadline < 0, is(true));
+         Thread.sleep(1);
+      }
+   }
+}
@@ -0,0 +1,166 @@
+package com.rolls.crawler.crawl;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.jupiter.api.Test;
+
+@SuppressWarnings("javadoc")
+public class CrawlScopeTest
+{
+   @Test
+   public void testInvalid()
+   {
+      IllegalArgumentException ex = assertThrows(IllegalArgumentException.class, () -> {
+         new CrawlScope(null, Collections.singletonList("a.org"), null, null);
+      });
+      assertThat(ex.getMessage(), is("Null schemes."));
+
+      ex = assertThrows(IllegalArgumentException.class, () -> {
+         new CrawlScope(Collections.singletonList("http"), Collections.emptyList(), null, null);
+      });
+      assertThat(ex.getMessage(), is("Null hosts."));
+
+      ex = assertThrows(IllegalArgumentException.class, () -> {
+         new CrawlScope(Collections.singletonList("ht tp"), Collections.singletonList("a.org"), null, null);
+      });
+      assertThat(ex.getMessage(), is("Invalid scheme ht tp."));
+
+      ex = assertThrows(IllegalArgumentException.class, () -> {
+         new CrawlScope(Collections.singletonList("http"), Collections.singletonList("a.*.org"), null, null);
+      });
+      assertThat(ex.getMessage(), is("Invalid host a.*.org."));
+
+      ex = assertThrows(IllegalArgumentException.class, () -> {
+         new CrawlScope(Collections.singletonList("http"), Collections.singletonList("a.org/b"), null, null);
+      });
+      assertThat(ex.getMessage(), is("Invalid host a.org/b."));
+
+      ex = assertThrows(IllegalArgumentException.class, () -> {
+         new CrawlScope(Collections.singletonList("http"), Collections.singletonList("a.org"),
+               Collections.singletonList("docs"), null);
+      });
+      assertThat(ex.getMessage(), is("Invalid path docs."));
+   }
+
+   @Test
+   public void testHosts()
+   {
+      CrawlScope scope = new CrawlScope(Collections.singletonList("http"),
+            Arrays.asList("www.a.org", "*.b.org", "localhost:8080"), null, null);
+
+      assertThat(scope.contains("http://www.a.org"), is(true));
+      assertThat(scope.contains("http://www.a.org/page.html"), is(true));
+      assertThat(scope.contains("HTTP://WWW.A.ORG/page.html"), is(true));
+      assertThat(scope.contains("http://user:pw@www.a.org/"), is(true));
+      assertThat(scope.contains("http://www.a.org:80/"), is(true));
+      assertThat(scope.contains("http://www.a.org:/"), is(true));
+      assertThat(scope.contains("http://www.a.org?q=1"), is(true));
+      assertThat(scope.contains("http://a.org"), is(false));
+      assertThat(scope.contains("http://www.a.org.evil.com"), is(false));
+      assertThat(scope.contains("http://xwww.a.org"), is(false));
+      assertThat(scope.contains("http://www.a.org:8080"), is(false));
+      assertThat(scope.contains("http://www.a.org@evil.com/"), is(false));
+
+      assertThat(scope.contains("http://x.b.org/"), is(true));
+      assertThat(scope.contains("http://x.y.b.org/"), is(true));
+      assertThat(scope.contains("http://b.org/"), is(false));
+      assertThat(scope.contains("http://xb.org/"), is(false));
+
+      assertThat(scope.contains("http://localhost:8080/a"), is(true));
+      assertThat(scope.contains("http://localhost/a"), is(false));
+      assertThat(scope.contains("http://localhost:8081/a"), is(false));
+
+      assertThat(scope.contains("www.a.org"), is(false));
+      assertThat(scope.contains("mailto:user@www.a.org"), is(false));
+      assertThat(scope.contains("http://"), is(false));
+   }
+
+   @Test
+   public void testSchemes()
+   {
+      CrawlScope scope = new CrawlScope(Collections.singletonList("http"), Collections.singletonList("a.org"), null, null);
+      assertThat(scope.contains("http://a.org/"), is(true));
+      assertThat(scope.contains("https://a.org/"), is(false));
+      assertThat(scope.contains("ftp://a.org/"), is(false));
+
+      scope = new CrawlScope(Arrays.asList("http", "HTTPS"), Collections.singletonList("a.org"), null, null);
+      assertThat(scope.contains("http://a.org/"), is(true));
+      assertThat(scope.contains("https://a.org/"), is(true));
+      assertThat(scope.contains("https://a.org:443/"), is(true));
+      assertThat(scope.contains("https://a.org:80/"), is(false));
+      assertThat(scope.contains("httpx://a.org/"), is(false));
+   }
+
+   @Test
+   public void testPaths()
+   {
+      CrawlScope scope = new CrawlScope(Collections.singletonList("http"), Collections.singletonList("a.org"),
+            null, Arrays.asList("/admin", "/login.html"));
+      assertThat(scope.contains("http://a.org"), is(true));
+      assertThat(scope.contains("http://a.org/about.html"), is(true));
+      assertThat(scope.contains("http://a.org/admin"), is(false));
+      assertThat(scope.contains("http://a.org/admin/one.html"), is(false));
+      assertThat(scope.contains("http://a.org/login.html?next=/"), is(false));
+      assertThat(scope.contains("http://a.org/about.html?next=/admin"), is(true));
+
+      scope = new CrawlScope(Collections.singletonList("http"), Collections.singletonList("a.org"),
+            Arrays.asList("/docs", "/docs/old/keep"), Collections.singletonList("/docs/old"));
+      assertThat(scope.contains("http://a.org"), is(false));
+      assertThat(scope.contains("http://a.org/about.html"), is(false));
+      assertThat(scope.contains("http://a.org/docs"), is(true));
+      assertThat(scope.contains("http://a.org/docs/new/a.html"), is(true));
+      assertThat(scope.contains("http://a.org/docs/old/a.html"), is(false));
+      assertThat(scope.contains("http://a.org/docs/old/keep/a.html"), is(true));
+      assertThat(scope.contains("http://a.org/Docs"), is(false));
+
+      scope = new CrawlScope(Collections.singletonList("http"), Collections.singletonList("a.org"),
+            Collections.singletonList("/"), Collections.singletonList("/"));
+      assertThat(scope.contains("http://a.org"), is(false));
+      assertThat(scope.contains("http://a.org/a.html"), is(false));
+
+      scope = new CrawlScope(Collections.singletonList("http"), Collections.singletonList("a.org"),
+            Collections.singletonList("/"), null);
+      assertThat(scope.contains("http://a.org"), is(true));
+      assertThat(scope.contains("http://a.org#top"), is(true));
+   }
+
+   @Test
+   public void testNoAllocation()
+   {
+      java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+      if (!(bean instanceof com.sun.management.ThreadMXBean))
+         return;
+
+      com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean)bean;
+      if (!threadBean.isThreadAllocatedMemorySupported() || !threadBean.isThreadAllocatedMemoryEnabled())
+         return;
+
+      CrawlScope scope = new CrawlScope(Arrays.asList("http", "https"), Arrays.asList("www.a.org", "*.b.org"),
+            Collections.singletonList("/"), Collections.singletonList("/admin"));
+      String[] urls = {
+            "http://www.a.org/about.html",
+            "https://x.b.org/admin/one.html",
+            "http://www.c.org/",
+            "ftp://www.a.org/"
+            };
+
+      // Warm up so the measured loop is compiled.
+      int matches = 0;
+      for (int i = 0; i < 100000; ++i)
+         matches += (scope.contains(urls[i % urls.length]) ? 1 : 0);
+
+      long threadId = Thread.currentThread().getId();
+      long before = threadBean.getThreadAllocatedBytes(threadId);
+      for (int i = 0; i < 100000; ++i)
+         matches += (scope.contains(urls[i % urls.length]) ? 1 : 0);
+      long allocated = threadBean.getThreadAllocatedBytes(threadId) - before;
+
+      assertThat(matches, is(50000));
+      assertThat(allocated, lessThan(10000L));
+   }
+}
@@ -2,23 +2,51 @@ package com.rolls.crawler.crawl;
 
 import static org.hamcrest.CoreMatchers.allOf;
 import static org.hamcrest.CoreMatchers.anyOf;
+import static org.hamcrest.CoreMatchers.containsString;
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.CoreMatchers.nullValue;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.containsInAnyOrder;
 import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.everyItem;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
 import static org.hamcrest.Matchers.hasProperty;
+import static org.hamcrest.Matchers.instanceOf;
 import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.hamcrest.Matchers.not;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.fail;
+import java.io.IOException;
 import java.net.MalformedURLException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
+import java.util.EnumSet;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import org.apache.commons.io.FileUtils;
 import org.junit.jupiter.api.Test;
+import com.rolls.crawler.parse.LinkDetails;
+import com.rolls.crawler.parse.PageDetails;
+import com.rolls.crawler.parse.Parser;
 import com.rolls.crawler.parse.ParserImpl;
+import com.rolls.crawler.parse.RobotsDetails;
+import com.rolls.crawler.parse.SitemapParser;
+import com.rolls.crawler.test.SyntheticAsyncParser;
+import com.rolls.crawler.test.SyntheticParser;
 import com.rolls.crawler.test.TestParser;
 import com.rolls.crawler.test.TestTimer;
 
@@ -112,7 +140,7 @@ public class CrawlerImplTest
 
       CrawlerImpl crawler = new CrawlerImpl(2, parser);
       crawler.addObserver(observer);
-      crawler.start(TestParser.baseUrl);
+      CompletableFuture<CrawlResult> result = crawler.start(TestParser.baseUrl);
 
       IllegalStateException ex = assertThrows(IllegalStateException.class, () -> {
          crawler.start("http://www.notrealsite.org");
@@ -129,6 +157,41 @@ public class CrawlerImplTest
       assertThat(observer.durationMillis, lessThan(100L));
       assertThat(observer.cancelled, is(true));
       assertThat(observer.pages, is(empty()));
+
+      assertThat(result.isDone(), is(true));
+      assertThat(result.join().isCancelled(), is(true));
+      assertThat(result.join().getStartTime(), is(observer.startTime));
+   }
+
+   @Test
+   public void testStartResult() throws Exception
+   {
+      TestObserver observer = new TestObserver();
+      CrawlerImpl crawler = new CrawlerImpl(4, new SyntheticParser(100, 5, 0));
+      crawler.addObserver(synchronizedObserver(observer));
+
+      // The next crawl can be started as soon as one completes.
+      TestTimer testTimer = TestTimer.startNewTimer();
+      CompletableFuture<CrawlResult> second = crawler.start(SyntheticParser.baseUrl)
+            .thenCompose((result) -> {
+               assertThat(result.isCancelled(), is(false));
+               assertThat(observer.pages.size(), is(100));
+               try
+               {
+                  return crawler.start(SyntheticParser.pageUrl(1));
+               }
+               catch (MalformedURLException e)
+               {
+                  throw new IllegalStateException(e);
+               }
+            });
+
+      CrawlResult result = second.get(10, TimeUnit.SECONDS);
+      assertThat(testTimer.endTimer(), lessThan(5000L));
+      assertThat(result.isCancelled(), is(false));
+      assertThat(result.getDurationMillis(), is(observer.durationMillis));
+      assertThat(observer.pages.size(), is(200));
+      assertThat(crawler.await(1, TimeUnit.SECONDS), is(true));
    }
 
    @Test
@@ -231,4 +294,909 @@ public class CrawlerImplTest
                   )
             ));
    }
+
+   @Test
+   public void testConstructorNullSettings()
+   {
+      IllegalArgumentException ex = assertThrows(IllegalArgumentException.class, () -> {
+         new CrawlerImpl(null, new ParserImpl(500));
+      });
+      assertThat(ex.getMessage(), is("Null settings."));
+   }
+
+   @Test
+   public void testConcurrentCrawl() throws MalformedURLException
+   {
+      checkConcurrentCrawl(SeenUrlStore.STRING);
+   }
+
+   @Test
+   public void testConcurrentCrawlFingerprint() throws MalformedURLException
+   {
+      checkConcurrentCrawl(SeenUrlStore.FINGERPRINT);
+   }
+
+   @Test
+   public void testConcurrentCrawlBloom() throws MalformedURLException
+   {
+      checkConcurrentCrawl(SeenUrlStore.BLOOM);
+   }
+
+   @Test
+   public void testConcurrentCrawlSpillingFrontier() throws MalformedURLException
+   {
+      checkConcurrentCrawl(SeenUrlStore.STRING, 100);
+   }
+
+   @Test
+   public void testConcurrentCrawlStaged() throws MalformedURLException
+   {
+      CrawlSettings settings = new CrawlSettings();
+      settings.setNumFetchThreads(16);
+      settings.setNumParseThreads(2);
+      settings.setParseQueueSize(4);
+      checkConcurrentCrawl(settings);
+   }
+
+   @Test
+   public void testConcurrentCrawlVirtualThreads() throws MalformedURLException
+   {
+      CrawlSettings settings = new CrawlSettings();
+      settings.setVirtualThreads(true);
+      settings.setMaxInFlightPages(64);
+      SyntheticParser parser = checkConcurrentCrawl(settings, 1000);
+      assertThat(parser.getMaxActiveFetches(), lessThanOrEqualTo(64));
+   }
+
+   @Test
+   public void testConcurrentCrawlVirtualThreadsStaged() throws MalformedURLException
+   {
+      CrawlSettings settings = new CrawlSettings();
+      settings.setVirtualThreads(true);
+      settings.setMaxInFlightPages(64);
+      settings.setNumFetchThreads(1);
+      settings.setNumParseThreads(2);
+      SyntheticParser parser = checkConcurrentCrawl(settings, 1000);
+      assertThat(parser.getMaxActiveFetches(), lessThanOrEqualTo(64));
+   }
+
+   @Test
+   public void testConcurrentCrawlAsync() throws MalformedURLException
+   {
+      CrawlSettings settings = new CrawlSettings();
+      settings.setMaxInFlightPages(64);
+      settings.setNumParseThreads(2);
+      SyntheticParser parser = checkConcurrentCrawl(new SyntheticAsyncParser(5000, 10, 1000), settings);
+      assertThat(parser.getMaxActiveFetches(), lessThanOrEqualTo(64));
+   }
+
+   @Test
+   public void testObserverBackpressure() throws MalformedURLException
+   {
+      CrawlSettings settings = new CrawlSettings();
+      settings.setNumThreads(8);
+      settings.setObserverBufferSize(64);
+      settings.setObserverBatchSize(16);
+
+      // A slow observer that drops pages does not hold up the crawl or the other observers.
+      List<Integer> batchSizes = Collections.synchronizedList(new LinkedList<>());
+      TestObserver slow = new TestObserver() {
+         @Override
+         public void onPages(List<CrawlPage> pages)
+         {
+            batchSizes.add(pages.size());
+            super.onPages(pages);
+            try
+            {
+               Thread.sleep(50);
+            }
+            catch (InterruptedException e)
+            {
+               Thread.currentThread().interrupt();
+            }
+         }
+      };
+
+      CrawlerImpl crawler = new CrawlerImpl(settings, new SyntheticParser(2000, 10, 0));
+      assertThrows(IllegalArgumentException.class, () -> {
+         crawler.addObserver(slow, null);
+      });
+      crawler.addObserver(slow, Backpressure.DROP);
+
+      TestTimer testTimer = TestTimer.startNewTimer();
+      TestObserver observer = runCrawl(crawler);
+      assertThat(testTimer.endTimer(), lessThan(5000L));
+
+      assertThat(observer.pages.size(), is(2000));
+      assertThat(slow.pages.size(), lessThan(2000));
+      assertThat(slow.cancelled, is(false));
+      assertThat(slow.startTime, not(nullValue()));
+      assertThat(batchSizes, everyItem(lessThanOrEqualTo(16)));
+   }
+
+   @Test
+   public void testSubscriber() throws MalformedURLException
+   {
+      // Pages are only started as they are asked for, apart from the starting URL.
+      SyntheticParser parser = new SyntheticParser(100, 5, 0);
+      TestSubscriber subscriber = new TestSubscriber(5) {
+         @Override
+         public void onNext(CrawlPage page)
+         {
+            super.onNext(page);
+            if (parser.getParseCount() > requested + 1)
+               overRequested = true;
+            if (pages.size() % 5 == 0)
+               request(5);
+         }
+      };
+
+      CrawlSettings settings = new CrawlSettings();
+      settings.setNumThreads(8);
+      CrawlerImpl crawler = new CrawlerImpl(settings, parser);
+      assertThrows(IllegalArgumentException.class, () -> {
+         crawler.subscribe(null);
+      });
+      crawler.subscribe(subscriber);
+      TestObserver observer = runCrawl(crawler);
+
+      assertThat(observer.pages.size(), is(100));
+      assertThat(subscriber.pages, is(observer.pages.stream().map(CrawlPage::getUrl).collect(Collectors.toList())));
+      assertThat(subscriber.overRequested, is(false));
+      assertThat(subscriber.completed, is(true));
+      assertThat(subscriber.error, is(nullValue()));
+
+      // A subscriber only gets the pages of one crawl.
+      observer = runCrawl(crawler);
+      assertThat(observer.pages.size(), is(100));
+      assertThat(subscriber.pages.size(), is(100));
+   }
+
+   @Test
+   public void testSubscriberCancel() throws MalformedURLException
+   {
+      // A cancelled subscription no longer holds back the crawl.
+      TestSubscriber subscriber = new TestSubscriber(10) {
+         @Override
+         public void onNext(CrawlPage page)
+         {
+            super.onNext(page);
+            if (pages.size() == 10)
+               subscription.cancel();
+         }
+      };
+      CrawlerImpl crawler = new CrawlerImpl(4, new SyntheticParser(100, 5, 0));
+      crawler.subscribe(subscriber);
+      TestObserver observer = runCrawl(crawler);
+
+      assertThat(observer.pages.size(), is(100));
+      assertThat(subscriber.pages.size(), is(10));
+      assertThat(subscriber.completed, is(false));
+      assertThat(subscriber.error, is(nullValue()));
+
+      // An invalid request fails the subscription.
+      subscriber = new TestSubscriber(0);
+      crawler.subscribe(subscriber);
+      crawler.start(SyntheticParser.baseUrl);
+      subscriber.request(0);
+      assertThat(crawler.await(10, TimeUnit.SECONDS), is(true));
+      assertThat(subscriber.pages, is(empty()));
+      assertThat(subscriber.error, is(instanceOf(IllegalArgumentException.class)));
+   }
+
+   @Test
+   public void testSubscriberCancelCrawl() throws MalformedURLException
+   {
+      // A subscriber that asks for nothing holds back the crawl until it is cancelled.
+      TestSubscriber subscriber = new TestSubscriber(0);
+      SyntheticParser parser = new SyntheticParser(100, 5, 0);
+      CrawlerImpl crawler = new CrawlerImpl(4, parser);
+      crawler.subscribe(subscriber);
+      crawler.start(SyntheticParser.baseUrl);
+
+      assertThat(crawler.await(200, TimeUnit.MILLISECONDS), is(false));
+      assertThat(parser.getParseCount(), is(1));
+
+      TestTimer testTimer = TestTimer.startNewTimer();
+      assertThat(crawler.cancel(), is(true));
+      assertThat(testTimer.endTimer(), lessThan(1000L));
+      assertThat(subscriber.pages, is(empty()));
+      assertThat(subscriber.completed, is(false));
+      assertThat(subscriber.error, is(instanceOf(CancellationException.class)));
+   }
+
+   @Test
+   public void testCrawlPool() throws Exception
+   {
+      // Several crawls share the pool's threads and the parser, each with its own seen URLs.
+      CrawlPool pool = new CrawlPool(4);
+      try
+      {
+         SyntheticParser parser = new SyntheticParser(100, 5, 0);
+         List<TestObserver> observers = new LinkedList<>();
+         List<CompletableFuture<CrawlResult>> results = new LinkedList<>();
+         for (int i = 0; i < 3; ++i)
+         {
+            CrawlSettings settings = new CrawlSettings();
+            settings.setSiteWeight(i + 1);
+            CrawlerImpl crawler = new CrawlerImpl(settings, parser, pool);
+            TestObserver observer = new TestObserver();
+            crawler.addObserver(synchronizedObserver(observer));
+            observers.add(observer);
+            results.add(crawler.start(SyntheticParser.baseUrl));
+         }
+
+         for (CompletableFuture<CrawlResult> result : results)
+            assertThat(result.get(10, TimeUnit.SECONDS).isCancelled(), is(false));
+         for (TestObserver observer : observers)
+            assertThat(observer.pages.size(), is(100));
+         assertThat(parser.getParseCount(), is(300));
+         assertThat(pool.getSiteCount(), is(0));
+
+         // A cancelled crawl leaves the pool to the others.
+         CrawlerImpl crawler = new CrawlerImpl(new CrawlSettings(), new SyntheticParser(100, 5, 100000), pool);
+         crawler.start(SyntheticParser.baseUrl);
+         assertThat(crawler.cancel(), is(true));
+         assertThat(pool.getSiteCount(), is(0));
+         TestObserver observer = runCrawl(new CrawlerImpl(new CrawlSettings(), new SyntheticParser(100, 5, 0), pool));
+         assertThat(observer.pages.size(), is(100));
+      }
+      finally
+      {
+         pool.close();
+      }
+   }
+
+   @Test
+   public void testDuplicateUrls() throws MalformedURLException
+   {
+      // Links that only differ in their form are crawled once, under their normal URL.
+      String baseUrl = "http://www.notrealsite.org";
+      Map<String, Integer> parsed = new ConcurrentHashMap<>();
+      Parser parser = (url) -> {
+         parsed.merge(url, 1, Integer::sum);
+         PageDetails details = new PageDetails();
+         if (url.equals(baseUrl))
+         {
+            details.setLinks(new LinkedHashSet<>(Arrays.asList(
+                  new LinkDetails("a", baseUrl + "/a#top"),
+                  new LinkDetails("a", "HTTP://WWW.NotRealSite.org:80/a"),
+                  new LinkDetails("a", baseUrl + "/x/../a/"),
+                  new LinkDetails("a", baseUrl + "/%62?y=2&x=1"),
+                  new LinkDetails("a", baseUrl + "/b?x=1&y=2")
+                  )));
+         }
+         return details;
+      };
+
+      CrawlSettings settings = new CrawlSettings();
+      settings.setNumThreads(4);
+      TestObserver observer = runCrawl(new CrawlerImpl(settings, parser), baseUrl);
+      assertThat(parsed.keySet(), containsInAnyOrder(baseUrl, baseUrl + "/a", baseUrl + "/b?x=1&y=2"));
+      assertThat(parsed.values(), everyItem(is(1)));
+      assertThat(observer.pages.size(), is(3));
+      assertThat(observer.pages.get(0).getInternalLinks().size(), is(5));
+
+      // With only the trailing slash rule, each form is crawled.
+      parsed.clear();
+      settings.setUrlRules(EnumSet.of(UrlRule.REMOVE_TRAILING_SLASH));
+      observer = runCrawl(new CrawlerImpl(settings, parser), baseUrl);
+      assertThat(parsed.size(), is(6));
+      assertThat(observer.pages.size(), is(6));
+   }
+
+   @Test
+   public void testMixedCaseStartingUrl() throws MalformedURLException
+   {
+      // The path and query of the starting URL keep their case, so the site's own links to it match.
+      String pageUrl = "http://www.notrealsite.org/Docs/Index.html?Lang=EN";
+      Map<String, Integer> parsed = new ConcurrentHashMap<>();
+      Parser parser = (url) -> {
+         parsed.merge(url, 1, Integer::sum);
+         PageDetails details = new PageDetails();
+         details.setLinks(new LinkedHashSet<>(Arrays.asList(new LinkDetails("a", pageUrl))));
+         return details;
+      };
+
+      TestObserver observer = runCrawl(new CrawlerImpl(4, parser), "  HTTP://WWW.NotRealSite.org/Docs/Index.html?Lang=EN ");
+      assertThat(parsed.keySet(), contains(pageUrl));
+      assertThat(parsed.get(pageUrl), is(1));
+      assertThat(observer.pages.size(), is(1));
+   }
+
+   @Test
+   public void testScope() throws MalformedURLException
+   {
+      String baseUrl = "http://www.notrealsite.org";
+      Map<String, Integer> parsed = new ConcurrentHashMap<>();
+      Parser parser = (url) -> {
+         parsed.merge(url, 1, Integer::sum);
+         PageDetails details = new PageDetails();
+         if (url.equals(baseUrl))
+         {
+            details.setLinks(new LinkedHashSet<>(Arrays.asList(
+                  new LinkDetails("a", "https://www.notrealsite.org/secure"),
+                  new LinkDetails("a", "http://docs.notrealsite.org/guide"),
+                  new LinkDetails("a", baseUrl + "/admin/one.html"),
+                  new LinkDetails("a", "http://www.notrealsite.org.evil.com/"),
+                  new LinkDetails("a", baseUrl + "/about.html")
+                  )));
+         }
+         return details;
+      };
+
+      // By default only the scheme and host of the starting URL are in scope.
+      CrawlSettings settings = new CrawlSettings();
+      settings.setNumThreads(4);
+      TestObserver observer = runCrawl(new CrawlerImpl(settings, parser), baseUrl);
+      assertThat(parsed.keySet(), containsInAnyOrder(baseUrl, baseUrl + "/admin/one.html", baseUrl + "/about.html"));
+      assertThat(observer.pages.get(0).getExternalLinks(), containsInAnyOrder(
+            "https://www.notrealsite.org/secure",
+            "http://docs.notrealsite.org/guide",
+            "http://www.notrealsite.org.evil.com/"
+            ));
+
+      parsed.clear();
+      settings.setScopeSchemes(Arrays.asList("http", "https"));
+      settings.setScopeHosts(Arrays.asList("www.notrealsite.org", "*.notrealsite.org"));
+      settings.setScopeDenyPaths(Collections.singletonList("/admin"));
+      observer = runCrawl(new CrawlerImpl(settings, parser), baseUrl);
+      assertThat(parsed.keySet(), containsInAnyOrder(baseUrl, baseUrl + "/about.html",
+            "https://www.notrealsite.org/secure", "http://docs.notrealsite.org/guide"));
+      assertThat(parsed.values(), everyItem(is(1)));
+      assertThat(observer.pages.get(0).getExternalLinks(), containsInAnyOrder(
+            baseUrl + "/admin/one.html",
+            "http://www.notrealsite.org.evil.com/"
+            ));
+   }
+
+   @Test
+   public void testSitemaps() throws MalformedURLException
+   {
+      // The home page links to nothing, so every other page is only found in the sitemaps.
+      String baseUrl = "http://www.notrealsite.org";
+      List<String> orphans = new LinkedList<>();
+      for (int i = 0; i < 250; ++i)
+         orphans.add(baseUrl + "/orphan" + i + ".html");
+
+      SitemapTestParser parser = new SitemapTestParser();
+      parser.sitemaps.put(baseUrl + "/sitemap_index.xml", Arrays.asList(baseUrl + "/one.xml", baseUrl + "/two.xml.gz",
+            baseUrl + "/one.xml", baseUrl + "/missing.xml"));
+      parser.sitemaps.put(baseUrl + "/one.xml", orphans);
+      parser.sitemaps.put(baseUrl + "/two.xml.gz", Arrays.asList(baseUrl, "http://www.otherSite.org/page.html", baseUrl + "/orphan0.html"));
+
+      CrawlSettings settings = new CrawlSettings();
+      settings.setNumThreads(8);
+      runCrawl(new CrawlerImpl(settings, parser), baseUrl);
+      assertThat(parser.parsed.keySet(), contains(baseUrl));
+      assertThat(parser.robotsRead, is(0));
+
+      // Without sitemaps in robots.txt, /sitemap.xml is read.
+      parser.parsed.clear();
+      settings.setSitemaps(true);
+      parser.sitemaps.put(baseUrl + "/sitemap.xml", Collections.singletonList(baseUrl + "/orphan1.html"));
+      runCrawl(new CrawlerImpl(settings, parser), baseUrl);
+      assertThat(parser.parsed.keySet(), containsInAnyOrder(baseUrl, baseUrl + "/orphan1.html"));
+
+      parser.parsed.clear();
+      parser.robots.getSitemaps().add(baseUrl + "/sitemap_index.xml");
+      TestObserver observer = runCrawl(new CrawlerImpl(settings, parser), baseUrl);
+      assertThat(parser.parsed.size(), is(251));
+      assertThat(parser.parsed.keySet(), everyItem(not(containsString("otherSite"))));
+      assertThat(parser.parsed.values(), everyItem(is(1)));
+      assertThat(observer.pages.size(), is(251));
+      assertThat(parser.sitemapsRead.get(baseUrl + "/one.xml"), is(1));
+
+      // Only the maximum number of sitemap URLs are queued.
+      parser.parsed.clear();
+      settings.setMaxSitemapUrls(10);
+      runCrawl(new CrawlerImpl(settings, parser), baseUrl);
+      assertThat(parser.parsed.size(), lessThanOrEqualTo(11));
+      assertThat(parser.parsed.size(), greaterThan(1));
+   }
+
+   @Test
+   public void testHostLimits() throws MalformedURLException
+   {
+      CrawlSettings settings = new CrawlSettings();
+      settings.setNumThreads(16);
+      settings.setMaxRequestsPerHost(4);
+      SyntheticParser parser = checkConcurrentCrawl(settings, 1000);
+      assertThat(parser.getMaxActiveFetches(), lessThanOrEqualTo(4));
+
+      settings = new CrawlSettings();
+      settings.setVirtualThreads(true);
+      settings.setMaxInFlightPages(64);
+      settings.setMaxRequestsPerHost(4);
+      parser = checkConcurrentCrawl(settings, 1000);
+      assertThat(parser.getMaxActiveFetches(), lessThanOrEqualTo(4));
+   }
+
+   @Test
+   public void testHostDelay() throws MalformedURLException
+   {
+      CrawlSettings settings = new CrawlSettings();
+      settings.setNumThreads(4);
+      settings.setMinRequestDelayMillis(20);
+
+      // Requests to the one host start at least 20 milliseconds apart.
+      long startNanos = System.nanoTime();
+      TestObserver observer = runCrawl(settings, new SyntheticParser(20, 5, 0));
+      assertThat(observer.pages.size(), is(20));
+      assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos), greaterThanOrEqualTo(19 * 20L));
+   }
+
+   @Test
+   public void testAdaptiveConcurrency() throws MalformedURLException
+   {
+      // A crawl that starts on one thread grows to more threads, as every request is fast.
+      CrawlSettings settings = new CrawlSettings();
+      settings.setNumThreads(1);
+      settings.setAdaptiveConcurrency(true);
+      settings.setMaxConcurrency(8);
+      settings.setConcurrencyIntervalMillis(20);
+      SyntheticParser parser = checkConcurrentCrawl(settings, 1000);
+      assertThat(parser.getMaxActiveFetches(), greaterThan(1));
+      assertThat(parser.getMaxActiveFetches(), lessThanOrEqualTo(8));
+
+      settings = new CrawlSettings();
+      settings.setNumFetchThreads(1);
+      settings.setNumParseThreads(2);
+      settings.setAdaptiveConcurrency(true);
+      settings.setMaxConcurrency(8);
+      settings.setConcurrencyIntervalMillis(20);
+      parser = checkConcurrentCrawl(settings, 1000);
+      assertThat(parser.getMaxActiveFetches(), greaterThan(1));
+      assertThat(parser.getMaxActiveFetches(), lessThanOrEqualTo(8));
+
+      settings = new CrawlSettings();
+      settings.setVirtualThreads(true);
+      settings.setMaxInFlightPages(2);
+      settings.setAdaptiveConcurrency(true);
+      settings.setMaxConcurrency(16);
+      settings.setConcurrencyIntervalMillis(20);
+      parser = checkConcurrentCrawl(settings, 1000);
+      assertThat(parser.getMaxActiveFetches(), greaterThan(2));
+      assertThat(parser.getMaxActiveFetches(), lessThanOrEqualTo(16));
+
+      // Throttled pages cut the limit, and the crawl still completes.
+      settings = new CrawlSettings();
+      settings.setNumThreads(4);
+      settings.setAdaptiveConcurrency(true);
+      settings.setConcurrencyIntervalMillis(1);
+      checkThrottled(new SyntheticParser(100, 5, 0), settings);
+   }
+
+   @Test
+   public void testBudgets() throws MalformedURLException
+   {
+      // One thread so every page is found from its parent first.
+      CrawlSettings settings = new CrawlSettings();
+      settings.setNumThreads(1);
+      settings.setPriorityFrontier(true);
+      settings.setMaxDepth(2);
+      SyntheticParser parser = new SyntheticParser(1000, 5, 0);
+      TestObserver observer = runCrawl(settings, parser);
+      assertThat(parser.getParseCount(), is(31));
+      assertThat(observer.pages.stream().mapToInt((page) -> pageNumber(page.getUrl())).max().getAsInt(), is(30));
+
+      settings = new CrawlSettings();
+      settings.setNumThreads(4);
+      settings.setMaxPages(50);
+      parser = new SyntheticParser(1000, 5, 0);
+      observer = runCrawl(settings, parser);
+      assertThat(parser.getParseCount(), is(50));
+      assertThat(observer.pages.size(), is(50));
+   }
+
+   @Test
+   public void testTimeBudget() throws MalformedURLException
+   {
+      // The crawl stops starting pages once the budget is spent and completes without a cancel.
+      CrawlSettings settings = new CrawlSettings();
+      settings.setNumThreads(1);
+      settings.setPriorityFrontier(true);
+      settings.setTimeBudgetMillis(300);
+      SyntheticParser parser = new SyntheticParser(5000, 10, 5000);
+      long startNanos = System.nanoTime();
+      TestObserver observer = runCrawl(settings, parser);
+      assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos), lessThan(2000L));
+      assertThat(observer.pages.size(), greaterThan(1));
+      assertThat(observer.pages.size(), lessThan(5000));
+
+      // Shallow pages come first, so every page above the deepest page crawled was crawled.
+      List<Integer> pages = observer.pages.stream().map((page) -> pageNumber(page.getUrl())).collect(Collectors.toList());
+      int maxDepth = pages.stream().mapToInt((page) -> pageDepth(page, 10)).max().getAsInt();
+      for (int page = 0; pageDepth(page, 10) < maxDepth; ++page)
+         assertThat(pages.contains(page), is(true));
+   }
+
+   @Test
+   public void testThrottled() throws MalformedURLException
+   {
+      CrawlSettings settings = new CrawlSettings();
+      settings.setNumThreads(4);
+      checkThrottled(new SyntheticParser(100, 5, 0), settings);
+
+      settings = new CrawlSettings();
+      settings.setNumFetchThreads(4);
+      settings.setNumParseThreads(2);
+      checkThrottled(new SyntheticParser(100, 5, 0), settings);
+
+      settings = new CrawlSettings();
+      settings.setNumParseThreads(2);
+      checkThrottled(new SyntheticAsyncParser(100, 5, 100), settings);
+   }
+
+   @Test
+   public void testResume() throws IOException
+   {
+      Path checkpointPath = Paths.get("/JUnit_Test").toAbsolutePath();
+      FileUtils.deleteDirectory(checkpointPath.toFile());
+      try
+      {
+         CrawlSettings settings = new CrawlSettings();
+         settings.setNumThreads(8);
+         settings.setCheckpointPath(checkpointPath.toString());
+         settings.setResume(true);
+
+         // Nothing to resume, so the first run starts a new crawl.  Cut it off part way.
+         SyntheticParser parser = new SyntheticParser(5000, 10, 1000);
+         TestObserver observer = new TestObserver();
+         CrawlerImpl crawler = new CrawlerImpl(settings, parser);
+         crawler.addObserver(synchronizedObserver(observer));
+         crawler.start(SyntheticParser.baseUrl);
+         crawler.await(300, TimeUnit.MILLISECONDS);
+         assertThat(crawler.cancel(), is(true));
+
+         assertThat(observer.cancelled, is(true));
+         int firstRunPages = observer.pages.size();
+         assertThat(firstRunPages, greaterThan(0));
+         assertThat(firstRunPages, lessThan(5000));
+
+         // The second run reports the first run's pages and crawls only the rest.
+         parser = new SyntheticParser(5000, 10, 0);
+         observer = new TestObserver();
+         crawler = new CrawlerImpl(settings, parser);
+         crawler.addObserver(synchronizedObserver(observer));
+         crawler.start(SyntheticParser.baseUrl);
+         if (!crawler.await(10, TimeUnit.SECONDS))
+         {
+            crawler.cancel();
+            fail("Did not complete in time.");
+         }
+
+         assertThat(observer.cancelled, is(false));
+         assertThat(parser.getParseCount(), is(5000 - firstRunPages));
+         assertThat(observer.pages.size(), is(5000));
+         assertThat(observer.pages.stream().map(CrawlPage::getUrl).distinct().count(), is(5000L));
+
+         // Resuming a finished crawl reports its pages and crawls nothing.
+         parser = new SyntheticParser(5000, 10, 0);
+         observer = new TestObserver();
+         crawler = new CrawlerImpl(settings, parser);
+         crawler.addObserver(synchronizedObserver(observer));
+         crawler.start(SyntheticParser.baseUrl);
+         assertThat(crawler.await(1, TimeUnit.SECONDS), is(true));
+         assertThat(parser.getParseCount(), is(0));
+         assertThat(observer.pages.size(), is(5000));
+         assertThat(observer.cancelled, is(false));
+      }
+      finally
+      {
+         FileUtils.deleteDirectory(checkpointPath.toFile());
+      }
+   }
+
+   @Test
+   public void testResumeSubscriber() throws Exception
+   {
+      Path checkpointPath = Paths.get("/JUnit_Test").toAbsolutePath();
+      FileUtils.deleteDirectory(checkpointPath.toFile());
+      try
+      {
+         CrawlSettings settings = new CrawlSettings();
+         settings.setNumThreads(8);
+         settings.setCheckpointPath(checkpointPath.toString());
+         settings.setResume(true);
+         settings.setObserverBufferSize(64);
+
+         // Cut the first run off part way, with more pages than the observer buffer holds.
+         CrawlerImpl crawler = new CrawlerImpl(settings, new SyntheticParser(5000, 10, 1000));
+         crawler.start(SyntheticParser.baseUrl);
+         crawler.await(300, TimeUnit.MILLISECONDS);
+         assertThat(crawler.cancel(), is(true));
+         int firstRunPages = (int)new CrawlCheckpoint(checkpointPath, 0).read(SyntheticParser.baseUrl, (page) -> {});
+         assertThat(firstRunPages, greaterThan(64));
+         assertThat(firstRunPages, lessThan(5000));
+
+         // The resumed pages wait for the subscriber to ask for them, instead of holding up start.
+         SyntheticParser parser = new SyntheticParser(5000, 10, 0);
+         TestSubscriber subscriber = new TestSubscriber(0);
+         CrawlerImpl resumed = new CrawlerImpl(settings, parser);
+         resumed.subscribe(subscriber);
+         TestTimer testTimer = TestTimer.startNewTimer();
+         CompletableFuture<CrawlResult> result = resumed.start(SyntheticParser.baseUrl);
+         assertThat(testTimer.endTimer(), lessThan(1000L));
+         assertThat(resumed.await(100, TimeUnit.MILLISECONDS), is(false));
+         assertThat(parser.getParseCount(), is(0));
+
+         subscriber.request(Long.MAX_VALUE);
+         assertThat(result.get(10, TimeUnit.SECONDS).isCancelled(), is(false));
+         assertThat(parser.getParseCount(), is(5000 - firstRunPages));
+         assertThat(subscriber.pages.size(), is(5000));
+         assertThat(subscriber.completed, is(true));
+      }
+      finally
+      {
+         FileUtils.deleteDirectory(checkpointPath.toFile());
+      }
+   }
+
+   @Test
+   public void testRecrawl() throws IOException
+   {
+      Path checkpointPath = Paths.get("/JUnit_Test").toAbsolutePath();
+      FileUtils.deleteDirectory(checkpointPath.toFile());
+      try
+      {
+         CrawlSettings settings = new CrawlSettings();
+         settings.setNumThreads(8);
+         settings.setCheckpointPath(checkpointPath.toString());
+         settings.setRecrawl(true);
+
+         // With no previous crawl every page is new.
+         SyntheticParser parser = new SyntheticParser(500, 10, 0);
+         TestObserver observer = runCrawl(settings, parser);
+         assertThat(parser.getParseCount(), is(500));
+         assertThat(observer.pages.size(), is(500));
+
+         // Only the changed pages are extracted.  The rest reuse their previous links.
+         parser = new SyntheticParser(500, 10, 0);
+         parser.setChangedPages(7, 42);
+         CrawlerImpl crawler = new CrawlerImpl(settings, parser);
+         observer = runCrawl(crawler);
+         assertThat(crawler.getPreviousPages().size(), is(500));
+         assertThat(parser.getParseCount(), is(2));
+         assertThat(observer.pages.size(), is(500));
+         for (CrawlPage page : observer.pages)
+         {
+            boolean changed = page.getUrl().equals(SyntheticParser.pageUrl(7)) || page.getUrl().equals(SyntheticParser.pageUrl(42));
+            assertThat(page.getUrl(), page.getUnchangedCrawls(), is(changed ? 0 : 1));
+            assertThat(page.getUrl(), page.getTitle(), is(not(nullValue())));
+            assertThat(page.getUrl(), page.getExternalLinks().size(), is(changed ? 2 : 1));
+         }
+
+         // The pages that changed last time are crawled right after the starting page.
+         settings.setNumThreads(1);
+         parser = new SyntheticParser(500, 10, 0);
+         parser.setChangedPages(7, 42);
+         observer = runCrawl(settings, parser);
+         assertThat(parser.getParseCount(), is(0));
+         assertThat(observer.pages.size(), is(500));
+         assertThat(observer.pages.get(0).getUrl(), is(SyntheticParser.baseUrl));
+         assertThat(observer.pages.subList(1, 3).stream().map(CrawlPage::getUrl).collect(Collectors.toList()),
+               containsInAnyOrder(SyntheticParser.pageUrl(7), SyntheticParser.pageUrl(42)));
+      }
+      finally
+      {
+         FileUtils.deleteDirectory(checkpointPath.toFile());
+      }
+   }
+
+   private void checkThrottled(SyntheticParser parser, CrawlSettings settings) throws MalformedURLException
+   {
+      // Pages 3 and 7 load once tried again.  Page 9 is still throttled after the last retry.
+      parser.setThrottledPages(2, 3, 7);
+      parser.setThrottledPages(5, 9);
+      TestObserver observer = runCrawl(settings, parser);
+
+      assertThat(observer.pages.size(), is(100));
+      assertThat(parser.getFetchCount(), is(100 + 2 + 2 + CrawlSettings.DEFAULT_MAX_THROTTLE_RETRIES));
+      Map<String, CrawlPage> pages = observer.pages.stream().collect(Collectors.toMap(CrawlPage::getUrl, (page) -> page));
+      assertThat(pages.get(SyntheticParser.pageUrl(3)).getLoadError(), is(nullValue()));
+      assertThat(pages.get(SyntheticParser.pageUrl(7)).getLoadError(), is(nullValue()));
+      assertThat(pages.get(SyntheticParser.pageUrl(9)).getLoadError(), containsString("Status=429"));
+   }
+
+   private TestObserver runCrawl(CrawlSettings settings, SyntheticParser parser) throws MalformedURLException
+   {
+      return runCrawl(new CrawlerImpl(settings, parser));
+   }
+
+   private TestObserver runCrawl(CrawlerImpl crawler) throws MalformedURLException
+   {
+      return runCrawl(crawler, SyntheticParser.baseUrl);
+   }
+
+   private TestObserver runCrawl(CrawlerImpl crawler, String startingUrl) throws MalformedURLException
+   {
+      TestObserver observer = new TestObserver();
+      crawler.addObserver(synchronizedObserver(observer));
+      crawler.start(startingUrl);
+      if (!crawler.await(10, TimeUnit.SECONDS))
+      {
+         crawler.cancel();
+         fail("Did not complete in time.");
+      }
+      assertThat(observer.cancelled, is(false));
+      return observer;
+   }
+
+   private static class SitemapTestParser implements Parser, SitemapParser
+   {
+      private final RobotsDetails robots = new RobotsDetails();
+      private final Map<String, List<String>> sitemaps = new ConcurrentHashMap<>();
+      private final Map<String, Integer> sitemapsRead = new ConcurrentHashMap<>();
+      private final Map<String, Integer> parsed = new ConcurrentHashMap<>();
+      private volatile int robotsRead = 0;
+
+      @Override
+      public PageDetails parse(String url)
+      {
+         parsed.merge(url, 1, Integer::sum);
+         return new PageDetails();
+      }
+
+      @Override
+      public RobotsDetails parseRobots(String url) throws IOException
+      {
+         ++robotsRead;
+         return robots;
+      }
+
+      @Override
+      public void parseSitemap(String url, Consumer<String> pages, Consumer<String> sitemapUrls) throws IOException
+      {
+         sitemapsRead.merge(url, 1, Integer::sum);
+         List<String> urls = sitemaps.get(url);
+         if (urls == null)
+            throw new IOException("Not found.");
+
+         for (String pageUrl : urls)
+         {
+            if (sitemaps.containsKey(pageUrl) || pageUrl.endsWith(".xml"))
+               sitemapUrls.accept(pageUrl);
+            else
+               pages.accept(pageUrl);
+         }
+      }
+   }
+
+   private static int pageNumber(String url)
+   {
+      return (url.equals(SyntheticParser.baseUrl) ? 0 :
+            Integer.parseInt(url.substring(url.lastIndexOf('/') + 1, url.length() - ".html".length())));
+   }
+
+   private static int pageDepth(int page, int fanOut)
+   {
+      int depth = 0;
+      for (; page > 0; page = (page - 1) / fanOut)
+         ++depth;
+      return depth;
+   }
+
+   private static class TestSubscriber implements CrawlSubscriber
+   {
+      protected final List<String> pages = new LinkedList<>();
+      protected final long initialRequest;
+      protected volatile CrawlSubscription subscription = null;
+      protected volatile long requested = 0;
+      protected volatile boolean overRequested = false;
+      protected volatile boolean completed = false;
+      protected volatile Throwable error = null;
+
+      public TestSubscriber(long initialRequest)
+      {
+         this.initialRequest = initialRequest;
+      }
+
+      public void request(long count)
+      {
+         requested += count;
+         subscription.request(count);
+      }
+
+      @Override
+      public void onSubscribe(CrawlSubscription subscription)
+      {
+         this.subscription = subscription;
+         if (initialRequest > 0)
+            request(initialRequest);
+      }
+
+      @Override
+      public void onNext(CrawlPage page)
+      {
+         pages.add(page.getUrl());
+      }
+
+      @Override
+      public void onError(Throwable cause)
+      {
+         error = cause;
+      }
+
+      @Override
+      public void onComplete()
+      {
+         completed = true;
+      }
+   }
+
+   private CrawlObserver synchronizedObserver(TestObserver observer)
+   {
+      return new CrawlObserver() {
+         @Override
+         public synchronized void onPage(CrawlPage page)
+         {
+            observer.onPage(page);
+         }
+
+         @Override
+         public void onComplete(Date startTime, long durationMillis, boolean cancelled)
+         {
+            observer.onComplete(startTime, durationMillis, cancelled);
+         }
+      };
+   }
+
+   private void checkConcurrentCrawl(SeenUrlStore seenUrlStore) throws MalformedURLException
+   {
+      checkConcurrentCrawl(seenUrlStore, 0);
+   }
+
+   private void checkConcurrentCrawl(SeenUrlStore seenUrlStore, int frontierMemoryUrls) throws MalformedURLException
+   {
+      CrawlSettings settings = new CrawlSettings();
+      settings.setNumThreads(16);
+      settings.setSeenUrlStore(seenUrlStore);
+      settings.setFrontierMemoryUrls(frontierMemoryUrls);
+      checkConcurrentCrawl(settings);
+   }
+
+   private void checkConcurrentCrawl(CrawlSettings settings) throws MalformedURLException
+   {
+      checkConcurrentCrawl(settings, 0);
+   }
+
+   private SyntheticParser checkConcurrentCrawl(CrawlSettings settings, long latencyMicros) throws MalformedURLException
+   {
+      return checkConcurrentCrawl(new SyntheticParser(5000, 10, latencyMicros), settings);
+   }
+
+   private SyntheticParser checkConcurrentCrawl(SyntheticParser parser, CrawlSettings settings) throws MalformedURLException
+   {
+      TestObserver observer = new TestObserver();
+
+      settings.setExpectedUrls(20000);
+      settings.setFalsePositiveRate(0.000001);
+
+      CrawlerImpl crawler = new CrawlerImpl(settings, parser);
+      crawler.addObserver(synchronizedObserver(observer));
+      crawler.start(SyntheticParser.baseUrl);
+
+      if (!crawler.await(10, TimeUnit.SECONDS))
+      {
+         crawler.cancel();
+         fail("Did not complete in time.");
+      }
+
+      // Every page is parsed exactly once even though most links are duplicates.
+      assertThat(parser.getParseCount(), is(5000));
+      assertThat(observer.pages.size(), is(5000));
+      assertThat(observer.cancelled, is(false));
+
+      // Every page goes through each stage the crawler times once.
+      CrawlMetrics metrics = crawler.getMetrics();
+      assertThat(metrics.getPagesCrawled(), is(5000L));
+      assertThat(metrics.getPagesFailed(), is(0L));
+      assertThat(metrics.getHistogram(CrawlStage.PARSE).getCount(), is(5000L));
+      assertThat(metrics.getHistogram(CrawlStage.ROUTE).getCount(), is(5000L));
+      assertThat(metrics.getHistogram(CrawlStage.DISPATCH).getCount(), is(5000L));
+      assertThat(metrics.getFrontierSize(), is(0L));
+      assertThat(metrics.getPagesInFlight(), is(0L));
+      return parser;
+   }
 }
@@ -0,0 +1,205 @@
+package com.rolls.crawler.crawl;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import com.rolls.crawler.test.TestTimer;
+
+@SuppressWarnings("javadoc")
+public class FrontierTest
+{
+   private static Path testPath = Paths.get("/JUnit_Test").toAbsolutePath();
+   private static final String baseUrl = "http://www.notrealsite.org/page/";
+
+   @BeforeEach
+   @AfterEach
+   private void deleteTestPath() throws IOException
+   {
+      File pathFile = testPath.toFile();
+      if (pathFile.exists())
+         FileUtils.deleteDirectory(pathFile);
+   }
+
+   @Test
+   public void testMemoryFrontier() throws InterruptedException
+   {
+      checkFifo(new MemoryFrontier(), 1000);
+   }
+
+   @Test
+   public void testSpillingFrontierInMemory() throws InterruptedException
+   {
+      SpillingFrontier frontier = new SpillingFrontier(1000, testPath, 4096);
+      checkFifo(frontier, 1000);
+      assertThat(frontier.getSegmentsCreated(), is(0));
+   }
+
+   @Test
+   public void testSpillingFrontierSpills() throws InterruptedException
+   {
+      // Small segments so the spilled URLs roll over many segment files.
+      SpillingFrontier frontier = new SpillingFrontier(100, testPath, 4096);
+      for (int i = 0; i < 5000; ++i)
+         frontier.add(baseUrl + i);
+
+      assertThat(frontier.size(), is(5000L));
+      assertThat(frontier.getSpilledUrls(), is(4900L));
+      int segments = frontier.getSegmentsCreated();
+
+      for (int i = 0; i < 2500; ++i)
+         assertThat(frontier.poll(0, TimeUnit.MILLISECONDS), is(baseUrl + i));
+
+      // Interleave adds and polls.  Drained segments are reused.
+      for (int i = 5000; i < 7500; ++i)
+         frontier.add(baseUrl + i);
+      for (int i = 2500; i < 7500; ++i)
+         assertThat(frontier.poll(0, TimeUnit.MILLISECONDS), is(baseUrl + i));
+
+      assertThat(frontier.poll(0, TimeUnit.MILLISECONDS), is(nullValue()));
+      assertThat(frontier.size(), is(0L));
+      assertThat(frontier.getSegmentsCreated(), lessThan(segments * 2));
+
+      frontier.close();
+      assertThat(testPath.toFile().list().length, is(0));
+   }
+
+   @Test
+   public void testSpillingFrontierUrlTooLong() throws InterruptedException
+   {
+      SpillingFrontier frontier = new SpillingFrontier(1, testPath, 4096);
+      frontier.add(baseUrl + 0);
+
+      // A URL that can't fit in a segment takes no segment file with it.
+      String longUrl = baseUrl + StringUtils.repeat('x', 4096);
+      IllegalArgumentException ex = assertThrows(IllegalArgumentException.class, () -> {
+         frontier.add(longUrl);
+      });
+      assertThat(ex.getMessage(), is("URL too long for frontier segment: " + longUrl.length() + " bytes."));
+      assertThat(frontier.getSegmentsCreated(), is(0));
+
+      frontier.add(baseUrl + 1);
+      assertThat(frontier.poll(0, TimeUnit.MILLISECONDS), is(baseUrl + 0));
+      assertThat(frontier.poll(0, TimeUnit.MILLISECONDS), is(baseUrl + 1));
+
+      frontier.close();
+      assertThat(testPath.toFile().list().length, is(0));
+   }
+
+   @Test
+   public void testSpillingFrontierInvalid()
+   {
+      IllegalArgumentException ex = assertThrows(IllegalArgumentException.class, () -> {
+         new SpillingFrontier(0, testPath);
+      });
+      assertThat(ex.getMessage(), is("Invalid head capacity."));
+
+      ex = assertThrows(IllegalArgumentException.class, () -> {
+         new SpillingFrontier(10, null);
+      });
+      assertThat(ex.getMessage(), is("Null spill path."));
+   }
+
+   @Test
+   public void testPriorityFrontier() throws InterruptedException
+   {
+      // URLs of the same depth and links in one section come out in order.
+      checkFifo(new PriorityFrontier(), 1000);
+
+      String site = "http://www.notrealsite.org";
+      PriorityFrontier frontier = new PriorityFrontier();
+      frontier.add(site + "/docs/deep.html", 2);
+      frontier.add(site + "/docs/a.html", 1);
+      frontier.add(site + "/docs/b.html", 1);
+      frontier.add(site + "/docs/c.html", 1);
+      frontier.add(site + "/blog/a.html", 1);
+      frontier.add(site + "/blog/b.html", 1);
+      frontier.add(site + "/about.html", 1);
+      frontier.add(site + "/about.html", 1);
+      frontier.add(site, 0);
+      assertThat(frontier.size(), is(8L));
+
+      // More links move a page ahead within its depth, but never ahead of a shallower page.
+      for (int i = 0; i < 20; ++i)
+         frontier.linkFound(site + "/docs/deep.html");
+      frontier.linkFound(site + "/docs/c.html");
+      frontier.linkFound(site + "/missing.html");
+
+      assertThat(frontier.poll(0, TimeUnit.MILLISECONDS), is(site));
+      // Sections of the same score take turns.
+      assertThat(frontier.poll(0, TimeUnit.MILLISECONDS), is(site + "/docs/c.html"));
+      assertThat(frontier.poll(0, TimeUnit.MILLISECONDS), is(site + "/blog/a.html"));
+      assertThat(frontier.poll(0, TimeUnit.MILLISECONDS), is(site + "/about.html"));
+      assertThat(frontier.poll(0, TimeUnit.MILLISECONDS), is(site + "/docs/a.html"));
+      assertThat(frontier.poll(0, TimeUnit.MILLISECONDS), is(site + "/blog/b.html"));
+      assertThat(frontier.poll(0, TimeUnit.MILLISECONDS), is(site + "/docs/b.html"));
+      assertThat(frontier.poll(0, TimeUnit.MILLISECONDS), is(site + "/docs/deep.html"));
+      assertThat(frontier.poll(10, TimeUnit.MILLISECONDS), is(nullValue()));
+      assertThat(frontier.size(), is(0L));
+      frontier.close();
+   }
+
+   @Test
+   public void testSectionName()
+   {
+      assertThat(PriorityFrontier.getSectionName("http://a.org"), is("a.org/"));
+      assertThat(PriorityFrontier.getSectionName("http://a.org/"), is("a.org/"));
+      assertThat(PriorityFrontier.getSectionName("http://a.org/a.html"), is("a.org/"));
+      assertThat(PriorityFrontier.getSectionName("http://a.org/docs?x=/y/"), is("a.org/"));
+      assertThat(PriorityFrontier.getSectionName("http://a.org/docs/"), is("a.org/docs/"));
+      assertThat(PriorityFrontier.getSectionName("http://a.org/docs/x/y.html"), is("a.org/docs/"));
+      assertThat(PriorityFrontier.getSectionName("http://a.org?x=1"), is("a.org/"));
+   }
+
+   @Test
+   public void testCloseWakesPoll() throws InterruptedException
+   {
+      Frontier[] frontiers = {new MemoryFrontier(), new SpillingFrontier(10, testPath), new PriorityFrontier()};
+      for (Frontier frontier : frontiers)
+      {
+         new Thread(() -> {
+            try
+            {
+               Thread.sleep(50);
+            }
+            catch (InterruptedException e)
+            {
+            }
+            frontier.close();
+         }).start();
+
+         TestTimer testTimer = TestTimer.startNewTimer();
+         assertThat(frontier.poll(10, TimeUnit.SECONDS), is(nullValue()));
+         assertThat(testTimer.endTimer(), lessThan(1000L));
+         assertThat(frontier.isClosed(), is(true));
+
+         frontier.add(baseUrl);
+         assertThat(frontier.size(), is(0L));
+      }
+   }
+
+   private void checkFifo(Frontier frontier, int count) throws InterruptedException
+   {
+      for (int i = 0; i < count; ++i)
+         frontier.add(baseUrl + i);
+
+      assertThat(frontier.size(), is((long)count));
+
+      for (int i = 0; i < count; ++i)
+         assertThat(frontier.poll(0, TimeUnit.MILLISECONDS), is(baseUrl + i));
+
+      assertThat(frontier.poll(10, TimeUnit.MILLISECONDS), is(nullValue()));
+      frontier.close();
+   }
+}
@@ -0,0 +1,206 @@
+package com.rolls.crawler.crawl;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import org.junit.jupiter.api.Test;
+
+@SuppressWarnings("javadoc")
+public class HostSchedulerTest
+{
+   @Test
+   public void testNull()
+   {
+      IllegalArgumentException ex = assertThrows(IllegalArgumentException.class, () -> {
+         new HostScheduler(null, 1, 0);
+      });
+      assertThat(ex.getMessage(), is("Null frontier."));
+
+      HostScheduler scheduler = new HostScheduler(new MemoryFrontier(), 1, 0);
+      ex = assertThrows(IllegalArgumentException.class, () -> {
+         scheduler.setCrawlDelay(null, 0);
+      });
+      assertThat(ex.getMessage(), is("Null host."));
+   }
+
+   @Test
+   public void testHostName()
+   {
+      assertThat(HostScheduler.getHostName("http://www.site.org"), is("www.site.org"));
+      assertThat(HostScheduler.getHostName("https://WWW.Site.org:8443/a/b?c#d"), is("www.site.org:8443"));
+      assertThat(HostScheduler.getHostName("http://user@www.site.org/a@b"), is("www.site.org"));
+      assertThat(HostScheduler.getHostName("http://www.site.org?q=1"), is("www.site.org"));
+   }
+
+   @Test
+   public void testMaxRequests() throws InterruptedException
+   {
+      HostScheduler scheduler = new HostScheduler(new MemoryFrontier(), 2, 0);
+      scheduler.add("http://a.org/1");
+      scheduler.add("http://a.org/2");
+      scheduler.add("http://a.org/3");
+      scheduler.add("http://b.org/1");
+
+      // The third page of a waits while the page of b is handed out.
+      assertThat(scheduler.poll(0, TimeUnit.MILLISECONDS), is("http://a.org/1"));
+      assertThat(scheduler.poll(0, TimeUnit.MILLISECONDS), is("http://a.org/2"));
+      assertThat(scheduler.poll(0, TimeUnit.MILLISECONDS), is("http://b.org/1"));
+      assertThat(scheduler.poll(0, TimeUnit.MILLISECONDS), is(nullValue()));
+      assertThat(scheduler.size(), is(1L));
+
+      scheduler.release("http://a.org/1", false, 0);
+      assertThat(scheduler.poll(0, TimeUnit.MILLISECONDS), is("http://a.org/3"));
+      assertThat(scheduler.size(), is(0L));
+
+      // A request that bypassed the frontier still uses a slot.
+      scheduler.release("http://b.org/1", false, 0);
+      scheduler.acquire("http://b.org/");
+      scheduler.add("http://b.org/2");
+      scheduler.add("http://b.org/3");
+      assertThat(scheduler.poll(0, TimeUnit.MILLISECONDS), is("http://b.org/2"));
+      assertThat(scheduler.poll(0, TimeUnit.MILLISECONDS), is(nullValue()));
+   }
+
+   @Test
+   public void testDelay() throws InterruptedException
+   {
+      HostScheduler scheduler = new HostScheduler(new MemoryFrontier(), 0, 100);
+      scheduler.add("http://a.org/1");
+      scheduler.add("http://a.org/2");
+      scheduler.add("http://b.org/1");
+
+      long startNanos = System.nanoTime();
+      assertThat(scheduler.poll(0, TimeUnit.MILLISECONDS), is("http://a.org/1"));
+      assertThat(scheduler.poll(0, TimeUnit.MILLISECONDS), is("http://b.org/1"));
+      assertThat(scheduler.poll(0, TimeUnit.MILLISECONDS), is(nullValue()));
+
+      // A waiting poll wakes when the host is ready.
+      assertThat(scheduler.poll(1, TimeUnit.SECONDS), is("http://a.org/2"));
+      long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+      assertThat(elapsedMillis, greaterThanOrEqualTo(90L));
+      assertThat(elapsedMillis, lessThan(1000L));
+   }
+
+   @Test
+   public void testPriorityOrderWithDelay() throws InterruptedException
+   {
+      HostScheduler scheduler = new HostScheduler(new PriorityFrontier(), 0, 50);
+      for (int i = 0; i < 20; ++i)
+         scheduler.add("http://a.org/deep/" + i, 3);
+
+      long startNanos = System.nanoTime();
+      assertThat(scheduler.poll(0, TimeUnit.MILLISECONDS), is("http://a.org/deep/0"));
+      assertThat(scheduler.poll(0, TimeUnit.MILLISECONDS), is(nullValue()));
+
+      // While the host waits, its URLs stay in the priority frontier, so those found
+      // meanwhile still go ahead of less important ones.
+      scheduler.add("http://a.org/shallow", 1);
+      scheduler.linkFound("http://a.org/deep/15");
+      assertThat(scheduler.poll(1, TimeUnit.SECONDS), is("http://a.org/shallow"));
+      assertThat(System.nanoTime() - startNanos, greaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(50)));
+      assertThat(scheduler.poll(1, TimeUnit.SECONDS), is("http://a.org/deep/15"));
+      assertThat(scheduler.poll(1, TimeUnit.SECONDS), is("http://a.org/deep/1"));
+      assertThat(System.nanoTime() - startNanos, greaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(150)));
+      assertThat(scheduler.size(), is(17L));
+   }
+
+   @Test
+   public void testPriorityManySections() throws InterruptedException
+   {
+      AtomicInteger hostChecks = new AtomicInteger();
+      PriorityFrontier frontier = new PriorityFrontier() {
+         @Override
+         public String poll(Predicate<String> acceptHost)
+         {
+            return super.poll((host) -> {
+               hostChecks.incrementAndGet();
+               return acceptHost.test(host);
+            });
+         }
+      };
+
+      HostScheduler scheduler = new HostScheduler(frontier, 0, 0);
+      scheduler.setCrawlDelay("a.org", 10000);
+      for (int i = 0; i < 1000; ++i)
+         scheduler.add("http://a.org/section" + i + "/page", 1);
+      scheduler.add("http://A.org/", 0);
+      scheduler.add("http://b.org/page", 2);
+
+      assertThat(scheduler.poll(0, TimeUnit.MILLISECONDS), is("http://A.org/"));
+
+      // The waiting host is checked once per poll, not once for each of its sections.
+      hostChecks.set(0);
+      assertThat(scheduler.poll(0, TimeUnit.MILLISECONDS), is("http://b.org/page"));
+      assertThat(hostChecks.get(), is(2));
+
+      hostChecks.set(0);
+      for (int i = 0; i < 100; ++i)
+         assertThat(scheduler.poll(0, TimeUnit.MILLISECONDS), is(nullValue()));
+      assertThat(hostChecks.get(), is(100));
+      assertThat(scheduler.size(), is(1000L));
+   }
+
+   @Test
+   public void testCrawlDelay() throws InterruptedException
+   {
+      HostScheduler scheduler = new HostScheduler(new MemoryFrontier(), 0, 0);
+      scheduler.setCrawlDelay("A.org", 10000);
+      scheduler.add("http://a.org/1");
+      scheduler.add("http://a.org/2");
+      scheduler.add("http://b.org/1");
+      scheduler.add("http://b.org/2");
+
+      assertThat(scheduler.poll(0, TimeUnit.MILLISECONDS), is("http://a.org/1"));
+      assertThat(scheduler.poll(0, TimeUnit.MILLISECONDS), is("http://b.org/1"));
+      assertThat(scheduler.poll(0, TimeUnit.MILLISECONDS), is("http://b.org/2"));
+      assertThat(scheduler.poll(0, TimeUnit.MILLISECONDS), is(nullValue()));
+   }
+
+   @Test
+   public void testThrottled() throws InterruptedException
+   {
+      HostScheduler scheduler = new HostScheduler(new MemoryFrontier(), 0, 0);
+      scheduler.add("http://a.org/1");
+      scheduler.add("http://b.org/1");
+      assertThat(scheduler.poll(0, TimeUnit.MILLISECONDS), is("http://a.org/1"));
+
+      // The host is left alone for the time in the Retry-After header.
+      scheduler.release("http://a.org/1", true, 200);
+      scheduler.add("http://a.org/1");
+      long startNanos = System.nanoTime();
+      assertThat(scheduler.poll(0, TimeUnit.MILLISECONDS), is("http://b.org/1"));
+      assertThat(scheduler.poll(0, TimeUnit.MILLISECONDS), is(nullValue()));
+      assertThat(scheduler.poll(2, TimeUnit.SECONDS), is("http://a.org/1"));
+      assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos), greaterThanOrEqualTo(150L));
+
+      // Without the header, the back off doubles with each throttled request in a row.
+      scheduler.release("http://a.org/1", true, 0);
+      scheduler.add("http://a.org/1");
+      startNanos = System.nanoTime();
+      assertThat(scheduler.poll(500, TimeUnit.MILLISECONDS), is(nullValue()));
+      assertThat(scheduler.poll(2, TimeUnit.SECONDS), is("http://a.org/1"));
+      assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos),
+            greaterThanOrEqualTo(HostScheduler.DEFAULT_BACKOFF_MILLIS * 2 - 50));
+   }
+
+   @Test
+   public void testClose() throws InterruptedException
+   {
+      HostScheduler scheduler = new HostScheduler(new MemoryFrontier(), 1, 0);
+      scheduler.add("http://a.org/1");
+      scheduler.add("http://a.org/2");
+      assertThat(scheduler.poll(0, TimeUnit.MILLISECONDS), is("http://a.org/1"));
+      assertThat(scheduler.poll(0, TimeUnit.MILLISECONDS), is(nullValue()));
+
+      scheduler.close();
+      assertThat(scheduler.isClosed(), is(true));
+      assertThat(scheduler.size(), is(0L));
+      assertThat(scheduler.poll(1, TimeUnit.SECONDS), is(nullValue()));
+   }
+}
@@ -0,0 +1,124 @@
+package com.rolls.crawler.crawl;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.lessThan;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+@SuppressWarnings("javadoc")
+public class LatencyHistogramTest
+{
+   @Test
+   public void testBuckets()
+   {
+      // Small latencies have a bucket each.
+      for (int micros = 0; micros < LatencyHistogram.SUB_BUCKETS; ++micros)
+      {
+         assertThat(LatencyHistogram.bucketOf(micros), is(micros));
+         assertThat(LatencyHistogram.upperBoundOf(micros), is((long)micros));
+      }
+
+      // Every latency falls in a bucket whose bounds hold it, and buckets are in order.
+      int lastBucket = -1;
+      for (long micros = 0; micros < 100000; ++micros)
+      {
+         int bucket = LatencyHistogram.bucketOf(micros);
+         assertThat(bucket, greaterThanOrEqualTo(lastBucket));
+         assertThat(LatencyHistogram.upperBoundOf(bucket), greaterThanOrEqualTo(micros));
+         if (bucket > 0)
+            assertThat(LatencyHistogram.upperBoundOf(bucket - 1), lessThan(micros));
+         lastBucket = bucket;
+      }
+
+      int last = LatencyHistogram.bucketOf(LatencyHistogram.MAX_MICROS);
+      assertThat(LatencyHistogram.upperBoundOf(last), is(LatencyHistogram.MAX_MICROS));
+   }
+
+   @Test
+   public void testPercentiles()
+   {
+      LatencyHistogram histogram = new LatencyHistogram();
+      assertThat(histogram.getCount(), is(0L));
+      assertThat(histogram.getMeanMillis(), is(0.0));
+      assertThat(histogram.getPercentileMillis(50), is(0.0));
+
+      for (int millis = 1; millis <= 100; ++millis)
+         histogram.record(TimeUnit.MILLISECONDS.toNanos(millis));
+
+      assertThat(histogram.getCount(), is(100L));
+      assertThat(histogram.getMeanMillis(), is(50.5));
+      assertThat(histogram.getMaxMillis(), is(100.0));
+
+      // A percentile is the bound of its bucket, which is close to the true value.
+      assertThat(histogram.getPercentileMillis(50), closeTo(50, 50 * 0.125));
+      assertThat(histogram.getPercentileMillis(90), closeTo(90, 90 * 0.125));
+      assertThat(histogram.getPercentileMillis(99), closeTo(99, 99 * 0.125));
+      assertThat(histogram.getPercentileMillis(100), is(100.0));
+      assertThat(histogram.getPercentileMillis(0), closeTo(1, 0.125));
+
+      // Latencies past the last bucket still count toward the maximum.
+      histogram.record(TimeUnit.DAYS.toNanos(2));
+      assertThat(histogram.getMaxMillis(), is((double)TimeUnit.DAYS.toMillis(2)));
+      assertThat(histogram.getPercentileMillis(100), is(LatencyHistogram.MAX_MICROS / 1000.0));
+
+      histogram.reset();
+      assertThat(histogram.getCount(), is(0L));
+      assertThat(histogram.getMaxMillis(), is(0.0));
+      assertThat(histogram.getPercentileMillis(99), is(0.0));
+   }
+
+   @Test
+   public void testConcurrent() throws InterruptedException
+   {
+      LatencyHistogram histogram = new LatencyHistogram();
+      List<Thread> threads = new ArrayList<>();
+      for (int i = 0; i < 8; ++i)
+      {
+         long nanos = TimeUnit.MILLISECONDS.toNanos(i + 1);
+         threads.add(new Thread(() -> {
+            for (int j = 0; j < 10000; ++j)
+               histogram.record(nanos);
+         }));
+      }
+      threads.forEach(Thread::start);
+      for (Thread thread : threads)
+         thread.join();
+
+      assertThat(histogram.getCount(), is(80000L));
+      assertThat(histogram.getMeanMillis(), is(4.5));
+      assertThat(histogram.getMaxMillis(), is(8.0));
+   }
+
+   @Test
+   public void testNoAllocation()
+   {
+      java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+      if (!(bean instanceof com.sun.management.ThreadMXBean))
+         return;
+
+      com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean)bean;
+      if (!threadBean.isThreadAllocatedMemorySupported() || !threadBean.isThreadAllocatedMemoryEnabled())
+         return;
+
+      LatencyHistogram histogram = new LatencyHistogram();
+
+      // Warm up so the measured loop is compiled.
+      for (int i = 0; i < 100000; ++i)
+         histogram.record(i * 1000L);
+
+      long threadId = Thread.currentThread().getId();
+      long before = threadBean.getThreadAllocatedBytes(threadId);
+      for (int i = 0; i < 100000; ++i)
+         histogram.record(i * 1000L);
+      long allocated = threadBean.getThreadAllocatedBytes(threadId) - before;
+
+      assertThat(histogram.getCount(), is(200000L));
+      assertThat(allocated, lessThan(10000L));
+   }
+}
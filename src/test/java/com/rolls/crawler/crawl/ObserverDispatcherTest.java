@@ -0,0 +1,219 @@
+package com.rolls.crawler.crawl;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+import com.rolls.crawler.test.TestTimer;
+
+@SuppressWarnings("javadoc")
+public class ObserverDispatcherTest
+{
+   private static class BatchObserver implements CrawlObserver
+   {
+      private final List<String> urls = new ArrayList<>();
+      private final List<Integer> batchSizes = new ArrayList<>();
+      private final long delayMillis;
+
+      public BatchObserver(long delayMillis)
+      {
+         this.delayMillis = delayMillis;
+      }
+
+      @Override
+      public void onPage(CrawlPage page)
+      {
+         urls.add(page.getUrl());
+      }
+
+      @Override
+      public void onPages(List<CrawlPage> pages)
+      {
+         batchSizes.add(pages.size());
+         CrawlObserver.super.onPages(pages);
+         sleep(delayMillis);
+      }
+
+      @Override
+      public void onComplete(Date startTime, long durationMillis, boolean cancelled)
+      {
+      }
+   }
+
+   @Test
+   public void testOrderAndBatches()
+   {
+      BatchObserver observer = new BatchObserver(0);
+      ObserverDispatcher dispatcher = new ObserverDispatcher(100, 8);
+      dispatcher.subscribe(observer, Backpressure.BLOCK, "Test-Observer");
+      dispatcher.start();
+
+      for (int i = 0; i < 100; ++i)
+         assertThat(dispatcher.publish(page(i)), is(true));
+      dispatcher.close();
+
+      assertThat(observer.urls, is(urls(0, 100)));
+      assertThat(observer.batchSizes.stream().allMatch((size) -> size >= 1 && size <= 8), is(true));
+      assertThat(dispatcher.getDroppedPages(observer), is(0L));
+      assertThat(dispatcher.publish(page(100)), is(false));
+   }
+
+   @Test
+   public void testBlockGetsEveryPage()
+   {
+      // The observer is far slower than the publisher, which waits for it once the buffer is full.
+      BatchObserver observer = new BatchObserver(5);
+      ObserverDispatcher dispatcher = new ObserverDispatcher(4, 2);
+      dispatcher.subscribe(observer, Backpressure.BLOCK, "Test-Observer");
+      dispatcher.start();
+
+      for (int i = 0; i < 40; ++i)
+         dispatcher.publish(page(i));
+      dispatcher.close();
+
+      assertThat(observer.urls, is(urls(0, 40)));
+      assertThat(dispatcher.getDroppedPages(observer), is(0L));
+   }
+
+   @Test
+   public void testDropDoesNotBlock()
+   {
+      CountDownLatch release = new CountDownLatch(1);
+      BatchObserver stalled = new BatchObserver(0) {
+         @Override
+         public void onPages(List<CrawlPage> pages)
+         {
+            super.onPages(pages);
+            await(release);
+         }
+      };
+      BatchObserver fast = new BatchObserver(0);
+      ObserverDispatcher dispatcher = new ObserverDispatcher(10, 100);
+      dispatcher.subscribe(stalled, Backpressure.DROP, "Test-Stalled");
+      dispatcher.subscribe(fast, Backpressure.BLOCK, "Test-Fast");
+      dispatcher.start();
+
+      TestTimer testTimer = TestTimer.startNewTimer();
+      for (int i = 0; i < 1000; ++i)
+         dispatcher.publish(page(i));
+      assertThat(testTimer.endTimer(), lessThan(1000L));
+
+      release.countDown();
+      dispatcher.close();
+
+      // The stalled observer gets the pages it read before stalling and the last pages in the buffer.
+      assertThat(fast.urls, is(urls(0, 1000)));
+      assertThat(stalled.urls.size() + dispatcher.getDroppedPages(stalled), is(1000L));
+      assertThat(dispatcher.getDroppedPages(stalled), greaterThan(0L));
+      assertThat(stalled.urls.subList(stalled.urls.size() - 10, stalled.urls.size()), is(urls(990, 1000)));
+   }
+
+   @Test
+   public void testSampleThinsPages()
+   {
+      CountDownLatch release = new CountDownLatch(1);
+      BatchObserver stalled = new BatchObserver(0) {
+         @Override
+         public void onPages(List<CrawlPage> pages)
+         {
+            super.onPages(pages);
+            await(release);
+         }
+      };
+      ObserverDispatcher dispatcher = new ObserverDispatcher(100, 100);
+      dispatcher.subscribe(stalled, Backpressure.SAMPLE, "Test-Sampled");
+      dispatcher.start();
+
+      // The first page stalls the observer and the buffer fills behind it.
+      dispatcher.publish(page(0));
+      sleep(50);
+      for (int i = 1; i < 100; ++i)
+         dispatcher.publish(page(i));
+
+      release.countDown();
+      dispatcher.close();
+
+      // While more than half the buffer behind, every other page is skipped.
+      assertThat(stalled.urls.get(0), is(page(0).getUrl()));
+      assertThat(stalled.urls.get(1), is(page(1).getUrl()));
+      assertThat(stalled.urls.get(2), is(page(3).getUrl()));
+      for (int i = 1; i < stalled.urls.size(); ++i)
+         assertThat(number(stalled.urls.get(i)), greaterThan(number(stalled.urls.get(i - 1))));
+      assertThat(stalled.urls.size() + dispatcher.getDroppedPages(stalled), is(100L));
+      assertThat(dispatcher.getDroppedPages(stalled), greaterThan(0L));
+      assertThat(dispatcher.getDroppedPages(stalled), lessThanOrEqualTo(50L));
+   }
+
+   @Test
+   public void testObserverError()
+   {
+      BatchObserver observer = new BatchObserver(0) {
+         @Override
+         public void onPage(CrawlPage page)
+         {
+            super.onPage(page);
+            if (number(page.getUrl()) == 3)
+               throw new IllegalStateException("Test error.");
+         }
+      };
+      ObserverDispatcher dispatcher = new ObserverDispatcher(10, 1);
+      dispatcher.subscribe(observer, Backpressure.BLOCK, "Test-Observer");
+      dispatcher.start();
+
+      for (int i = 0; i < 10; ++i)
+         dispatcher.publish(page(i));
+      dispatcher.close();
+
+      assertThat(observer.urls, is(urls(0, 10)));
+   }
+
+   private static CrawlPage page(int number)
+   {
+      CrawlPage page = new CrawlPage();
+      page.setUrl("http://www.test.com/page/" + number + ".html");
+      return page;
+   }
+
+   private static List<String> urls(int from, int to)
+   {
+      return IntStream.range(from, to).mapToObj((number) -> page(number).getUrl()).collect(Collectors.toList());
+   }
+
+   private static int number(String url)
+   {
+      return Integer.parseInt(url.substring(url.lastIndexOf('/') + 1, url.length() - ".html".length()));
+   }
+
+   private static void sleep(long millis)
+   {
+      try
+      {
+         Thread.sleep(millis);
+      }
+      catch (InterruptedException e)
+      {
+         Thread.currentThread().interrupt();
+      }
+   }
+
+   private static void await(CountDownLatch latch)
+   {
+      try
+      {
+         latch.await(10, TimeUnit.SECONDS);
+      }
+      catch (InterruptedException e)
+      {
+         Thread.currentThread().interrupt();
+      }
+   }
+}
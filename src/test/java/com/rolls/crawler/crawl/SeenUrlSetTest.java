@@ -0,0 +1,121 @@
+package com.rolls.crawler.crawl;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+@SuppressWarnings("javadoc")
+public class SeenUrlSetTest
+{
+   private static final String baseUrl = "http://www.notrealsite.org/page/";
+
+   @Test
+   public void testStringSet()
+   {
+      checkExact(new StringSeenUrlSet(), 10000);
+   }
+
+   @Test
+   public void testFingerprintSet()
+   {
+      // Start small so the tables have to grow.
+      checkExact(new FingerprintSeenUrlSet(1), 100000);
+   }
+
+   @Test
+   public void testBloomSet()
+   {
+      BloomSeenUrlSet set = new BloomSeenUrlSet(100000, 0.001);
+      assertThat(set.getNumHashes(), is(10));
+      assertThat(set.getNumBits(), greaterThan(1400000L));
+
+      int addFalsePositives = 0;
+      for (int i = 0; i < 100000; ++i)
+      {
+         if (!set.add(baseUrl + i))
+            ++addFalsePositives;
+      }
+      assertThat(set.size(), is(100000L - addFalsePositives));
+
+      // Every added URL is found.
+      for (int i = 0; i < 100000; ++i)
+         assertThat(set.contains(baseUrl + i), is(true));
+
+      // New URLs are rarely reported as seen.
+      int falsePositives = 0;
+      for (int i = 100000; i < 200000; ++i)
+      {
+         if (set.contains(baseUrl + i))
+            ++falsePositives;
+      }
+      assertThat(falsePositives, lessThan(400));
+   }
+
+   @Test
+   public void testBloomSetInvalid()
+   {
+      IllegalArgumentException ex = assertThrows(IllegalArgumentException.class, () -> {
+         new BloomSeenUrlSet(0, 0.01);
+      });
+      assertThat(ex.getMessage(), is("Invalid expected URLs."));
+
+      ex = assertThrows(IllegalArgumentException.class, () -> {
+         new BloomSeenUrlSet(100, 1);
+      });
+      assertThat(ex.getMessage(), is("Invalid false positive rate."));
+   }
+
+   @Test
+   public void testConcurrentAdd() throws Exception
+   {
+      SeenUrlSet[] sets = {new StringSeenUrlSet(), new FingerprintSeenUrlSet(16), new BloomSeenUrlSet(1000000, 0.000001)};
+      for (SeenUrlSet set : sets)
+      {
+         AtomicInteger added = new AtomicInteger();
+         ExecutorService executor = Executors.newFixedThreadPool(8);
+         List<Future<?>> futures = new ArrayList<>();
+
+         // Every thread adds the same URLs.  Each URL must be added exactly once.
+         for (int t = 0; t < 8; ++t)
+         {
+            futures.add(executor.submit(() -> {
+               for (int i = 0; i < 20000; ++i)
+               {
+                  if (set.add(baseUrl + i))
+                     added.incrementAndGet();
+               }
+            }));
+         }
+         for (Future<?> future : futures)
+            future.get();
+         executor.shutdown();
+
+         assertThat(added.get(), is(20000));
+         assertThat(set.size(), is(20000L));
+      }
+   }
+
+   private void checkExact(SeenUrlSet set, int count)
+   {
+      for (int i = 0; i < count; ++i)
+         assertThat(set.add(baseUrl + i), is(true));
+
+      for (int i = 0; i < count; ++i)
+      {
+         assertThat(set.add(baseUrl + i), is(false));
+         assertThat(set.contains(baseUrl + i), is(true));
+      }
+
+      assertThat(set.contains(baseUrl + count), is(false));
+      assertThat(set.size(), is((long)count));
+   }
+}
@@ -0,0 +1,85 @@
+package com.rolls.crawler.crawl;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.lessThan;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.jupiter.api.Test;
+import com.rolls.crawler.test.TestTimer;
+
+@SuppressWarnings("javadoc")
+public class StageQueueTest
+{
+   @Test
+   public void testFifo() throws InterruptedException
+   {
+      StageQueue<Integer> queue = new StageQueue<>(10);
+      for (int i = 0; i < 10; ++i)
+         assertThat(queue.put(i), is(true));
+
+      assertThat(queue.size(), is(10));
+      for (int i = 0; i < 10; ++i)
+         assertThat(queue.poll(0, TimeUnit.MILLISECONDS), is(i));
+
+      assertThat(queue.poll(10, TimeUnit.MILLISECONDS), is(nullValue()));
+   }
+
+   @Test
+   public void testFullBlocksPut() throws InterruptedException
+   {
+      StageQueue<Integer> queue = new StageQueue<>(1);
+      queue.put(1);
+
+      AtomicBoolean putDone = new AtomicBoolean();
+      Thread producer = new Thread(() -> {
+         try
+         {
+            queue.put(2);
+            putDone.set(true);
+         }
+         catch (InterruptedException e)
+         {
+         }
+      });
+      producer.start();
+
+      Thread.sleep(100);
+      assertThat(putDone.get(), is(false));
+
+      TestTimer testTimer = TestTimer.startNewTimer();
+      assertThat(queue.poll(0, TimeUnit.MILLISECONDS), is(1));
+      assertThat(queue.poll(1, TimeUnit.SECONDS), is(2));
+      assertThat(testTimer.endTimer(), lessThan(500L));
+
+      producer.join(1000);
+      assertThat(putDone.get(), is(true));
+   }
+
+   @Test
+   public void testCloseWakesWaiters() throws InterruptedException
+   {
+      StageQueue<Integer> queue = new StageQueue<>(1);
+      new Thread(() -> {
+         try
+         {
+            Thread.sleep(100);
+         }
+         catch (InterruptedException e)
+         {
+         }
+         queue.close();
+      }).start();
+
+      TestTimer testTimer = TestTimer.startNewTimer();
+      assertThat(queue.poll(10, TimeUnit.SECONDS), is(nullValue()));
+      assertThat(testTimer.endTimer(), greaterThanOrEqualTo(90L));
+      assertThat(testTimer.getDurationMillis(), lessThan(1000L));
+
+      assertThat(queue.isClosed(), is(true));
+      assertThat(queue.put(1), is(false));
+      assertThat(queue.size(), is(0));
+   }
+}
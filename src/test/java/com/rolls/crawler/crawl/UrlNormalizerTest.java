@@ -0,0 +1,95 @@
+package com.rolls.crawler.crawl;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+@SuppressWarnings("javadoc")
+public class UrlNormalizerTest
+{
+   @Test
+   public void testNull()
+   {
+      IllegalArgumentException ex = assertThrows(IllegalArgumentException.class, () -> {
+         new UrlNormalizer(null);
+      });
+      assertThat(ex.getMessage(), is("Null rules."));
+   }
+
+   @Test
+   public void testCorpus() throws IOException, URISyntaxException
+   {
+      UrlNormalizer normalizer = new UrlNormalizer(UrlNormalizer.DEFAULT_RULES);
+      List<String> lines = Files.readAllLines(Paths.get(Thread.currentThread().getContextClassLoader()
+            .getResource("url-corpus.txt").toURI()), StandardCharsets.UTF_8);
+
+      int count = 0;
+      for (String line : lines)
+      {
+         if (line.isEmpty() || line.startsWith("#"))
+            continue;
+
+         String[] columns = line.split("\t");
+         String normal = normalizer.normalize(columns[0]);
+         assertThat(columns[0], normal, is(columns[1]));
+
+         // Normalizing a normal URL does not change it or build a new string.
+         assertThat(columns[1], normalizer.normalize(normal), sameInstance(normal));
+         ++count;
+      }
+      assertThat(count, greaterThan(40));
+   }
+
+   @Test
+   public void testEachRule()
+   {
+      String url = "HTTP://Www.Site.Org:80/a/./b/../%7ec/?z=%2f&a=1#frag";
+      checkRules(EnumSet.noneOf(UrlRule.class), url, url);
+      checkRules(EnumSet.of(UrlRule.REMOVE_FRAGMENT), url, "HTTP://Www.Site.Org:80/a/./b/../%7ec/?z=%2f&a=1");
+      checkRules(EnumSet.of(UrlRule.LOWER_CASE_HOST), url, "http://www.site.org:80/a/./b/../%7ec/?z=%2f&a=1#frag");
+      checkRules(EnumSet.of(UrlRule.REMOVE_DEFAULT_PORT), url, "HTTP://Www.Site.Org/a/./b/../%7ec/?z=%2f&a=1#frag");
+      checkRules(EnumSet.of(UrlRule.NORMALIZE_PERCENT_ENCODING), url, "HTTP://Www.Site.Org:80/a/./b/../~c/?z=%2F&a=1#frag");
+      checkRules(EnumSet.of(UrlRule.REMOVE_DOT_SEGMENTS), url, "HTTP://Www.Site.Org:80/a/%7ec/?z=%2f&a=1#frag");
+      checkRules(EnumSet.of(UrlRule.SORT_QUERY_PARAMETERS), url, "HTTP://Www.Site.Org:80/a/./b/../%7ec/?a=1&z=%2f#frag");
+      checkRules(EnumSet.of(UrlRule.REMOVE_TRAILING_SLASH), url, "HTTP://Www.Site.Org:80/a/./b/../%7ec?z=%2f&a=1#frag");
+
+      // Without the rule, a trailing slash stays even once dot segments are removed.
+      checkRules(EnumSet.of(UrlRule.REMOVE_DOT_SEGMENTS), "http://www.site.org/a/b/..", "http://www.site.org/a/");
+   }
+
+   @Test
+   public void testRemoveDotSegments()
+   {
+      // Examples from RFC 3986, section 5.2.4.
+      assertThat(UrlNormalizer.removeDotSegments("/a/b/c/./../../g"), is("/a/g"));
+      assertThat(UrlNormalizer.removeDotSegments("mid/content=5/../6"), is("mid/6"));
+      assertThat(UrlNormalizer.removeDotSegments("/./"), is("/"));
+      assertThat(UrlNormalizer.removeDotSegments("/.."), is("/"));
+      assertThat(UrlNormalizer.removeDotSegments(""), is(""));
+   }
+
+   @Test
+   public void testDefaultRules()
+   {
+      assertThat(UrlNormalizer.DEFAULT_RULES, is(EnumSet.allOf(UrlRule.class)));
+      assertThrows(UnsupportedOperationException.class, () -> {
+         UrlNormalizer.DEFAULT_RULES.retainAll(Collections.emptySet());
+      });
+   }
+
+   private static void checkRules(EnumSet<UrlRule> rules, String url, String expected)
+   {
+      assertThat(rules.toString(), new UrlNormalizer(rules).normalize(url), is(expected));
+   }
+}
@@ -0,0 +1,139 @@
+package com.rolls.crawler.parse;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.Test;
+
+@SuppressWarnings("javadoc")
+public class HttpResponseParserTest
+{
+   @Test
+   public void testContentLength() throws IOException
+   {
+      HttpResponseParser parser = new HttpResponseParser(0);
+      String response = "HTTP/1.1 200 OK\r\nContent-Type: text/html\r\nContent-Length: 11\r\n\r\nhello worldEXTRA";
+
+      // One byte at a time so every state is split across reads.
+      ByteBuffer buffer = bytes(response);
+      while (buffer.hasRemaining() && !parser.isComplete())
+      {
+         ByteBuffer one = ByteBuffer.wrap(new byte[] {buffer.get()});
+         parser.feed(one);
+      }
+
+      assertThat(parser.isComplete(), is(true));
+      assertThat(parser.getStatusCode(), is(200));
+      assertThat(parser.getHeader("content-type"), is("text/html"));
+      assertThat(body(parser), is("hello world"));
+      assertThat(buffer.remaining(), is(5));
+   }
+
+   @Test
+   public void testChunked() throws IOException
+   {
+      HttpResponseParser parser = new HttpResponseParser(0);
+      parser.feed(bytes("HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n5;name=value\r\nhello\r\n"));
+      assertThat(parser.isComplete(), is(false));
+
+      parser.feed(bytes("6\r\n world\r\n0\r\nTrailer: x\r\n\r\n"));
+      assertThat(parser.isComplete(), is(true));
+      assertThat(body(parser), is("hello world"));
+   }
+
+   @Test
+   public void testBodyToClose() throws IOException
+   {
+      HttpResponseParser parser = new HttpResponseParser(0);
+      parser.feed(bytes("HTTP/1.0 200 OK\r\n\r\nhello "));
+      parser.feed(bytes("world"));
+      assertThat(parser.isComplete(), is(false));
+
+      parser.endOfStream();
+      assertThat(parser.isComplete(), is(true));
+      assertThat(body(parser), is("hello world"));
+   }
+
+   @Test
+   public void testInterimResponse() throws IOException
+   {
+      HttpResponseParser parser = new HttpResponseParser(0);
+      parser.feed(bytes("HTTP/1.1 100 Continue\r\n\r\nHTTP/1.1 301 Moved\r\nLocation: /new\r\nContent-Length: 0\r\n\r\n"));
+      assertThat(parser.isComplete(), is(true));
+      assertThat(parser.getStatusCode(), is(301));
+      assertThat(parser.getHeader("Location"), is("/new"));
+   }
+
+   @Test
+   public void testNotModified() throws IOException
+   {
+      HttpResponseParser parser = new HttpResponseParser(0);
+      parser.feed(bytes("HTTP/1.1 304 Not Modified\r\nContent-Length: 100\r\n\r\n"));
+      assertThat(parser.isComplete(), is(true));
+      assertThat(parser.getBody().length, is(0));
+   }
+
+   @Test
+   public void testRepeatedHeaders() throws IOException
+   {
+      HttpResponseParser parser = new HttpResponseParser(0);
+      parser.feed(bytes("HTTP/1.1 204 No Content\r\nVary: Accept\r\nvary: Cookie\r\nbad header\r\n\r\n"));
+      assertThat(parser.getHeader("Vary"), is("Accept, Cookie"));
+      assertThat(parser.getHeader("bad header"), is(nullValue()));
+   }
+
+   @Test
+   public void testTruncated() throws IOException
+   {
+      HttpResponseParser parser = new HttpResponseParser(5);
+      parser.feed(bytes("HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n3\r\nhel\r\n8\r\nlo world\r\n0\r\n\r\n"));
+      assertThat(parser.isComplete(), is(true));
+      assertThat(parser.isTruncated(), is(true));
+      assertThat(body(parser), is("hello"));
+   }
+
+   @Test
+   public void testIncomplete() throws IOException
+   {
+      HttpResponseParser parser = new HttpResponseParser(0);
+      parser.feed(bytes("HTTP/1.1 200 OK\r\nContent-Length: 20\r\n\r\nhello"));
+
+      IOException ex = assertThrows(IOException.class, () -> {
+         parser.endOfStream();
+      });
+      assertThat(ex.getMessage(), is("Connection closed before the response was complete."));
+   }
+
+   @Test
+   public void testInvalid()
+   {
+      IOException ex = assertThrows(IOException.class, () -> {
+         new HttpResponseParser(0).feed(bytes("<html>\r\n"));
+      });
+      assertThat(ex.getMessage(), is("Invalid status line: <html>"));
+
+      ex = assertThrows(IOException.class, () -> {
+         new HttpResponseParser(0).feed(bytes("HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\nxyz\r\n"));
+      });
+      assertThat(ex.getMessage(), is("Invalid chunk size: xyz"));
+
+      ex = assertThrows(IOException.class, () -> {
+         new HttpResponseParser(0).feed(bytes("HTTP/1.1 200 OK\r\nContent-Length: -1\r\n\r\n"));
+      });
+      assertThat(ex.getMessage(), is("Invalid content length: -1"));
+   }
+
+   private static ByteBuffer bytes(String text)
+   {
+      return ByteBuffer.wrap(text.getBytes(StandardCharsets.ISO_8859_1));
+   }
+
+   private static String body(HttpResponseParser parser)
+   {
+      return new String(parser.getBody(), StandardCharsets.ISO_8859_1);
+   }
+}
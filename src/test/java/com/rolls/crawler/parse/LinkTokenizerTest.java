@@ -0,0 +1,143 @@
+package com.rolls.crawler.parse;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+
+@SuppressWarnings("javadoc")
+public class LinkTokenizerTest
+{
+   private final static String LOCATION = "http://www.notrealsite.org/site/page.html";
+
+   @Test
+   public void testCorpus() throws URISyntaxException, IOException
+   {
+      // Every saved page gives the same details as the Jsoup document.
+      ParserImpl parser = new ParserImpl(0);
+      File[] files = new File(getResource("corpus").toURI()).listFiles();
+      assertThat(files.length > 0, is(true));
+
+      List<File> pages = new ArrayList<>();
+      pages.add(new File(getResource("ParserTest.html").toURI()));
+      for (File file : files)
+         pages.add(file);
+
+      for (File file : pages)
+      {
+         FetchedPage page = fetchedPage(Files.readAllBytes(file.toPath()), null);
+         PageDetails expected = parser.extract(page);
+         PageDetails actual = LinkTokenizer.extract(page);
+
+         String name = file.getName();
+         assertThat(name, actual.getLoadError(), is(nullValue()));
+         assertThat(name, actual.getTitle(), is(expected.getTitle()));
+         assertThat(name, toStrings(actual.getImports()), is(toStrings(expected.getImports())));
+         assertThat(name, toStrings(actual.getMedia()), is(toStrings(expected.getMedia())));
+         assertThat(name, toStrings(actual.getLinks()), is(toStrings(expected.getLinks())));
+      }
+   }
+
+   @Test
+   public void testParserImpl()
+   {
+      ParserImpl parser = new ParserImpl(0);
+      assertThat(parser.isStreamingExtract(), is(false));
+      parser.setStreamingExtract(true);
+
+      PageDetails details = parser.extract(fetchedPage("<title>Streamed</title><a href='next.html'>Next</a>"));
+      assertThat(details.getTitle(), is("Streamed"));
+      assertThat(toStrings(details.getLinks()), contains("a http://www.notrealsite.org/site/next.html"));
+   }
+
+   @Test
+   public void testCharset()
+   {
+      byte[] body = "<meta charset=\"ISO-8859-1\"><title>Café</title>".getBytes(StandardCharsets.ISO_8859_1);
+      assertThat(LinkTokenizer.extract(fetchedPage(body, null)).getTitle(), is("Café"));
+
+      // The charset of the response wins over the page.
+      body = "<meta charset=\"ISO-8859-1\"><title>Café</title>".getBytes(StandardCharsets.UTF_8);
+      assertThat(LinkTokenizer.extract(fetchedPage(body, "UTF-8")).getTitle(), is("Café"));
+
+      body = "þÿ\u0000<\u0000t".getBytes(StandardCharsets.ISO_8859_1);
+      assertThat(LinkTokenizer.extract(fetchedPage(body, "UTF-8")).getLoadError(), is(nullValue()));
+   }
+
+   @Test
+   public void testScript()
+   {
+      PageDetails details = LinkTokenizer.extract(fetchedPage(
+            "<script>document.write('<img src=\"a.png\">');</script><img src=\"b.png\">" +
+            "<script><!-- <script></script><img src=\"c.png\"></script> --></script><img src=\"d.png\">"));
+      assertThat(toStrings(details.getMedia()), contains(
+            "img http://www.notrealsite.org/site/b.png",
+            "img http://www.notrealsite.org/site/d.png"));
+   }
+
+   @Test
+   public void testNoLinks()
+   {
+      PageDetails details = LinkTokenizer.extract(fetchedPage(""));
+      assertThat(details.getLoadError(), is(nullValue()));
+      assertThat(details.getTitle(), is(""));
+      assertThat(details.getImports(), is(empty()));
+      assertThat(details.getMedia(), is(empty()));
+      assertThat(details.getLinks(), is(empty()));
+   }
+
+   @Test
+   public void testLoadError()
+   {
+      FetchedPage page = new FetchedPage();
+      page.setUrl(LOCATION);
+      page.setLoadError("Unable to load " + LOCATION + ".  CAUSE: timeout");
+      assertThat(LinkTokenizer.extract(page).getLoadError(), is(page.getLoadError()));
+
+      page = fetchedPage("<a href='x'>");
+      page.setCharset("no-such-charset");
+      assertThat(LinkTokenizer.extract(page).getLoadError(), containsString("Unable to load " + LOCATION + ".  CAUSE: "));
+   }
+
+   private static FetchedPage fetchedPage(String html)
+   {
+      return fetchedPage(html.getBytes(StandardCharsets.UTF_8), "UTF-8");
+   }
+
+   private static FetchedPage fetchedPage(byte[] body, String charset)
+   {
+      FetchedPage page = new FetchedPage();
+      page.setUrl(LOCATION);
+      page.setLocation(LOCATION);
+      page.setStatusCode(200);
+      page.setContentType("text/html");
+      page.setCharset(charset);
+      page.setBody(body);
+      return page;
+   }
+
+   private static List<String> toStrings(Set<LinkDetails> links)
+   {
+      List<String> strings = new ArrayList<>();
+      for (LinkDetails link : links)
+         strings.add(link.getTag() + " " + link.getUrl());
+      return strings;
+   }
+
+   private static URL getResource(String name)
+   {
+      return Thread.currentThread().getContextClassLoader().getResource(name);
+   }
+}
@@ -0,0 +1,446 @@
+package com.rolls.crawler.parse;
+
+import static org.hamcrest.CoreMatchers.allOf;
+import static org.hamcrest.CoreMatchers.anyOf;
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.startsWith;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.hasProperty;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import com.rolls.crawler.test.TestTimer;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+@SuppressWarnings("javadoc")
+public class NioParserTest
+{
+   private static final String TAGGED_PAGE = "<html><head><title>Tagged</title></head><body><a href=\"/a\">A</a></body></html>";
+
+   private HttpServer server;
+   private ExecutorService serverThreads;
+   private NioParser parser;
+   private String baseUrl;
+   private AtomicInteger fullResponses = new AtomicInteger();
+
+   @BeforeEach
+   public void startServer() throws IOException, URISyntaxException
+   {
+      byte[] testPage = loadTestPage();
+
+      server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 1000);
+      server.createContext("/site/ParserTest.html", (exchange) -> {
+         sendResponse(exchange, 200, "text/html; charset=UTF-8", testPage);
+      });
+      server.createContext("/redirect", (exchange) -> {
+         exchange.getResponseHeaders().add("Location", "/site/ParserTest.html");
+         exchange.sendResponseHeaders(302, -1);
+         exchange.close();
+      });
+      server.createContext("/gzip", (exchange) -> {
+         exchange.getResponseHeaders().add("Content-Type", "text/html");
+         exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+         exchange.sendResponseHeaders(200, 0);
+         try (OutputStream out = new GZIPOutputStream(exchange.getResponseBody()))
+         {
+            out.write("<html><head><title>Compressed</title></head></html>".getBytes(StandardCharsets.UTF_8));
+         }
+         exchange.close();
+      });
+      server.createContext("/image.jpg", (exchange) -> {
+         sendResponse(exchange, 200, "image/jpeg", new byte[100]);
+      });
+      server.createContext("/large", (exchange) -> {
+         // Declares a body far over the limit and sends only the start of it.
+         exchange.getResponseHeaders().add("Content-Type", "text/html");
+         exchange.sendResponseHeaders(200, 100 * 1024 * 1024);
+         exchange.getResponseBody().write(new byte[100]);
+         exchange.getResponseBody().flush();
+         try
+         {
+            Thread.sleep(2000);
+         }
+         catch (InterruptedException e)
+         {
+         }
+         exchange.close();
+      });
+      server.createContext("/chunked", (exchange) -> {
+         exchange.getResponseHeaders().add("Content-Type", "text/html");
+         exchange.sendResponseHeaders(200, 0);
+         exchange.getResponseBody().write(new byte[5000]);
+         exchange.close();
+      });
+      server.createContext("/slow", (exchange) -> {
+         try
+         {
+            Thread.sleep(200);
+         }
+         catch (InterruptedException e)
+         {
+         }
+         sendResponse(exchange, 200, "text/html", "<html><head><title>Slow</title></head></html>".getBytes(StandardCharsets.UTF_8));
+      });
+      server.createContext("/etag", (exchange) -> {
+         exchange.getResponseHeaders().add("ETag", "\"v1\"");
+         if ("\"v1\"".equals(exchange.getRequestHeaders().getFirst("If-None-Match")))
+         {
+            exchange.sendResponseHeaders(304, -1);
+            exchange.close();
+         }
+         else
+         {
+            fullResponses.incrementAndGet();
+            sendResponse(exchange, 200, "text/html", TAGGED_PAGE.getBytes(StandardCharsets.UTF_8));
+         }
+      });
+      server.createContext("/throttled", (exchange) -> {
+         exchange.getResponseHeaders().add("Retry-After", "120");
+         sendResponse(exchange, 429, "text/html", "Slow down".getBytes(StandardCharsets.UTF_8));
+      });
+      server.createContext("/robots.txt", (exchange) -> {
+         sendResponse(exchange, 200, "text/plain", ("User-agent: *\nCrawl-delay: 2\nSitemap: /sitemap_index.xml\n").getBytes(StandardCharsets.UTF_8));
+      });
+      server.createContext("/sitemap_index.xml", (exchange) -> {
+         sendResponse(exchange, 200, "application/xml", ("<sitemapindex><sitemap><loc>" + baseUrl +
+               "/sitemap.xml.gz</loc></sitemap></sitemapindex>").getBytes(StandardCharsets.UTF_8));
+      });
+      server.createContext("/sitemap.xml.gz", (exchange) -> {
+         // Sent as a file, not with a gzip Content-Encoding.
+         exchange.getResponseHeaders().add("Content-Type", "application/x-gzip");
+         exchange.sendResponseHeaders(200, 0);
+         try (OutputStream out = new GZIPOutputStream(exchange.getResponseBody()))
+         {
+            out.write(("<urlset><url><loc>" + baseUrl + "/a</loc></url><url><loc>" + baseUrl +
+                  "/b</loc></url></urlset>").getBytes(StandardCharsets.UTF_8));
+         }
+         exchange.close();
+      });
+      server.createContext("/", (exchange) -> {
+         sendResponse(exchange, 404, "text/html", "Not found".getBytes(StandardCharsets.UTF_8));
+      });
+
+      serverThreads = Executors.newCachedThreadPool();
+      server.setExecutor(serverThreads);
+      server.start();
+
+      baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+      parser = new NioParser(5000, 2);
+   }
+
+   @AfterEach
+   public void stopServer()
+   {
+      parser.close();
+      server.stop(0);
+      serverThreads.shutdownNow();
+   }
+
+   @Test
+   public void testSameAsParserImpl()
+   {
+      // The local page is parsed the same by both parsers.
+      String url = baseUrl + "/site/ParserTest.html";
+      PageDetails expected = new ParserImpl(5000).parse(url);
+      PageDetails details = parser.parse(url);
+
+      assertThat(expected.getLoadError(), is(nullValue()));
+      assertThat(details.getLoadError(), is(nullValue()));
+      assertThat(details.getTitle(), is("Insert title here"));
+      assertThat(details.getImports(), is(expected.getImports()));
+      assertThat(details.getMedia(), is(expected.getMedia()));
+      assertThat(details.getLinks(), is(expected.getLinks()));
+   }
+
+   @Test
+   public void testRedirect()
+   {
+      FetchedPage page = parser.fetch(baseUrl + "/redirect");
+      assertThat(page.getLoadError(), is(nullValue()));
+      assertThat(page.getUrl(), is(baseUrl + "/redirect"));
+      assertThat(page.getLocation(), is(baseUrl + "/site/ParserTest.html"));
+      assertThat(page.getStatusCode(), is(200));
+      assertThat(page.getCharset(), is("UTF-8"));
+   }
+
+   @Test
+   public void testResolver() throws InterruptedException
+   {
+      // Host names are resolved on the resolver, not the caller or an I/O thread, and again after a redirect.
+      CountDownLatch resolverBlocked = new CountDownLatch(1);
+      ThreadPoolExecutor resolver = (ThreadPoolExecutor)Executors.newFixedThreadPool(1);
+      resolver.execute(() -> {
+         try
+         {
+            resolverBlocked.await();
+         }
+         catch (InterruptedException ex)
+         {
+            Thread.currentThread().interrupt();
+         }
+      });
+
+      try (NioParser resolvingParser = new NioParser(5000, 1, null, resolver))
+      {
+         TestTimer testTimer = TestTimer.startNewTimer();
+         CompletableFuture<FetchedPage> future = resolvingParser.fetchAsync(baseUrl + "/redirect");
+         assertThat(testTimer.endTimer(), lessThan(1000L));
+         Thread.sleep(100);
+         assertThat(future.isDone(), is(false));
+
+         resolverBlocked.countDown();
+         FetchedPage page = future.join();
+         assertThat(page.getLoadError(), is(nullValue()));
+         assertThat(page.getLocation(), is(baseUrl + "/site/ParserTest.html"));
+         assertThat(resolver.getTaskCount(), is(3L));
+         assertThat(page.getDnsNanos() > 0, is(true));
+      }
+      finally
+      {
+         resolver.shutdownNow();
+      }
+   }
+
+   @Test
+   public void testGzip()
+   {
+      PageDetails details = parser.parse(baseUrl + "/gzip");
+      assertThat(details.getLoadError(), is(nullValue()));
+      assertThat(details.getTitle(), is("Compressed"));
+   }
+
+   @Test
+   public void testLoadErrors()
+   {
+      PageDetails details = parser.parse(baseUrl + "/missing.html");
+      assertThat(details.getLoadError(), containsString("Status=404"));
+
+      details = parser.parse(baseUrl + "/image.jpg");
+      assertThat(details, allOf(
+            hasProperty("loadError", nullValue()),
+            hasProperty("skipReason", is(SkipReason.CONTENT_TYPE)),
+            hasProperty("skipMessage", is("Content type image/jpeg is not crawled."))
+            ));
+
+      details = parser.parse("http://www.notrealsite.org/somepagethatdoesnotexist.html");
+      assertThat(details, allOf(
+            hasProperty("loadError", startsWith("Unable to load http://www.notrealsite.org/somepagethatdoesnotexist.html.  CAUSE: ")),
+            hasProperty("title", anyOf(nullValue(), empty())),
+            hasProperty("links", anyOf(nullValue(), empty()))
+            ));
+   }
+
+   @Test
+   public void testThrottled()
+   {
+      // Every parser reads the Retry-After header of a throttled page before the error.
+      try (PooledParser pooledParser = new PooledParser(5000, 0, false))
+      {
+         for (ParserImpl throttledParser : new ParserImpl[] {parser, new ParserImpl(5000), pooledParser})
+         {
+            PageDetails details = throttledParser.parse(baseUrl + "/throttled");
+            assertThat(details.getLoadError(), containsString("Status=429"));
+            assertThat(details.isThrottled(), is(true));
+            assertThat(details.getRetryAfterMillis(), is(120000L));
+         }
+      }
+
+      PageDetails details = parser.parse(baseUrl + "/missing.html");
+      assertThat(details.isThrottled(), is(false));
+      assertThat(details.getRetryAfterMillis(), is(0L));
+   }
+
+   @Test
+   public void testSitemaps() throws IOException
+   {
+      // Sitemaps are always downloaded with a Jsoup connection, whatever the parser.
+      RobotsDetails robots = parser.parseRobots(baseUrl + "/robots.txt");
+      assertThat(robots.getCrawlDelayMillis(), is(2000L));
+      assertThat(robots.getSitemaps(), contains(baseUrl + "/sitemap_index.xml"));
+
+      List<String> pages = new ArrayList<>();
+      List<String> sitemaps = new ArrayList<>();
+      parser.parseSitemap(robots.getSitemaps().get(0), pages::add, sitemaps::add);
+      assertThat(pages, is(empty()));
+      assertThat(sitemaps, contains(baseUrl + "/sitemap.xml.gz"));
+
+      parser.parseSitemap(sitemaps.get(0), pages::add, sitemaps::add);
+      assertThat(pages, contains(baseUrl + "/a", baseUrl + "/b"));
+
+      // A missing robots.txt has no rules, but a missing sitemap is an error.
+      robots = parser.parseRobots(baseUrl + "/missing/robots.txt");
+      assertThat(robots.getCrawlDelayMillis(), is(0L));
+      assertThat(robots.getSitemaps(), is(empty()));
+
+      IOException ex = assertThrows(IOException.class, () -> {
+         parser.parseSitemap(baseUrl + "/missing/sitemap.xml", (url) -> {}, (url) -> {});
+      });
+      assertThat(ex.getMessage(), containsString("HTTP error fetching URL"));
+   }
+
+   @Test
+   public void testRetryAfter()
+   {
+      long now = 1605000000000L;
+      assertThat(ResponseChecks.getRetryAfterMillis("30", now), is(30000L));
+      assertThat(ResponseChecks.getRetryAfterMillis(" 0 ", now), is(0L));
+      assertThat(ResponseChecks.getRetryAfterMillis("Tue, 10 Nov 2020 09:20:30 GMT", now), is(30000L));
+      assertThat(ResponseChecks.getRetryAfterMillis("Tue, 10 Nov 2020 08:00:00 GMT", now), is(0L));
+      assertThat(ResponseChecks.getRetryAfterMillis("soon", now), is(0L));
+      assertThat(ResponseChecks.getRetryAfterMillis(null, now), is(0L));
+   }
+
+   @Test
+   public void testTooLarge()
+   {
+      parser.setContentLimits(new ContentLimits(Collections.singletonMap("text/html", 4096)));
+
+      // The content length is checked before the body is read.
+      TestTimer testTimer = TestTimer.startNewTimer();
+      FetchedPage page = parser.fetch(baseUrl + "/large");
+      assertThat(testTimer.endTimer(), lessThan(1000L));
+      assertThat(page.getLoadError(), is(nullValue()));
+      assertThat(page.getSkipReason(), is(SkipReason.TOO_LARGE));
+      assertThat(page.getStatusCode(), is(200));
+      assertThat(page.getBody(), is(nullValue()));
+
+      // Without a content length, the body is read until it is over the limit.
+      page = parser.fetch(baseUrl + "/chunked");
+      assertThat(page.getLoadError(), is(nullValue()));
+      assertThat(page.getSkipReason(), is(SkipReason.TOO_LARGE));
+
+      assertThat(parser.parse(baseUrl + "/site/ParserTest.html").getSkipReason(), is(nullValue()));
+
+      // Each stage of a download is timed.
+      page = parser.fetch(baseUrl + "/site/ParserTest.html");
+      assertThat(page.getConnectNanos() > 0, is(true));
+      assertThat(page.getFirstByteNanos() > 0, is(true));
+      assertThat(page.getDownloadNanos() > 0, is(true));
+
+      // A body is only hashed for a recrawl or the page cache.
+      assertThat(page.getContentHash(), is(nullValue()));
+   }
+
+   @Test
+   public void testRevalidate() throws IOException
+   {
+      Path cachePath = Paths.get("/JUnit_Test").toAbsolutePath();
+      FileUtils.deleteDirectory(cachePath.toFile());
+      try
+      {
+         PageCache cache = new PageCache(cachePath, 0);
+         ParserImpl blockingParser = new ParserImpl(5000);
+         blockingParser.setPageCache(cache);
+         blockingParser.setHashContent(true);
+         parser.setPageCache(cache);
+         parser.setHashContent(true);
+
+         String url = baseUrl + "/etag";
+         PageDetails first = parser.parse(url);
+         assertThat(first.getLoadError(), is(nullValue()));
+         assertThat(first.getTitle(), is("Tagged"));
+         assertThat(first.getContentHash(), is(ContentHash.of(TAGGED_PAGE.getBytes(StandardCharsets.UTF_8))));
+         assertThat(cache.getStored(), is(1L));
+
+         // Both parsers send the stored ETag and reuse the stored details on a 304.
+         for (ParserImpl cachingParser : new ParserImpl[] {parser, blockingParser})
+         {
+            FetchedPage page = cachingParser.fetch(url);
+            assertThat(page.getStatusCode(), is(304));
+            assertThat(page.getBody(), is(nullValue()));
+
+            PageDetails details = cachingParser.extract(page);
+            assertThat(details.getLoadError(), is(nullValue()));
+            assertThat(details.getTitle(), is("Tagged"));
+            assertThat(details.getContentHash(), is(first.getContentHash()));
+            assertThat(details.getLinks(), is(first.getLinks()));
+         }
+         assertThat(fullResponses.get(), is(1));
+         assertThat(cache.getRevalidated(), is(2L));
+      }
+      finally
+      {
+         FileUtils.deleteDirectory(cachePath.toFile());
+      }
+   }
+
+   @Test
+   public void testTimeout()
+   {
+      try (NioParser timeoutParser = new NioParser(50, 1))
+      {
+         PageDetails details = timeoutParser.parse(baseUrl + "/slow");
+         assertThat(details.getLoadError(), containsString("Read timed out"));
+      }
+   }
+
+   @Test
+   public void testClose()
+   {
+      CompletableFuture<FetchedPage> future = parser.fetchAsync(baseUrl + "/slow");
+      parser.close();
+      assertThat(future.join().getLoadError(), containsString("Parser closed."));
+
+      assertThat(parser.fetch(baseUrl + "/slow").getLoadError(), containsString("Parser closed."));
+   }
+
+   @Test
+   public void testManySlowPages()
+   {
+      // Every download waits on the server at the same time, so the total is about one page's delay.
+      TestTimer testTimer = TestTimer.startNewTimer();
+      List<CompletableFuture<PageDetails>> futures = new ArrayList<>();
+      for (int i = 0; i < 200; ++i)
+         futures.add(parser.parseAsync(baseUrl + "/slow?page=" + i));
+
+      for (CompletableFuture<PageDetails> future : futures)
+      {
+         PageDetails details = future.join();
+         assertThat(details.getLoadError(), is(nullValue()));
+         assertThat(details.getTitle(), is("Slow"));
+      }
+      assertThat(testTimer.endTimer(), lessThan(TimeUnit.SECONDS.toMillis(4)));
+   }
+
+   private static void sendResponse(HttpExchange exchange, int statusCode, String contentType, byte[] body) throws IOException
+   {
+      exchange.getResponseHeaders().add("Content-Type", contentType);
+      exchange.sendResponseHeaders(statusCode, body.length);
+      exchange.getResponseBody().write(body);
+      exchange.close();
+   }
+
+   private byte[] loadTestPage() throws URISyntaxException, IOException
+   {
+      File file = new File(Thread.currentThread().getContextClassLoader().getResource("ParserTest.html").toURI());
+      return Files.readAllBytes(file.toPath());
+   }
+}
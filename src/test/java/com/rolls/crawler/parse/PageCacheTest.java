@@ -0,0 +1,184 @@
+package com.rolls.crawler.parse;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+@SuppressWarnings("javadoc")
+public class PageCacheTest
+{
+   private static Path testPath = Paths.get("/JUnit_Test").toAbsolutePath();
+   private static final String baseUrl = "http://www.notrealsite.org/page/";
+
+   @BeforeEach
+   @AfterEach
+   private void deleteTestPath() throws IOException
+   {
+      File pathFile = testPath.toFile();
+      if (pathFile.exists())
+         FileUtils.deleteDirectory(pathFile);
+   }
+
+   @Test
+   public void testPutGet()
+   {
+      PageCache cache = new PageCache(testPath, 0);
+      assertThat(cache.getMaxBytes(), is(PageCache.DEFAULT_MAX_BYTES));
+      assertThat(cache.get(baseUrl + "1"), is(nullValue()));
+
+      cache.put(new CachedPage(baseUrl + "1", "\"abc\"", null, createDetails("One")));
+      cache.put(new CachedPage(baseUrl + "2", null, "Tue, 10 Nov 2020 08:00:00 GMT", createDetails("Two")));
+
+      CachedPage page = cache.get(baseUrl + "1");
+      assertThat(page.getUrl(), is(baseUrl + "1"));
+      assertThat(page.getEtag(), is("\"abc\""));
+      assertThat(page.getLastModified(), is(nullValue()));
+      assertThat(page.getDetails().getTitle(), is("One"));
+      assertThat(page.getDetails().getContentHash(), is("b58b5a8ced9db48b30e008b148004c1065ce53b1"));
+      assertThat(toUrls(page.getDetails().getLinks()), contains(baseUrl + "One/a", baseUrl + "One/b"));
+      assertThat(toUrls(page.getDetails().getImports()), contains(baseUrl + "One/style.css"));
+      assertThat(page.getDetails().getMedia().iterator().next().getTag(), is("img"));
+
+      page = cache.get(baseUrl + "2");
+      assertThat(page.getEtag(), is(nullValue()));
+      assertThat(page.getLastModified(), is("Tue, 10 Nov 2020 08:00:00 GMT"));
+
+      cache.put(new CachedPage(baseUrl + "1", "\"def\"", null, createDetails("One again")));
+      assertThat(cache.get(baseUrl + "1").getEtag(), is("\"def\""));
+      assertThat(cache.getSize(), is(2));
+      assertThat(cache.getHits(), is(3L));
+      assertThat(cache.getMisses(), is(1L));
+      assertThat(cache.getStored(), is(3L));
+
+      cache.remove(baseUrl + "1");
+      assertThat(cache.get(baseUrl + "1"), is(nullValue()));
+      assertThat(cache.getSize(), is(1));
+   }
+
+   @Test
+   public void testReopen() throws IOException
+   {
+      PageCache cache = new PageCache(testPath, 0);
+      for (int i = 0; i < 20; ++i)
+         cache.put(new CachedPage(baseUrl + i, "\"" + i + "\"", null, createDetails("Page " + i)));
+
+      // A crash can leave a temporary file behind.
+      Path temp = Files.createTempFile(testPath, "page", ".tmp");
+
+      PageCache reopened = new PageCache(testPath, 0);
+      assertThat(reopened.getSize(), is(20));
+      assertThat(reopened.getTotalBytes(), is(cache.getTotalBytes()));
+      assertThat(reopened.get(baseUrl + 7).getDetails().getTitle(), is("Page 7"));
+      assertThat(Files.exists(temp), is(false));
+   }
+
+   @Test
+   public void testEviction() throws IOException
+   {
+      PageCache cache = new PageCache(testPath, 0);
+      cache.put(new CachedPage(baseUrl + "size", null, null, createDetails("Page")));
+      long pageBytes = cache.getTotalBytes();
+
+      cache = new PageCache(testPath, pageBytes * 10);
+      for (int i = 0; i < 10; ++i)
+         cache.put(new CachedPage(baseUrl + i, null, null, createDetails("Page")));
+
+      // Using the first page makes the second the least recently used.
+      assertThat(cache.get(baseUrl + 0), is(notNullValue()));
+      for (int i = 10; i < 15; ++i)
+         cache.put(new CachedPage(baseUrl + i, null, null, createDetails("Page")));
+
+      assertThat(cache.getTotalBytes(), lessThanOrEqualTo(pageBytes * 10));
+      assertThat(cache.getEvicted(), is(6L));
+      assertThat(cache.get(baseUrl + 0), is(notNullValue()));
+      assertThat(cache.get(baseUrl + 1), is(nullValue()));
+      assertThat(cache.get(baseUrl + 14), is(notNullValue()));
+      assertThat(countFiles(), is(10L));
+
+      // A smaller maximum evicts when the cache is opened.
+      cache = new PageCache(testPath, pageBytes * 3);
+      assertThat(cache.getSize(), is(3));
+      assertThat(countFiles(), is(3L));
+   }
+
+   @Test
+   public void testCorruptFile() throws IOException
+   {
+      PageCache cache = new PageCache(testPath, 0);
+      cache.put(new CachedPage(baseUrl + "1", "\"abc\"", null, createDetails("One")));
+
+      List<Path> files;
+      try (Stream<Path> stream = Files.walk(testPath))
+      {
+         files = stream.filter((path) -> path.toString().endsWith(".page")).collect(Collectors.toList());
+      }
+      assertThat(files.size(), is(1));
+      Files.write(files.get(0), new byte[] {1, 2, 3});
+
+      assertThat(cache.get(baseUrl + "1"), is(nullValue()));
+      assertThat(cache.getSize(), is(0));
+      assertThat(Files.exists(files.get(0)), is(false));
+   }
+
+   @Test
+   public void testNull()
+   {
+      IllegalArgumentException ex = assertThrows(IllegalArgumentException.class, () -> {
+         new PageCache(null, 0);
+      });
+      assertThat(ex.getMessage(), is("Null cache path."));
+
+      PageCache cache = new PageCache(testPath, 0);
+      ex = assertThrows(IllegalArgumentException.class, () -> {
+         cache.put(null);
+      });
+      assertThat(ex.getMessage(), is("Null page."));
+   }
+
+   private static PageDetails createDetails(String title)
+   {
+      PageDetails details = new PageDetails();
+      details.setTitle(title);
+      details.setContentHash(ContentHash.of(title.getBytes(StandardCharsets.UTF_8)));
+      details.setImports(Collections.singleton(new LinkDetails("link", baseUrl + title + "/style.css")));
+      details.setMedia(Collections.singleton(new LinkDetails("img", baseUrl + title + "/logo.png")));
+      details.setLinks(new LinkedHashSet<>(Arrays.asList(
+            new LinkDetails("a", baseUrl + title + "/a"),
+            new LinkDetails("a", baseUrl + title + "/b"))));
+      return details;
+   }
+
+   private static List<String> toUrls(Set<LinkDetails> links)
+   {
+      return links.stream().map(LinkDetails::getUrl).collect(Collectors.toList());
+   }
+
+   private static long countFiles() throws IOException
+   {
+      try (Stream<Path> stream = Files.walk(testPath))
+      {
+         return stream.filter((path) -> path.toString().endsWith(".page")).count();
+      }
+   }
+}
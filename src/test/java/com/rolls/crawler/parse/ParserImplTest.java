@@ -11,14 +11,22 @@ import static org.hamcrest.Matchers.empty;
 import static org.hamcrest.Matchers.hasProperty;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.mockStatic;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.Collections;
 import org.jsoup.Connection;
 import org.jsoup.Jsoup;
-import org.jsoup.nodes.Document;
 import org.junit.jupiter.api.Test;
+import org.mockito.MockedStatic;
 import org.mockito.Mockito;
 import com.rolls.crawler.parse.PageDetails;
 import com.rolls.crawler.parse.Parser;
@@ -47,16 +55,29 @@ public class ParserImplTest
       String baseUri = "http://www.notrealsite.org/site/";
       String url = baseUri + "ParserTest.html";
 
+      Connection.Response response = mock(Connection.Response.class);
+      when(response.url()).thenReturn(new URL(url));
+      when(response.statusCode()).thenReturn(200);
+      when(response.bodyAsBytes()).thenReturn(loadTestPage());
+
       Connection conn = mock(Connection.class);
       when(conn.followRedirects(Mockito.anyBoolean())).thenReturn(conn);
       when(conn.timeout(Mockito.anyInt())).thenReturn(conn);
-      when(conn.get()).thenReturn(loadTestPage(baseUri));
+      when(conn.ignoreContentType(Mockito.anyBoolean())).thenReturn(conn);
+      when(conn.ignoreHttpErrors(Mockito.anyBoolean())).thenReturn(conn);
+      when(conn.maxBodySize(Mockito.anyInt())).thenReturn(conn);
+      when(conn.execute()).thenReturn(response);
+
+      // Only connect is mocked.  The downloaded page is still parsed by Jsoup.
+      PageDetails details;
+      try (MockedStatic<Jsoup> jsoup = mockStatic(Jsoup.class, Mockito.CALLS_REAL_METHODS))
+      {
+         jsoup.when(() -> Jsoup.connect(Mockito.anyString())).thenReturn(conn);
 
-      mockStatic(Jsoup.class);
-      when(Jsoup.connect(Mockito.anyString())).thenReturn(conn);
+         Parser parser = new ParserImpl(10000);
+         details = parser.parse(url);
+      }
 
-      Parser parser = new ParserImpl(10000);
-      PageDetails details = parser.parse(url);
       assertThat(details, allOf(
             hasProperty("loadError", nullValue()),
             hasProperty("title", is("Insert title here")),
@@ -101,10 +122,66 @@ public class ParserImplTest
             ));
    }
 
-   private Document loadTestPage(String baseUri) throws URISyntaxException, IOException
+   @Test
+   public void testSkipped() throws IOException
+   {
+      String url = "http://www.notrealsite.org/site/";
+
+      Connection.Response pdf = mockResponse(url + "file.pdf", "application/pdf", null, new byte[100]);
+      Connection.Response large = mockResponse(url + "large.html", "text/html", "5000000", new byte[100]);
+      Connection.Response chunked = mockResponse(url + "chunked.html", "text/html", null, new byte[1025]);
+
+      Connection conn = mock(Connection.class);
+      when(conn.followRedirects(Mockito.anyBoolean())).thenReturn(conn);
+      when(conn.timeout(Mockito.anyInt())).thenReturn(conn);
+      when(conn.ignoreContentType(Mockito.anyBoolean())).thenReturn(conn);
+      when(conn.ignoreHttpErrors(Mockito.anyBoolean())).thenReturn(conn);
+      when(conn.maxBodySize(Mockito.anyInt())).thenReturn(conn);
+      when(conn.execute()).thenReturn(pdf, large, chunked);
+
+      ParserImpl parser = new ParserImpl(10000);
+      parser.setContentLimits(new ContentLimits(Collections.singletonMap("text/html", 1024)));
+      try (MockedStatic<Jsoup> jsoup = mockStatic(Jsoup.class, Mockito.CALLS_REAL_METHODS))
+      {
+         jsoup.when(() -> Jsoup.connect(Mockito.anyString())).thenReturn(conn);
+
+         PageDetails details = parser.parse(url + "file.pdf");
+         assertThat(details, allOf(
+               hasProperty("loadError", nullValue()),
+               hasProperty("skipReason", is(SkipReason.CONTENT_TYPE)),
+               hasProperty("skipMessage", is("Content type application/pdf is not crawled."))
+               ));
+         verify(pdf, never()).bodyAsBytes();
+
+         details = parser.parse(url + "large.html");
+         assertThat(details, allOf(
+               hasProperty("loadError", nullValue()),
+               hasProperty("skipReason", is(SkipReason.TOO_LARGE)),
+               hasProperty("skipMessage", is("Body is larger than the 1024 byte limit of its content type."))
+               ));
+         verify(large, never()).bodyAsBytes();
+
+         details = parser.parse(url + "chunked.html");
+         assertThat(details.getSkipReason(), is(SkipReason.TOO_LARGE));
+      }
+      verify(conn, times(3)).maxBodySize(1025);
+   }
+
+   private Connection.Response mockResponse(String url, String contentType, String contentLength, byte[] body) throws IOException
+   {
+      Connection.Response response = mock(Connection.Response.class);
+      when(response.url()).thenReturn(new URL(url));
+      when(response.statusCode()).thenReturn(200);
+      when(response.contentType()).thenReturn(contentType);
+      when(response.header("Content-Length")).thenReturn(contentLength);
+      when(response.bodyStream()).thenReturn(new BufferedInputStream(new ByteArrayInputStream(body)));
+      when(response.bodyAsBytes()).thenReturn(body);
+      return response;
+   }
+
+   private byte[] loadTestPage() throws URISyntaxException, IOException
    {
       File file = new File(Thread.currentThread().getContextClassLoader().getResource("ParserTest.html").toURI());
-      Document doc = Jsoup.parse(file, null, baseUri);
-      return doc;
+      return Files.readAllBytes(file.toPath());
    }
 }
@@ -0,0 +1,291 @@
+package com.rolls.crawler.parse;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.not;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import okhttp3.Protocol;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okhttp3.tls.HandshakeCertificates;
+import okhttp3.tls.HeldCertificate;
+import okio.Buffer;
+
+@SuppressWarnings("javadoc")
+public class PooledParserTest
+{
+   private MockWebServer server;
+   private PooledParser parser;
+
+   @AfterEach
+   public void stopServer() throws IOException
+   {
+      if (parser != null)
+         parser.close();
+      if (server != null)
+         server.shutdown();
+   }
+
+   @Test
+   public void testParse() throws Exception
+   {
+      startServer(true);
+      PageDetails details = parser.parse(url("/site/ParserTest.html"));
+      assertThat(details.getLoadError(), is(nullValue()));
+      assertThat(details.getTitle(), is("Insert title here"));
+      assertThat(details.getLinks(), is(not(empty())));
+   }
+
+   @Test
+   public void testKeepAlive() throws Exception
+   {
+      // Every page after the first reuses the HTTP/1.1 connection and its TLS handshake.
+      startServer(false);
+      for (int i = 0; i < 10; ++i)
+      {
+         FetchedPage page = parser.fetch(url("/site/ParserTest.html?page=" + i));
+         assertThat(page.getLoadError(), is(nullValue()));
+
+         // Only the first page spends time connecting.
+         assertThat(page.getConnectNanos() > 0, is(i == 0));
+         assertThat(page.getFirstByteNanos(), greaterThan(0L));
+      }
+
+      ConnectionMetrics metrics = parser.getMetrics();
+      assertThat(metrics.getRequests(), is(10L));
+      assertThat(metrics.getConnectionsOpened(), is(1L));
+      assertThat(metrics.getConnectionsReused(), is(9L));
+      assertThat(metrics.getReuseRatio(), closeTo(0.9, 0.0001));
+      assertThat(metrics.getHandshakes(), is(1L));
+      assertThat(metrics.getAverageHandshakeMillis(), greaterThan(0.0));
+      assertThat(metrics.getHttp2Requests(), is(0L));
+
+      for (int i = 0; i < 10; ++i)
+         assertThat(server.takeRequest().getSequenceNumber(), is(i));
+   }
+
+   @Test
+   public void testHttp2() throws Exception
+   {
+      // Once the connection is open, concurrent pages are multiplexed on it.
+      startServer(true);
+      assertThat(parser.fetch(url("/slow?page=first")).getLoadError(), is(nullValue()));
+
+      ExecutorService threads = Executors.newFixedThreadPool(8);
+      try
+      {
+         List<Future<FetchedPage>> futures = new ArrayList<>();
+         for (int i = 0; i < 20; ++i)
+         {
+            String url = url("/slow?page=" + i);
+            futures.add(threads.submit(() -> parser.fetch(url)));
+         }
+         for (Future<FetchedPage> future : futures)
+            assertThat(future.get().getLoadError(), is(nullValue()));
+      }
+      finally
+      {
+         threads.shutdownNow();
+      }
+
+      ConnectionMetrics metrics = parser.getMetrics();
+      assertThat(metrics.getRequests(), is(21L));
+      assertThat(metrics.getConnectionsOpened(), is(1L));
+      assertThat(metrics.getHandshakes(), is(1L));
+      assertThat(metrics.getHttp2Requests(), is(21L));
+      assertThat(server.takeRequest().getRequestUrl().encodedPath(), is("/slow"));
+   }
+
+   @Test
+   public void testRedirect() throws Exception
+   {
+      startServer(true);
+      FetchedPage page = parser.fetch(url("/redirect"));
+      assertThat(page.getLoadError(), is(nullValue()));
+      assertThat(page.getUrl(), is(url("/redirect")));
+      assertThat(page.getLocation(), is(url("/site/ParserTest.html")));
+      assertThat(page.getStatusCode(), is(200));
+      assertThat(page.getCharset(), is("UTF-8"));
+      assertThat(parser.getMetrics().getRequests(), is(2L));
+   }
+
+   @Test
+   public void testLoadErrors() throws Exception
+   {
+      startServer(false);
+      PageDetails details = parser.parse(url("/missing.html"));
+      assertThat(details.getLoadError(), containsString("Status=404"));
+
+      details = parser.parse(url("/image.jpg"));
+      assertThat(details.getLoadError(), is(nullValue()));
+      assertThat(details.getSkipReason(), is(SkipReason.CONTENT_TYPE));
+
+      details = parser.parse("ftp://localhost/file.html");
+      assertThat(details.getLoadError(), containsString("Unable to load ftp://localhost/file.html.  CAUSE: "));
+   }
+
+   @Test
+   public void testTooLarge() throws Exception
+   {
+      startServer(false);
+      parser.setContentLimits(new ContentLimits(Collections.singletonMap("text/*", 4096)));
+
+      FetchedPage page = parser.fetch(url("/large"));
+      assertThat(page.getLoadError(), is(nullValue()));
+      assertThat(page.getSkipReason(), is(SkipReason.TOO_LARGE));
+      assertThat(page.getSkipMessage(), is("Body is larger than the 4096 byte limit of its content type."));
+
+      page = parser.fetch(url("/chunked"));
+      assertThat(page.getSkipReason(), is(SkipReason.TOO_LARGE));
+
+      page = parser.fetch(url("/site/ParserTest.html"));
+      assertThat(page.getSkipReason(), is(nullValue()));
+      assertThat(page.getBody().length, greaterThan(0));
+   }
+
+   @Test
+   public void testRevalidate() throws Exception
+   {
+      Path cachePath = Paths.get("/JUnit_Test").toAbsolutePath();
+      FileUtils.deleteDirectory(cachePath.toFile());
+      try
+      {
+         startServer(true);
+         PageCache cache = new PageCache(cachePath, 0);
+         parser.setPageCache(cache);
+
+         assertThat(parser.parse(url("/modified")).getTitle(), is("Modified"));
+         assertThat(server.takeRequest().getHeader("If-Modified-Since"), is(nullValue()));
+
+         FetchedPage page = parser.fetch(url("/modified"));
+         assertThat(server.takeRequest().getHeader("If-Modified-Since"), is("Tue, 10 Nov 2020 08:00:00 GMT"));
+         assertThat(page.getStatusCode(), is(304));
+         assertThat(parser.extract(page).getTitle(), is("Modified"));
+         assertThat(cache.getRevalidated(), is(1L));
+      }
+      finally
+      {
+         FileUtils.deleteDirectory(cachePath.toFile());
+      }
+   }
+
+   @Test
+   public void testUntrustedCertificate() throws Exception
+   {
+      // The stand-in server's certificate is not trusted by the JVM defaults.
+      startServer(false);
+      try (PooledParser defaultParser = new PooledParser(5000, 0, true))
+      {
+         FetchedPage page = defaultParser.fetch(url("/site/ParserTest.html"));
+         assertThat(page.getLoadError(), containsString("SSL"));
+      }
+   }
+
+   /**
+    * Starts a local HTTPS server with a certificate for localhost, and a parser that trusts it.
+    * @param http2 True if both sides offer HTTP/2.
+    */
+   private void startServer(boolean http2) throws IOException, URISyntaxException
+   {
+      byte[] testPage = loadTestPage();
+      HeldCertificate localhost = new HeldCertificate.Builder()
+            .addSubjectAlternativeName("localhost")
+            .build();
+      HandshakeCertificates serverCertificates = new HandshakeCertificates.Builder()
+            .heldCertificate(localhost)
+            .build();
+      HandshakeCertificates clientCertificates = new HandshakeCertificates.Builder()
+            .addTrustedCertificate(localhost.certificate())
+            .build();
+
+      server = new MockWebServer();
+      server.useHttps(serverCertificates.sslSocketFactory(), false);
+      server.setProtocols(http2 ? Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1) : Arrays.asList(Protocol.HTTP_1_1));
+      server.setDispatcher(new Dispatcher()
+      {
+         @Override
+         public MockResponse dispatch(RecordedRequest request)
+         {
+            switch (request.getRequestUrl().encodedPath())
+            {
+               case "/site/ParserTest.html":
+                  return new MockResponse()
+                        .setHeader("Content-Type", "text/html; charset=UTF-8")
+                        .setBody(new Buffer().write(testPage));
+               case "/redirect":
+                  return new MockResponse()
+                        .setResponseCode(302)
+                        .setHeader("Location", "/site/ParserTest.html");
+               case "/image.jpg":
+                  return new MockResponse()
+                        .setHeader("Content-Type", "image/jpeg")
+                        .setBody(new Buffer().write(new byte[100]));
+               case "/large":
+                  return new MockResponse()
+                        .setHeader("Content-Type", "text/html")
+                        .setBody(new Buffer().write(new byte[5000]));
+               case "/chunked":
+                  return new MockResponse()
+                        .setHeader("Content-Type", "text/html")
+                        .setChunkedBody(new Buffer().write(new byte[5000]), 1000);
+               case "/modified":
+                  if ("Tue, 10 Nov 2020 08:00:00 GMT".equals(request.getHeader("If-Modified-Since")))
+                     return new MockResponse()
+                           .setResponseCode(304);
+                  return new MockResponse()
+                        .setHeader("Content-Type", "text/html")
+                        .setHeader("Last-Modified", "Tue, 10 Nov 2020 08:00:00 GMT")
+                        .setBody("<html><head><title>Modified</title></head></html>");
+               case "/slow":
+                  return new MockResponse()
+                        .setHeader("Content-Type", "text/html")
+                        .setBody("<html><head><title>Slow</title></head></html>")
+                        .setHeadersDelay(100, TimeUnit.MILLISECONDS);
+               default:
+                  return new MockResponse()
+                        .setResponseCode(404)
+                        .setHeader("Content-Type", "text/html")
+                        .setBody("Not found");
+            }
+         }
+      });
+      server.start(InetAddress.getByName("localhost"), 0);
+
+      parser = new PooledParser(5000, 0, http2, clientCertificates.trustManager());
+   }
+
+   private String url(String path)
+   {
+      return server.url(path).toString();
+   }
+
+   private byte[] loadTestPage() throws URISyntaxException, IOException
+   {
+      File file = new File(Thread.currentThread().getContextClassLoader().getResource("ParserTest.html").toURI());
+      return Files.readAllBytes(file.toPath());
+   }
+}
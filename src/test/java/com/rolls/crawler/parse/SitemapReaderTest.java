@@ -0,0 +1,132 @@
+package com.rolls.crawler.parse;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+import org.junit.jupiter.api.Test;
+
+@SuppressWarnings("javadoc")
+public class SitemapReaderTest
+{
+   private static final String URLSET =
+         "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+         "<urlset xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\">\n" +
+         "  <url><loc>http://www.a.org/</loc><lastmod>2020-01-01</lastmod></url>\n" +
+         "  <url><priority>0.5</priority><loc> http://www.a.org/b?x=1&amp;y=2 </loc></url>\n" +
+         "  <url><loc></loc></url>\n" +
+         "</urlset>\n";
+
+   private static final String INDEX =
+         "<sitemapindex xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\">\n" +
+         "  <sitemap><loc>http://www.a.org/sitemap1.xml.gz</loc></sitemap>\n" +
+         "  <sitemap><loc>http://www.a.org/sitemap2.xml</loc></sitemap>\n" +
+         "</sitemapindex>\n";
+
+   @Test
+   public void testRobots() throws IOException
+   {
+      String robots =
+            "# Comment\n" +
+            "User-agent: other\n" +
+            "Crawl-delay: 10\n" +
+            "Disallow: /private\n" +
+            "\n" +
+            "User-agent: bot\n" +
+            "User-agent: *\n" +
+            "Crawl-delay: 1.5 # seconds\n" +
+            "Disallow: /admin\n" +
+            "\n" +
+            "Sitemap: http://www.a.org/sitemap.xml\n" +
+            "SITEMAP: /sitemap-news.xml\n" +
+            "Sitemap: http://www.a.org/sitemap.xml\n";
+
+      RobotsDetails details = SitemapReader.readRobots(stream(robots), "http://www.a.org/robots.txt");
+      assertThat(details.getCrawlDelayMillis(), is(1500L));
+      assertThat(details.getSitemaps(), contains("http://www.a.org/sitemap.xml", "http://www.a.org/sitemap-news.xml"));
+
+      details = SitemapReader.readRobots(stream("User-agent: *\nCrawl-delay: soon\n"), "http://www.a.org/robots.txt");
+      assertThat(details.getCrawlDelayMillis(), is(0L));
+      assertThat(details.getSitemaps(), is(empty()));
+
+      details = SitemapReader.readRobots(stream("User-agent: *\nDisallow: /\nUser-agent: bot\nCrawl-delay: 5\n"), "http://www.a.org/robots.txt");
+      assertThat(details.getCrawlDelayMillis(), is(0L));
+   }
+
+   @Test
+   public void testUrlset() throws IOException
+   {
+      List<String> pages = new ArrayList<>();
+      List<String> sitemaps = new ArrayList<>();
+      SitemapReader.readSitemap(stream(URLSET), pages::add, sitemaps::add);
+      assertThat(pages, contains("http://www.a.org/", "http://www.a.org/b?x=1&y=2"));
+      assertThat(sitemaps, is(empty()));
+   }
+
+   @Test
+   public void testIndex() throws IOException
+   {
+      List<String> pages = new ArrayList<>();
+      List<String> sitemaps = new ArrayList<>();
+      SitemapReader.readSitemap(stream(INDEX), pages::add, sitemaps::add);
+      assertThat(pages, is(empty()));
+      assertThat(sitemaps, contains("http://www.a.org/sitemap1.xml.gz", "http://www.a.org/sitemap2.xml"));
+   }
+
+   @Test
+   public void testGzip() throws IOException
+   {
+      List<String> pages = new ArrayList<>();
+      SitemapReader.readSitemap(new ByteArrayInputStream(gzip("\uFEFF" + URLSET)), pages::add, (url) -> {});
+      assertThat(pages, contains("http://www.a.org/", "http://www.a.org/b?x=1&y=2"));
+   }
+
+   @Test
+   public void testText() throws IOException
+   {
+      List<String> pages = new ArrayList<>();
+      SitemapReader.readSitemap(stream("http://www.a.org/\n\n  https://www.a.org/c  \nnot a url\n"), pages::add, (url) -> {});
+      assertThat(pages, contains("http://www.a.org/", "https://www.a.org/c"));
+   }
+
+   @Test
+   public void testInvalid()
+   {
+      IOException ex = assertThrows(IOException.class, () -> {
+         SitemapReader.readSitemap(stream("<urlset><url><loc>http://www.a.org/</url>"), (url) -> {}, (url) -> {});
+      });
+      assertThat(ex.getMessage(), is("Invalid sitemap."));
+
+      // External entities are not read.
+      assertThrows(IOException.class, () -> {
+         SitemapReader.readSitemap(stream(
+               "<?xml version=\"1.0\"?><!DOCTYPE urlset [<!ENTITY e SYSTEM \"file:///etc/passwd\">]>" +
+               "<urlset><url><loc>&e;</loc></url></urlset>"), (url) -> {}, (url) -> {});
+      });
+   }
+
+   private static InputStream stream(String text)
+   {
+      return new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8));
+   }
+
+   private static byte[] gzip(String text) throws IOException
+   {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      try (OutputStream out = new GZIPOutputStream(bytes))
+      {
+         out.write(text.getBytes(StandardCharsets.UTF_8));
+      }
+      return bytes.toByteArray();
+   }
+}
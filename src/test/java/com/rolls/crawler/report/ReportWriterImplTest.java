@@ -103,7 +103,10 @@ public class ReportWriterImplTest
       pages.add(new ReportPage());
       pages.add(createEmptyPage());
       pages.add(createLoadErrorPage());
+      pages.add(createSkippedPage());
       pages.add(createValidPage());
+      // The content hash is only written to a delta report.
+      pages.get(4).setContentHash("v1");
 
       ReportDetails rpt1 = new ReportDetails();
       rpt1.setStartingUrl("http://www.one.com");
@@ -131,6 +134,9 @@ public class ReportWriterImplTest
       strBld.append("Page: http://www.one.com/error.html").append(System.lineSeparator());
       strBld.append(" - Load Error: Unable to load.").append(System.lineSeparator());
       strBld.append(System.lineSeparator());
+      strBld.append("Page: http://www.one.com/file.pdf").append(System.lineSeparator());
+      strBld.append(" - Skipped: Content type application/pdf is not crawled.").append(System.lineSeparator());
+      strBld.append(System.lineSeparator());
       strBld.append("Page: http://www.one.com/valid.html").append(System.lineSeparator());
       strBld.append(" - Title: Valid Page").append(System.lineSeparator());
       strBld.append(" - Internal Links:").append(System.lineSeparator());
@@ -148,6 +154,81 @@ public class ReportWriterImplTest
       assertThat(actualRpt, is(strBld.toString()));
    }
 
+   @Test
+   public void testSaveDelta() throws IOException
+   {
+      File filePath = new File(testPath + "/result.txt");
+      ReportWriterImpl writer = new ReportWriterImpl(filePath);
+
+      ReportPage previousValid = createValidPage();
+      previousValid.setContentHash("v1");
+      ReportPage previousUnchanged = createPage("http://www.one.com/same.html", "same");
+      ReportPage previousRemoved = createPage("http://www.one.com/removed.html", "removed");
+      ReportPage previousError = createPage("http://www.one.com/error.html", "error");
+
+      ReportPage valid = createValidPage();
+      valid.setContentHash("v2");
+      valid.setInternalLinks(Arrays.asList("http://www.one.com/pg1.html", "http://www.one.com/pg3.html"));
+
+      ReportDetails rpt = new ReportDetails();
+      rpt.setStartingUrl("http://www.one.com");
+      rpt.setStartTime(new Date());
+      rpt.setDurationMillis(60 * 1000);
+      rpt.setPreviousPages(Arrays.asList(previousValid, previousUnchanged, previousRemoved, previousError));
+      rpt.setPages(Arrays.asList(valid, createPage("http://www.one.com/same.html", "same"), createLoadErrorPage(),
+            createPage("http://www.one.com/new.html", "new")));
+
+      StringBuilder strBld = new StringBuilder();
+      strBld.append("Starting URL: http://www.one.com").append(System.lineSeparator());
+      strBld.append("Start Time: ").append(sdf.format(rpt.getStartTime())).append(System.lineSeparator());
+      strBld.append("Duration: 1.00 minutes").append(System.lineSeparator());
+      strBld.append(System.lineSeparator());
+      strBld.append("Changes: 1 new, 1 removed, 2 changed, 1 unchanged pages").append(System.lineSeparator());
+      strBld.append(System.lineSeparator());
+      strBld.append("New Page: http://www.one.com/new.html").append(System.lineSeparator());
+      strBld.append(" - Title: Page new").append(System.lineSeparator());
+      strBld.append(" - Content Hash: new").append(System.lineSeparator());
+      strBld.append(System.lineSeparator());
+      strBld.append("Removed Page: http://www.one.com/removed.html").append(System.lineSeparator());
+      strBld.append(System.lineSeparator());
+      strBld.append("Changed Page: http://www.one.com/valid.html").append(System.lineSeparator());
+      strBld.append(" - Title: Valid Page").append(System.lineSeparator());
+      strBld.append(" - Content Hash: v2").append(System.lineSeparator());
+      strBld.append(" - Added Links:").append(System.lineSeparator());
+      strBld.append("     http://www.one.com/pg3.html").append(System.lineSeparator());
+      strBld.append(" - Removed Links:").append(System.lineSeparator());
+      strBld.append("     http://www.one.com/pg2.html").append(System.lineSeparator());
+      strBld.append(System.lineSeparator());
+      strBld.append("Changed Page: http://www.one.com/error.html").append(System.lineSeparator());
+      strBld.append(" - Load Error: Unable to load.").append(System.lineSeparator());
+      strBld.append(" - Added Links: NONE").append(System.lineSeparator());
+      strBld.append(" - Removed Links:").append(System.lineSeparator());
+      strBld.append("     http://www.one.com/error").append(System.lineSeparator());
+
+      writer.save(rpt);
+      String actualRpt = FileUtils.readFileToString(filePath, StandardCharsets.UTF_8);
+      assertThat(actualRpt, is(strBld.toString()));
+
+      // Pages that were not reached are not removed from a cancelled crawl.
+      rpt.setCancelled(true);
+      writer = new ReportWriterImpl(new File(testPath + "/cancelled.txt"));
+      writer.save(rpt);
+      actualRpt = FileUtils.readFileToString(new File(testPath + "/cancelled.txt"), StandardCharsets.UTF_8);
+      assertThat(actualRpt.contains("Changes: 1 new, 0 removed, 2 changed, 1 unchanged pages" + System.lineSeparator() +
+            "Removed pages are not checked because the crawl was cancelled."), is(true));
+      assertThat(actualRpt.contains("Removed Page:"), is(false));
+   }
+
+   private ReportPage createPage(String url, String name)
+   {
+      ReportPage page = new ReportPage();
+      page.setUrl(url);
+      page.setTitle("Page " + name);
+      page.setContentHash(name);
+      page.setInternalLinks(Arrays.asList("http://www.one.com/" + name));
+      return page;
+   }
+
    private ReportPage createEmptyPage()
    {
       ReportPage page = new ReportPage();
@@ -168,6 +249,14 @@ public class ReportWriterImplTest
       return page;
    }
 
+   private ReportPage createSkippedPage()
+   {
+      ReportPage page = new ReportPage();
+      page.setUrl("http://www.one.com/file.pdf");
+      page.setSkipMessage("Content type application/pdf is not crawled.");
+      return page;
+   }
+
    private ReportPage createValidPage()
    {
       ReportPage page = new ReportPage();
@@ -0,0 +1,209 @@
+package com.rolls.crawler.service;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import org.apache.commons.io.FileUtils;
+import org.springframework.test.util.ReflectionTestUtils;
+import com.rolls.crawler.crawl.CrawlMetrics;
+import com.rolls.crawler.crawl.CrawlStage;
+import com.rolls.crawler.crawl.LatencyHistogram;
+import com.rolls.crawler.test.SyntheticSiteServer;
+
+/**
+ * Load test that runs the crawl service against a local synthetic site and prints
+ * the pages per second, peak heap, and latency of the crawl, for capacity planning.
+ * This is not run as part of the unit tests.
+ * <p>
+ * Usage: CrawlLoadHarness [pageCount] [fanOut] [numThreads] [medianLatencyMicros] [maxLatencyMicros]
+ * [pageBytes] [errorRate] [redirectRate]
+ */
+@SuppressWarnings("javadoc")
+public class CrawlLoadHarness
+{
+   /**
+    * Results of a load test.
+    */
+   public static class Result
+   {
+      private final int pagesProcessed;
+      private final boolean cancelled;
+      private final long durationMillis;
+      private final long peakHeapBytes;
+      private final CrawlMetrics metrics;
+
+      public Result(int pagesProcessed, boolean cancelled, long durationMillis, long peakHeapBytes, CrawlMetrics metrics)
+      {
+         this.pagesProcessed = pagesProcessed;
+         this.cancelled = cancelled;
+         this.durationMillis = durationMillis;
+         this.peakHeapBytes = peakHeapBytes;
+         this.metrics = metrics;
+      }
+
+      public int getPagesProcessed()
+      {
+         return pagesProcessed;
+      }
+
+      public boolean isCancelled()
+      {
+         return cancelled;
+      }
+
+      public long getDurationMillis()
+      {
+         return durationMillis;
+      }
+
+      public double getPagesPerSecond()
+      {
+         return pagesProcessed * 1000.0 / Math.max(durationMillis, 1);
+      }
+
+      public long getPeakHeapBytes()
+      {
+         return peakHeapBytes;
+      }
+
+      public CrawlMetrics getMetrics()
+      {
+         return metrics;
+      }
+
+      @Override
+      public String toString()
+      {
+         LatencyHistogram latency = metrics.getHistogram(CrawlStage.FIRST_BYTE);
+         return String.format("Pages: %d%s  Duration: %d ms  Pages/sec: %.0f  Peak heap: %d MB  " +
+               "First byte p50: %.1f ms  p99: %.1f ms  max: %.1f ms",
+               pagesProcessed, (cancelled ? " (CANCELLED)" : ""), durationMillis, getPagesPerSecond(),
+               peakHeapBytes / (1024 * 1024), latency.getPercentileMillis(50), latency.getPercentileMillis(99),
+               latency.getMaxMillis());
+      }
+   }
+
+   private static class CountingObserver implements CrawlServiceObserver
+   {
+      private final AtomicInteger pagesProcessed = new AtomicInteger();
+      private volatile boolean cancelled = false;
+
+      @Override
+      public void onStart(String startingUrl)
+      {
+      }
+
+      @Override
+      public void onError(List<String> errors)
+      {
+         throw new IllegalStateException("Invalid load test configuration: " + errors);
+      }
+
+      @Override
+      public void onProgress(int pagesProcessed)
+      {
+      }
+
+      @Override
+      public void onComplete(int pagesProcessed, boolean cancelled, String reportPath)
+      {
+         this.pagesProcessed.set(pagesProcessed);
+         this.cancelled = cancelled;
+      }
+   }
+
+   public static void main(String[] args) throws IOException
+   {
+      int pageCount = (args.length > 0 ? Integer.parseInt(args[0]) : 100000);
+      int fanOut = (args.length > 1 ? Integer.parseInt(args[1]) : 20);
+      int numThreads = (args.length > 2 ? Integer.parseInt(args[2]) : 32);
+      long medianLatencyMicros = (args.length > 3 ? Long.parseLong(args[3]) : 2000);
+      long maxLatencyMicros = (args.length > 4 ? Long.parseLong(args[4]) : 200000);
+      int pageBytes = (args.length > 5 ? Integer.parseInt(args[5]) : 16384);
+      double errorRate = (args.length > 6 ? Double.parseDouble(args[6]) : 0.01);
+      double redirectRate = (args.length > 7 ? Double.parseDouble(args[7]) : 0.05);
+
+      System.out.println(String.format("Pages: %d, Fan out: %d, Threads: %d, Latency: %d us median %d us max, " +
+            "Page size: %d, Error rate: %.3f, Redirect rate: %.3f",
+            pageCount, fanOut, numThreads, medianLatencyMicros, maxLatencyMicros, pageBytes, errorRate, redirectRate));
+
+      try (SyntheticSiteServer server = new SyntheticSiteServer(pageCount, fanOut))
+      {
+         server.setLatency(medianLatencyMicros, maxLatencyMicros);
+         server.setPageBytes(pageBytes);
+         server.setErrorRate(errorRate);
+         server.setRedirects(redirectRate, 2);
+         server.start();
+
+         CrawlReportConfig config = new CrawlReportConfig();
+         config.setNumThreads(numThreads);
+         config.setPooledConnections(true);
+         config.setExpectedUrls(pageCount * 2);
+         Result result = run(server, config);
+
+         System.out.println(result);
+         System.out.println(result.getMetrics());
+         if (result.getPagesProcessed() != server.getReachablePages())
+            System.out.println(String.format("Expected %d pages.", server.getReachablePages()));
+      }
+   }
+
+   /**
+    * Runs the crawl service against the site.  The starting URL, output path, and
+    * timeouts of the configuration are set here, and the report is deleted afterwards.
+    * @param server Started site server.
+    * @param config Crawl configuration.
+    * @return Results of the crawl.
+    * @throws IOException If the output directory can't be created.
+    */
+   public static Result run(SyntheticSiteServer server, CrawlReportConfig config) throws IOException
+   {
+      File outputPath = Files.createTempDirectory("CrawlLoadHarness").toFile();
+      try
+      {
+         config.setStartingUrl(server.pageUrl(0));
+         config.setOutputPath(outputPath.getAbsolutePath());
+         config.setResultFile("CrawlLoadHarness-Result.txt");
+         if (config.getParseTimeoutMillis() <= 0)
+            config.setParseTimeoutMillis(30000);
+         if (config.getCrawlTimeoutSeconds() <= 0)
+            config.setCrawlTimeoutSeconds(3600);
+
+         CrawlReportServiceImpl service = new CrawlReportServiceImpl();
+         ReflectionTestUtils.setField(service, "config", config);
+         CountingObserver observer = new CountingObserver();
+         service.addObserver(observer);
+
+         List<MemoryPoolMXBean> heapPools = getHeapPools();
+         System.gc();
+         heapPools.forEach(MemoryPoolMXBean::resetPeakUsage);
+
+         long startNanos = System.nanoTime();
+         service.run();
+         long durationMillis = (System.nanoTime() - startNanos) / 1000000;
+
+         long peakHeapBytes = 0;
+         for (MemoryPoolMXBean pool : heapPools)
+            peakHeapBytes += pool.getPeakUsage().getUsed();
+
+         return new Result(observer.pagesProcessed.get(), observer.cancelled, durationMillis, peakHeapBytes, service.getMetrics());
+      }
+      finally
+      {
+         FileUtils.deleteQuietly(outputPath);
+      }
+   }
+
+   private static List<MemoryPoolMXBean> getHeapPools()
+   {
+      return ManagementFactory.getMemoryPoolMXBeans().stream()
+            .filter((pool) -> pool.getType() == MemoryType.HEAP)
+            .collect(Collectors.toList());
+   }
+}
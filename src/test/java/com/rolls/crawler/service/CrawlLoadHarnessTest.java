@@ -0,0 +1,54 @@
+package com.rolls.crawler.service;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import java.io.IOException;
+import org.junit.jupiter.api.Test;
+import com.rolls.crawler.crawl.CrawlStage;
+import com.rolls.crawler.test.SyntheticSiteServer;
+
+@SuppressWarnings("javadoc")
+public class CrawlLoadHarnessTest
+{
+   @Test
+   public void testSite() throws IOException
+   {
+      try (SyntheticSiteServer server = new SyntheticSiteServer(1000, 10))
+      {
+         server.setMaxDepth(2);
+         assertThat(server.getPageCount(), is(111));
+         assertThat(server.getReachablePages(), is(111));
+
+         // Failed pages are reached, but their links are not.  The home page never fails.
+         server.setErrorRate(1);
+         assertThat(server.getReachablePages(), is(11));
+      }
+   }
+
+   @Test
+   public void testRun() throws IOException
+   {
+      try (SyntheticSiteServer server = new SyntheticSiteServer(500, 5))
+      {
+         server.setLatency(200, 5000);
+         server.setPageBytes(4096);
+         server.setErrorRate(0.02);
+         server.setRedirects(0.1, 2);
+         server.start();
+
+         CrawlReportConfig config = new CrawlReportConfig();
+         config.setNumThreads(8);
+         CrawlLoadHarness.Result result = CrawlLoadHarness.run(server, config);
+
+         // Every page is crawled once, including the failed ones, over real HTTP.
+         assertThat(result.isCancelled(), is(false));
+         assertThat(result.getPagesProcessed(), is(server.getReachablePages()));
+         assertThat(result.getMetrics().getPagesCrawled(), is((long)server.getReachablePages()));
+         assertThat(result.getMetrics().getPagesFailed(), greaterThan(0L));
+         assertThat(result.getMetrics().getHistogram(CrawlStage.FIRST_BYTE).getCount(), greaterThan(0L));
+         assertThat(result.getPagesPerSecond(), greaterThan(0.0));
+         assertThat(result.getPeakHeapBytes(), greaterThan(0L));
+      }
+   }
+}
@@ -10,13 +10,18 @@ import static org.hamcrest.Matchers.empty;
 import static org.hamcrest.Matchers.hasProperty;
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
 import org.apache.commons.io.FileUtils;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import com.rolls.crawler.crawl.CrawlSettings;
 import com.rolls.crawler.crawl.CrawlerImpl;
+import com.rolls.crawler.crawl.SeenUrlStore;
 
 @SuppressWarnings("javadoc")
 public class CrawlReportConfigTest
@@ -50,8 +55,115 @@ public class CrawlReportConfigTest
             hasProperty("numThreads", is(CrawlerImpl.MIN_THREADS)),
             hasProperty("progressIntervalMillis", is(0)),
             hasProperty("parseTimeoutMillis", is(0)),
-            hasProperty("crawlTimeoutSeconds", is(CrawlReportConfig.MIN_CRAWL_TIMEOUT_SECONDS))
+            hasProperty("crawlTimeoutSeconds", is(CrawlReportConfig.MIN_CRAWL_TIMEOUT_SECONDS)),
+            hasProperty("seenUrlStore", is(SeenUrlStore.STRING)),
+            hasProperty("expectedUrls", is(CrawlSettings.DEFAULT_EXPECTED_URLS)),
+            hasProperty("seenUrlFalsePositiveRate", is(CrawlSettings.DEFAULT_FALSE_POSITIVE_RATE)),
+            hasProperty("virtualThreads", is(false)),
+            hasProperty("pooledConnections", is(false)),
+            hasProperty("maxInFlightPages", is(CrawlSettings.DEFAULT_MAX_IN_FLIGHT_PAGES)),
+            hasProperty("maxThrottleRetries", is(CrawlSettings.DEFAULT_MAX_THROTTLE_RETRIES))
+            ));
+   }
+
+   @Test
+   public void testInvalidFalsePositiveRate()
+   {
+      CrawlReportConfig props = new CrawlReportConfig();
+      props.setStartingUrl(testUrl);
+      props.setOutputPath(testPath);
+      props.setResultFile("Result.txt");
+      props.setSeenUrlStore(SeenUrlStore.BLOOM);
+      props.setExpectedUrls(5000000);
+      props.setSeenUrlFalsePositiveRate(1);
+
+      List<String> errs = props.validate();
+      assertThat(errs, contains(
+            "Invalid seen URL false positive rate."
+            ));
+      assertThat(props, allOf(
+            hasProperty("seenUrlStore", is(SeenUrlStore.BLOOM)),
+            hasProperty("expectedUrls", is(5000000)),
+            hasProperty("seenUrlFalsePositiveRate", is(1.0))
+            ));
+   }
+
+   @Test
+   public void testInvalidConcurrency()
+   {
+      CrawlReportConfig props = new CrawlReportConfig();
+      props.setStartingUrl(testUrl);
+      props.setOutputPath(testPath);
+      props.setResultFile("Result.txt");
+      props.setAdaptiveConcurrency(true);
+      props.setMinConcurrency(8);
+      props.setMaxConcurrency(4);
+
+      List<String> errs = props.validate();
+      assertThat(errs, contains(
+            "Invalid concurrency range."
             ));
+      assertThat(props, hasProperty("concurrencyIntervalMillis", is((int)CrawlSettings.DEFAULT_CONCURRENCY_INTERVAL_MILLIS)));
+   }
+
+   @Test
+   public void testInvalidContentLimit()
+   {
+      CrawlReportConfig props = new CrawlReportConfig();
+      props.setStartingUrl(testUrl);
+      props.setOutputPath(testPath);
+      props.setResultFile("Result.txt");
+      props.setContentLimits(new LinkedHashMap<>());
+      props.getContentLimits().put("text/html", 1024);
+      props.getContentLimits().put("application/pdf", 0);
+
+      List<String> errs = props.validate();
+      assertThat(errs, contains(
+            "Invalid content limit."
+            ));
+   }
+
+   @Test
+   public void testStartingUrls() throws IOException
+   {
+      new File(testPath).mkdirs();
+      File urlsFile = new File(testPath, "Sites.txt");
+      FileUtils.writeStringToFile(urlsFile, "# Sites\n\nhttp://www.test2.com 3\n  http://www.test3.com:8080/start  \n", StandardCharsets.UTF_8);
+
+      CrawlReportConfig props = new CrawlReportConfig();
+      props.setStartingUrl(testUrl);
+      props.setStartingUrls(Arrays.asList("http://www.test1.com/ 2"));
+      props.setStartingUrlsFile(urlsFile.getAbsolutePath());
+      props.setOutputPath(testPath);
+      props.setResultFile("Result.txt");
+
+      List<String> errs = props.validate();
+      assertThat(errs, is(empty()));
+
+      List<CrawlSite> sites = props.resolveSites();
+      assertThat(sites, contains(
+            allOf(hasProperty("url", is(testUrl)), hasProperty("weight", is(1)), hasProperty("name", is("www.google.com"))),
+            allOf(hasProperty("url", is("http://www.test1.com/")), hasProperty("weight", is(2))),
+            allOf(hasProperty("url", is("http://www.test2.com")), hasProperty("weight", is(3))),
+            allOf(hasProperty("url", is("http://www.test3.com:8080/start")), hasProperty("weight", is(1)), hasProperty("name", is("www.test3.com-8080")))
+            ));
+   }
+
+   @Test
+   public void testInvalidStartingUrls()
+   {
+      CrawlReportConfig props = new CrawlReportConfig();
+      props.setStartingUrls(Arrays.asList("http://www.test1.com/ 0"));
+      props.setOutputPath(testPath);
+      props.setResultFile("Result.txt");
+      assertThat(props.validate(), contains("Invalid starting URL."));
+
+      props.setStartingUrls(Arrays.asList("http://www.test1.com/a", "http://www.test1.com/b 2"));
+      assertThat(props.validate(), contains("Duplicate starting URL site."));
+
+      props.setStartingUrls(null);
+      props.setStartingUrlsFile(Paths.get(testPath, "Missing.txt").toString());
+      assertThat(props.validate(), contains("Unable to read the starting URLs file."));
    }
 
    @Test
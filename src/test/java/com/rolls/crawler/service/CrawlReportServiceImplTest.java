@@ -17,6 +17,7 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Paths;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.LinkedList;
 import java.util.List;
@@ -29,6 +30,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.test.annotation.DirtiesContext;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
+import com.rolls.crawler.test.SyntheticSiteServer;
 import com.rolls.crawler.test.TestTimer;
 
 @SuppressWarnings("javadoc")
@@ -168,6 +170,65 @@ public class CrawlReportServiceImplTest
       assertThat(lines[5], startsWith(" - Load Error: Unable to load http://www.notrealsite.org/site.  CAUSE:"));
    }
 
+   @Test
+   @DirtiesContext
+   public void testRunSites() throws IOException
+   {
+      List<String> startingUrls = new ArrayList<>();
+      List<String> completedUrls = new ArrayList<>();
+      List<Integer> pagesProcessed = new ArrayList<>();
+      List<String> reportPaths = new ArrayList<>();
+      CrawlServiceObserver observer = new TestObserver() {
+         @Override
+         public void onStart(String startingUrl)
+         {
+            startingUrls.add(startingUrl);
+         }
+
+         @Override
+         public void onComplete(String startingUrl, int pages, boolean cancelled, String reportPath)
+         {
+            assertThat(cancelled, is(false));
+            completedUrls.add(startingUrl);
+            pagesProcessed.add(pages);
+            reportPaths.add(reportPath);
+         }
+      };
+
+      try (SyntheticSiteServer site1 = new SyntheticSiteServer(50, 3);
+            SyntheticSiteServer site2 = new SyntheticSiteServer(80, 3))
+      {
+         site1.start();
+         site2.start();
+         config.setStartingUrl(site1.pageUrl(0));
+         config.setStartingUrls(Arrays.asList(site2.pageUrl(0) + " 2"));
+
+         reportCrawler.addObserver(observer);
+         reportCrawler.run();
+
+         assertThat(startingUrls, is(Arrays.asList(site1.pageUrl(0), site2.pageUrl(0))));
+         assertThat(completedUrls, is(startingUrls));
+         assertThat(pagesProcessed, is(Arrays.asList(site1.getReachablePages(), site2.getReachablePages())));
+
+         // Each site has its own metrics, by starting URL.
+         assertThat(reportCrawler.getMetrics(), is(nullValue()));
+         assertThat(new ArrayList<>(reportCrawler.getSiteMetrics().keySet()), is(startingUrls));
+         assertThat(reportCrawler.getSiteMetrics().get(site1.pageUrl(0)).getPagesCrawled(), is((long)site1.getReachablePages()));
+         assertThat(reportCrawler.getSiteMetrics().get(site2.pageUrl(0)).getPagesCrawled(), is((long)site2.getReachablePages()));
+         assertThat(reportPaths.size(), is(2));
+         for (int i = 0; i < 2; ++i)
+         {
+            File file = new File(reportPaths.get(i));
+            String expectedName = new CrawlSite(startingUrls.get(i), 1).getName();
+            assertThat(file.getName(), is("Crawler-Test-Result-" + expectedName + ".txt"));
+
+            String[] lines = FileUtils.readFileToString(file, StandardCharsets.UTF_8).split(System.lineSeparator());
+            assertThat(lines[0], is("Starting URL: " + startingUrls.get(i)));
+            file.delete();
+         }
+      }
+   }
+
    @Test
    @DirtiesContext
    public void testRunWithProgressAndTimeout() throws IOException
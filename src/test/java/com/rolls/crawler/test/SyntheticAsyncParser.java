@@ -0,0 +1,64 @@
+package com.rolls.crawler.test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import com.rolls.crawler.parse.AsyncParser;
+import com.rolls.crawler.parse.FetchedPage;
+
+/**
+ * Test parser that simulates a generated site with asynchronous downloads.  The
+ * latency is spent on a timer instead of a blocked thread, like NIO downloads.
+ */
+public class SyntheticAsyncParser extends SyntheticParser implements AsyncParser
+{
+   private final static ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor((task) -> {
+      Thread thread = new Thread(task, "Synthetic-IO");
+      thread.setDaemon(true);
+      return thread;
+   });
+
+   private final long latencyMicros;
+   private final AtomicInteger activeFetches = new AtomicInteger();
+   private final AtomicInteger maxActiveFetches = new AtomicInteger();
+
+   /**
+    * Constructor.
+    * @param pageCount Number of pages in the site.
+    * @param fanOut Number of child pages each page links to.
+    * @param latencyMicros How long, in microseconds, a download will take.
+    */
+   public SyntheticAsyncParser(int pageCount, int fanOut, long latencyMicros)
+   {
+      super(pageCount, fanOut, 0);
+      this.latencyMicros = latencyMicros;
+   }
+
+   @Override
+   public CompletableFuture<FetchedPage> fetchAsync(String url)
+   {
+      int active = activeFetches.incrementAndGet();
+      maxActiveFetches.accumulateAndGet(active, Math::max);
+
+      CompletableFuture<FetchedPage> future = new CompletableFuture<>();
+      timer.schedule(() -> {
+         activeFetches.decrementAndGet();
+         future.complete(super.fetch(url));
+      }, latencyMicros, TimeUnit.MICROSECONDS);
+      return future;
+   }
+
+   @Override
+   public FetchedPage fetch(String url)
+   {
+      return fetchAsync(url).join();
+   }
+
+   @Override
+   public int getMaxActiveFetches()
+   {
+      return maxActiveFetches.get();
+   }
+}
@@ -0,0 +1,230 @@
+package com.rolls.crawler.test;
+
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import com.rolls.crawler.parse.FetchedPage;
+import com.rolls.crawler.parse.LinkDetails;
+import com.rolls.crawler.parse.PageDetails;
+import com.rolls.crawler.parse.StagedParser;
+
+/**
+ * Test parser that simulates a generated site of any size.  Page N links to its
+ * children (N * fanOut + 1 ... N * fanOut + fanOut), back to the home page, and
+ * to a few pages that have already been linked elsewhere so most discovered
+ * links are duplicates, as they are on real sites.  The latency is spent in the
+ * fetch stage and the links are built in the extract stage.  Pages can be marked
+ * as changed, which gives them a new content hash and an extra external link,
+ * or as throttled, which answers their first requests with 429 Too Many Requests.
+ */
+public class SyntheticParser implements StagedParser
+{
+   /**
+    * Base URL of the site.
+    */
+   public static final String baseUrl = "http://www.syntheticsite.org";
+
+   private final int pageCount;
+   private final int fanOut;
+   private final long latencyMicros;
+   private final AtomicInteger parseCount = new AtomicInteger();
+   private final AtomicInteger fetchCount = new AtomicInteger();
+   private final AtomicInteger activeFetches = new AtomicInteger();
+   private final AtomicInteger maxActiveFetches = new AtomicInteger();
+   private final Set<Integer> changedPages = ConcurrentHashMap.newKeySet();
+   private final Map<Integer, AtomicInteger> throttledPages = new ConcurrentHashMap<>();
+
+   /**
+    * Constructor.
+    * @param pageCount Number of pages in the site.
+    * @param fanOut Number of child pages each page links to.
+    * @param latencyMicros How long, in microseconds, the fetch method will take.
+    */
+   public SyntheticParser(int pageCount, int fanOut, long latencyMicros)
+   {
+      this.pageCount = pageCount;
+      this.fanOut = fanOut;
+      this.latencyMicros = latencyMicros;
+   }
+
+   /**
+    * Returns the URL of a page.
+    * @param page Page number.  Page 0 is the home page.
+    * @return Page URL.
+    */
+   public static String pageUrl(int page)
+   {
+      return (page == 0 ? baseUrl : baseUrl + "/page/" + page + ".html");
+   }
+
+   @Override
+   public FetchedPage fetch(String url)
+   {
+      int active = activeFetches.incrementAndGet();
+      maxActiveFetches.accumulateAndGet(active, Math::max);
+      try
+      {
+         if (latencyMicros > 0)
+            TimeUnit.MICROSECONDS.sleep(latencyMicros);
+      }
+      catch (InterruptedException e)
+      {
+         Thread.currentThread().interrupt(); // Preserve interrupted status
+      }
+      finally
+      {
+         activeFetches.decrementAndGet();
+      }
+
+      fetchCount.incrementAndGet();
+      FetchedPage page = new FetchedPage();
+      page.setUrl(url);
+      page.setLocation(url);
+
+      AtomicInteger throttled = throttledPages.get(pageNumber(url));
+      if (throttled != null && throttled.getAndDecrement() > 0)
+      {
+         page.setLoadError(String.format("HTTP error fetching URL. Status=429, URL=%s", url));
+         page.setThrottled(true);
+         page.setRetryAfterMillis(10);
+         return page;
+      }
+
+      page.setStatusCode(200);
+      page.setContentHash(contentHash(pageNumber(url)));
+      return page;
+   }
+
+   @Override
+   public PageDetails extract(FetchedPage fetchedPage)
+   {
+      parseCount.incrementAndGet();
+
+      String url = fetchedPage.getUrl();
+      int page = pageNumber(url);
+      PageDetails details = new PageDetails();
+      if (fetchedPage.getLoadError() != null)
+      {
+         details.setLoadError(fetchedPage.getLoadError());
+         details.setThrottled(fetchedPage.isThrottled());
+         details.setRetryAfterMillis(fetchedPage.getRetryAfterMillis());
+         return details;
+      }
+
+      if (page < 0 || page >= pageCount)
+      {
+         details.setLoadError(String.format("No details for %s", url));
+         return details;
+      }
+
+      Set<LinkDetails> links = new LinkedHashSet<>();
+      links.add(new LinkDetails("a", pageUrl(0)));
+      for (int i = 1; i <= fanOut; ++i)
+      {
+         long child = (long)page * fanOut + i;
+         if (child < pageCount)
+            links.add(new LinkDetails("a", pageUrl((int)child)));
+      }
+      for (int i = 1; i <= fanOut && i < page; ++i)
+         links.add(new LinkDetails("a", pageUrl(page - i)));
+      links.add(new LinkDetails("a", "http://www.external.org/page/" + page + ".html"));
+      if (changedPages.contains(page))
+         links.add(new LinkDetails("a", "http://www.external.org/changed/" + page + ".html"));
+
+      Set<LinkDetails> media = new LinkedHashSet<>();
+      media.add(new LinkDetails("img", baseUrl + "/img/" + page + ".jpg"));
+
+      details.setTitle("Page " + page);
+      details.setContentHash(contentHash(page));
+      details.setLinks(links);
+      details.setMedia(media);
+      return details;
+   }
+
+   /**
+    * Marks pages as changed since the site was last crawled.
+    * @param pages Page numbers.
+    */
+   public void setChangedPages(Integer... pages)
+   {
+      changedPages.addAll(Arrays.asList(pages));
+   }
+
+   /**
+    * Throttles the first requests for pages, as a server that is overloaded does.
+    * @param times Number of requests throttled for each page.
+    * @param pages Page numbers.
+    */
+   public void setThrottledPages(int times, Integer... pages)
+   {
+      for (Integer page : pages)
+         throttledPages.put(page, new AtomicInteger(times));
+   }
+
+   /**
+    * Returns the number of requests for pages, including throttled ones.
+    * @return Number of pages fetched.
+    */
+   public int getFetchCount()
+   {
+      return fetchCount.get();
+   }
+
+   /**
+    * Returns the number of pages parsed.
+    * @return Number of pages parsed.
+    */
+   public int getParseCount()
+   {
+      return parseCount.get();
+   }
+
+   /**
+    * Returns the most pages that were being fetched at the same time.
+    * @return Maximum number of concurrent fetches.
+    */
+   public int getMaxActiveFetches()
+   {
+      return maxActiveFetches.get();
+   }
+
+   /**
+    * Gets the content hash of a page.
+    * @param page Page number.
+    * @return Content hash or null if not a page of the site.
+    */
+   private String contentHash(int page)
+   {
+      if (page < 0 || page >= pageCount)
+         return null;
+      return (changedPages.contains(page) ? "changed-" : "page-") + page;
+   }
+
+   /**
+    * Gets the page number from a URL.
+    * @param url Page URL.
+    * @return Page number or -1 if the URL is not a page of the site.
+    */
+   private static int pageNumber(String url)
+   {
+      if (url.equals(baseUrl) || url.equals(baseUrl + "/"))
+         return 0;
+
+      String prefix = baseUrl + "/page/";
+      if (!url.startsWith(prefix) || !url.endsWith(".html"))
+         return -1;
+
+      try
+      {
+         return Integer.parseInt(url.substring(prefix.length(), url.length() - ".html".length()));
+      }
+      catch (NumberFormatException ex)
+      {
+         return -1;
+      }
+   }
+}
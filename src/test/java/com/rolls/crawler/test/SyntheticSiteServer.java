@@ -0,0 +1,417 @@
+package com.rolls.crawler.test;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.BitSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Local HTTP server that serves a generated site, so whole crawls can be run over
+ * real HTTP without touching real sites.  The site has the same shape as the
+ * synthetic parser's: page N links to its children (N * fanOut + 1 ... N * fanOut + fanOut),
+ * back to the home page, to the fanOut pages before it, and to one external page.
+ * <p>
+ * Everything about a page is worked out from its number, so the same settings
+ * always give the same site.  Pages can be padded to a size, answer after a latency
+ * taken from an exponential distribution, fail with 500 Internal Server Error, or
+ * be linked through a chain of redirects.  The home page never fails or redirects.
+ * The settings must be made before the server is started.
+ */
+public class SyntheticSiteServer implements Closeable
+{
+   private final static String FILLER = "<p>Lorem ipsum dolor sit amet, consectetur adipiscing elit, sed do eiusmod tempor.</p>\n";
+
+   private final int pageCount;
+   private final int fanOut;
+   private int maxDepth = 0;
+   private int pageBytes = 0;
+   private long medianLatencyMicros = 0;
+   private long maxLatencyMicros = 0;
+   private double errorRate = 0;
+   private double redirectRate = 0;
+   private int redirectHops = 1;
+
+   private final AtomicLong requestCount = new AtomicLong();
+   private HttpServer server = null;
+   private ExecutorService executor = null;
+   private String baseUrl = null;
+
+   /**
+    * Constructor.
+    * @param pageCount Number of pages in the site.
+    * @param fanOut Number of child pages each page links to.
+    */
+   public SyntheticSiteServer(int pageCount, int fanOut)
+   {
+      if (pageCount < 1)
+         throw new IllegalArgumentException("Invalid page count.");
+      if (fanOut < 1)
+         throw new IllegalArgumentException("Invalid fan out.");
+
+      this.pageCount = pageCount;
+      this.fanOut = fanOut;
+   }
+
+   /**
+    * Limits the depth of the site.  Pages deeper than the limit are not part of it.
+    * @param maxDepth Links from the home page to the deepest pages.  Value <= 0 means no limit.
+    */
+   public void setMaxDepth(int maxDepth)
+   {
+      this.maxDepth = maxDepth;
+   }
+
+   /**
+    * Pads the pages to a size.
+    * @param pageBytes Smallest size, in bytes, of a page.  Value <= 0 means no padding.
+    */
+   public void setPageBytes(int pageBytes)
+   {
+      this.pageBytes = pageBytes;
+   }
+
+   /**
+    * Delays the answers.  The delay of each page is taken from an exponential
+    * distribution, which gives the long tail of a real server.
+    * @param medianMicros Median delay in microseconds.
+    * @param maxMicros Longest delay in microseconds.
+    */
+   public void setLatency(long medianMicros, long maxMicros)
+   {
+      this.medianLatencyMicros = medianMicros;
+      this.maxLatencyMicros = maxMicros;
+   }
+
+   /**
+    * Fails pages with 500 Internal Server Error.
+    * @param errorRate Share of the pages that fail, from 0 to 1.
+    */
+   public void setErrorRate(double errorRate)
+   {
+      this.errorRate = errorRate;
+   }
+
+   /**
+    * Links pages through chains of redirects.
+    * @param redirectRate Share of the pages linked through redirects, from 0 to 1.
+    * @param hops Number of redirects in each chain.
+    */
+   public void setRedirects(double redirectRate, int hops)
+   {
+      this.redirectRate = redirectRate;
+      this.redirectHops = Math.max(hops, 1);
+   }
+
+   /**
+    * Starts the server on a free port of the loopback address.
+    * @throws IOException If the server can't be started.
+    */
+   public void start() throws IOException
+   {
+      if (server != null)
+         throw new IllegalStateException("The server is already started.");
+
+      // The headers and body are written separately, which Nagle's algorithm holds back for
+      // a delayed ACK unless it is off.  Read once, when the first server is created.
+      System.setProperty("sun.net.httpserver.nodelay", "true");
+
+      // Every request waiting out its latency holds a thread, so the pool grows with the crawl.
+      executor = Executors.newCachedThreadPool((runnable) -> {
+         Thread thread = new Thread(runnable, "SyntheticSite");
+         thread.setDaemon(true);
+         return thread;
+      });
+      server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1024);
+      server.createContext("/", this::handle);
+      server.setExecutor(executor);
+      server.start();
+      baseUrl = "http://" + server.getAddress().getAddress().getHostAddress() + ":" + server.getAddress().getPort();
+   }
+
+   @Override
+   public void close()
+   {
+      if (server != null)
+         server.stop(0);
+      if (executor != null)
+         executor.shutdownNow();
+      server = null;
+      executor = null;
+   }
+
+   /**
+    * Gets the base URL of the site.
+    * @return Base URL, such as http://127.0.0.1:52000.
+    */
+   public String getBaseUrl()
+   {
+      return baseUrl;
+   }
+
+   /**
+    * Gets the URL that links to a page.  Pages linked through redirects have the URL
+    * of the first redirect.
+    * @param page Page number.  Page 0 is the home page.
+    * @return Page URL.
+    */
+   public String pageUrl(int page)
+   {
+      if (page == 0)
+         return baseUrl + "/";
+      return (isRedirected(page) ? baseUrl + "/redirect/" + redirectHops + "/" + page : baseUrl + "/page/" + page + ".html");
+   }
+
+   /**
+    * Gets the number of pages in the site, after the depth limit.
+    * @return Number of pages.
+    */
+   public int getPageCount()
+   {
+      if (maxDepth <= 0)
+         return pageCount;
+
+      long pages = 0;
+      long levelPages = 1;
+      for (int depth = 0; depth <= maxDepth && pages < pageCount; ++depth)
+      {
+         pages += levelPages;
+         levelPages *= fanOut;
+      }
+      return (int)Math.min(pages, pageCount);
+   }
+
+   /**
+    * Gets the number of pages a crawl from the home page reaches.  Failed pages are
+    * reached but their links are not.
+    * @return Number of pages.
+    */
+   public int getReachablePages()
+   {
+      int count = getPageCount();
+      BitSet reached = new BitSet(count);
+      int[] queue = new int[count];
+      int head = 0;
+      int tail = 0;
+      queue[tail++] = 0;
+      reached.set(0);
+      while (head < tail)
+      {
+         int page = queue[head++];
+         if (isError(page))
+            continue;
+
+         for (int i = 1; i <= fanOut; ++i)
+         {
+            long child = (long)page * fanOut + i;
+            if (child < count && !reached.get((int)child))
+            {
+               reached.set((int)child);
+               queue[tail++] = (int)child;
+            }
+         }
+         for (int i = 1; i <= fanOut && i < page; ++i)
+         {
+            if (!reached.get(page - i))
+            {
+               reached.set(page - i);
+               queue[tail++] = page - i;
+            }
+         }
+      }
+      return tail;
+   }
+
+   /**
+    * Returns the number of requests answered, including redirects and failures.
+    * @return Number of requests.
+    */
+   public long getRequestCount()
+   {
+      return requestCount.get();
+   }
+
+   /**
+    * Answers a request.
+    * @param exchange HTTP exchange.
+    * @throws IOException If the answer can't be sent.
+    */
+   private void handle(HttpExchange exchange) throws IOException
+   {
+      requestCount.incrementAndGet();
+      try
+      {
+         String path = exchange.getRequestURI().getPath();
+         int page = -1;
+         int hops = 0;
+         if (path.equals("/"))
+            page = 0;
+         else if (path.startsWith("/page/") && path.endsWith(".html"))
+            page = parseNumber(path.substring("/page/".length(), path.length() - ".html".length()));
+         else if (path.startsWith("/redirect/"))
+         {
+            String[] parts = path.substring("/redirect/".length()).split("/");
+            if (parts.length == 2)
+            {
+               hops = parseNumber(parts[0]);
+               page = parseNumber(parts[1]);
+            }
+         }
+
+         if (page < 0 || page >= getPageCount() || hops < 0)
+         {
+            send(exchange, 404, null);
+            return;
+         }
+
+         long latencyMicros = getLatencyMicros(page);
+         if (latencyMicros > 0)
+            TimeUnit.MICROSECONDS.sleep(latencyMicros);
+
+         if (hops > 0)
+         {
+            exchange.getResponseHeaders().set("Location", (hops > 1 ? "/redirect/" + (hops - 1) + "/" + page : "/page/" + page + ".html"));
+            send(exchange, 302, null);
+         }
+         else if (isError(page))
+            send(exchange, 500, null);
+         else
+            send(exchange, 200, buildPage(page));
+      }
+      catch (InterruptedException ex)
+      {
+         Thread.currentThread().interrupt(); // Preserve interrupted status
+      }
+      finally
+      {
+         exchange.close();
+      }
+   }
+
+   /**
+    * Builds the HTML of a page.
+    * @param page Page number.
+    * @return Page HTML.
+    */
+   private String buildPage(int page)
+   {
+      StringBuilder html = new StringBuilder();
+      html.append("<html><head><title>Page ").append(page).append("</title></head><body>\n");
+      html.append("<a href=\"").append(pageUrl(0)).append("\">Home</a>\n");
+
+      int count = getPageCount();
+      for (int i = 1; i <= fanOut; ++i)
+      {
+         long child = (long)page * fanOut + i;
+         if (child < count)
+            html.append("<a href=\"").append(pageUrl((int)child)).append("\">Page ").append(child).append("</a>\n");
+      }
+      for (int i = 1; i <= fanOut && i < page; ++i)
+         html.append("<a href=\"").append(pageUrl(page - i)).append("\">Page ").append(page - i).append("</a>\n");
+      html.append("<a href=\"http://www.external.org/page/").append(page).append(".html\">External</a>\n");
+
+      while (html.length() < pageBytes)
+         html.append(FILLER);
+      html.append("</body></html>\n");
+      return html.toString();
+   }
+
+   /**
+    * Sends an answer.
+    * @param exchange HTTP exchange.
+    * @param status HTTP status.
+    * @param html Body.  Null if none.
+    * @throws IOException If the answer can't be sent.
+    */
+   private static void send(HttpExchange exchange, int status, String html) throws IOException
+   {
+      if (html == null)
+      {
+         exchange.sendResponseHeaders(status, -1);
+         return;
+      }
+
+      byte[] body = html.getBytes(StandardCharsets.UTF_8);
+      exchange.getResponseHeaders().set("Content-Type", "text/html; charset=UTF-8");
+      exchange.sendResponseHeaders(status, body.length);
+      try (OutputStream out = exchange.getResponseBody())
+      {
+         out.write(body);
+      }
+   }
+
+   /**
+    * Returns if a page fails with 500 Internal Server Error.
+    * @param page Page number.
+    * @return True if the page fails.
+    */
+   private boolean isError(int page)
+   {
+      return (page != 0 && random(page, 1) < errorRate);
+   }
+
+   /**
+    * Returns if a page is linked through redirects.
+    * @param page Page number.
+    * @return True if the page is redirected.
+    */
+   private boolean isRedirected(int page)
+   {
+      return (page != 0 && random(page, 2) < redirectRate);
+   }
+
+   /**
+    * Gets the latency of a page, from an exponential distribution with the median latency.
+    * @param page Page number.
+    * @return Latency in microseconds.
+    */
+   private long getLatencyMicros(int page)
+   {
+      if (medianLatencyMicros <= 0)
+         return 0;
+
+      double latency = -Math.log(1 - random(page, 3)) * medianLatencyMicros / Math.log(2);
+      return Math.min((long)latency, Math.max(maxLatencyMicros, medianLatencyMicros));
+   }
+
+   /**
+    * Gets a random number that is always the same for a page and purpose.
+    * @param page Page number.
+    * @param purpose Number of what the random number is for.
+    * @return Random number from 0 to less than 1.
+    */
+   private static double random(int page, int purpose)
+   {
+      // SplitMix64 finalizer.
+      long z = page * 0x9E3779B97F4A7C15L + purpose;
+      z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+      z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+      z = z ^ (z >>> 31);
+      return (z >>> 11) * 0x1.0p-53;
+   }
+
+   /**
+    * Parses a number from a path.
+    * @param text Text of the number.
+    * @return Number or -1 if not a number.
+    */
+   private static int parseNumber(String text)
+   {
+      try
+      {
+         return Integer.parseInt(text);
+      }
+      catch (NumberFormatException ex)
+      {
+         return -1;
+      }
+   }
+}